@@ -0,0 +1,78 @@
+package fr.depix.bulb_manager.benchmark;
+
+import fr.depix.bulb_manager.bulb.domain.BulbDomain;
+import fr.depix.bulb_manager.bulb.domain.BulbValidationError;
+import fr.depix.bulb_manager.bulb.domain.aggregate.BulbAggregate;
+import fr.depix.bulb_manager.bulb.domain.aggregate.Count;
+import fr.depix.bulb_manager.bulb.domain.aggregate.OffBulb;
+import fr.depix.bulb_manager.bulb.domain.aggregate.OnBulb;
+import fr.depix.bulb_manager.bulb.domain.aggregate.id.BulbId;
+import fr.depix.bulb_manager.bulb.domain.command.BulbTurnOn;
+import fr.depix.bulb_manager.bulb.domain.event.BulbEvent;
+import fr.depix.bulb_manager.bulb.domain.event.BulbSwitchedOn;
+import fr.depix.bulb_manager.bulb.domain.service.BulbDecider;
+import fr.depix.bulb_manager.bulb.domain.service.BulbEvolver;
+import fr.depix.bulb_manager.bulb.infra.InMemoryRepository;
+import fr.depix.bulb_manager.framework.decision.Decision;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.time.Instant;
+import java.time.ZonedDateTime;
+import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decider and evolver of the bulb domain in isolation, without any repository access.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class BulbDomainBenchmark {
+
+    private static final BulbId BULB_ID = new BulbId(1L);
+    private static final ZonedDateTime DATE = ZonedDateTime.now();
+    private static final Instant EVENT_DATE = DATE.toInstant();
+
+    private final BulbDomain domain = new BulbDomain(new InMemoryRepository());
+    private final BulbDecider decider = domain.decider();
+    private final BulbEvolver evolver = domain.evolve();
+
+    private final Optional<BulbAggregate> offBulb = Optional.of(new OffBulb(BULB_ID, new Count(0), 1L));
+    private final Optional<BulbAggregate> onBulb = Optional.of(new OnBulb(BULB_ID, new Count(1), 1L));
+    private final BulbTurnOn turnOn = new BulbTurnOn(BULB_ID, 1L, DATE);
+    private final BulbTurnOn staleTurnOn = new BulbTurnOn(BULB_ID, 0L, DATE);
+    private final List<BulbEvent> switchedOn = List.of(new BulbSwitchedOn(BULB_ID, UUID.randomUUID(), 1L, EVENT_DATE));
+
+    @Benchmark
+    public Decision<BulbEvent, BulbValidationError, BulbId> decideSwitchOn() {
+        return decider.apply(turnOn, offBulb);
+    }
+
+    @Benchmark
+    public Decision<BulbEvent, BulbValidationError, BulbId> decideNoOp() {
+        return decider.apply(turnOn, onBulb);
+    }
+
+    @Benchmark
+    public Decision<BulbEvent, BulbValidationError, BulbId> decideStaleVersion() {
+        return decider.apply(staleTurnOn, offBulb);
+    }
+
+    @Benchmark
+    public BulbAggregate evolveSwitchOn() {
+        return evolver.apply(offBulb, switchedOn);
+    }
+}
@@ -0,0 +1,118 @@
+package fr.depix.bulb_manager.benchmark;
+
+import fr.depix.bulb_manager.bulb.domain.BulbDomain;
+import fr.depix.bulb_manager.bulb.domain.BulbIsTerminal;
+import fr.depix.bulb_manager.bulb.domain.BulbValidationError;
+import fr.depix.bulb_manager.bulb.domain.aggregate.BulbAggregate;
+import fr.depix.bulb_manager.bulb.domain.aggregate.InitialBulb;
+import fr.depix.bulb_manager.bulb.domain.aggregate.id.BulbId;
+import fr.depix.bulb_manager.bulb.domain.command.BulbCommand;
+import fr.depix.bulb_manager.bulb.domain.command.BulbTurnOff;
+import fr.depix.bulb_manager.bulb.domain.command.BulbTurnOn;
+import fr.depix.bulb_manager.bulb.domain.command.CreateBulB;
+import fr.depix.bulb_manager.bulb.domain.event.BulbEvent;
+import fr.depix.bulb_manager.bulb.domain.service.BulbDecider;
+import fr.depix.bulb_manager.bulb.domain.service.BulbEvolver;
+import fr.depix.bulb_manager.bulb.domain.spi.BulbRepository;
+import fr.depix.bulb_manager.bulb.infra.InMemoryRepository;
+import fr.depix.bulb_manager.framework.result.Result;
+import fr.depix.bulb_manager.framework.service.CommandHandler;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.time.ZonedDateTime;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link CommandHandler#handle} end to end on the in-memory repository, either on one hot bulb shared by every
+ * thread or spread over a fleet of cold bulbs. Each invocation reads the bulb to pick the switch that changes it.
+ * A bulb switched off at the activation limit is replaced by a new one first, so no bulb ever goes out and every
+ * invocation decides and saves a switch: failures under contention only come from concurrent writers.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CommandHandlerBenchmark {
+
+    private static final ZonedDateTime DATE = ZonedDateTime.now();
+    private static final BulbId HOT_BULB = new BulbId(0L);
+
+    @State(Scope.Benchmark)
+    public static class Fleet {
+
+        @Param({"100000"})
+        int bulbs;
+
+        InMemoryRepository repository;
+        CommandHandler<BulbAggregate, BulbId, BulbCommand, BulbRepository, BulbEvent, BulbIsTerminal, BulbDecider, BulbEvolver, BulbValidationError> commandHandler;
+
+        @Setup(Level.Trial)
+        public void setUp() {
+            repository = new InMemoryRepository();
+            commandHandler = new CommandHandler<>(new BulbDomain(repository));
+            for (long id = 0; id < bulbs; id++)
+                commandHandler.handle(new CreateBulB(new BulbId(id), DATE));
+        }
+
+        Result<BulbEvent, BulbValidationError> switchBulb(BulbId id) {
+            BulbAggregate bulb = repository.findAggregateById(id).orElseThrow();
+            if (!bulb.isTurnOn() && bulb.nbActivation() >= BulbDomain.LIMIT) {
+                // its next switch on would make it go out for good: replace it behind the handler's back
+                bulb = new InitialBulb(id);
+                repository.save(bulb);
+            }
+            final BulbCommand command = bulb.isTurnOn()
+                    ? new BulbTurnOff(id, bulb.aggregateVersion(), DATE)
+                    : new BulbTurnOn(id, bulb.aggregateVersion(), DATE);
+            return commandHandler.handle(command);
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Cursor {
+
+        private final SplittableRandom random = new SplittableRandom();
+
+        BulbId next(Fleet fleet) {
+            return new BulbId(random.nextLong(fleet.bulbs));
+        }
+    }
+
+    @Benchmark
+    @Threads(1)
+    public Result<BulbEvent, BulbValidationError> hotBulb(Fleet fleet) {
+        return fleet.switchBulb(HOT_BULB);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public Result<BulbEvent, BulbValidationError> hotBulbContended(Fleet fleet) {
+        return fleet.switchBulb(HOT_BULB);
+    }
+
+    @Benchmark
+    @Threads(1)
+    public Result<BulbEvent, BulbValidationError> coldBulbs(Fleet fleet, Cursor cursor) {
+        return fleet.switchBulb(cursor.next(fleet));
+    }
+
+    @Benchmark
+    @Threads(4)
+    public Result<BulbEvent, BulbValidationError> coldBulbsContended(Fleet fleet, Cursor cursor) {
+        return fleet.switchBulb(cursor.next(fleet));
+    }
+}
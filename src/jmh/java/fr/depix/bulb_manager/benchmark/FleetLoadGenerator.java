@@ -0,0 +1,257 @@
+package fr.depix.bulb_manager.benchmark;
+
+import fr.depix.bulb_manager.bulb.domain.BulbValidationError;
+import fr.depix.bulb_manager.bulb.domain.aggregate.BulbAggregate;
+import fr.depix.bulb_manager.bulb.domain.aggregate.id.BulbId;
+import fr.depix.bulb_manager.bulb.domain.command.BulbCommand;
+import fr.depix.bulb_manager.bulb.domain.command.BulbTurnOff;
+import fr.depix.bulb_manager.bulb.domain.command.BulbTurnOn;
+import fr.depix.bulb_manager.bulb.domain.command.CreateBulB;
+import fr.depix.bulb_manager.bulb.domain.event.BulbEvent;
+import fr.depix.bulb_manager.bulb.domain.service.BulbService;
+import fr.depix.bulb_manager.bulb.domain.spi.BulbRepository;
+import fr.depix.bulb_manager.bulb.infra.InMemoryRepository;
+import fr.depix.bulb_manager.bulb.infra.OffHeapBulbRepository;
+import fr.depix.bulb_manager.framework.metrics.CommandMetrics;
+import fr.depix.bulb_manager.framework.result.Result;
+import fr.depix.bulb_manager.framework.service.ConflictPolicy;
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.HistogramLogWriter;
+import org.HdrHistogram.Recorder;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZonedDateTime;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.stream.LongStream;
+
+/**
+ * Open-loop load test of {@link BulbService#handleCommand} on a fleet of bulbs. Unlike the JMH benchmarks, the
+ * commands are issued at a fixed target rate: command {@code n} is due at {@code start + n / rate} whatever the
+ * latency of the previous ones, and its latency is measured from that due time. A stall therefore shows up in
+ * the latency of every command it delayed instead of silently lowering the rate (coordinated omission).
+ * <p>
+ * Each command targets a random bulb and is drawn from a weighted mix: {@code CreateBulB} (a duplicate once the
+ * bulb exists), {@code BulbTurnOn} and {@code BulbTurnOff} at the current version of the bulb, a share of which
+ * is sent one version behind. Every command goes through {@link BulbService}, which rebases the stale switches onto
+ * the latest bulb: the report tells how many of them still switched the bulb and how many turned out to be no-ops.
+ * {@code --conflict=reject} builds the service with {@link ConflictPolicy#REJECT} to measure rejections instead.
+ * Bulbs burn out after {@link fr.depix.bulb_manager.bulb.domain.BulbDomain#LIMIT} activations, so a long run also
+ * sends commands to burnt-out bulbs.
+ * <p>
+ * The report, written to {@code --output}, holds the achieved throughput, the outcomes, the GC time and the latency
+ * percentiles. The interval histograms of every second are written next to it in HdrHistogram log format.
+ * <pre>
+ * mvn -Pjmh test-compile exec:exec -Djmh.main=fr.depix.bulb_manager.benchmark.FleetLoadGenerator \
+ *     -Djmh.args="--bulbs=10000000 --rate=200000 --duration=PT5M --output=target/load/run.txt"
+ * </pre>
+ */
+public final class FleetLoadGenerator {
+
+    private static final ZonedDateTime DATE = ZonedDateTime.now();
+    private static final long HIGHEST_LATENCY_NANOS = TimeUnit.MINUTES.toNanos(1);
+
+    private final Options options;
+    private final BulbRepository repository;
+    private final BulbService bulbService;
+    private final Recorder recorder = new Recorder(HIGHEST_LATENCY_NANOS, 3);
+    private final LongAdder successes = new LongAdder();
+    private final LongAdder failures = new LongAdder();
+    private final LongAdder staleSwitches = new LongAdder();
+    private final LongAdder staleNoOps = new LongAdder();
+    private final LongAdder staleFailures = new LongAdder();
+    private volatile boolean recording;
+
+    private FleetLoadGenerator(Options options) {
+        this.options = options;
+        this.repository = options.offHeap() ? new OffHeapBulbRepository((int) Math.min(Integer.MAX_VALUE, options.bulbs()))
+                                            : new InMemoryRepository();
+        this.bulbService = new BulbService(repository, CommandMetrics.NOOP, Optional.empty(),
+                                           options.reject() ? ConflictPolicy.REJECT : BulbService.CONFLICT_POLICY);
+    }
+
+    public static void main(String[] args) throws Exception {
+        new FleetLoadGenerator(Options.parse(args)).run();
+    }
+
+    private void run() throws IOException, InterruptedException {
+        System.out.printf("Creating %d bulbs%n", options.bulbs());
+        LongStream.range(0, options.bulbs())
+                  .parallel()
+                  .forEach(id -> bulbService.handleCommand(new CreateBulB(new BulbId(id), DATE)));
+
+        final double nanosPerCommand = 1e9 / options.rate();
+        final long start = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(10);
+        final long warmupEnd = start + options.warmup().toNanos();
+        final long end = warmupEnd + options.duration().toNanos();
+        final Thread[] workers = new Thread[options.threads()];
+        for (int index = 0; index < workers.length; index++) {
+            final int worker = index;
+            workers[index] = Thread.ofPlatform()
+                                   .name("load-" + index)
+                                   .start(() -> drive(worker, start, nanosPerCommand, end));
+        }
+
+        System.out.printf("Warming up for %s%n", options.warmup());
+        LockSupport.parkNanos(warmupEnd - System.nanoTime());
+        // drops the latencies of the warmup
+        Histogram interval = recorder.getIntervalHistogram();
+        successes.reset();
+        failures.reset();
+        staleSwitches.reset();
+        staleNoOps.reset();
+        staleFailures.reset();
+        recording = true;
+        final long gcBefore = gcMillis();
+        final Instant measureStart = Instant.now();
+
+        System.out.printf("Measuring for %s at %d commands/s%n", options.duration(), options.rate());
+        final Histogram total = new Histogram(HIGHEST_LATENCY_NANOS, 3);
+        final Path intervalLog = options.output().resolveSibling(options.output().getFileName() + ".hlog");
+        Files.createDirectories(options.output().toAbsolutePath().getParent());
+        try (PrintStream log = new PrintStream(Files.newOutputStream(intervalLog))) {
+            final HistogramLogWriter writer = new HistogramLogWriter(log);
+            writer.outputLogFormatVersion();
+            writer.outputStartTime(measureStart.toEpochMilli());
+            writer.outputLegend();
+            for (long tick = warmupEnd + TimeUnit.SECONDS.toNanos(1); tick <= end; tick += TimeUnit.SECONDS.toNanos(1)) {
+                LockSupport.parkNanos(tick - System.nanoTime());
+                interval = recorder.getIntervalHistogram(interval);
+                total.add(interval);
+                writer.outputIntervalHistogram(interval);
+            }
+            for (Thread worker : workers)
+                worker.join();
+            interval = recorder.getIntervalHistogram(interval);
+            total.add(interval);
+            writer.outputIntervalHistogram(interval);
+        }
+        final long gcMillis = gcMillis() - gcBefore;
+
+        try (PrintStream report = new PrintStream(Files.newOutputStream(options.output()))) {
+            report.printf("date=%s%n", measureStart);
+            report.printf("options=%s%n", options);
+            report.printf("commands=%d%n", total.getTotalCount());
+            report.printf("throughput=%.0f/s%n", total.getTotalCount() / (options.duration().toNanos() / 1e9));
+            report.printf("successes=%d%n", successes.sum());
+            report.printf("failures=%d%n", failures.sum());
+            report.printf("staleSwitches=%d%n", staleSwitches.sum());
+            report.printf("staleNoOps=%d%n", staleNoOps.sum());
+            report.printf("staleFailures=%d%n", staleFailures.sum());
+            report.printf("gcTime=%dms%n", gcMillis);
+            for (double percentile : new double[]{50, 90, 99, 99.9, 99.99, 100})
+                report.printf("p%s=%.1fus%n", percentile, total.getValueAtPercentile(percentile) / 1e3);
+            report.println();
+            total.outputPercentileDistribution(report, 1e3);
+        }
+        System.out.printf("Report written to %s%n", options.output());
+    }
+
+    /**
+     * Issues the commands {@code worker, worker + threads, worker + 2 * threads...} of the schedule.
+     */
+    private void drive(int worker, long start, double nanosPerCommand, long end) {
+        final SplittableRandom random = new SplittableRandom();
+        for (long command = worker, due = start + (long) (worker * nanosPerCommand); due < end; command += options.threads(), due = start + (long) (command * nanosPerCommand)) {
+            final long wait = due - System.nanoTime();
+            if (wait > 0)
+                LockSupport.parkNanos(wait);
+            final Draw draw = nextCommand(random);
+            final Result<BulbEvent, BulbValidationError> result = bulbService.handleCommand(draw.command());
+            // measured from the due time, so the time spent waiting behind a slow command counts
+            final long latency = System.nanoTime() - due;
+            recorder.recordValue(Math.min(latency, HIGHEST_LATENCY_NANOS));
+            if (recording) {
+                (result instanceof Result.Success ? successes : failures).increment();
+                if (draw.stale())
+                    switch (result) {
+                        // rebased onto the latest bulb, a switch it was already in is a no-op
+                        case Result.Success<BulbEvent, BulbValidationError> success -> (success.value().isEmpty() ? staleNoOps : staleSwitches).increment();
+                        case Result.Failure<BulbEvent, BulbValidationError> ignored -> staleFailures.increment();
+                    }
+            }
+        }
+    }
+
+    private Draw nextCommand(SplittableRandom random) {
+        final BulbId id = new BulbId(random.nextLong(options.bulbs()));
+        final int draw = random.nextInt(options.createWeight() + options.turnOnWeight() + options.turnOffWeight());
+        if (draw < options.createWeight())
+            return new Draw(new CreateBulB(id, DATE), false);
+        final long version = repository.findAggregateById(id)
+                                       .map(BulbAggregate::aggregateVersion)
+                                       .orElse(0L);
+        final long sent = random.nextDouble() < options.staleRatio() ? Math.max(0L, version - 1) : version;
+        final BulbCommand command = draw < options.createWeight() + options.turnOnWeight() ? new BulbTurnOn(id, sent, DATE) : new BulbTurnOff(id, sent, DATE);
+        return new Draw(command, sent != version);
+    }
+
+    private static long gcMillis() {
+        long millis = 0L;
+        for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans())
+            millis += Math.max(0L, collector.getCollectionTime());
+        return millis;
+    }
+
+    private record Draw(
+            BulbCommand command,
+            boolean stale
+    ) {
+
+    }
+
+    private record Options(
+            long bulbs,
+            long rate,
+            int threads,
+            Duration warmup,
+            Duration duration,
+            int createWeight,
+            int turnOnWeight,
+            int turnOffWeight,
+            double staleRatio,
+            boolean offHeap,
+            boolean reject,
+            Path output
+    ) {
+
+        private static Options parse(String[] args) {
+            final Map<String, String> values = new HashMap<>();
+            for (String arg : args) {
+                if (!arg.startsWith("--") || arg.indexOf('=') < 0)
+                    throw new IllegalArgumentException("Expected --name=value, got " + arg);
+                values.put(arg.substring(2, arg.indexOf('=')), arg.substring(arg.indexOf('=') + 1));
+            }
+            final Options options = new Options(
+                    Long.parseLong(values.getOrDefault("bulbs", "1000000")),
+                    Long.parseLong(values.getOrDefault("rate", "100000")),
+                    Integer.parseInt(values.getOrDefault("threads", String.valueOf(Runtime.getRuntime().availableProcessors()))),
+                    Duration.parse(values.getOrDefault("warmup", "PT30S")),
+                    Duration.parse(values.getOrDefault("duration", "PT1M")),
+                    Integer.parseInt(values.getOrDefault("create", "1")),
+                    Integer.parseInt(values.getOrDefault("turnOn", "5")),
+                    Integer.parseInt(values.getOrDefault("turnOff", "5")),
+                    Double.parseDouble(values.getOrDefault("stale", "0.05")),
+                    "offheap".equals(values.getOrDefault("repository", "memory")),
+                    "reject".equals(values.getOrDefault("conflict", "rebase")),
+                    Path.of(values.getOrDefault("output", "target/load/report.txt")));
+            if (options.bulbs() < 1 || options.rate() < 1 || options.threads() < 1)
+                throw new IllegalArgumentException("Bulbs, rate and threads must be positive");
+            if (options.createWeight() + options.turnOnWeight() + options.turnOffWeight() < 1)
+                throw new IllegalArgumentException("The command mix is empty");
+            return options;
+        }
+    }
+}
@@ -0,0 +1,225 @@
+package fr.depix.bulb_manager.benchmark;
+
+import fr.depix.bulb_manager.bulb.domain.BulbDomain;
+import fr.depix.bulb_manager.bulb.domain.aggregate.BulbAggregate;
+import fr.depix.bulb_manager.bulb.domain.aggregate.Count;
+import fr.depix.bulb_manager.bulb.domain.aggregate.OffBulb;
+import fr.depix.bulb_manager.bulb.domain.aggregate.id.BulbId;
+import fr.depix.bulb_manager.bulb.domain.codec.BulbAggregateCodec;
+import fr.depix.bulb_manager.bulb.domain.codec.BulbEventCodec;
+import fr.depix.bulb_manager.bulb.domain.event.BulbCreated;
+import fr.depix.bulb_manager.bulb.domain.event.BulbEvent;
+import fr.depix.bulb_manager.bulb.domain.event.BulbSwitchedOff;
+import fr.depix.bulb_manager.bulb.domain.event.BulbSwitchedOn;
+import fr.depix.bulb_manager.bulb.domain.spi.BulbRepository;
+import fr.depix.bulb_manager.bulb.infra.InMemoryRepository;
+import fr.depix.bulb_manager.bulb.infra.OffHeapBulbRepository;
+import fr.depix.bulb_manager.framework.store.EventSourcedRepository;
+import fr.depix.bulb_manager.framework.store.FileSnapshotStore;
+import fr.depix.bulb_manager.framework.store.Rehydrator;
+import fr.depix.bulb_manager.framework.store.SegmentedFileEventStore;
+import fr.depix.bulb_manager.framework.store.SnapshotPolicy;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Optional;
+import java.util.SplittableRandom;
+import java.util.UUID;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.LongStream;
+import java.util.stream.Stream;
+
+/**
+ * Repository implementations: lookups and compare-and-set saves on the heap and off-heap repositories, rehydration of
+ * a long stream from the segmented event store with and without snapshots, and parallel rehydration of a whole fleet
+ * from it.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RepositoryBenchmark {
+
+    private static final Instant DATE = Instant.now();
+    private static final BulbId HOT_BULB = new BulbId(0L);
+
+    @State(Scope.Benchmark)
+    public static class InMemory {
+
+        @Param({"100000"})
+        int bulbs;
+
+        @Param({"heap", "offHeap"})
+        String storage;
+
+        BulbRepository repository;
+
+        @Setup(Level.Trial)
+        public void setUp() {
+            repository = "offHeap".equals(storage) ? new OffHeapBulbRepository(bulbs) : new InMemoryRepository();
+            for (long id = 0; id < bulbs; id++)
+                repository.save(new OffBulb(new BulbId(id), new Count(0), 0L));
+        }
+
+        boolean bumpVersion(BulbId id) {
+            final Optional<BulbAggregate> current = repository.findAggregateById(id);
+            return repository.compareAndSave(current, new OffBulb(current.orElseThrow()));
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Cursor {
+
+        private final SplittableRandom random = new SplittableRandom();
+
+        BulbId next(InMemory inMemory) {
+            return new BulbId(random.nextLong(inMemory.bulbs));
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class EventSourced {
+
+        @Param({"1000"})
+        int streamLength;
+
+        Path directory;
+        SegmentedFileEventStore<BulbId, BulbEvent> eventStore;
+        FileSnapshotStore<BulbAggregate, BulbId> snapshotStore;
+        EventSourcedRepository<BulbAggregate, BulbId, BulbEvent> fullReplay;
+        EventSourcedRepository<BulbAggregate, BulbId, BulbEvent> snapshotted;
+
+        @Setup(Level.Trial)
+        public void setUp() throws IOException {
+            directory = Files.createTempDirectory("repository-benchmark");
+            eventStore = new SegmentedFileEventStore<>(directory.resolve("events"), new BulbEventCodec());
+            snapshotStore = new FileSnapshotStore<>(directory.resolve("snapshots"), new BulbAggregateCodec());
+
+            eventStore.append(HOT_BULB, Optional.empty(), 0L, List.of(new BulbCreated(HOT_BULB, UUID.randomUUID(), 0L, DATE)));
+            for (long version = 0; version < streamLength; version++) {
+                final BulbEvent event = version % 2 == 0
+                        ? new BulbSwitchedOn(HOT_BULB, UUID.randomUUID(), version, DATE)
+                        : new BulbSwitchedOff(HOT_BULB, UUID.randomUUID(), version, DATE);
+                eventStore.append(HOT_BULB, Optional.of(version), version + 1, List.of(event));
+            }
+
+            final BulbDomain domain = new BulbDomain(new InMemoryRepository());
+            fullReplay = new EventSourcedRepository<>(eventStore, domain.evolve());
+            snapshotted = new EventSourcedRepository<>(eventStore, domain.evolve(), snapshotStore, SnapshotPolicy.everyEvents(100));
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() throws IOException {
+            eventStore.close();
+            snapshotStore.close();
+            try (Stream<Path> files = Files.walk(directory)) {
+                files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+            }
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class Fleet {
+
+        @Param({"20000"})
+        int bulbs;
+
+        @Param({"1", "4"})
+        int parallelism;
+
+        Path directory;
+        SegmentedFileEventStore<BulbId, BulbEvent> eventStore;
+        ForkJoinPool pool;
+        BulbDomain domain;
+
+        @Setup(Level.Trial)
+        public void setUp() throws IOException {
+            directory = Files.createTempDirectory("rehydration-benchmark");
+            eventStore = new SegmentedFileEventStore<>(directory, new BulbEventCodec());
+            pool = new ForkJoinPool(parallelism);
+            domain = new BulbDomain(new InMemoryRepository());
+            // appended concurrently so that the appends share their fsyncs
+            LongStream.range(0, bulbs).parallel().forEach(id -> {
+                final BulbId bulbId = new BulbId(id);
+                eventStore.append(bulbId, Optional.empty(), 0L, List.of(new BulbCreated(bulbId, UUID.randomUUID(), 0L, DATE)));
+                eventStore.append(bulbId, Optional.of(0L), 1L, List.of(new BulbSwitchedOn(bulbId, UUID.randomUUID(), 0L, DATE),
+                                                                         new BulbSwitchedOff(bulbId, UUID.randomUUID(), 1L, DATE)));
+            });
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() throws IOException {
+            pool.close();
+            eventStore.close();
+            try (Stream<Path> files = Files.walk(directory)) {
+                files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+            }
+        }
+    }
+
+    @Benchmark
+    @Threads(1)
+    public Optional<BulbAggregate> inMemoryFindCold(InMemory inMemory, Cursor cursor) {
+        return inMemory.repository.findAggregateById(cursor.next(inMemory));
+    }
+
+    @Benchmark
+    @Threads(1)
+    public boolean inMemoryCompareAndSaveHot(InMemory inMemory) {
+        return inMemory.bumpVersion(HOT_BULB);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public boolean inMemoryCompareAndSaveHotContended(InMemory inMemory) {
+        return inMemory.bumpVersion(HOT_BULB);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public boolean inMemoryCompareAndSaveColdContended(InMemory inMemory, Cursor cursor) {
+        return inMemory.bumpVersion(cursor.next(inMemory));
+    }
+
+    @Benchmark
+    @Threads(1)
+    public Optional<BulbAggregate> eventSourcedFullReplay(EventSourced eventSourced) {
+        return eventSourced.fullReplay.findAggregateById(HOT_BULB);
+    }
+
+    @Benchmark
+    @Threads(1)
+    public Optional<BulbAggregate> eventSourcedFromSnapshot(EventSourced eventSourced) {
+        return eventSourced.snapshotted.findAggregateById(HOT_BULB);
+    }
+
+    @Benchmark
+    @Threads(1)
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public Rehydrator.Progress rehydrateFleet(Fleet fleet) {
+        return new Rehydrator<>(fleet.eventStore, fleet.domain.evolve(), new InMemoryRepository())
+                .rehydrate(fleet.pool, ignored -> {
+                });
+    }
+}
@@ -6,6 +6,7 @@ import fr.depix.bulb_manager.bulb.domain.aggregate.OffBulb;
 import fr.depix.bulb_manager.bulb.domain.aggregate.OnBulb;
 import fr.depix.bulb_manager.bulb.domain.aggregate.WentOutBulb;
 import fr.depix.bulb_manager.bulb.domain.aggregate.id.BulbId;
+import fr.depix.bulb_manager.bulb.domain.codec.BulbAggregateCodec;
 import fr.depix.bulb_manager.bulb.domain.command.BulbCommand;
 import fr.depix.bulb_manager.bulb.domain.command.BulbTurnOff;
 import fr.depix.bulb_manager.bulb.domain.command.BulbTurnOn;
@@ -19,67 +20,122 @@ import fr.depix.bulb_manager.bulb.domain.service.BulbDecider;
 import fr.depix.bulb_manager.bulb.domain.service.BulbEvolver;
 import fr.depix.bulb_manager.bulb.domain.spi.BulbRepository;
 import fr.depix.bulb_manager.framework.annotation.Domain;
+import fr.depix.bulb_manager.framework.annotation.EventIdGenerator;
+import fr.depix.bulb_manager.framework.annotation.EventStore;
+import fr.depix.bulb_manager.framework.archive.TerminalIds;
+import fr.depix.bulb_manager.framework.codec.Codec;
+import fr.depix.bulb_manager.framework.decision.Decision;
 import fr.depix.bulb_manager.framework.decision.ErrorList;
 import fr.depix.bulb_manager.framework.decision.EventList;
+import fr.depix.bulb_manager.framework.decision.TransitionTable;
+import org.jspecify.annotations.Nullable;
 
-import java.time.ZonedDateTime;
+import java.time.Clock;
 import java.util.List;
-import java.util.UUID;
+import java.util.Optional;
 import java.util.function.Supplier;
 
 public record BulbDomain(
-        BulbRepository bulbRepository
+        BulbRepository bulbRepository,
+        @Nullable EventStore<BulbId, BulbEvent> bulbEventStore,
+        Clock clock,
+        EventIdGenerator eventIdGenerator,
+        TerminalIds<BulbId> bulbTerminalIds
 ) implements Domain<BulbAggregate, BulbId, BulbCommand, BulbRepository, BulbEvent, BulbIsTerminal, BulbDecider, BulbEvolver, BulbValidationError> {
 
     public static final int LIMIT = 2;
 
+    private static final Codec<BulbAggregate> SNAPSHOT_CODEC = new BulbAggregateCodec();
+
+    public BulbDomain(BulbRepository bulbRepository) {
+        this(bulbRepository, null);
+    }
+
+    public BulbDomain(BulbRepository bulbRepository, @Nullable EventStore<BulbId, BulbEvent> bulbEventStore) {
+        this(bulbRepository, bulbEventStore, Clock.systemUTC());
+    }
+
+    public BulbDomain(BulbRepository bulbRepository, @Nullable EventStore<BulbId, BulbEvent> bulbEventStore, Clock clock) {
+        this(bulbRepository, bulbEventStore, clock, EventIdGenerator.timeOrdered(clock));
+    }
+
+    public BulbDomain(BulbRepository bulbRepository, @Nullable EventStore<BulbId, BulbEvent> bulbEventStore, Clock clock, EventIdGenerator eventIdGenerator) {
+        this(bulbRepository, bulbEventStore, clock, eventIdGenerator, new TerminalIds<>(BulbId::id));
+    }
+
     @Override
     public Supplier<BulbRepository> repository() {
         return () -> bulbRepository;
     }
 
+    @Override
+    public Optional<EventStore<BulbId, BulbEvent>> eventStore() {
+        return Optional.ofNullable(bulbEventStore);
+    }
+
+    @Override
+    public Optional<Codec<BulbAggregate>> snapshotCodec() {
+        return Optional.of(SNAPSHOT_CODEC);
+    }
+
+    /**
+     * A bulb at its activation limit can still be switched off, only the next switch on makes it go out.
+     */
     @Override
     public BulbIsTerminal isTerminal() {
-        return bulbAggregate -> bulbAggregate.nbActivation() >= LIMIT || bulbAggregate instanceof WentOutBulb;
+        return bulbAggregate -> bulbAggregate instanceof WentOutBulb;
+    }
+
+    @Override
+    public Optional<TerminalIds<BulbId>> terminalIds() {
+        return Optional.of(bulbTerminalIds);
+    }
+
+    @Override
+    public BulbValidationError terminalError(BulbId id) {
+        return new BulbValidationError("Bulb went out");
     }
 
     @Override
     public BulbDecider decider() {
-        return (command, bulbOptional) -> {
-            if (!(command instanceof CreateBulB ignored) && bulbOptional.isEmpty())
-                return new ErrorList<>(List.of(new BulbValidationError("Don't exist")));
+        final TransitionTable<BulbAggregate, BulbCommand, Decision<BulbEvent, BulbValidationError, BulbId>> transitions = TransitionTable
+                .<BulbAggregate, BulbCommand, Decision<BulbEvent, BulbValidationError, BulbId>>builder(BulbAggregate.class, BulbCommand.class)
+                .onAbsent(CreateBulB.class, createBulB -> created(createBulB.aggregateId()))
+                .onAbsent(BulbTurnOn.class, ignored -> missing())
+                .onAbsent(BulbTurnOff.class, ignored -> missing())
+                .on(BulbAggregate.class, CreateBulB.class, (bulb, createBulB) -> created(createBulB.aggregateId()))
+                .on(OnBulb.class, BulbTurnOff.class, (bulb, ignored) -> new EventList<>(List.of(new BulbSwitchedOff(bulb.id(), eventIdGenerator.nextId(), bulb.aggregateVersion(), clock.instant()))))
+                .on(InitialBulb.class, BulbTurnOff.class, (bulb, ignored) -> EventList.empty())
+                .on(OffBulb.class, BulbTurnOff.class, (bulb, ignored) -> EventList.empty())
+                .on(WentOutBulb.class, BulbTurnOff.class, (bulb, ignored) -> EventList.empty())
+                .on(OnBulb.class, BulbTurnOn.class, (bulb, ignored) -> EventList.empty())
+                .on(InitialBulb.class, BulbTurnOn.class, (bulb, ignored) -> switchOn(bulb))
+                .on(OffBulb.class, BulbTurnOn.class, (bulb, ignored) -> switchOn(bulb))
+                .on(WentOutBulb.class, BulbTurnOn.class, (bulb, ignored) -> switchOn(bulb))
+                .build();
 
+        return (command, bulbOptional) -> {
             if (bulbOptional.isPresent() && !command.aggregateVersion().equals(bulbOptional.get().aggregateVersion()))
                 return new ErrorList<>(List.of(new BulbValidationError("Command ran on an old version of the aggregate, please retry with the latest version of the aggregate.")));
 
-            if (command instanceof CreateBulB(BulbId bulbId, ZonedDateTime ignored) && bulbOptional.isEmpty())
-                return new EventList<>(List.of(new BulbCreated(bulbId, UUID.randomUUID(), 0L, ZonedDateTime.now())));
-
-            final BulbAggregate bulb = bulbOptional.get();
-
-            return switch (command) {
-                case CreateBulB createBulB -> new EventList<>(List.of(new BulbCreated(createBulB.aggregateId(), UUID.randomUUID(), 0L, ZonedDateTime.now())));
-                case BulbTurnOff ignored when bulb.isTurnOn() -> new EventList<>(List.of(new BulbSwitchedOff(bulb.id(), UUID.randomUUID(), bulb.aggregateVersion(), ZonedDateTime.now())));
-                case BulbTurnOff ignored -> new EventList<>(List.of());
-                case BulbTurnOn ignored when !bulb.isTurnOn() && bulb.nbActivation() >= LIMIT -> new EventList<>(List.of(new BulbWentOut(bulb.id(), UUID.randomUUID(), bulb.aggregateVersion(), ZonedDateTime.now())));
-                case BulbTurnOn ignored when !bulb.isTurnOn() -> new EventList<>(List.of(new BulbSwitchedOn(bulb.id(), UUID.randomUUID(), bulb.aggregateVersion(), ZonedDateTime.now())));
-                case BulbTurnOn ignored -> new EventList<>(List.of());
-            };
+            return transitions.apply(bulbOptional, command);
         };
     }
 
     @Override
     public BulbEvolver evolve() {
+        final TransitionTable<BulbAggregate, BulbEvent, BulbAggregate> transitions = TransitionTable
+                .<BulbAggregate, BulbEvent, BulbAggregate>builder(BulbAggregate.class, BulbEvent.class)
+                .on(BulbAggregate.class, BulbCreated.class, (bulb, bulbCreated) -> initialState(bulbCreated.aggregateId()).get())
+                .on(BulbAggregate.class, BulbSwitchedOff.class, (bulb, ignored) -> new OffBulb(bulb))
+                .on(BulbAggregate.class, BulbSwitchedOn.class, (bulb, ignored) -> new OnBulb(bulb))
+                .on(BulbAggregate.class, BulbWentOut.class, (bulb, ignored) -> terminalState(bulb).get())
+                .build();
+
         return (bulbOpt, bulbEvents) -> {
             BulbAggregate bulb = bulbOpt.orElse(initialState(new BulbId(0L)).get());
-            for (BulbEvent event : bulbEvents) {
-                bulb = switch (event) {
-                    case BulbCreated bulbCreated -> initialState(bulbCreated.aggregateId()).get();
-                    case BulbSwitchedOff ignored -> new OffBulb(bulb);
-                    case BulbSwitchedOn ignored -> new OnBulb(bulb);
-                    case BulbWentOut ignored -> terminalState(bulb).get();
-                };
-            }
+            for (BulbEvent event : bulbEvents)
+                bulb = transitions.apply(bulb, event);
             return bulb;
         };
     }
@@ -93,4 +149,18 @@ public record BulbDomain(
     public Supplier<BulbAggregate> terminalState(BulbAggregate state) {
         return () -> new WentOutBulb(state);
     }
+
+    private Decision<BulbEvent, BulbValidationError, BulbId> created(BulbId bulbId) {
+        return new EventList<>(List.of(new BulbCreated(bulbId, eventIdGenerator.nextId(), 0L, clock.instant())));
+    }
+
+    private Decision<BulbEvent, BulbValidationError, BulbId> switchOn(BulbAggregate bulb) {
+        if (bulb.nbActivation() >= LIMIT)
+            return new EventList<>(List.of(new BulbWentOut(bulb.id(), eventIdGenerator.nextId(), bulb.aggregateVersion(), clock.instant())));
+        return new EventList<>(List.of(new BulbSwitchedOn(bulb.id(), eventIdGenerator.nextId(), bulb.aggregateVersion(), clock.instant())));
+    }
+
+    private static Decision<BulbEvent, BulbValidationError, BulbId> missing() {
+        return new ErrorList<>(List.of(new BulbValidationError("Don't exist")));
+    }
 }
@@ -8,10 +8,7 @@ public record InitialBulb(
 
     public static final int INITIALE_COUNT = 0;
 
-    @Override
-    public BulbId id() {
-        return new BulbId(1L);
-    }
+    private static final Count COUNT = new Count(INITIALE_COUNT);
 
     @Override
     public boolean isTurnOn() {
@@ -20,7 +17,7 @@ public record InitialBulb(
 
     @Override
     public Count count() {
-        return new Count(INITIALE_COUNT);
+        return COUNT;
     }
 
     @Override
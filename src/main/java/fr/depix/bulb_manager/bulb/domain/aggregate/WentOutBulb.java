@@ -8,6 +8,8 @@ public record WentOutBulb(
         Long aggregateVersion
 ) implements BulbAggregate {
 
+    private static final Count COUNT = new Count(BulbDomain.LIMIT);
+
     public WentOutBulb(BulbAggregate bulbAggregate) {
         this(bulbAggregate.id(), bulbAggregate.aggregateVersion() + 1L);
     }
@@ -19,7 +21,7 @@ public record WentOutBulb(
 
     @Override
     public Count count() {
-        return new Count(BulbDomain.LIMIT);
+        return COUNT;
     }
 
     @Override
@@ -0,0 +1,11 @@
+package fr.depix.bulb_manager.bulb.domain.codec;
+
+import fr.depix.bulb_manager.bulb.domain.aggregate.BulbAggregate;
+import fr.depix.bulb_manager.framework.codec.SealedCodec;
+
+public class BulbAggregateCodec extends SealedCodec<BulbAggregate> {
+
+    public BulbAggregateCodec() {
+        super(BulbAggregate.class);
+    }
+}
@@ -0,0 +1,11 @@
+package fr.depix.bulb_manager.bulb.domain.codec;
+
+import fr.depix.bulb_manager.bulb.domain.command.BulbCommand;
+import fr.depix.bulb_manager.framework.codec.SealedCodec;
+
+public class BulbCommandCodec extends SealedCodec<BulbCommand> {
+
+    public BulbCommandCodec() {
+        super(BulbCommand.class);
+    }
+}
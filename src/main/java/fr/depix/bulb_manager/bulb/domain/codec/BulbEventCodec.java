@@ -0,0 +1,11 @@
+package fr.depix.bulb_manager.bulb.domain.codec;
+
+import fr.depix.bulb_manager.bulb.domain.event.BulbEvent;
+import fr.depix.bulb_manager.framework.codec.SealedCodec;
+
+public class BulbEventCodec extends SealedCodec<BulbEvent> {
+
+    public BulbEventCodec() {
+        super(BulbEvent.class);
+    }
+}
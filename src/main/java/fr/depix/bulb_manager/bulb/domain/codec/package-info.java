@@ -0,0 +1,4 @@
+@NullMarked
+package fr.depix.bulb_manager.bulb.domain.codec;
+
+import org.jspecify.annotations.NullMarked;
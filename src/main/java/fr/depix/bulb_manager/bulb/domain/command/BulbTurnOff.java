@@ -1,13 +1,25 @@
 package fr.depix.bulb_manager.bulb.domain.command;
 
 import fr.depix.bulb_manager.bulb.domain.aggregate.id.BulbId;
+import fr.depix.bulb_manager.framework.annotation.RebasableCommand;
 
 import java.time.ZonedDateTime;
+import java.util.Optional;
+import java.util.UUID;
 
 public record BulbTurnOff(
         BulbId aggregateId,
         Long aggregateVersion,
-        ZonedDateTime commandDate
-) implements BulbCommand {
+        ZonedDateTime commandDate,
+        Optional<UUID> commandId
+) implements BulbCommand, RebasableCommand<BulbId, BulbTurnOff> {
 
+    public BulbTurnOff(BulbId aggregateId, Long aggregateVersion, ZonedDateTime commandDate) {
+        this(aggregateId, aggregateVersion, commandDate, Optional.empty());
+    }
+
+    @Override
+    public BulbTurnOff rebase(Long aggregateVersion) {
+        return new BulbTurnOff(aggregateId, aggregateVersion, commandDate, commandId);
+    }
 }
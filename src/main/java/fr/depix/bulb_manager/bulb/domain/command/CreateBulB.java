@@ -3,10 +3,17 @@ package fr.depix.bulb_manager.bulb.domain.command;
 import fr.depix.bulb_manager.bulb.domain.aggregate.id.BulbId;
 
 import java.time.ZonedDateTime;
+import java.util.Optional;
+import java.util.UUID;
 
 public record CreateBulB(
         BulbId aggregateId,
-        ZonedDateTime commandDate) implements BulbCommand {
+        ZonedDateTime commandDate,
+        Optional<UUID> commandId) implements BulbCommand {
+
+    public CreateBulB(BulbId aggregateId, ZonedDateTime commandDate) {
+        this(aggregateId, commandDate, Optional.empty());
+    }
 
     @Override
     public Long aggregateVersion() {
@@ -2,14 +2,14 @@ package fr.depix.bulb_manager.bulb.domain.event;
 
 import fr.depix.bulb_manager.bulb.domain.aggregate.id.BulbId;
 
-import java.time.ZonedDateTime;
+import java.time.Instant;
 import java.util.UUID;
 
 public record BulbCreated(
         BulbId aggregateId,
         UUID eventId,
         Long aggregateVersion,
-        ZonedDateTime eventDate
+        Instant eventDate
 ) implements BulbEvent {
 
     @Override
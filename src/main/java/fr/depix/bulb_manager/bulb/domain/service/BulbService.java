@@ -8,25 +8,82 @@ import fr.depix.bulb_manager.bulb.domain.aggregate.id.BulbId;
 import fr.depix.bulb_manager.bulb.domain.command.BulbCommand;
 import fr.depix.bulb_manager.bulb.domain.event.BulbEvent;
 import fr.depix.bulb_manager.bulb.domain.spi.BulbRepository;
+import fr.depix.bulb_manager.framework.annotation.EventStore;
 import fr.depix.bulb_manager.framework.exception.AggregateNotFoundRuntimeException;
+import fr.depix.bulb_manager.framework.metrics.CommandMetrics;
+import fr.depix.bulb_manager.framework.projection.Projection;
 import fr.depix.bulb_manager.framework.result.Result;
 import fr.depix.bulb_manager.framework.service.CommandHandler;
+import fr.depix.bulb_manager.framework.service.ConflictPolicy;
+import fr.depix.bulb_manager.framework.service.IdempotencyCache;
+import fr.depix.bulb_manager.framework.service.MailboxCommandHandler;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 
+import java.time.Duration;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+
 @Service
 public class BulbService {
 
-    private final BulbRepository bulbRepository;
+    private static final Duration READ_TIMEOUT = Duration.ofSeconds(1);
+
+    // switching on or off is idempotent, a stale switch is decided again against the latest bulb
+    public static final ConflictPolicy CONFLICT_POLICY = ConflictPolicy.rebase(3, Duration.ofMillis(1), Duration.ofMillis(20));
+
+    // long enough to cover the retries of a client that timed out, about 65k remembered commands
+    private static final long IDEMPOTENCY_BUDGET_BYTES = 16L << 20;
+    private static final Duration IDEMPOTENCY_RETENTION = Duration.ofMinutes(5);
+
+    private final BulbDomain bulbDomain;
+
+    private final Projection<BulbId, BulbEvent, BulbAggregate> bulbProjection;
 
     private final CommandHandler<BulbAggregate, BulbId, BulbCommand, BulbRepository, BulbEvent, BulbIsTerminal, BulbDecider, BulbEvolver, BulbValidationError> commandHandler;
 
+    private final MailboxCommandHandler<BulbId, BulbCommand, BulbEvent, BulbValidationError> mailboxCommandHandler;
+
     public BulbService(BulbRepository bulbRepository) {
-        this.bulbRepository = bulbRepository;
-        this.commandHandler = new CommandHandler<>(new BulbDomain(bulbRepository));
+        this(bulbRepository, CommandMetrics.NOOP);
+    }
+
+    public BulbService(BulbRepository bulbRepository, CommandMetrics commandMetrics) {
+        this(bulbRepository, commandMetrics, Optional.empty());
+    }
+
+    /**
+     * @param eventStore when present, the events are appended to it before the bulbs are saved, an outbox reads
+     *                   them from there
+     */
+    @Autowired
+    public BulbService(BulbRepository bulbRepository, CommandMetrics commandMetrics, Optional<EventStore<BulbId, BulbEvent>> eventStore) {
+        this(bulbRepository, commandMetrics, eventStore, CONFLICT_POLICY);
+    }
+
+    /**
+     * @param conflictPolicy how stale switches are handled, {@link ConflictPolicy#REJECT} answers them with a
+     *                       version error
+     */
+    public BulbService(BulbRepository bulbRepository, CommandMetrics commandMetrics, Optional<EventStore<BulbId, BulbEvent>> eventStore, ConflictPolicy conflictPolicy) {
+        this.bulbDomain = new BulbDomain(bulbRepository, eventStore.orElse(null));
+        this.bulbProjection = new Projection<>(bulbDomain, BulbId::id);
+        this.commandHandler = new CommandHandler<>(bulbDomain, commandMetrics, bulbProjection, conflictPolicy,
+                                                   new IdempotencyCache<>(IDEMPOTENCY_BUDGET_BYTES, IDEMPOTENCY_RETENTION));
+        this.mailboxCommandHandler = new MailboxCommandHandler<>(commandHandler::handle);
+    }
+
+    /**
+     * The domain the commands are handled with, components that share its terminal ids must be built from it.
+     */
+    public BulbDomain bulbDomain() {
+        return bulbDomain;
     }
 
     public boolean isTurnOn() {
-        return bulbRepository.find()
+        return bulbProjection.latest(READ_TIMEOUT)
                              .orElseThrow(AggregateNotFoundRuntimeException::new)
                              .isTurnOn();
     }
@@ -35,10 +92,38 @@ public class BulbService {
         return commandHandler.handle(command);
     }
 
+    public List<Result<BulbEvent, BulbValidationError>> handleCommands(List<BulbCommand> commands) {
+        return commandHandler.handleAll(commands);
+    }
+
+    public CompletableFuture<Result<BulbEvent, BulbValidationError>> handleCommandAsync(BulbCommand command) {
+        return mailboxCommandHandler.submit(command);
+    }
+
+    /**
+     * Waits for the commands submitted through {@link #handleCommandAsync}, later ones fail.
+     */
+    @PreDestroy
+    public void close() {
+        mailboxCommandHandler.close();
+    }
+
     public Long getAggregateVersion() {
-        return bulbRepository.find()
+        return bulbProjection.latest(READ_TIMEOUT)
                              .orElseThrow(AggregateNotFoundRuntimeException::new)
                              .aggregateVersion();
 
     }
+
+    public Optional<BulbAggregate> findBulb(BulbId id) {
+        return bulbProjection.find(id);
+    }
+
+    /**
+     * Reads the bulb once its projection has caught up with {@code atLeastVersion}, typically the version
+     * the last command of the caller moved it to.
+     */
+    public Optional<BulbAggregate> findBulb(BulbId id, long atLeastVersion) {
+        return bulbProjection.find(id, atLeastVersion, READ_TIMEOUT);
+    }
 }
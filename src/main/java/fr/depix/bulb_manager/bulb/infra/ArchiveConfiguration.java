@@ -0,0 +1,39 @@
+package fr.depix.bulb_manager.bulb.infra;
+
+import fr.depix.bulb_manager.bulb.domain.aggregate.BulbAggregate;
+import fr.depix.bulb_manager.bulb.domain.aggregate.id.BulbId;
+import fr.depix.bulb_manager.bulb.domain.codec.BulbAggregateCodec;
+import fr.depix.bulb_manager.bulb.domain.codec.BulbEventCodec;
+import fr.depix.bulb_manager.bulb.domain.event.BulbEvent;
+import fr.depix.bulb_manager.bulb.domain.service.BulbService;
+import fr.depix.bulb_manager.framework.archive.Archiver;
+import fr.depix.bulb_manager.framework.archive.ColdArchive;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.nio.file.Path;
+import java.time.Duration;
+
+/**
+ * Moves the bulbs that went out to a cold archive in {@code bulb.archive.path} every {@code bulb.archive.interval}.
+ * The archiver shares the terminal ids of the {@link BulbService}, so commands sent to archived bulbs are answered
+ * without loading them. Their history is only archived with the event log of {@link EventStoreConfiguration}.
+ */
+@Configuration(proxyBeanMethods = false)
+@ConditionalOnProperty("bulb.archive.path")
+public class ArchiveConfiguration {
+
+    @Bean(destroyMethod = "close")
+    public ColdArchive<BulbAggregate, BulbId, BulbEvent> bulbArchive(@Value("${bulb.archive.path}") Path file) {
+        return new ColdArchive<>(file, new BulbAggregateCodec(), new BulbEventCodec());
+    }
+
+    @Bean(destroyMethod = "close")
+    public Archiver<BulbAggregate, BulbId, BulbEvent> bulbArchiver(BulbService bulbService,
+                                                                  ColdArchive<BulbAggregate, BulbId, BulbEvent> bulbArchive,
+                                                                  @Value("${bulb.archive.interval:PT1M}") Duration interval) {
+        return new Archiver<>(bulbService.bulbDomain(), bulbArchive, interval);
+    }
+}
@@ -0,0 +1,50 @@
+package fr.depix.bulb_manager.bulb.infra;
+
+import fr.depix.bulb_manager.bulb.domain.BulbDomain;
+import fr.depix.bulb_manager.bulb.domain.aggregate.BulbAggregate;
+import fr.depix.bulb_manager.bulb.domain.aggregate.id.BulbId;
+import fr.depix.bulb_manager.bulb.domain.event.BulbEvent;
+import fr.depix.bulb_manager.bulb.domain.service.BulbService;
+import fr.depix.bulb_manager.bulb.domain.spi.BulbRepository;
+import fr.depix.bulb_manager.framework.annotation.EventStore;
+import fr.depix.bulb_manager.framework.checkpoint.Checkpointer;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.health.contributor.Health;
+import org.springframework.boot.health.contributor.HealthIndicator;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Optional;
+
+/**
+ * Restores the bulbs from the image at {@code bulb.checkpoint.path} on startup, with the tail of the event log when
+ * there is one, and images them every {@code bulb.checkpoint.interval}. The projection of the {@link BulbService}
+ * reloads a restored bulb from the repository on its first command. The {@code bulbCheckpoint} health contributor stays out of service until the tail of the
+ * event log is replayed, it can join the readiness group.
+ */
+@Configuration(proxyBeanMethods = false)
+@ConditionalOnProperty("bulb.checkpoint.path")
+public class CheckpointConfiguration {
+
+    @Bean(destroyMethod = "close")
+    public Checkpointer<BulbAggregate, BulbId, BulbEvent> bulbCheckpointer(BulbRepository bulbRepository,
+                                                                          Optional<EventStore<BulbId, BulbEvent>> bulbEventStore,
+                                                                          @Value("${bulb.checkpoint.path}") Path file,
+                                                                          @Value("${bulb.checkpoint.interval:PT1M}") Duration interval) {
+        return new Checkpointer<>(new BulbDomain(bulbRepository, bulbEventStore.orElse(null)), file, interval);
+    }
+
+    @Bean
+    public HealthIndicator bulbCheckpointHealthIndicator(Checkpointer<BulbAggregate, BulbId, BulbEvent> bulbCheckpointer) {
+        return () -> {
+            if (bulbCheckpointer.isRestored())
+                return Health.up().build();
+            if (bulbCheckpointer.restored().isCompletedExceptionally())
+                return Health.down().withDetail("checkpoint", "restore failed").build();
+            return Health.outOfService().withDetail("checkpoint", "replaying the event log tail").build();
+        };
+    }
+}
@@ -0,0 +1,25 @@
+package fr.depix.bulb_manager.bulb.infra;
+
+import fr.depix.bulb_manager.bulb.domain.aggregate.id.BulbId;
+import fr.depix.bulb_manager.bulb.domain.codec.BulbEventCodec;
+import fr.depix.bulb_manager.bulb.domain.event.BulbEvent;
+import fr.depix.bulb_manager.framework.store.SegmentedFileEventStore;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.nio.file.Path;
+
+/**
+ * Appends the bulb events to a segmented event log in {@code bulb.event-store.path} before the bulbs are saved.
+ */
+@Configuration(proxyBeanMethods = false)
+@ConditionalOnProperty("bulb.event-store.path")
+public class EventStoreConfiguration {
+
+    @Bean(destroyMethod = "close")
+    public SegmentedFileEventStore<BulbId, BulbEvent> bulbEventStore(@Value("${bulb.event-store.path}") Path directory) {
+        return new SegmentedFileEventStore<>(directory, new BulbEventCodec());
+    }
+}
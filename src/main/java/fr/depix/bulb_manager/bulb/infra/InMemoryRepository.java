@@ -3,33 +3,39 @@ package fr.depix.bulb_manager.bulb.infra;
 import fr.depix.bulb_manager.bulb.domain.aggregate.BulbAggregate;
 import fr.depix.bulb_manager.bulb.domain.aggregate.id.BulbId;
 import fr.depix.bulb_manager.bulb.domain.spi.BulbRepository;
+import fr.depix.bulb_manager.framework.repository.ConcurrentInMemoryRepository;
 import org.jspecify.annotations.Nullable;
 import org.springframework.stereotype.Repository;
 
 import java.util.Optional;
 
 @Repository
-public class InMemoryRepository implements BulbRepository {
+public class InMemoryRepository extends ConcurrentInMemoryRepository<BulbAggregate, BulbId> implements BulbRepository {
 
     @Nullable
-    private BulbAggregate bulb;
+    private volatile BulbAggregate lastSaved;
 
     @Override
     public Optional<BulbAggregate> find() {
-        return Optional.ofNullable(bulb);
+        return Optional.ofNullable(lastSaved);
     }
 
     public void reset() {
-        bulb = null;
+        clear();
+        lastSaved = null;
     }
 
     @Override
-    public Optional<BulbAggregate> findAggregateById(BulbId id) {
-        return Optional.ofNullable(bulb);
+    public void save(BulbAggregate newState) {
+        super.save(newState);
+        lastSaved = newState;
     }
 
     @Override
-    public void save(BulbAggregate newState) {
-        this.bulb = newState;
+    public boolean compareAndSave(Optional<BulbAggregate> expected, BulbAggregate newState) {
+        final boolean saved = super.compareAndSave(expected, newState);
+        if (saved)
+            lastSaved = newState;
+        return saved;
     }
 }
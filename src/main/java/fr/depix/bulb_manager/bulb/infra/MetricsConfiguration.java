@@ -0,0 +1,18 @@
+package fr.depix.bulb_manager.bulb.infra;
+
+import fr.depix.bulb_manager.framework.metrics.CommandMetrics;
+import fr.depix.bulb_manager.framework.metrics.MicrometerCommandMetrics;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+@Configuration(proxyBeanMethods = false)
+public class MetricsConfiguration {
+
+    @Bean
+    public CommandMetrics bulbCommandMetrics(ObjectProvider<MeterRegistry> meterRegistry) {
+        final MeterRegistry registry = meterRegistry.getIfAvailable();
+        return registry == null ? CommandMetrics.NOOP : new MicrometerCommandMetrics(registry, "bulb");
+    }
+}
@@ -0,0 +1,296 @@
+package fr.depix.bulb_manager.bulb.infra;
+
+import fr.depix.bulb_manager.bulb.domain.aggregate.BulbAggregate;
+import fr.depix.bulb_manager.bulb.domain.aggregate.Count;
+import fr.depix.bulb_manager.bulb.domain.aggregate.InitialBulb;
+import fr.depix.bulb_manager.bulb.domain.aggregate.OffBulb;
+import fr.depix.bulb_manager.bulb.domain.aggregate.OnBulb;
+import fr.depix.bulb_manager.bulb.domain.aggregate.WentOutBulb;
+import fr.depix.bulb_manager.bulb.domain.aggregate.id.BulbId;
+import fr.depix.bulb_manager.bulb.domain.spi.BulbRepository;
+import org.jspecify.annotations.Nullable;
+
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.util.Optional;
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.Consumer;
+
+import static java.lang.foreign.ValueLayout.JAVA_INT;
+import static java.lang.foreign.ValueLayout.JAVA_LONG;
+
+/**
+ * Bulb repository keeping each bulb in a fixed-width off-heap slot instead of a record graph on the heap.
+ * Slots live in open-addressing tables with linear probing, split in shards that each own a {@link StampedLock}:
+ * lookups are optimistic and only lock when they race with a write of their shard, writes lock their shard.
+ * {@link BulbAggregate} records are only materialized when a bulb is looked up.
+ * <p>
+ * Slot layout: {@code long id, long version, int state, int activations}, state {@code 0} marking a free slot.
+ * Tables are allocated in automatic arenas, so a table replaced by a resize is freed once no reader holds it.
+ */
+public class OffHeapBulbRepository implements BulbRepository {
+
+    private static final long SLOT_SIZE = 2 * Long.BYTES + 2 * Integer.BYTES;
+    private static final long ID = 0L;
+    private static final long VERSION = Long.BYTES;
+    private static final long STATE = 2 * Long.BYTES;
+    private static final long ACTIVATIONS = STATE + Integer.BYTES;
+
+    private static final int FREE = 0;
+    private static final int INITIAL = 1;
+    private static final int OFF = 2;
+    private static final int ON = 3;
+    private static final int WENT_OUT = 4;
+
+    private static final int SHARDS = 64;
+    private static final int DEFAULT_EXPECTED_BULBS = 1 << 16;
+    private static final int MIN_SHARD_CAPACITY = 16;
+
+    private final Shard[] shards = new Shard[SHARDS];
+    @Nullable
+    private volatile BulbId lastSaved;
+
+    public OffHeapBulbRepository() {
+        this(DEFAULT_EXPECTED_BULBS);
+    }
+
+    /**
+     * @param expectedBulbs number of bulbs the tables are sized for, they grow past it
+     */
+    public OffHeapBulbRepository(int expectedBulbs) {
+        final int capacity = Math.max(MIN_SHARD_CAPACITY, Integer.highestOneBit(Math.max(1, expectedBulbs / SHARDS * 4 / 3)) << 1);
+        for (int i = 0; i < SHARDS; i++)
+            shards[i] = new Shard(capacity);
+    }
+
+    @Override
+    public Optional<BulbAggregate> find() {
+        final BulbId id = lastSaved;
+        return id == null ? Optional.empty() : findAggregateById(id);
+    }
+
+    @Override
+    public Optional<BulbAggregate> findAggregateById(BulbId id) {
+        final long key = id.id();
+        final long hash = mix(key);
+        final Shard shard = shard(hash);
+
+        long stamp = shard.lock.tryOptimisticRead();
+        int state;
+        int activations;
+        long version;
+        while (true) {
+            final MemorySegment table = shard.table;
+            final long offset = probe(table, key, hash);
+            state = offset < 0L ? FREE : table.get(JAVA_INT, offset + STATE);
+            activations = offset < 0L ? 0 : table.get(JAVA_INT, offset + ACTIVATIONS);
+            version = offset < 0L ? 0L : table.get(JAVA_LONG, offset + VERSION);
+            if (shard.lock.validate(stamp))
+                break;
+            // a write of the shard raced with the lookup: read again under the read lock
+            stamp = shard.lock.readLock();
+        }
+        if (StampedLock.isReadLockStamp(stamp))
+            shard.lock.unlockRead(stamp);
+
+        return switch (state) {
+            case INITIAL -> Optional.of(new InitialBulb(id));
+            case OFF -> Optional.of(new OffBulb(id, new Count(activations), version));
+            case ON -> Optional.of(new OnBulb(id, new Count(activations), version));
+            case WENT_OUT -> Optional.of(new WentOutBulb(id, version));
+            default -> Optional.empty();
+        };
+    }
+
+    @Override
+    public void save(BulbAggregate newState) {
+        final long hash = mix(newState.id().id());
+        final Shard shard = shard(hash);
+        final long stamp = shard.lock.writeLock();
+        try {
+            final long offset = probe(shard.table, newState.id().id(), hash);
+            write(shard, offset < 0L ? shard.claim(newState.id().id(), hash) : offset, newState);
+        } finally {
+            shard.lock.unlockWrite(stamp);
+        }
+        lastSaved = newState.id();
+    }
+
+    @Override
+    public boolean compareAndSave(Optional<BulbAggregate> expected, BulbAggregate newState) {
+        final long hash = mix(newState.id().id());
+        final Shard shard = shard(hash);
+        final long stamp = shard.lock.writeLock();
+        try {
+            final long offset = probe(shard.table, newState.id().id(), hash);
+            if (expected.isEmpty()) {
+                if (offset >= 0L)
+                    return false;
+                write(shard, shard.claim(newState.id().id(), hash), newState);
+            } else {
+                if (offset < 0L || shard.table.get(JAVA_LONG, offset + VERSION) != expected.get().aggregateVersion())
+                    return false;
+                write(shard, offset, newState);
+            }
+        } finally {
+            shard.lock.unlockWrite(stamp);
+        }
+        lastSaved = newState.id();
+        return true;
+    }
+
+    @Override
+    public boolean compareAndRemove(BulbAggregate expected) {
+        final long hash = mix(expected.id().id());
+        final Shard shard = shard(hash);
+        final long stamp = shard.lock.writeLock();
+        try {
+            final long offset = probe(shard.table, expected.id().id(), hash);
+            if (offset < 0L || shard.table.get(JAVA_LONG, offset + VERSION) != expected.aggregateVersion())
+                return false;
+            shard.free(offset);
+            return true;
+        } finally {
+            shard.lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Copies the table of each shard under its read lock, then materializes its bulbs without holding the lock.
+     */
+    @Override
+    public void forEachAggregate(Consumer<? super BulbAggregate> consumer) {
+        for (Shard shard : shards) {
+            final long stamp = shard.lock.readLock();
+            final MemorySegment table;
+            try {
+                table = Arena.ofAuto().allocate(shard.table.byteSize(), Long.BYTES).copyFrom(shard.table);
+            } finally {
+                shard.lock.unlockRead(stamp);
+            }
+            for (long offset = 0L; offset < table.byteSize(); offset += SLOT_SIZE) {
+                final BulbId id = new BulbId(table.get(JAVA_LONG, offset + ID));
+                final int activations = table.get(JAVA_INT, offset + ACTIVATIONS);
+                final long version = table.get(JAVA_LONG, offset + VERSION);
+                switch (table.get(JAVA_INT, offset + STATE)) {
+                    case INITIAL -> consumer.accept(new InitialBulb(id));
+                    case OFF -> consumer.accept(new OffBulb(id, new Count(activations), version));
+                    case ON -> consumer.accept(new OnBulb(id, new Count(activations), version));
+                    case WENT_OUT -> consumer.accept(new WentOutBulb(id, version));
+                    default -> {
+                        // free slot
+                    }
+                }
+            }
+        }
+    }
+
+    public long size() {
+        long size = 0L;
+        for (Shard shard : shards) {
+            final long stamp = shard.lock.readLock();
+            size += shard.size;
+            shard.lock.unlockRead(stamp);
+        }
+        return size;
+    }
+
+    private Shard shard(long hash) {
+        return shards[(int) (hash >>> 58) & (SHARDS - 1)];
+    }
+
+    private static void write(Shard shard, long offset, BulbAggregate bulb) {
+        shard.table.set(JAVA_LONG, offset + VERSION, bulb.aggregateVersion());
+        shard.table.set(JAVA_INT, offset + ACTIVATIONS, bulb.nbActivation());
+        shard.table.set(JAVA_INT, offset + STATE, switch (bulb) {
+            case InitialBulb ignored -> INITIAL;
+            case OffBulb ignored -> OFF;
+            case OnBulb ignored -> ON;
+            case WentOutBulb ignored -> WENT_OUT;
+        });
+    }
+
+    /**
+     * @return the offset of the slot of {@code id}, or {@code -1 - offset} of the free slot where it belongs
+     */
+    private static long probe(MemorySegment table, long id, long hash) {
+        final long mask = table.byteSize() / SLOT_SIZE - 1L;
+        long slot = hash & mask;
+        for (long probes = 0L; probes <= mask; probes++, slot = slot + 1L & mask) {
+            final long offset = slot * SLOT_SIZE;
+            if (table.get(JAVA_INT, offset + STATE) == FREE)
+                return -1L - offset;
+            if (table.get(JAVA_LONG, offset + ID) == id)
+                return offset;
+        }
+        // only reachable by an optimistic read of a table being rewritten, which fails validation anyway
+        return Long.MIN_VALUE;
+    }
+
+    private static long mix(long key) {
+        long hash = key * 0x9E3779B97F4A7C15L;
+        hash ^= hash >>> 32;
+        hash *= 0xC2B2AE3D27D4EB4FL;
+        return hash ^ hash >>> 29;
+    }
+
+    private static MemorySegment allocate(long capacity) {
+        return Arena.ofAuto().allocate(capacity * SLOT_SIZE, Long.BYTES);
+    }
+
+    private static final class Shard {
+
+        private final StampedLock lock = new StampedLock();
+        private MemorySegment table;
+        private int size;
+
+        private Shard(int capacity) {
+            this.table = allocate(capacity);
+        }
+
+        /**
+         * Reserves a slot for a new {@code id}, growing the table first when it is three quarters full.
+         * Must be called under the write lock.
+         */
+        private long claim(long id, long hash) {
+            final long capacity = table.byteSize() / SLOT_SIZE;
+            if ((size + 1L) * 4L > capacity * 3L)
+                grow(capacity << 1);
+            final long offset = -1L - probe(table, id, hash);
+            table.set(JAVA_LONG, offset + ID, id);
+            size++;
+            return offset;
+        }
+
+        /**
+         * Frees the slot at {@code offset} by shifting back the following slots of its probe run, so that no
+         * lookup stops early on the hole. Must be called under the write lock.
+         */
+        private void free(long offset) {
+            final long mask = table.byteSize() / SLOT_SIZE - 1L;
+            long hole = offset / SLOT_SIZE;
+            for (long slot = hole + 1L & mask; table.get(JAVA_INT, slot * SLOT_SIZE + STATE) != FREE; slot = slot + 1L & mask) {
+                final long home = mix(table.get(JAVA_LONG, slot * SLOT_SIZE + ID)) & mask;
+                // a slot can fill the hole when the hole lies between its home and itself
+                if ((slot - home & mask) >= (slot - hole & mask)) {
+                    MemorySegment.copy(table, slot * SLOT_SIZE, table, hole * SLOT_SIZE, SLOT_SIZE);
+                    hole = slot;
+                }
+            }
+            table.asSlice(hole * SLOT_SIZE, SLOT_SIZE).fill((byte) 0);
+            size--;
+        }
+
+        private void grow(long capacity) {
+            final MemorySegment grown = allocate(capacity);
+            for (long offset = 0L; offset < table.byteSize(); offset += SLOT_SIZE) {
+                if (table.get(JAVA_INT, offset + STATE) == FREE)
+                    continue;
+                final long id = table.get(JAVA_LONG, offset + ID);
+                final long target = -1L - probe(grown, id, mix(id));
+                MemorySegment.copy(table, offset, grown, target, SLOT_SIZE);
+            }
+            table = grown;
+        }
+    }
+}
@@ -0,0 +1,29 @@
+package fr.depix.bulb_manager.bulb.infra;
+
+import fr.depix.bulb_manager.bulb.domain.aggregate.id.BulbId;
+import fr.depix.bulb_manager.bulb.domain.event.BulbEvent;
+import fr.depix.bulb_manager.framework.annotation.EventStore;
+import fr.depix.bulb_manager.framework.outbox.FileOutbox;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.nio.file.Path;
+
+/**
+ * Hands the bulb events of the event log to the application event listeners through an outbox checkpointed in
+ * {@code bulb.outbox.path}. Needs the event log of {@link EventStoreConfiguration}.
+ */
+@Configuration(proxyBeanMethods = false)
+@ConditionalOnProperty("bulb.outbox.path")
+public class OutboxConfiguration {
+
+    @Bean(destroyMethod = "close")
+    public FileOutbox<BulbId, BulbEvent> bulbOutbox(@Value("${bulb.outbox.path}") Path directory,
+                                                    EventStore<BulbId, BulbEvent> bulbEventStore,
+                                                    ApplicationEventPublisher applicationEventPublisher) {
+        return new FileOutbox<>(directory, bulbEventStore, applicationEventPublisher::publishEvent);
+    }
+}
@@ -0,0 +1,199 @@
+package fr.depix.bulb_manager.bulb.infra.http;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import fr.depix.bulb_manager.bulb.domain.service.BulbService;
+import org.jspecify.annotations.Nullable;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.net.InetSocketAddress;
+import java.time.Clock;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Streaming command endpoint: {@code POST /bulbs/commands} takes an NDJSON body of bulb commands and answers with
+ * one NDJSON result line per command, in the order of the commands, while the body is still being read.
+ * <p>
+ * The body is parsed line by line and each command is submitted to the mailbox of its bulb, so commands of
+ * different bulbs run concurrently and those of one bulb in order. At most {@code maxInFlight} commands of a
+ * connection wait for their result: past that, reading stops until the oldest result is written, and TCP flow
+ * control slows the client down. Every exchange runs on its own virtual thread.
+ * <p>
+ * A line longer than {@value #MAX_LINE_LENGTH} characters is answered with a {@code rejected} line and skipped
+ * without being buffered, so a body without line breaks can not exhaust the memory.
+ */
+public class BulbCommandEndpoint implements AutoCloseable {
+
+    public static final String PATH = "/bulbs/commands";
+
+    private static final int DEFAULT_MAX_IN_FLIGHT = 1024;
+    private static final int MAX_LINE_LENGTH = 4 * 1024;
+    private static final String OVERSIZED_LINE = new String("oversized");
+    private static final CompletableFuture<String> END_OF_BODY = new CompletableFuture<>();
+
+    private final BulbService bulbService;
+    private final int maxInFlight;
+    private final Clock clock;
+    private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+    private final HttpServer server;
+
+    public BulbCommandEndpoint(BulbService bulbService, InetSocketAddress address) {
+        this(bulbService, address, DEFAULT_MAX_IN_FLIGHT, Clock.systemUTC());
+    }
+
+    public BulbCommandEndpoint(BulbService bulbService, InetSocketAddress address, int maxInFlight, Clock clock) {
+        if (maxInFlight < 1)
+            throw new IllegalArgumentException("Maximum in-flight commands must be positive");
+        this.bulbService = bulbService;
+        this.maxInFlight = maxInFlight;
+        this.clock = clock;
+        try {
+            this.server = HttpServer.create(address, 0);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        server.setExecutor(executor);
+        server.createContext(PATH, this::handle);
+        server.start();
+    }
+
+    public InetSocketAddress address() {
+        return server.getAddress();
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.close();
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try (exchange) {
+            if (!"POST".equals(exchange.getRequestMethod())) {
+                exchange.sendResponseHeaders(405, -1);
+                return;
+            }
+            exchange.getResponseHeaders().set("Content-Type", "application/x-ndjson");
+            exchange.sendResponseHeaders(200, 0);
+            final BlockingQueue<CompletableFuture<String>> inFlight = new ArrayBlockingQueue<>(maxInFlight);
+            final Future<Void> writer = executor.submit(() -> write(inFlight, new BufferedWriter(new OutputStreamWriter(exchange.getResponseBody(), UTF_8))));
+            try (Reader body = new InputStreamReader(exchange.getRequestBody(), UTF_8)) {
+                final Lines lines = new Lines(body);
+                for (String line = lines.next(); line != null; line = lines.next())
+                    if (line == OVERSIZED_LINE)
+                        inFlight.put(CompletableFuture.completedFuture(NdjsonBulbCommands.rejected("Command longer than " + MAX_LINE_LENGTH + " characters")));
+                    else if (!line.isBlank())
+                        inFlight.put(submit(line));
+            } finally {
+                inFlight.put(END_OF_BODY);
+            }
+            writer.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof IOException cause ? cause : new IOException(e.getCause());
+        }
+    }
+
+    private CompletableFuture<String> submit(String line) {
+        try {
+            return bulbService.handleCommandAsync(NdjsonBulbCommands.parse(line, clock))
+                              .thenApply(NdjsonBulbCommands::format)
+                              .exceptionally(e -> NdjsonBulbCommands.rejected(String.valueOf(e.getMessage())));
+        } catch (IllegalArgumentException e) {
+            return CompletableFuture.completedFuture(NdjsonBulbCommands.rejected(String.valueOf(e.getMessage())));
+        }
+    }
+
+    /**
+     * Writes the results in submission order, flushing whenever no further result is waiting. Once the client is
+     * gone, the remaining results are drained so that the reader is never blocked on a full queue.
+     */
+    private Void write(BlockingQueue<CompletableFuture<String>> inFlight, Writer response) throws IOException, InterruptedException {
+        IOException failure = null;
+        for (CompletableFuture<String> result = inFlight.take(); result != END_OF_BODY; result = inFlight.take()) {
+            final String line = result.join();
+            if (failure != null)
+                continue;
+            try {
+                response.write(line);
+                response.write('\n');
+                if (inFlight.isEmpty())
+                    response.flush();
+            } catch (IOException e) {
+                failure = e;
+            }
+        }
+        if (failure != null)
+            throw failure;
+        response.flush();
+        return null;
+    }
+
+    /**
+     * Splits a body on line feeds, dropping a trailing carriage return. The characters of a line past
+     * {@link #MAX_LINE_LENGTH} are discarded as they are read.
+     */
+    private static final class Lines {
+
+        private final Reader reader;
+        private final char[] buffer = new char[8 * 1024];
+        private final StringBuilder line = new StringBuilder();
+        private int position;
+        private int limit;
+
+        private Lines(Reader reader) {
+            this.reader = reader;
+        }
+
+        /**
+         * @return the next line, {@link #OVERSIZED_LINE} for a line that is too long, or {@code null} at the end
+         * of the body
+         */
+        @Nullable
+        private String next() throws IOException {
+            line.setLength(0);
+            boolean oversized = false;
+            while (true) {
+                if (position == limit) {
+                    position = 0;
+                    limit = Math.max(0, reader.read(buffer));
+                    if (limit == 0)
+                        return oversized || !line.isEmpty() ? line(oversized) : null;
+                }
+                int end = position;
+                while (end < limit && buffer[end] != '\n')
+                    end++;
+                if (!oversized && line.length() + end - position > MAX_LINE_LENGTH + 1)
+                    oversized = true;
+                if (!oversized)
+                    line.append(buffer, position, end - position);
+                position = end < limit ? end + 1 : end;
+                if (end < limit)
+                    return line(oversized);
+            }
+        }
+
+        private String line(boolean oversized) {
+            if (!line.isEmpty() && line.charAt(line.length() - 1) == '\r')
+                line.setLength(line.length() - 1);
+            return oversized || line.length() > MAX_LINE_LENGTH ? OVERSIZED_LINE : line.toString();
+        }
+    }
+}
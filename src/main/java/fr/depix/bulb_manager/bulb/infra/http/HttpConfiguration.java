@@ -0,0 +1,22 @@
+package fr.depix.bulb_manager.bulb.infra.http;
+
+import fr.depix.bulb_manager.bulb.domain.service.BulbService;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.net.InetSocketAddress;
+
+/**
+ * Opens the streaming command endpoint once {@code bulb.http.port} is set.
+ */
+@Configuration(proxyBeanMethods = false)
+@ConditionalOnProperty("bulb.http.port")
+public class HttpConfiguration {
+
+    @Bean(destroyMethod = "close")
+    public BulbCommandEndpoint bulbCommandEndpoint(BulbService bulbService, @Value("${bulb.http.port}") int port) {
+        return new BulbCommandEndpoint(bulbService, new InetSocketAddress(port));
+    }
+}
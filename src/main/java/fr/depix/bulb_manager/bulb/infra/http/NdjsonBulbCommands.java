@@ -0,0 +1,233 @@
+package fr.depix.bulb_manager.bulb.infra.http;
+
+import fr.depix.bulb_manager.bulb.domain.BulbValidationError;
+import fr.depix.bulb_manager.bulb.domain.aggregate.id.BulbId;
+import fr.depix.bulb_manager.bulb.domain.command.BulbCommand;
+import fr.depix.bulb_manager.bulb.domain.command.BulbTurnOff;
+import fr.depix.bulb_manager.bulb.domain.command.BulbTurnOn;
+import fr.depix.bulb_manager.bulb.domain.command.CreateBulB;
+import fr.depix.bulb_manager.bulb.domain.event.BulbEvent;
+import fr.depix.bulb_manager.framework.result.Result;
+import org.jspecify.annotations.Nullable;
+
+import java.time.Clock;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeParseException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+
+/**
+ * Reads a bulb command from one NDJSON line and writes its result as one NDJSON line. A command is a flat object:
+ * {@code {"type":"BulbTurnOn","aggregateId":1,"aggregateVersion":0,"commandDate":"2026-01-01T00:00:00Z","commandId":"…"}},
+ * where {@code commandDate} defaults to now and {@code commandId} is optional.
+ */
+final class NdjsonBulbCommands {
+
+    private NdjsonBulbCommands() {
+    }
+
+    /**
+     * @throws IllegalArgumentException when {@code line} is not a bulb command
+     */
+    static BulbCommand parse(String line, Clock clock) {
+        final Map<String, String> fields = new Parser(line).object();
+        final BulbId aggregateId = new BulbId(longField(fields, "aggregateId"));
+        final ZonedDateTime commandDate = fields.containsKey("commandDate") ? date(fields.get("commandDate")) : ZonedDateTime.now(clock);
+        final Optional<UUID> commandId = Optional.ofNullable(fields.get("commandId")).map(NdjsonBulbCommands::uuid);
+        return switch (required(fields, "type")) {
+            case "CreateBulB" -> new CreateBulB(aggregateId, commandDate, commandId);
+            case "BulbTurnOn" -> new BulbTurnOn(aggregateId, longField(fields, "aggregateVersion"), commandDate, commandId);
+            case "BulbTurnOff" -> new BulbTurnOff(aggregateId, longField(fields, "aggregateVersion"), commandDate, commandId);
+            default -> throw new IllegalArgumentException("Unknown command type " + fields.get("type"));
+        };
+    }
+
+    static String format(Result<BulbEvent, BulbValidationError> result) {
+        final StringBuilder line = new StringBuilder(64);
+        switch (result) {
+            case Result.Success<BulbEvent, BulbValidationError>(List<BulbEvent> events) -> {
+                line.append("{\"status\":\"success\",\"events\":[");
+                for (int index = 0; index < events.size(); index++) {
+                    final BulbEvent event = events.get(index);
+                    line.append(index == 0 ? "{\"type\":" : ",{\"type\":");
+                    string(line, event.eventType());
+                    line.append(",\"aggregateId\":").append(event.aggregateId().id())
+                        .append(",\"aggregateVersion\":").append(event.aggregateVersion())
+                        .append('}');
+                }
+                line.append("]}");
+            }
+            case Result.Failure<BulbEvent, BulbValidationError>(List<BulbValidationError> errors) -> {
+                line.append("{\"status\":\"failure\",\"errors\":[");
+                for (int index = 0; index < errors.size(); index++) {
+                    if (index > 0)
+                        line.append(',');
+                    string(line, errors.get(index).message());
+                }
+                line.append("]}");
+            }
+        }
+        return line.toString();
+    }
+
+    /**
+     * A line that could not be handled at all, either malformed or failed with an exception.
+     */
+    static String rejected(String message) {
+        final StringBuilder line = new StringBuilder("{\"status\":\"rejected\",\"error\":");
+        string(line, message);
+        return line.append('}').toString();
+    }
+
+    private static String required(Map<String, String> fields, String name) {
+        final String value = fields.get(name);
+        if (value == null)
+            throw new IllegalArgumentException("Missing field " + name);
+        return value;
+    }
+
+    private static long longField(Map<String, String> fields, String name) {
+        try {
+            return Long.parseLong(required(fields, name));
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Field " + name + " is not an integer");
+        }
+    }
+
+    private static ZonedDateTime date(String value) {
+        try {
+            return ZonedDateTime.parse(value);
+        } catch (DateTimeParseException e) {
+            throw new IllegalArgumentException("Field commandDate is not a date");
+        }
+    }
+
+    private static UUID uuid(String value) {
+        try {
+            return UUID.fromString(value);
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Field commandId is not a UUID");
+        }
+    }
+
+    private static void string(StringBuilder line, String value) {
+        line.append('"');
+        for (int index = 0; index < value.length(); index++) {
+            final char c = value.charAt(index);
+            switch (c) {
+                case '"' -> line.append("\\\"");
+                case '\\' -> line.append("\\\\");
+                case '\n' -> line.append("\\n");
+                case '\r' -> line.append("\\r");
+                case '\t' -> line.append("\\t");
+                default -> {
+                    if (c < 0x20)
+                        line.append(String.format("\\u%04x", (int) c));
+                    else
+                        line.append(c);
+                }
+            }
+        }
+        line.append('"');
+    }
+
+    /**
+     * Parser of a flat JSON object whose values are strings, numbers, booleans or null, all kept as text.
+     */
+    private static final class Parser {
+
+        private final String text;
+        private int position;
+
+        private Parser(String text) {
+            this.text = text;
+        }
+
+        private Map<String, String> object() {
+            final Map<String, String> fields = new HashMap<>();
+            expect('{');
+            if (peek() == '}') {
+                position++;
+            } else {
+                do {
+                    final String name = string();
+                    expect(':');
+                    final String value = value();
+                    if (value != null)
+                        fields.put(name, value);
+                } while (next() == ',');
+                position--;
+                expect('}');
+            }
+            if (peek() != 0)
+                throw new IllegalArgumentException("Unexpected content after the command");
+            return fields;
+        }
+
+        private @Nullable String value() {
+            final char first = peek();
+            if (first == '"')
+                return string();
+            final int start = position;
+            while (position < text.length() && ",} \t".indexOf(text.charAt(position)) < 0)
+                position++;
+            final String literal = text.substring(start, position);
+            if (literal.isEmpty() || first == '{' || first == '[')
+                throw new IllegalArgumentException("Unsupported value at " + start);
+            return "null".equals(literal) ? null : literal;
+        }
+
+        private String string() {
+            expect('"');
+            final StringBuilder value = new StringBuilder();
+            while (true) {
+                if (position >= text.length())
+                    throw new IllegalArgumentException("Unterminated string");
+                final char c = text.charAt(position++);
+                if (c == '"')
+                    return value.toString();
+                if (c != '\\') {
+                    value.append(c);
+                    continue;
+                }
+                if (position >= text.length())
+                    throw new IllegalArgumentException("Unterminated string");
+                final char escaped = text.charAt(position++);
+                switch (escaped) {
+                    case 'n' -> value.append('\n');
+                    case 'r' -> value.append('\r');
+                    case 't' -> value.append('\t');
+                    case 'b' -> value.append('\b');
+                    case 'f' -> value.append('\f');
+                    case 'u' -> {
+                        if (position + 4 > text.length())
+                            throw new IllegalArgumentException("Unterminated string");
+                        value.append((char) Integer.parseInt(text, position, position + 4, 16));
+                        position += 4;
+                    }
+                    default -> value.append(escaped);
+                }
+            }
+        }
+
+        private void expect(char expected) {
+            if (next() != expected)
+                throw new IllegalArgumentException("Expected '" + expected + "' at " + (position - 1));
+        }
+
+        private char next() {
+            final char c = peek();
+            position++;
+            return c;
+        }
+
+        private char peek() {
+            while (position < text.length() && Character.isWhitespace(text.charAt(position)))
+                position++;
+            return position < text.length() ? text.charAt(position) : 0;
+        }
+    }
+}
@@ -0,0 +1,4 @@
+@NullMarked
+package fr.depix.bulb_manager.bulb.infra.http;
+
+import org.jspecify.annotations.NullMarked;
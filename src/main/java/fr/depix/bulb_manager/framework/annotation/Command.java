@@ -1,6 +1,8 @@
 package fr.depix.bulb_manager.framework.annotation;
 
 import java.time.ZonedDateTime;
+import java.util.Optional;
+import java.util.UUID;
 
 @org.jmolecules.architecture.cqrs.Command
 public interface Command<I extends Identifier> {
@@ -10,4 +12,11 @@ public interface Command<I extends Identifier> {
     Long aggregateVersion();
 
     ZonedDateTime commandDate();
+
+    /**
+     * Identifies the request of the client, a command sent again with the same id is a retry of the first one.
+     */
+    default Optional<UUID> commandId() {
+        return Optional.empty();
+    }
 }
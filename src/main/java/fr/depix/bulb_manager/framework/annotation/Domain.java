@@ -1,5 +1,10 @@
 package fr.depix.bulb_manager.framework.annotation;
 
+import fr.depix.bulb_manager.framework.archive.TerminalIds;
+import fr.depix.bulb_manager.framework.codec.Codec;
+
+import java.time.Clock;
+import java.util.Optional;
 import java.util.function.Supplier;
 
 public interface Domain<
@@ -15,8 +20,40 @@ public interface Domain<
 
     Supplier<R> repository();
 
+    default Optional<EventStore<I, E>> eventStore() {
+        return Optional.empty();
+    }
+
+    default Optional<Codec<A>> snapshotCodec() {
+        return Optional.empty();
+    }
+
     T isTerminal();
 
+    /**
+     * Ids of the aggregates {@link #isTerminal()} accepted, commands sent to them are answered with
+     * {@link #terminalError(Identifier)} without being decided. Empty lets the decider handle them.
+     */
+    default Optional<TerminalIds<I>> terminalIds() {
+        return Optional.empty();
+    }
+
+    /**
+     * Error answered to the commands sent to a terminal aggregate.
+     */
+    VE terminalError(I id);
+
+    default Clock clock() {
+        return Clock.systemUTC();
+    }
+
+    /**
+     * Called once by the domain when it is built, the generator is then shared by every decision.
+     */
+    default EventIdGenerator eventIdGenerator() {
+        return EventIdGenerator.timeOrdered(clock());
+    }
+
     D decider();
 
     V evolve();
@@ -2,7 +2,7 @@ package fr.depix.bulb_manager.framework.annotation;
 
 import org.jmolecules.event.annotation.DomainEvent;
 
-import java.time.ZonedDateTime;
+import java.time.Instant;
 import java.util.UUID;
 
 @DomainEvent
@@ -18,6 +18,6 @@ public interface Event<I extends Identifier> {
 
     Long eventVersion();
 
-    ZonedDateTime eventDate();
+    Instant eventDate();
 
 }
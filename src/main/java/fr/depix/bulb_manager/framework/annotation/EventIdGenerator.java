@@ -0,0 +1,16 @@
+package fr.depix.bulb_manager.framework.annotation;
+
+import fr.depix.bulb_manager.framework.id.TimeOrderedEventIdGenerator;
+
+import java.time.Clock;
+import java.util.UUID;
+
+@FunctionalInterface
+public interface EventIdGenerator {
+
+    UUID nextId();
+
+    static EventIdGenerator timeOrdered(Clock clock) {
+        return new TimeOrderedEventIdGenerator(clock);
+    }
+}
@@ -0,0 +1,23 @@
+package fr.depix.bulb_manager.framework.annotation;
+
+import java.util.List;
+import java.util.Optional;
+
+@FunctionalInterface
+public interface EventPublisher<I extends Identifier, E extends Event<I>> {
+
+    /**
+     * Called by the command handler once {@code events} are saved, moving the aggregate {@code id} from
+     * {@code expectedVersion} (empty when it did not exist) to {@code newVersion}. Commits of one aggregate saved
+     * by different threads may be published out of order.
+     */
+    void publish(I id, Optional<Long> expectedVersion, Long newVersion, List<E> events);
+
+    default EventPublisher<I, E> andThen(EventPublisher<I, E> next) {
+        return (id, expectedVersion, newVersion, events) -> {
+            publish(id, expectedVersion, newVersion, events);
+            next.publish(id, expectedVersion, newVersion, events);
+        };
+    }
+
+}
@@ -0,0 +1,90 @@
+package fr.depix.bulb_manager.framework.annotation;
+
+import java.time.Instant;
+import java.util.List;
+import java.util.Optional;
+import java.util.OptionalLong;
+import java.util.function.Consumer;
+
+public interface EventStore<I extends Identifier, E extends Event<I>> {
+
+    /**
+     * Durably appends {@code events} to the stream of {@code id} if the stream head is still at
+     * {@code expectedVersion} (or the stream does not exist yet when it is empty).
+     *
+     * @return {@code false} when another writer appended to the stream in the meantime
+     */
+    boolean append(I id, Optional<Long> expectedVersion, Long newVersion, List<E> events);
+
+    default Replayed replay(I id, Consumer<? super E> consumer) {
+        return replay(id, 0L, consumer);
+    }
+
+    /**
+     * Replays the events of the stream of {@code id}, skipping the first {@code fromSequence} ones.
+     */
+    default Replayed replay(I id, long fromSequence, Consumer<? super E> consumer) {
+        return replay(id, fromSequence, Long.MAX_VALUE, consumer);
+    }
+
+    /**
+     * Replays the events of the stream of {@code id} from sequence {@code fromSequence} included to
+     * {@code toSequence} excluded.
+     */
+    Replayed replay(I id, long fromSequence, long toSequence, Consumer<? super E> consumer);
+
+    /**
+     * @return the number of events of the stream of {@code id} appended by the appends whose events are all dated
+     * at or before {@code instant}, an append is never split
+     */
+    long sequenceAt(I id, Instant instant);
+
+    /**
+     * @return the number of events of the stream of {@code id} up to the last append that moved it to
+     * {@code version}, or empty when no append did
+     */
+    OptionalLong sequenceOfVersion(I id, long version);
+
+    /**
+     * @return the number of events of the stream of {@code id}
+     */
+    long sequence(I id);
+
+    /**
+     * @return the position right after the last durable append, positions grow with every append
+     */
+    long position();
+
+    /**
+     * Calls {@code consumer} with the id of every stream appended to at or after {@code position}.
+     */
+    void forEachStreamAppendedSince(long position, Consumer<? super I> consumer);
+
+    /**
+     * Calls {@code consumer} with the durable appends at or after {@code position}, at most {@code maxCommits} of
+     * them, in the order they were appended.
+     *
+     * @return the position right after the last append read, to read the following ones from
+     */
+    long forEachCommitSince(long position, int maxCommits, Consumer<? super Commit<I, E>> consumer);
+
+    record Replayed(
+            long events,
+            long bytes
+    ) {
+
+    }
+
+    /**
+     * @param end the position right after this append
+     */
+    record Commit<I extends Identifier, E extends Event<I>>(
+            I id,
+            long newVersion,
+            List<E> events,
+            long end
+    ) {
+
+    }
+
+}
@@ -0,0 +1,12 @@
+package fr.depix.bulb_manager.framework.annotation;
+
+/**
+ * A command whose intent does not depend on the version it was issued against, because it is idempotent or
+ * commutes with concurrent commands. A command handler may then decide it against a newer state instead of
+ * rejecting it as stale.
+ */
+public interface RebasableCommand<I extends Identifier, C extends RebasableCommand<I, C>> extends Command<I> {
+
+    C rebase(Long aggregateVersion);
+
+}
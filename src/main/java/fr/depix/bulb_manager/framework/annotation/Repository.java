@@ -1,6 +1,8 @@
 package fr.depix.bulb_manager.framework.annotation;
 
+import java.util.List;
 import java.util.Optional;
+import java.util.function.Consumer;
 
 @org.jmolecules.ddd.annotation.Repository
 public interface Repository<A extends Aggregate<I>, I extends Identifier> {
@@ -9,4 +11,33 @@ public interface Repository<A extends Aggregate<I>, I extends Identifier> {
 
     void save(A newState);
 
+    /**
+     * Saves a batch of states of distinct aggregates, stores that can write them at once should override it.
+     */
+    default void saveAll(List<A> newStates) {
+        newStates.forEach(this::save);
+    }
+
+    /**
+     * Saves {@code newState} only if the stored aggregate still has the version of {@code expected}
+     * (or is still absent when {@code expected} is empty).
+     *
+     * @return {@code false} when another writer saved the aggregate in the meantime
+     */
+    boolean compareAndSave(Optional<A> expected, A newState);
+
+    /**
+     * Removes the aggregate only if the stored one still has the version of {@code expected}, used to move
+     * terminal aggregates out of the hot store.
+     *
+     * @return {@code false} when the aggregate is absent or another writer saved it in the meantime
+     */
+    boolean compareAndRemove(A expected);
+
+    /**
+     * Calls {@code consumer} with every stored aggregate, not as a single atomic view: aggregates saved
+     * meanwhile may be seen in either state.
+     */
+    void forEachAggregate(Consumer<? super A> consumer);
+
 }
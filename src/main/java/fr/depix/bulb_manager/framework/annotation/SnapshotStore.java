@@ -0,0 +1,29 @@
+package fr.depix.bulb_manager.framework.annotation;
+
+import java.util.Optional;
+
+public interface SnapshotStore<A extends Aggregate<I>, I extends Identifier> {
+
+    Optional<Snapshot<A>> latest(I id);
+
+    /**
+     * Latest snapshot taken at or before {@code sequence}, stores keeping only the latest snapshot of an
+     * aggregate find one only when no event was folded since.
+     */
+    default Optional<Snapshot<A>> latest(I id, long sequence) {
+        return latest(id).filter(snapshot -> snapshot.sequence() <= sequence);
+    }
+
+    void save(Snapshot<A> snapshot);
+
+    /**
+     * State of an aggregate once the first {@code sequence} events of its stream have been folded.
+     */
+    record Snapshot<A>(
+            A state,
+            long sequence
+    ) {
+
+    }
+
+}
@@ -0,0 +1,148 @@
+package fr.depix.bulb_manager.framework.archive;
+
+import fr.depix.bulb_manager.framework.annotation.Aggregate;
+import fr.depix.bulb_manager.framework.annotation.Domain;
+import fr.depix.bulb_manager.framework.annotation.Event;
+import fr.depix.bulb_manager.framework.annotation.EventStore;
+import fr.depix.bulb_manager.framework.annotation.Identifier;
+import fr.depix.bulb_manager.framework.annotation.Repository;
+import fr.depix.bulb_manager.framework.archive.ColdArchive.Archived;
+import org.jspecify.annotations.Nullable;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Predicate;
+
+/**
+ * Moves the aggregates of a domain to a {@link ColdArchive} once they become terminal, so that the hot repository
+ * only holds live aggregates. Every {@code interval}, a background thread archives the aggregates added to the
+ * {@link TerminalIds} of the domain since its last run, with their history read from the event store, then
+ * removes them from the repository. The event log itself is append-only and keeps their events.
+ * <p>
+ * The terminal ids are seeded from the archive when the archiver starts, so archived aggregates stay terminal
+ * across restarts. Its first run then scans the repository for the terminal aggregates it still holds, those that
+ * became terminal while no archiver was running or whose removal was interrupted. An aggregate that failed to be
+ * read, archived or removed is retried on the next run.
+ */
+public class Archiver<A extends Aggregate<I>, I extends Identifier, E extends Event<I>> implements AutoCloseable {
+
+    private static final int MAX_BATCH = 1024;
+
+    private final Repository<A, I> repository;
+    @Nullable
+    private final EventStore<I, E> eventStore;
+    private final Predicate<A> isTerminal;
+    private final TerminalIds<I> terminalIds;
+    private final ColdArchive<A, I, E> archive;
+    private final long intervalNanos;
+    private final Queue<I> pending = new ConcurrentLinkedQueue<>();
+    private final Thread thread;
+    private volatile boolean running = true;
+
+    public Archiver(Domain<A, I, ?, ?, E, ?, ?, ?, ?> domain, ColdArchive<A, I, E> archive, Duration interval) {
+        final TerminalIds<I> terminalIds = domain.terminalIds()
+                                                 .orElseThrow(() -> new IllegalArgumentException("Domain does not track its terminal ids"));
+        this.repository = domain.repository().get();
+        this.eventStore = domain.eventStore().orElse(null);
+        this.isTerminal = domain.isTerminal();
+        this.terminalIds = terminalIds;
+        this.archive = archive;
+        this.intervalNanos = interval.toNanos();
+        archive.forEachId(terminalIds::add);
+        terminalIds.subscribe(pending::add);
+        this.thread = Thread.ofPlatform()
+                            .name("archiver")
+                            .daemon()
+                            .start(this::run);
+    }
+
+    /**
+     * Archives the aggregates that became terminal so far and stops the archiver.
+     */
+    @Override
+    public void close() {
+        running = false;
+        LockSupport.unpark(thread);
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void run() {
+        try {
+            repository.forEachAggregate(this::scan);
+        } catch (RuntimeException e) {
+            // the aggregates seen so far are pending, the next start scans the others again
+        }
+        while (true) {
+            final boolean stopping = !running;
+            if (!stopping)
+                LockSupport.parkNanos(this, intervalNanos);
+            while (archiveBatch()) {
+                // keep going while full batches are waiting
+            }
+            if (stopping)
+                return;
+        }
+    }
+
+    private void scan(A aggregate) {
+        // an id already known as terminal is not notified again
+        if (isTerminal.test(aggregate) && !terminalIds.add(aggregate.id()))
+            pending.add(aggregate.id());
+    }
+
+    /**
+     * @return {@code true} when a full batch was archived, more ids may be waiting
+     */
+    private boolean archiveBatch() {
+        final List<I> ids = new ArrayList<>();
+        final List<Archived<A, E>> batch = new ArrayList<>();
+        final List<I> failed = new ArrayList<>();
+        I id;
+        while (ids.size() < MAX_BATCH && (id = pending.poll()) != null) {
+            ids.add(id);
+            try {
+                final Optional<A> state = repository.findAggregateById(id).filter(isTerminal);
+                if (state.isPresent())
+                    batch.add(new Archived<>(state.get(), history(id)));
+            } catch (RuntimeException e) {
+                failed.add(id);
+            }
+        }
+        if (!batch.isEmpty()) {
+            try {
+                archive.archive(batch);
+            } catch (RuntimeException e) {
+                pending.addAll(ids);
+                return false;
+            }
+        }
+        // terminal aggregates accept no more commands, so their state can not have changed since it was read
+        for (Archived<A, E> archived : batch) {
+            try {
+                repository.compareAndRemove(archived.state());
+            } catch (RuntimeException e) {
+                // archiving it again on the next run only appends a newer copy of the same aggregate
+                failed.add(archived.state().id());
+            }
+        }
+        // retried on the next run rather than right away
+        pending.addAll(failed);
+        return failed.isEmpty() && ids.size() == MAX_BATCH;
+    }
+
+    private List<E> history(I id) {
+        final List<E> history = new ArrayList<>();
+        if (eventStore != null)
+            eventStore.replay(id, history::add);
+        return history;
+    }
+}
@@ -0,0 +1,184 @@
+package fr.depix.bulb_manager.framework.archive;
+
+import fr.depix.bulb_manager.framework.annotation.Aggregate;
+import fr.depix.bulb_manager.framework.annotation.Event;
+import fr.depix.bulb_manager.framework.annotation.Identifier;
+import fr.depix.bulb_manager.framework.codec.Codec;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Consumer;
+import java.util.zip.CRC32C;
+
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+/**
+ * Append-only archive of terminal aggregates, each one stored with its final state and its whole history. Only
+ * the position of each aggregate is kept in memory, states and events are decoded when they are read back.
+ * <p>
+ * Record layout: {@code int payloadLength, int crc32c, int stateLength, byte[] state, int count,
+ * (int length, byte[] event) * count}.
+ */
+public class ColdArchive<A extends Aggregate<I>, I extends Identifier, E extends Event<I>> implements AutoCloseable {
+
+    private static final int RECORD_HEADER_SIZE = Integer.BYTES + Integer.BYTES;
+
+    private final Codec<A> stateCodec;
+    private final Codec<E> eventCodec;
+    private final FileChannel channel;
+    private final ConcurrentMap<I, Long> positions = new ConcurrentHashMap<>();
+    private long end;
+
+    public ColdArchive(Path file, Codec<A> stateCodec, Codec<E> eventCodec) {
+        this.stateCodec = stateCodec;
+        this.eventCodec = eventCodec;
+        try {
+            this.channel = FileChannel.open(file, CREATE, READ, WRITE);
+            this.end = recover();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Durably appends a batch of aggregates with a single forced write, only one writer may archive at a time.
+     */
+    public void archive(List<Archived<A, E>> batch) {
+        int size = 0;
+        for (Archived<A, E> archived : batch)
+            size += RECORD_HEADER_SIZE + payloadLength(archived);
+        final ByteBuffer records = ByteBuffer.allocate(size);
+        final List<Long> recordPositions = new ArrayList<>(batch.size());
+        for (Archived<A, E> archived : batch) {
+            final int start = records.position();
+            final int payloadLength = payloadLength(archived);
+            recordPositions.add(end + start);
+            records.putInt(payloadLength)
+                   .putInt(0)
+                   .putInt(stateCodec.sizeOf(archived.state()));
+            stateCodec.encode(archived.state(), records);
+            records.putInt(archived.history().size());
+            for (E event : archived.history()) {
+                records.putInt(eventCodec.sizeOf(event));
+                eventCodec.encode(event, records);
+            }
+            records.putInt(start + Integer.BYTES, checksum(records, start + RECORD_HEADER_SIZE, payloadLength));
+        }
+        records.flip();
+        try {
+            while (records.hasRemaining())
+                channel.write(records, end + records.position());
+            channel.force(false);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        end += size;
+        for (int index = 0; index < batch.size(); index++)
+            positions.put(batch.get(index).state().id(), recordPositions.get(index));
+    }
+
+    public Optional<Archived<A, E>> find(I id) {
+        final Long position = positions.get(id);
+        if (position == null)
+            return Optional.empty();
+        try {
+            final ByteBuffer header = ByteBuffer.allocate(RECORD_HEADER_SIZE);
+            readFully(header, position);
+            final ByteBuffer payload = ByteBuffer.allocate(header.getInt(0));
+            readFully(payload, position + RECORD_HEADER_SIZE);
+            return Optional.of(decode(payload));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    public void forEachId(Consumer<? super I> consumer) {
+        positions.keySet().forEach(consumer);
+    }
+
+    public int size() {
+        return positions.size();
+    }
+
+    @Override
+    public void close() {
+        try {
+            channel.close();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private int payloadLength(Archived<A, E> archived) {
+        int length = Integer.BYTES + stateCodec.sizeOf(archived.state()) + Integer.BYTES;
+        for (E event : archived.history())
+            length += Integer.BYTES + eventCodec.sizeOf(event);
+        return length;
+    }
+
+    private Archived<A, E> decode(ByteBuffer payload) {
+        final int stateLength = payload.getInt();
+        final A state = stateCodec.decode(payload.slice(payload.position(), stateLength));
+        payload.position(payload.position() + stateLength);
+        final int count = payload.getInt();
+        final List<E> history = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            final int length = payload.getInt();
+            history.add(eventCodec.decode(payload.slice(payload.position(), length)));
+            payload.position(payload.position() + length);
+        }
+        return new Archived<>(state, history);
+    }
+
+    private long recover() throws IOException {
+        final long size = channel.size();
+        final ByteBuffer header = ByteBuffer.allocate(RECORD_HEADER_SIZE);
+        long position = 0L;
+        while (position + RECORD_HEADER_SIZE <= size) {
+            readFully(header.clear(), position);
+            final int payloadLength = header.getInt(0);
+            if (payloadLength < 2 * Integer.BYTES || position + RECORD_HEADER_SIZE + payloadLength > size)
+                break;
+            final ByteBuffer payload = ByteBuffer.allocate(payloadLength);
+            readFully(payload, position + RECORD_HEADER_SIZE);
+            if (header.getInt(Integer.BYTES) != checksum(payload, 0, payloadLength))
+                break;
+            final int stateLength = payload.getInt(0);
+            positions.put(stateCodec.decode(payload.slice(Integer.BYTES, stateLength)).id(), position);
+            position += RECORD_HEADER_SIZE + payloadLength;
+        }
+        // drop a torn tail so that later records are appended right after the last valid one
+        channel.truncate(position);
+        return position;
+    }
+
+    private void readFully(ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining())
+            if (channel.read(buffer, position + buffer.position()) < 0)
+                throw new IOException("Unexpected end of archive file");
+        buffer.flip();
+    }
+
+    private static int checksum(ByteBuffer buffer, int from, int length) {
+        final CRC32C crc = new CRC32C();
+        crc.update(buffer.duplicate().limit(from + length).position(from));
+        return (int) crc.getValue();
+    }
+
+    public record Archived<A, E>(
+            A state,
+            List<E> history
+    ) {
+
+    }
+}
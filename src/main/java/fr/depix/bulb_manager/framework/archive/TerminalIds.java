@@ -0,0 +1,69 @@
+package fr.depix.bulb_manager.framework.archive;
+
+import fr.depix.bulb_manager.framework.annotation.Identifier;
+
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import java.util.function.ToLongFunction;
+
+/**
+ * Exact set of the ids of the aggregates that reached a terminal state, so that commands sent to them are
+ * answered without loading them, even once they left the hot store. Ids are mapped to a {@code long} key and
+ * stored in a bitmap split into chunks of {@value #CHUNK_SIZE} keys, allocated on first use: dense ids cost
+ * one bit each.
+ */
+public class TerminalIds<I extends Identifier> {
+
+    private static final int CHUNK_SHIFT = 12;
+    private static final int CHUNK_SIZE = 1 << CHUNK_SHIFT;
+
+    private final ToLongFunction<? super I> key;
+    private final ConcurrentMap<Long, AtomicLongArray> chunks = new ConcurrentHashMap<>();
+    private final LongAdder size = new LongAdder();
+    private final List<Consumer<? super I>> listeners = new CopyOnWriteArrayList<>();
+
+    public TerminalIds(ToLongFunction<? super I> key) {
+        this.key = key;
+    }
+
+    public boolean contains(I id) {
+        final long value = key.applyAsLong(id);
+        final AtomicLongArray chunk = chunks.get(value >> CHUNK_SHIFT);
+        return chunk != null && (chunk.get(wordOf(value)) & 1L << value) != 0L;
+    }
+
+    /**
+     * @return {@code true} when {@code id} was not terminal yet, the listeners are then notified
+     */
+    public boolean add(I id) {
+        final long value = key.applyAsLong(id);
+        final AtomicLongArray chunk = chunks.computeIfAbsent(value >> CHUNK_SHIFT, ignored -> new AtomicLongArray(CHUNK_SIZE / Long.SIZE));
+        final long bit = 1L << value;
+        if ((chunk.getAndAccumulate(wordOf(value), bit, (word, added) -> word | added) & bit) != 0L)
+            return false;
+        size.increment();
+        for (Consumer<? super I> listener : listeners)
+            listener.accept(id);
+        return true;
+    }
+
+    /**
+     * Calls {@code listener} with every id added from now on.
+     */
+    public void subscribe(Consumer<? super I> listener) {
+        listeners.add(listener);
+    }
+
+    public long size() {
+        return size.sum();
+    }
+
+    private static int wordOf(long value) {
+        return (int) (value & CHUNK_SIZE - 1) >>> 6;
+    }
+}
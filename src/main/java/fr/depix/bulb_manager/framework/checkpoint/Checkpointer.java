@@ -0,0 +1,346 @@
+package fr.depix.bulb_manager.framework.checkpoint;
+
+import fr.depix.bulb_manager.framework.annotation.Aggregate;
+import fr.depix.bulb_manager.framework.annotation.Domain;
+import fr.depix.bulb_manager.framework.annotation.Event;
+import fr.depix.bulb_manager.framework.annotation.EventStore;
+import fr.depix.bulb_manager.framework.annotation.Evolve;
+import fr.depix.bulb_manager.framework.annotation.Identifier;
+import fr.depix.bulb_manager.framework.annotation.Repository;
+import fr.depix.bulb_manager.framework.codec.Codec;
+import org.jspecify.annotations.Nullable;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.OptionalLong;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import java.util.zip.CRC32C;
+
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.TRUNCATE_EXISTING;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+/**
+ * Periodically writes an image of every aggregate of a repository to a single file, so that a restart maps it
+ * instead of rebuilding the whole state from the event log.
+ * <p>
+ * Each aggregate is imaged with the number of events of its stream it covers. Aggregates whose stream is ahead
+ * of the repository while the image is taken, because their save is still in flight, are caught up from the
+ * event store first. The image therefore covers every append made before the event log position recorded in
+ * its header, and possibly some made after it.
+ * <p>
+ * On start, the image is mapped and loaded into the repository, then a background thread replays the tail: the
+ * streams appended to at or after the recorded position, each one from the sequence its image covers.
+ * {@link #restored()} completes once the tail is replayed, the first periodic image is taken after it. Every
+ * restored state is also handed to a listener, so that read models fed by the command path, which never saw those
+ * states, can start from them.
+ * <p>
+ * The image is written to a temporary file moved over the previous one, so a crash or a failed write never leaves
+ * a partial image.
+ * <p>
+ * File layout: {@code long logPosition, long count} followed by
+ * {@code int payloadLength, int crc32c, long sequence, byte[] state} for each aggregate.
+ */
+public class Checkpointer<A extends Aggregate<I>, I extends Identifier, E extends Event<I>> implements AutoCloseable {
+
+    private static final int HEADER_SIZE = Long.BYTES + Long.BYTES;
+    private static final int RECORD_HEADER_SIZE = Integer.BYTES + Integer.BYTES;
+    private static final int WRITE_BUFFER_SIZE = 1024 * 1024;
+    private static final int RESTORE_BATCH_SIZE = 1024;
+    // the order ByteBuffer writes in
+    private static final ValueLayout.OfInt INT = ValueLayout.JAVA_INT_UNALIGNED.withOrder(ByteOrder.BIG_ENDIAN);
+    private static final ValueLayout.OfLong LONG = ValueLayout.JAVA_LONG_UNALIGNED.withOrder(ByteOrder.BIG_ENDIAN);
+
+    private final Repository<A, I> repository;
+    @Nullable
+    private final EventStore<I, E> eventStore;
+    private final Evolve<I, A, E> evolve;
+    private final Codec<A> codec;
+    private final Consumer<? super A> restoredListener;
+    private final Path file;
+    private final long intervalNanos;
+    private final ReentrantLock checkpointLock = new ReentrantLock();
+    private final CompletableFuture<Void> restored = new CompletableFuture<>();
+    private final Thread thread;
+    private volatile boolean running = true;
+
+    public Checkpointer(Domain<A, I, ?, ?, E, ?, ?, ?, ?> domain, Path file, Duration interval) {
+        this(domain, file, interval, ignored -> {
+        });
+    }
+
+    /**
+     * @param restoredListener called with every state loaded from the image, then with the state of every stream
+     *                         of the tail once it is replayed
+     */
+    public Checkpointer(Domain<A, I, ?, ?, E, ?, ?, ?, ?> domain, Path file, Duration interval, Consumer<? super A> restoredListener) {
+        this.restoredListener = restoredListener;
+        this.repository = domain.repository().get();
+        this.eventStore = domain.eventStore().orElse(null);
+        this.evolve = domain.evolve();
+        this.codec = domain.snapshotCodec()
+                           .orElseThrow(() -> new IllegalArgumentException("Domain has no codec for its aggregates"));
+        this.file = file;
+        this.intervalNanos = interval.toNanos();
+        final Map<I, Long> tail;
+        try {
+            tail = load();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        this.thread = Thread.ofPlatform()
+                            .name("checkpointer-" + file.getFileName())
+                            .daemon()
+                            .start(() -> run(tail));
+    }
+
+    /**
+     * @return completes once the tail of the event log is replayed on top of the image
+     */
+    public CompletableFuture<Void> restored() {
+        return restored.copy();
+    }
+
+    public boolean isRestored() {
+        return restored.isDone() && !restored.isCompletedExceptionally();
+    }
+
+    /**
+     * Writes an image of the repository now and replaces the previous one with it.
+     */
+    public void checkpoint() {
+        if (!isRestored())
+            throw new IllegalStateException("The previous image is not restored yet");
+        checkpointLock.lock();
+        try {
+            write();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            checkpointLock.unlock();
+        }
+    }
+
+    /**
+     * Stops the periodic images, taking a last one when the previous image was restored.
+     */
+    @Override
+    public void close() {
+        running = false;
+        LockSupport.unpark(thread);
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void run(Map<I, Long> tail) {
+        try {
+            tail.forEach(this::replay);
+            restored.complete(null);
+        } catch (RuntimeException e) {
+            restored.completeExceptionally(e);
+            return;
+        }
+        while (true) {
+            final boolean stopping = !running;
+            if (!stopping)
+                LockSupport.parkNanos(this, intervalNanos);
+            try {
+                checkpoint();
+            } catch (UncheckedIOException e) {
+                // the previous image stays in place, the next run tries again
+            }
+            if (stopping)
+                return;
+        }
+    }
+
+    /**
+     * Loads the image into the repository.
+     *
+     * @return the sequence the image covers for every stream of the tail, {@code 0} for those not imaged
+     */
+    private Map<I, Long> load() throws IOException {
+        final Map<I, Long> tail = new HashMap<>();
+        if (Files.notExists(file)) {
+            if (eventStore != null)
+                eventStore.forEachStreamAppendedSince(0L, id -> tail.put(id, 0L));
+            return tail;
+        }
+        try (Arena arena = Arena.ofConfined();
+             FileChannel channel = FileChannel.open(file, READ)) {
+            final MemorySegment image = channel.map(FileChannel.MapMode.READ_ONLY, 0L, channel.size(), arena);
+            if (image.byteSize() < HEADER_SIZE)
+                throw new IOException("Checkpoint " + file + " has no header");
+            final long logPosition = image.get(LONG, 0L);
+            final long count = image.get(LONG, Long.BYTES);
+            if (eventStore != null)
+                eventStore.forEachStreamAppendedSince(logPosition, id -> tail.put(id, 0L));
+
+            final List<A> batch = new ArrayList<>(RESTORE_BATCH_SIZE);
+            long offset = HEADER_SIZE;
+            for (long index = 0L; index < count; index++) {
+                if (offset + RECORD_HEADER_SIZE > image.byteSize())
+                    throw new IOException("Checkpoint " + file + " is truncated");
+                final int payloadLength = image.get(INT, offset);
+                if (payloadLength < Long.BYTES || offset + RECORD_HEADER_SIZE + payloadLength > image.byteSize())
+                    throw new IOException("Checkpoint " + file + " is truncated");
+                final ByteBuffer payload = image.asSlice(offset + RECORD_HEADER_SIZE, payloadLength).asByteBuffer();
+                if (image.get(INT, offset + Integer.BYTES) != checksum(payload))
+                    throw new IOException("Checkpoint " + file + " is corrupted at offset " + offset);
+                final long sequence = payload.getLong(0);
+                final A state = codec.decode(payload.slice(Long.BYTES, payloadLength - Long.BYTES));
+                tail.computeIfPresent(state.id(), (id, ignored) -> sequence);
+                batch.add(state);
+                if (batch.size() == RESTORE_BATCH_SIZE)
+                    restore(batch);
+                offset += RECORD_HEADER_SIZE + payloadLength;
+            }
+            restore(batch);
+        }
+        return tail;
+    }
+
+    private void restore(List<A> batch) {
+        repository.saveAll(batch);
+        batch.forEach(restoredListener);
+        batch.clear();
+    }
+
+    private void replay(I id, long sequence) {
+        final Optional<A> imaged = sequence == 0L ? Optional.empty() : repository.findAggregateById(id);
+        final Fold fold = new Fold(imaged.orElse(null));
+        if (eventStore != null)
+            eventStore.replay(id, sequence, fold);
+        if (fold.state != null)
+            repository.compareAndSave(imaged, fold.state);
+        // the state saved by a command in the meantime when the save above lost
+        repository.findAggregateById(id).ifPresent(restoredListener);
+    }
+
+    private void write() throws IOException {
+        // read before the repository, so that every append made before it is covered by the image
+        final long logPosition = eventStore == null ? 0L : eventStore.position();
+        final Path temporary = file.resolveSibling(file.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(temporary, CREATE, WRITE, TRUNCATE_EXISTING)) {
+            final Writer writer = new Writer(channel);
+            repository.forEachAggregate(writer);
+            writer.flush();
+            channel.write(ByteBuffer.allocate(HEADER_SIZE).putLong(logPosition).putLong(writer.count).flip(), 0L);
+            channel.force(false);
+        }
+        Files.move(temporary, file, ATOMIC_MOVE, REPLACE_EXISTING);
+    }
+
+    /**
+     * @return {@code state} caught up with the appends of its stream it missed, with the sequence it covers
+     */
+    private Imaged<A> catchUp(A state) {
+        if (eventStore == null)
+            return new Imaged<>(state, 0L);
+        final long length = eventStore.sequence(state.id());
+        final OptionalLong sequence = eventStore.sequenceOfVersion(state.id(), state.aggregateVersion());
+        if (sequence.isPresent() && sequence.getAsLong() == length)
+            return new Imaged<>(state, length);
+        // a save still in flight, or a state the log does not know: the log wins
+        final Fold fold = sequence.isPresent() ? new Fold(state) : new Fold(null);
+        eventStore.replay(state.id(), sequence.orElse(0L), length, fold);
+        return new Imaged<>(fold.state == null ? state : fold.state, length);
+    }
+
+    private static int checksum(ByteBuffer payload) {
+        final CRC32C crc = new CRC32C();
+        crc.update(payload.duplicate());
+        return (int) crc.getValue();
+    }
+
+    private record Imaged<A>(
+            A state,
+            long sequence
+    ) {
+
+    }
+
+    private final class Writer implements Consumer<A> {
+
+        private final FileChannel channel;
+        private final ByteBuffer buffer = ByteBuffer.allocateDirect(WRITE_BUFFER_SIZE);
+        private long position = HEADER_SIZE;
+        private long count;
+
+        private Writer(FileChannel channel) {
+            this.channel = channel;
+        }
+
+        @Override
+        public void accept(A current) {
+            final Imaged<A> imaged = catchUp(current);
+            final int payloadLength = Long.BYTES + codec.sizeOf(imaged.state());
+            if (buffer.remaining() < RECORD_HEADER_SIZE + payloadLength)
+                flush();
+            final ByteBuffer target = RECORD_HEADER_SIZE + payloadLength > buffer.capacity()
+                    ? ByteBuffer.allocate(RECORD_HEADER_SIZE + payloadLength)
+                    : buffer;
+            final int start = target.position();
+            target.putInt(payloadLength)
+                  .putInt(0)
+                  .putLong(imaged.sequence());
+            codec.encode(imaged.state(), target);
+            target.putInt(start + Integer.BYTES, checksum(target.duplicate().limit(target.position()).position(start + RECORD_HEADER_SIZE)));
+            count++;
+            if (target != buffer)
+                write(target.flip());
+        }
+
+        private void flush() {
+            write(buffer.flip());
+            buffer.clear();
+        }
+
+        private void write(ByteBuffer bytes) {
+            try {
+                while (bytes.hasRemaining())
+                    position += channel.write(bytes, position);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+
+    private final class Fold implements Consumer<E> {
+
+        @Nullable
+        private A state;
+
+        private Fold(@Nullable A state) {
+            this.state = state;
+        }
+
+        @Override
+        public void accept(E event) {
+            state = evolve.apply(Optional.ofNullable(state), List.of(event));
+        }
+    }
+}
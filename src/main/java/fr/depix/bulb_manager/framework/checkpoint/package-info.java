@@ -0,0 +1,4 @@
+@NullMarked
+package fr.depix.bulb_manager.framework.checkpoint;
+
+import org.jspecify.annotations.NullMarked;
@@ -0,0 +1,13 @@
+package fr.depix.bulb_manager.framework.codec;
+
+import java.nio.ByteBuffer;
+
+public interface Codec<T> {
+
+    int sizeOf(T value);
+
+    void encode(T value, ByteBuffer buffer);
+
+    T decode(ByteBuffer buffer);
+
+}
@@ -0,0 +1,594 @@
+package fr.depix.bulb_manager.framework.codec;
+
+import fr.depix.bulb_manager.framework.annotation.Event;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Array;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.RecordComponent;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.util.Arrays;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.zip.CRC32C;
+
+/**
+ * Binary codec derived once from a sealed hierarchy of records. A value is written as a varint type tag, the
+ * index of its record in the {@code permits} clause, followed by its components in declaration order:
+ * <ul>
+ *     <li>{@code int}, {@code long} and their wrappers as zigzag varints,</li>
+ *     <li>{@code boolean} as one byte, enums as a varint ordinal,</li>
+ *     <li>{@link UUID} as two fixed longs, {@link Instant} as varint seconds and nanos,</li>
+ *     <li>{@link ZonedDateTime} as its instant followed by its zone id,</li>
+ *     <li>{@link String} as a varint length followed by its UTF-8 bytes,</li>
+ *     <li>{@link Optional} components as a presence byte followed by their value,</li>
+ *     <li>nested records and sealed interfaces recursively.</li>
+ * </ul>
+ * Tags follow the {@code permits} clause, so new subtypes must be appended to it to keep stored data readable.
+ * Events are the exception: their header holds their {@link Event#eventType()} and {@link Event#eventVersion()}
+ * instead, so the {@code permits} clause can be reordered and a stored event of an unknown version fails to decode
+ * rather than being read as another type.
+ * <p>
+ * Each record is handled by method handles composed once from its accessors and canonical constructor.
+ * Unsupported component types are rejected when the codec is built, not when a value is first written.
+ */
+public class SealedCodec<T> implements Codec<T> {
+
+    private static final MethodHandle SUM;
+    private static final MethodHandle CODEC_SIZE_OF;
+    private static final MethodHandle CODEC_ENCODE;
+    private static final MethodHandle CODEC_DECODE;
+    private static final Component LONG;
+    private static final Component INT;
+    private static final Component BOOLEAN;
+
+    static {
+        final MethodHandles.Lookup lookup = MethodHandles.lookup();
+        try {
+            SUM = lookup.findStatic(Integer.class, "sum", MethodType.methodType(int.class, int.class, int.class));
+            CODEC_SIZE_OF = lookup.findVirtual(Codec.class, "sizeOf", MethodType.methodType(int.class, Object.class));
+            CODEC_ENCODE = lookup.findVirtual(Codec.class, "encode", MethodType.methodType(void.class, Object.class, ByteBuffer.class));
+            CODEC_DECODE = lookup.findVirtual(Codec.class, "decode", MethodType.methodType(Object.class, ByteBuffer.class));
+            final MethodHandle sizeOfSigned = lookup.findStatic(Varints.class, "sizeOfSigned", MethodType.methodType(int.class, long.class));
+            final MethodHandle putSigned = lookup.findStatic(Varints.class, "putSigned", MethodType.methodType(void.class, ByteBuffer.class, long.class));
+            LONG = new Component(long.class,
+                                 sizeOfSigned,
+                                 MethodHandles.permuteArguments(putSigned, MethodType.methodType(void.class, long.class, ByteBuffer.class), 1, 0),
+                                 lookup.findStatic(Varints.class, "getSigned", MethodType.methodType(long.class, ByteBuffer.class)));
+            INT = new Component(int.class,
+                                sizeOfSigned.asType(MethodType.methodType(int.class, int.class)),
+                                MethodHandles.permuteArguments(putSigned.asType(MethodType.methodType(void.class, ByteBuffer.class, int.class)),
+                                                               MethodType.methodType(void.class, int.class, ByteBuffer.class), 1, 0),
+                                lookup.findStatic(SealedCodec.class, "getInt", MethodType.methodType(int.class, ByteBuffer.class)));
+            BOOLEAN = new Component(boolean.class,
+                                    MethodHandles.dropArguments(MethodHandles.constant(int.class, Byte.BYTES), 0, boolean.class),
+                                    lookup.findStatic(SealedCodec.class, "putBoolean", MethodType.methodType(void.class, boolean.class, ByteBuffer.class)),
+                                    lookup.findStatic(SealedCodec.class, "getBoolean", MethodType.methodType(boolean.class, ByteBuffer.class)));
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private final Codec<Object> root;
+
+    public SealedCodec(Class<T> type) {
+        if (!type.isSealed())
+            throw new IllegalArgumentException(type.getName() + " is not sealed");
+        this.root = codecOf(type);
+    }
+
+    @Override
+    public int sizeOf(T value) {
+        return root.sizeOf(value);
+    }
+
+    @Override
+    public void encode(T value, ByteBuffer buffer) {
+        root.encode(value, buffer);
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public T decode(ByteBuffer buffer) {
+        return (T) root.decode(buffer);
+    }
+
+    private static Codec<Object> codecOf(Class<?> type) {
+        if (type == long.class || type == Long.class)
+            return Scalar.LONG;
+        if (type == int.class || type == Integer.class)
+            return Scalar.INT;
+        if (type == boolean.class || type == Boolean.class)
+            return Scalar.BOOLEAN;
+        if (type == UUID.class)
+            return Scalar.UUID;
+        if (type == Instant.class)
+            return Scalar.INSTANT;
+        if (type == ZonedDateTime.class)
+            return Scalar.ZONED_DATE_TIME;
+        if (type == String.class)
+            return Scalar.STRING;
+        if (type.isEnum())
+            return new EnumCodec(type.getEnumConstants());
+        if (type.isRecord())
+            return RecordCodec.of(type);
+        if (type.isSealed() && Event.class.isAssignableFrom(type))
+            return new EventCodec(type.getPermittedSubclasses());
+        if (type.isSealed())
+            return new VariantCodec(type.getPermittedSubclasses());
+        throw new IllegalArgumentException("No binary encoding for " + type.getName());
+    }
+
+    private static Codec<Object> codecOf(RecordComponent component) {
+        if (component.getType() != Optional.class)
+            return codecOf(component.getType());
+        if (component.getGenericType() instanceof ParameterizedType optional
+                && optional.getActualTypeArguments()[0] instanceof Class<?> valueType)
+            return new OptionalCodec(codecOf(valueType));
+        throw new IllegalArgumentException("No binary encoding for " + component.getGenericType().getTypeName());
+    }
+
+    private static int getInt(ByteBuffer buffer) {
+        return Math.toIntExact(Varints.getSigned(buffer));
+    }
+
+    private static void putBoolean(boolean value, ByteBuffer buffer) {
+        buffer.put(value ? (byte) 1 : (byte) 0);
+    }
+
+    private static boolean getBoolean(ByteBuffer buffer) {
+        return buffer.get() != 0;
+    }
+
+    private static RuntimeException rethrow(Throwable throwable) {
+        if (throwable instanceof RuntimeException runtimeException)
+            return runtimeException;
+        if (throwable instanceof Error error)
+            throw error;
+        return new IllegalStateException(throwable);
+    }
+
+    private enum Scalar implements Codec<Object> {
+        LONG {
+            @Override
+            public int sizeOf(Object value) {
+                return Varints.sizeOfSigned((Long) value);
+            }
+
+            @Override
+            public void encode(Object value, ByteBuffer buffer) {
+                Varints.putSigned(buffer, (Long) value);
+            }
+
+            @Override
+            public Object decode(ByteBuffer buffer) {
+                return Varints.getSigned(buffer);
+            }
+        },
+        INT {
+            @Override
+            public int sizeOf(Object value) {
+                return Varints.sizeOfSigned((Integer) value);
+            }
+
+            @Override
+            public void encode(Object value, ByteBuffer buffer) {
+                Varints.putSigned(buffer, (Integer) value);
+            }
+
+            @Override
+            public Object decode(ByteBuffer buffer) {
+                return Math.toIntExact(Varints.getSigned(buffer));
+            }
+        },
+        BOOLEAN {
+            @Override
+            public int sizeOf(Object value) {
+                return Byte.BYTES;
+            }
+
+            @Override
+            public void encode(Object value, ByteBuffer buffer) {
+                buffer.put((Boolean) value ? (byte) 1 : (byte) 0);
+            }
+
+            @Override
+            public Object decode(ByteBuffer buffer) {
+                return buffer.get() != 0;
+            }
+        },
+        UUID {
+            @Override
+            public int sizeOf(Object value) {
+                return 2 * Long.BYTES;
+            }
+
+            @Override
+            public void encode(Object value, ByteBuffer buffer) {
+                final java.util.UUID uuid = (java.util.UUID) value;
+                buffer.putLong(uuid.getMostSignificantBits())
+                      .putLong(uuid.getLeastSignificantBits());
+            }
+
+            @Override
+            public Object decode(ByteBuffer buffer) {
+                return new java.util.UUID(buffer.getLong(), buffer.getLong());
+            }
+        },
+        INSTANT {
+            @Override
+            public int sizeOf(Object value) {
+                final Instant instant = (Instant) value;
+                return Varints.sizeOfSigned(instant.getEpochSecond()) + Varints.sizeOf(instant.getNano());
+            }
+
+            @Override
+            public void encode(Object value, ByteBuffer buffer) {
+                final Instant instant = (Instant) value;
+                Varints.putSigned(buffer, instant.getEpochSecond());
+                Varints.put(buffer, instant.getNano());
+            }
+
+            @Override
+            public Object decode(ByteBuffer buffer) {
+                return Instant.ofEpochSecond(Varints.getSigned(buffer), Varints.get(buffer));
+            }
+        },
+        ZONED_DATE_TIME {
+            @Override
+            public int sizeOf(Object value) {
+                final ZonedDateTime dateTime = (ZonedDateTime) value;
+                return INSTANT.sizeOf(dateTime.toInstant()) + STRING.sizeOf(dateTime.getZone().getId());
+            }
+
+            @Override
+            public void encode(Object value, ByteBuffer buffer) {
+                final ZonedDateTime dateTime = (ZonedDateTime) value;
+                INSTANT.encode(dateTime.toInstant(), buffer);
+                STRING.encode(dateTime.getZone().getId(), buffer);
+            }
+
+            @Override
+            public Object decode(ByteBuffer buffer) {
+                final Instant instant = (Instant) INSTANT.decode(buffer);
+                return ZonedDateTime.ofInstant(instant, ZoneId.of((String) STRING.decode(buffer)));
+            }
+        },
+        STRING {
+            @Override
+            public int sizeOf(Object value) {
+                final int length = utf8Length((String) value);
+                return Varints.sizeOf(length) + length;
+            }
+
+            /**
+             * Writes the UTF-8 bytes straight into {@code buffer}, a lone surrogate as three bytes like
+             * {@link #utf8Length} counts it.
+             */
+            @Override
+            public void encode(Object value, ByteBuffer buffer) {
+                final String string = (String) value;
+                Varints.put(buffer, utf8Length(string));
+                for (int i = 0; i < string.length(); i++) {
+                    final char current = string.charAt(i);
+                    if (current < 0x80) {
+                        buffer.put((byte) current);
+                    } else if (current < 0x800) {
+                        buffer.put((byte) (0xC0 | current >> 6))
+                              .put((byte) (0x80 | current & 0x3F));
+                    } else if (Character.isHighSurrogate(current) && i + 1 < string.length() && Character.isLowSurrogate(string.charAt(i + 1))) {
+                        final int codePoint = Character.toCodePoint(current, string.charAt(++i));
+                        buffer.put((byte) (0xF0 | codePoint >> 18))
+                              .put((byte) (0x80 | codePoint >> 12 & 0x3F))
+                              .put((byte) (0x80 | codePoint >> 6 & 0x3F))
+                              .put((byte) (0x80 | codePoint & 0x3F));
+                    } else {
+                        buffer.put((byte) (0xE0 | current >> 12))
+                              .put((byte) (0x80 | current >> 6 & 0x3F))
+                              .put((byte) (0x80 | current & 0x3F));
+                    }
+                }
+            }
+
+            @Override
+            public Object decode(ByteBuffer buffer) {
+                final int length = Math.toIntExact(Varints.get(buffer));
+                final String value;
+                if (buffer.hasArray()) {
+                    value = new String(buffer.array(), buffer.arrayOffset() + buffer.position(), length, StandardCharsets.UTF_8);
+                    buffer.position(buffer.position() + length);
+                } else {
+                    final byte[] bytes = new byte[length];
+                    buffer.get(bytes);
+                    value = new String(bytes, StandardCharsets.UTF_8);
+                }
+                return value;
+            }
+
+            private static int utf8Length(String value) {
+                int length = 0;
+                for (int i = 0; i < value.length(); i++) {
+                    final char current = value.charAt(i);
+                    if (current < 0x80)
+                        length += 1;
+                    else if (current < 0x800)
+                        length += 2;
+                    else if (Character.isHighSurrogate(current) && i + 1 < value.length() && Character.isLowSurrogate(value.charAt(i + 1))) {
+                        length += 4;
+                        i++;
+                    } else
+                        length += 3;
+                }
+                return length;
+            }
+        }
+    }
+
+    private record EnumCodec(
+            Object[] constants
+    ) implements Codec<Object> {
+
+        @Override
+        public int sizeOf(Object value) {
+            return Varints.sizeOf(((Enum<?>) value).ordinal());
+        }
+
+        @Override
+        public void encode(Object value, ByteBuffer buffer) {
+            Varints.put(buffer, ((Enum<?>) value).ordinal());
+        }
+
+        @Override
+        public Object decode(ByteBuffer buffer) {
+            return constants[Math.toIntExact(Varints.get(buffer))];
+        }
+    }
+
+    private record OptionalCodec(
+            Codec<Object> value
+    ) implements Codec<Object> {
+
+        @Override
+        public int sizeOf(Object optional) {
+            return Byte.BYTES + ((Optional<?>) optional).map(value::sizeOf).orElse(0);
+        }
+
+        @Override
+        public void encode(Object optional, ByteBuffer buffer) {
+            final Optional<?> present = (Optional<?>) optional;
+            buffer.put(present.isPresent() ? (byte) 1 : (byte) 0);
+            present.ifPresent(item -> value.encode(item, buffer));
+        }
+
+        @Override
+        public Object decode(ByteBuffer buffer) {
+            return buffer.get() != 0 ? Optional.of(value.decode(buffer)) : Optional.empty();
+        }
+    }
+
+    /**
+     * Sizes, encodes and decodes a record through one method handle each, composed once from its accessors, its
+     * canonical constructor and the codecs of its components: {@code long}, {@code int} and {@code boolean}
+     * components are passed unboxed and no argument array is allocated.
+     */
+    private record RecordCodec(
+            MethodHandle sizer,
+            MethodHandle encoder,
+            MethodHandle decoder
+    ) implements Codec<Object> {
+
+        private static RecordCodec of(Class<?> type) {
+            final RecordComponent[] recordComponents = type.getRecordComponents();
+            final Class<?>[] parameterTypes = Arrays.stream(recordComponents).map(RecordComponent::getType).toArray(Class<?>[]::new);
+            final MethodHandles.Lookup lookup = MethodHandles.publicLookup();
+            try {
+                MethodHandle sizer = MethodHandles.dropArguments(MethodHandles.constant(int.class, 0), 0, Object.class);
+                MethodHandle encoder = MethodHandles.empty(MethodType.methodType(void.class, Object.class, ByteBuffer.class));
+                MethodHandle decoder = MethodHandles.dropArguments(lookup.findConstructor(type, MethodType.methodType(void.class, parameterTypes)),
+                                                                   parameterTypes.length, ByteBuffer.class);
+                final Component[] components = new Component[recordComponents.length];
+                for (int i = 0; i < recordComponents.length; i++) {
+                    final Component component = components[i] = Component.of(recordComponents[i]);
+                    final MethodHandle accessor = lookup.unreflect(recordComponents[i].getAccessor())
+                                                        .asType(MethodType.methodType(component.type(), Object.class));
+                    // (Object) -> sizer(Object) + size(accessor(Object))
+                    sizer = MethodHandles.foldArguments(MethodHandles.foldArguments(MethodHandles.dropArguments(SUM, 2, Object.class), 1,
+                                                                                    MethodHandles.filterArguments(component.sizer(), 0, accessor)),
+                                                        0, sizer);
+                    // the previous components are encoded first
+                    encoder = MethodHandles.foldArguments(MethodHandles.filterArguments(component.encoder(), 0, accessor), encoder);
+                }
+                // folded from the last argument, so that the outermost combiner, decoding the first component, runs first
+                for (int i = recordComponents.length - 1; i >= 0; i--)
+                    decoder = MethodHandles.foldArguments(decoder, i, components[i].decoder().asType(MethodType.methodType(parameterTypes[i], ByteBuffer.class)));
+                return new RecordCodec(sizer, encoder, decoder.asType(MethodType.methodType(Object.class, ByteBuffer.class)));
+            } catch (ReflectiveOperationException e) {
+                throw new IllegalArgumentException("Record " + type.getName() + " and its components must be public", e);
+            }
+        }
+
+        @Override
+        public int sizeOf(Object value) {
+            try {
+                return (int) sizer.invokeExact(value);
+            } catch (Throwable e) {
+                throw rethrow(e);
+            }
+        }
+
+        @Override
+        public void encode(Object value, ByteBuffer buffer) {
+            try {
+                encoder.invokeExact(value, buffer);
+            } catch (Throwable e) {
+                throw rethrow(e);
+            }
+        }
+
+        @Override
+        public Object decode(ByteBuffer buffer) {
+            try {
+                return (Object) decoder.invokeExact(buffer);
+            } catch (Throwable e) {
+                throw rethrow(e);
+            }
+        }
+    }
+
+    /**
+     * Handles of one component: {@code (T) int}, {@code (T, ByteBuffer) void} and {@code (ByteBuffer) T}.
+     */
+    private record Component(
+            Class<?> type,
+            MethodHandle sizer,
+            MethodHandle encoder,
+            MethodHandle decoder
+    ) {
+
+        private static Component of(RecordComponent component) {
+            final Class<?> type = component.getType();
+            if (type == long.class || type == Long.class)
+                return LONG;
+            if (type == int.class || type == Integer.class)
+                return INT;
+            if (type == boolean.class || type == Boolean.class)
+                return BOOLEAN;
+            final Codec<Object> codec = codecOf(component);
+            return new Component(Object.class, CODEC_SIZE_OF.bindTo(codec), CODEC_ENCODE.bindTo(codec), CODEC_DECODE.bindTo(codec));
+        }
+    }
+
+    private static final class VariantCodec implements Codec<Object> {
+
+        private final Class<?>[] types;
+        private final Codec<Object>[] variants;
+
+        @SuppressWarnings("unchecked")
+        private VariantCodec(Class<?>[] types) {
+            this.types = types;
+            this.variants = new Codec[types.length];
+            for (int tag = 0; tag < types.length; tag++)
+                variants[tag] = codecOf(types[tag]);
+        }
+
+        @Override
+        public int sizeOf(Object value) {
+            final int tag = tagOf(value);
+            return Varints.sizeOf(tag) + variants[tag].sizeOf(value);
+        }
+
+        @Override
+        public void encode(Object value, ByteBuffer buffer) {
+            final int tag = tagOf(value);
+            Varints.put(buffer, tag);
+            variants[tag].encode(value, buffer);
+        }
+
+        @Override
+        public Object decode(ByteBuffer buffer) {
+            final long tag = Varints.get(buffer);
+            if (tag < 0L || tag >= variants.length)
+                throw new IllegalArgumentException("Unknown type tag " + tag);
+            return variants[(int) tag].decode(buffer);
+        }
+
+        private int tagOf(Object value) {
+            for (int tag = 0; tag < types.length; tag++)
+                if (types[tag].isInstance(value))
+                    return tag;
+            throw new IllegalArgumentException("Unknown subtype " + value.getClass().getName());
+        }
+    }
+
+    /**
+     * Variants of a sealed hierarchy of events, each one written behind a header holding the CRC32C of its
+     * {@link Event#eventType()} as a fixed int and its {@link Event#eventVersion()} as a varint. The type and
+     * version of each record are read once, from an instance built with default components. Decoding an unknown
+     * type, or a known type at another version, fails.
+     */
+    private static final class EventCodec implements Codec<Object> {
+
+        private final Class<?>[] types;
+        private final String[] names;
+        private final int[] hashes;
+        private final long[] versions;
+        private final Codec<Object>[] variants;
+
+        @SuppressWarnings("unchecked")
+        private EventCodec(Class<?>[] types) {
+            this.types = types;
+            this.names = new String[types.length];
+            this.hashes = new int[types.length];
+            this.versions = new long[types.length];
+            this.variants = new Codec[types.length];
+            for (int index = 0; index < types.length; index++) {
+                final Event<?> probe = probe(types[index]);
+                names[index] = probe.eventType();
+                hashes[index] = hash(names[index]);
+                versions[index] = probe.eventVersion();
+                for (int other = 0; other < index; other++)
+                    if (hashes[other] == hashes[index])
+                        throw new IllegalArgumentException("Event types " + names[other] + " and " + names[index] + " share a header");
+                variants[index] = codecOf(types[index]);
+            }
+        }
+
+        @Override
+        public int sizeOf(Object value) {
+            final int index = indexOf(value);
+            return Integer.BYTES + Varints.sizeOf(versions[index]) + variants[index].sizeOf(value);
+        }
+
+        @Override
+        public void encode(Object value, ByteBuffer buffer) {
+            final int index = indexOf(value);
+            buffer.putInt(hashes[index]);
+            Varints.put(buffer, versions[index]);
+            variants[index].encode(value, buffer);
+        }
+
+        @Override
+        public Object decode(ByteBuffer buffer) {
+            final int hash = buffer.getInt();
+            final long version = Varints.get(buffer);
+            for (int index = 0; index < hashes.length; index++) {
+                if (hashes[index] != hash)
+                    continue;
+                if (versions[index] != version)
+                    throw new IllegalArgumentException("Unknown version " + version + " of event " + names[index] + ", expected " + versions[index]);
+                return variants[index].decode(buffer);
+            }
+            throw new IllegalArgumentException("Unknown event type " + Integer.toHexString(hash));
+        }
+
+        private int indexOf(Object value) {
+            for (int index = 0; index < types.length; index++)
+                if (types[index] == value.getClass())
+                    return index;
+            throw new IllegalArgumentException("Unknown event " + value.getClass().getName());
+        }
+
+        private static Event<?> probe(Class<?> type) {
+            if (!type.isRecord())
+                throw new IllegalArgumentException("Event " + type.getName() + " is not a record");
+            final Class<?>[] parameterTypes = Arrays.stream(type.getRecordComponents()).map(RecordComponent::getType).toArray(Class<?>[]::new);
+            final Object[] defaults = Arrays.stream(parameterTypes).map(parameterType -> Array.get(Array.newInstance(parameterType, 1), 0)).toArray();
+            try {
+                return (Event<?>) type.getDeclaredConstructor(parameterTypes).newInstance(defaults);
+            } catch (ReflectiveOperationException | RuntimeException e) {
+                throw new IllegalArgumentException("Event " + type.getName() + " must tell its type and version without state", e);
+            }
+        }
+
+        private static int hash(String name) {
+            final CRC32C crc = new CRC32C();
+            crc.update(name.getBytes(StandardCharsets.UTF_8));
+            return (int) crc.getValue();
+        }
+    }}
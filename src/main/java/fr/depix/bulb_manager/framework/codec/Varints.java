@@ -0,0 +1,53 @@
+package fr.depix.bulb_manager.framework.codec;
+
+import java.nio.ByteBuffer;
+
+/**
+ * LEB128 varints: seven bits per byte, low bits first, the high bit set on every byte but the last.
+ * Signed values go through zigzag encoding so that small negative numbers stay short.
+ */
+public final class Varints {
+
+    private Varints() {
+    }
+
+    public static int sizeOf(long value) {
+        return (63 - Long.numberOfLeadingZeros(value)) / 7 + 1;
+    }
+
+    public static int sizeOfSigned(long value) {
+        return sizeOf(zigzag(value));
+    }
+
+    public static void put(ByteBuffer buffer, long value) {
+        while ((value & ~0x7FL) != 0L) {
+            buffer.put((byte) (value & 0x7F | 0x80));
+            value >>>= 7;
+        }
+        buffer.put((byte) value);
+    }
+
+    public static void putSigned(ByteBuffer buffer, long value) {
+        put(buffer, zigzag(value));
+    }
+
+    public static long get(ByteBuffer buffer) {
+        long value = 0L;
+        for (int shift = 0; shift < Long.SIZE; shift += 7) {
+            final byte current = buffer.get();
+            value |= (long) (current & 0x7F) << shift;
+            if (current >= 0)
+                return value;
+        }
+        throw new IllegalArgumentException("Malformed varint");
+    }
+
+    public static long getSigned(ByteBuffer buffer) {
+        final long value = get(buffer);
+        return value >>> 1 ^ -(value & 1L);
+    }
+
+    private static long zigzag(long value) {
+        return value << 1 ^ value >> 63;
+    }
+}
@@ -9,4 +9,18 @@ import java.util.List;
 public record EventList<E extends Event<I>, VE extends ValidationError, I extends Identifier>(
         List<E> events
 ) implements Decision<E, VE, I> {
+
+    private static final EventList<Event<Identifier>, ValidationError, Identifier> EMPTY = new EventList<>(List.of());
+
+    /**
+     * Shared decision of a command that changes nothing.
+     */
+    @SuppressWarnings("unchecked")
+    public static <E extends Event<I>, VE extends ValidationError, I extends Identifier> EventList<E, VE, I> empty() {
+        return (EventList<E, VE, I>) (EventList<?, ?, ?>) EMPTY;
+    }
+
+    public boolean isEmpty() {
+        return events.isEmpty();
+    }
 }
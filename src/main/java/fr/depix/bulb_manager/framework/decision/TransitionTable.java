@@ -0,0 +1,159 @@
+package fr.depix.bulb_manager.framework.decision;
+
+import org.jspecify.annotations.Nullable;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+import java.util.StringJoiner;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+
+/**
+ * Dispatch table of a sealed hierarchy of states against a sealed hierarchy of messages, commands for a
+ * decider or events for an evolver. Each concrete state and message gets an ordinal, and the transitions are
+ * compiled into a dense array indexed by {@code state * messages + message}, so dispatching is two class lookups
+ * and one array read.
+ * <p>
+ * A transition declared on a sealed sub-interface, or on the root, covers every concrete type under it.
+ * {@link Builder#build()} refuses a cell declared twice and a table with unhandled combinations, so a new state
+ * or command cannot be forgotten. Transitions from an absent state are optional, but once one is declared they
+ * must cover every message.
+ */
+public final class TransitionTable<S, M, R> {
+
+    private final Ordinals states;
+    private final Ordinals messages;
+    private final BiFunction<Object, Object, R>[] transitions;
+    private final Function<Object, R> @Nullable [] initials;
+
+    private TransitionTable(Ordinals states, Ordinals messages, BiFunction<Object, Object, R>[] transitions, Function<Object, R> @Nullable [] initials) {
+        this.states = states;
+        this.messages = messages;
+        this.transitions = transitions;
+        this.initials = initials;
+    }
+
+    public static <S, M, R> Builder<S, M, R> builder(Class<S> stateType, Class<M> messageType) {
+        return new Builder<>(stateType, messageType);
+    }
+
+    public R apply(S state, M message) {
+        return transitions[states.of(state) * messages.size() + messages.of(message)].apply(state, message);
+    }
+
+    public R apply(Optional<S> state, M message) {
+        if (state.isPresent())
+            return apply(state.get(), message);
+        if (initials == null)
+            throw new IllegalStateException("No transition from an absent state");
+        return initials[messages.of(message)].apply(message);
+    }
+
+    public static final class Builder<S, M, R> {
+
+        private final Ordinals states;
+        private final Ordinals messages;
+        private final BiFunction<Object, Object, R>[] transitions;
+        private final Function<Object, R>[] initials;
+        private boolean fromAbsent;
+
+        @SuppressWarnings("unchecked")
+        private Builder(Class<S> stateType, Class<M> messageType) {
+            this.states = new Ordinals(stateType);
+            this.messages = new Ordinals(messageType);
+            this.transitions = new BiFunction[states.size() * messages.size()];
+            this.initials = new Function[messages.size()];
+        }
+
+        @SuppressWarnings("unchecked")
+        public <T extends S, U extends M> Builder<S, M, R> on(Class<T> state, Class<U> message, BiFunction<? super T, ? super U, ? extends R> transition) {
+            for (int stateOrdinal : states.covered(state))
+                for (int messageOrdinal : messages.covered(message)) {
+                    final int cell = stateOrdinal * messages.size() + messageOrdinal;
+                    if (transitions[cell] != null)
+                        throw new IllegalArgumentException("Transition " + states.name(stateOrdinal) + " x " + messages.name(messageOrdinal) + " declared twice");
+                    transitions[cell] = (BiFunction<Object, Object, R>) transition;
+                }
+            return this;
+        }
+
+        @SuppressWarnings("unchecked")
+        public <U extends M> Builder<S, M, R> onAbsent(Class<U> message, Function<? super U, ? extends R> transition) {
+            fromAbsent = true;
+            for (int messageOrdinal : messages.covered(message)) {
+                if (initials[messageOrdinal] != null)
+                    throw new IllegalArgumentException("Transition from absent x " + messages.name(messageOrdinal) + " declared twice");
+                initials[messageOrdinal] = (Function<Object, R>) transition;
+            }
+            return this;
+        }
+
+        public TransitionTable<S, M, R> build() {
+            final StringJoiner missing = new StringJoiner(", ");
+            for (int cell = 0; cell < transitions.length; cell++)
+                if (transitions[cell] == null)
+                    missing.add(states.name(cell / messages.size()) + " x " + messages.name(cell % messages.size()));
+            if (fromAbsent)
+                for (int messageOrdinal = 0; messageOrdinal < initials.length; messageOrdinal++)
+                    if (initials[messageOrdinal] == null)
+                        missing.add("absent x " + messages.name(messageOrdinal));
+            if (missing.length() > 0)
+                throw new IllegalStateException("Unhandled transitions: " + missing);
+            return new TransitionTable<>(states, messages, transitions.clone(), fromAbsent ? initials.clone() : null);
+        }
+    }
+
+    /**
+     * Ordinals of the concrete types of a sealed hierarchy, in the order of the {@code permits} clauses.
+     */
+    private static final class Ordinals extends ClassValue<Integer> {
+
+        private final Class<?>[] leaves;
+
+        private Ordinals(Class<?> root) {
+            if (!root.isSealed())
+                throw new IllegalArgumentException(root.getName() + " is not sealed");
+            final List<Class<?>> leaves = new ArrayList<>();
+            collect(root, leaves);
+            this.leaves = leaves.toArray(Class<?>[]::new);
+        }
+
+        int size() {
+            return leaves.length;
+        }
+
+        int of(Object value) {
+            return get(value.getClass());
+        }
+
+        String name(int ordinal) {
+            return leaves[ordinal].getSimpleName();
+        }
+
+        int[] covered(Class<?> type) {
+            final int[] covered = Arrays.stream(leaves).filter(type::isAssignableFrom).mapToInt(this::get).toArray();
+            if (covered.length == 0)
+                throw new IllegalArgumentException(type.getName() + " is not part of the hierarchy");
+            return covered;
+        }
+
+        @Override
+        protected Integer computeValue(Class<?> type) {
+            for (int ordinal = 0; ordinal < leaves.length; ordinal++)
+                if (leaves[ordinal] == type)
+                    return ordinal;
+            throw new IllegalArgumentException(type.getName() + " is not a concrete type of the hierarchy");
+        }
+
+        private static void collect(Class<?> type, List<Class<?>> leaves) {
+            if (!type.isSealed()) {
+                leaves.add(type);
+                return;
+            }
+            for (Class<?> permitted : type.getPermittedSubclasses())
+                collect(permitted, leaves);
+        }
+    }
+}
@@ -0,0 +1,54 @@
+package fr.depix.bulb_manager.framework.id;
+
+import fr.depix.bulb_manager.framework.annotation.EventIdGenerator;
+
+import java.time.Clock;
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * UUIDv7 layout: 48 bits of unix milliseconds, the version, a 12 bits sequence and 62 random bits.
+ * <p>
+ * Each thread keeps its own last timestamp and sequence, so ids are strictly increasing per thread without
+ * any shared state, and ids of different threads sort by millisecond. When a thread exhausts the sequence
+ * within one millisecond, it borrows the next millisecond rather than going back in time.
+ */
+public class TimeOrderedEventIdGenerator implements EventIdGenerator {
+
+    private static final long VERSION = 0x7000L;
+    private static final long VARIANT = 0x8000_0000_0000_0000L;
+    private static final int SEQUENCE_BITS = 12;
+    private static final long MAX_SEQUENCE = (1L << SEQUENCE_BITS) - 1;
+
+    private final Clock clock;
+    private final ThreadLocal<State> states = ThreadLocal.withInitial(State::new);
+
+    public TimeOrderedEventIdGenerator(Clock clock) {
+        this.clock = clock;
+    }
+
+    @Override
+    public UUID nextId() {
+        final State state = states.get();
+        final ThreadLocalRandom random = ThreadLocalRandom.current();
+        final long now = clock.millis();
+        if (now > state.millis) {
+            state.millis = now;
+            // start low in the sequence space so the same millisecond leaves room for many more ids
+            state.sequence = random.nextLong(MAX_SEQUENCE >>> 1);
+        } else if (state.sequence < MAX_SEQUENCE) {
+            state.sequence++;
+        } else {
+            state.millis++;
+            state.sequence = 0L;
+        }
+        return new UUID(state.millis << 16 | VERSION | state.sequence,
+                        VARIANT | random.nextLong() >>> 2);
+    }
+
+    private static final class State {
+
+        private long millis = Long.MIN_VALUE;
+        private long sequence;
+    }
+}
@@ -0,0 +1,32 @@
+package fr.depix.bulb_manager.framework.metrics;
+
+/**
+ * Counts the lookups and evictions of a cache, {@link #NOOP} records nothing.
+ */
+public interface CacheMetrics {
+
+    CacheMetrics NOOP = new CacheMetrics() {
+
+        @Override
+        public void hit() {
+        }
+
+        @Override
+        public void miss() {
+        }
+
+        @Override
+        public void eviction(Cause cause) {
+        }
+    };
+
+    enum Cause {
+        SIZE, IDLE
+    }
+
+    void hit();
+
+    void miss();
+
+    void eviction(Cause cause);
+}
@@ -0,0 +1,48 @@
+package fr.depix.bulb_manager.framework.metrics;
+
+import fr.depix.bulb_manager.framework.annotation.Command;
+
+/**
+ * Times the phases of a command handling. {@link #NOOP} hands out a shared sample that records nothing, so
+ * handlers without a metrics backend neither read the clock nor allocate.
+ */
+public interface CommandMetrics {
+
+    CommandMetrics NOOP = command -> Sample.NOOP;
+
+    Sample start(Command<?> command);
+
+    enum Phase {
+        LOAD, DECIDE, EVOLVE, SAVE
+    }
+
+    interface Sample {
+
+        Sample NOOP = new Sample() {
+
+            @Override
+            public void mark(Phase phase) {
+            }
+
+            @Override
+            public void conflict() {
+            }
+
+            @Override
+            public void stop(boolean success) {
+            }
+        };
+
+        /**
+         * Adds the time elapsed since the previous mark (or the start) to {@code phase}.
+         */
+        void mark(Phase phase);
+
+        void conflict();
+
+        /**
+         * Records the time elapsed since the start, and the time of each marked phase.
+         */
+        void stop(boolean success);
+    }
+}
@@ -0,0 +1,55 @@
+package fr.depix.bulb_manager.framework.metrics;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+
+/**
+ * Publishes, per domain and cache:
+ * <ul>
+ *     <li>{@code decider.cache.lookups}: lookups tagged by result ({@code hit} or {@code miss}), the hit rate being
+ *     the share of hits</li>
+ *     <li>{@code decider.cache.evictions}: entries dropped, tagged by cause ({@code size} or {@code idle})</li>
+ * </ul>
+ */
+public class MicrometerCacheMetrics implements CacheMetrics {
+
+    private final Counter hits;
+    private final Counter misses;
+    private final Counter[] evictions;
+
+    public MicrometerCacheMetrics(MeterRegistry registry, String domain, String cache) {
+        this.hits = lookups(registry, domain, cache, "hit");
+        this.misses = lookups(registry, domain, cache, "miss");
+        final Cause[] causes = Cause.values();
+        this.evictions = new Counter[causes.length];
+        for (Cause cause : causes)
+            evictions[cause.ordinal()] = Counter.builder("decider.cache.evictions")
+                                                .tag("domain", domain)
+                                                .tag("cache", cache)
+                                                .tag("cause", cause.name().toLowerCase())
+                                                .register(registry);
+    }
+
+    @Override
+    public void hit() {
+        hits.increment();
+    }
+
+    @Override
+    public void miss() {
+        misses.increment();
+    }
+
+    @Override
+    public void eviction(Cause cause) {
+        evictions[cause.ordinal()].increment();
+    }
+
+    private static Counter lookups(MeterRegistry registry, String domain, String cache, String result) {
+        return Counter.builder("decider.cache.lookups")
+                      .tag("domain", domain)
+                      .tag("cache", cache)
+                      .tag("result", result)
+                      .register(registry);
+    }
+}
@@ -0,0 +1,110 @@
+package fr.depix.bulb_manager.framework.metrics;
+
+import fr.depix.bulb_manager.framework.annotation.Command;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Publishes, per domain and command type:
+ * <ul>
+ *     <li>{@code decider.command}: total handling time, tagged by outcome ({@code success} or {@code error})</li>
+ *     <li>{@code decider.command.phase}: time spent in load, decide, evolve and save, tagged by phase and outcome</li>
+ *     <li>{@code decider.command.conflicts}: saves lost to a concurrent writer, which made the command run again</li>
+ * </ul>
+ * Timers publish percentile histograms. Meters are resolved once per command type.
+ */
+public class MicrometerCommandMetrics implements CommandMetrics {
+
+    private static final String[] OUTCOMES = {"success", "error"};
+
+    private final MeterRegistry registry;
+    private final String domain;
+    private final ConcurrentMap<Class<?>, Meters> meters = new ConcurrentHashMap<>();
+
+    public MicrometerCommandMetrics(MeterRegistry registry, String domain) {
+        this.registry = registry;
+        this.domain = domain;
+    }
+
+    @Override
+    public Sample start(Command<?> command) {
+        return new TimedSample(meters.computeIfAbsent(command.getClass(), this::register));
+    }
+
+    private Meters register(Class<?> commandType) {
+        final Phase[] phases = Phase.values();
+        final Timer[] totals = new Timer[OUTCOMES.length];
+        final Timer[][] phaseTimers = new Timer[OUTCOMES.length][phases.length];
+        for (int outcome = 0; outcome < OUTCOMES.length; outcome++) {
+            totals[outcome] = Timer.builder("decider.command")
+                                   .tag("domain", domain)
+                                   .tag("command", commandType.getSimpleName())
+                                   .tag("outcome", OUTCOMES[outcome])
+                                   .publishPercentileHistogram()
+                                   .register(registry);
+            for (Phase phase : phases)
+                phaseTimers[outcome][phase.ordinal()] = Timer.builder("decider.command.phase")
+                                                             .tag("domain", domain)
+                                                             .tag("command", commandType.getSimpleName())
+                                                             .tag("phase", phase.name().toLowerCase())
+                                                             .tag("outcome", OUTCOMES[outcome])
+                                                             .publishPercentileHistogram()
+                                                             .register(registry);
+        }
+        final Counter conflicts = Counter.builder("decider.command.conflicts")
+                                         .tag("domain", domain)
+                                         .tag("command", commandType.getSimpleName())
+                                         .register(registry);
+        return new Meters(totals, phaseTimers, conflicts);
+    }
+
+    private record Meters(
+            Timer[] totals,
+            Timer[][] phases,
+            Counter conflicts
+    ) {
+
+    }
+
+    private static final class TimedSample implements Sample {
+
+        private final Meters meters;
+        private final long start;
+        private final long[] elapsed = new long[Phase.values().length];
+        private int marked;
+        private long last;
+
+        private TimedSample(Meters meters) {
+            this.meters = meters;
+            this.start = System.nanoTime();
+            this.last = start;
+        }
+
+        @Override
+        public void mark(Phase phase) {
+            final long now = System.nanoTime();
+            elapsed[phase.ordinal()] += now - last;
+            marked |= 1 << phase.ordinal();
+            last = now;
+        }
+
+        @Override
+        public void conflict() {
+            meters.conflicts().increment();
+        }
+
+        @Override
+        public void stop(boolean success) {
+            final int outcome = success ? 0 : 1;
+            meters.totals()[outcome].record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+            for (int phase = 0; phase < elapsed.length; phase++)
+                if ((marked & 1 << phase) != 0)
+                    meters.phases()[outcome][phase].record(elapsed[phase], TimeUnit.NANOSECONDS);
+        }
+    }
+}
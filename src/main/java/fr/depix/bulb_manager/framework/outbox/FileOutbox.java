@@ -0,0 +1,178 @@
+package fr.depix.bulb_manager.framework.outbox;
+
+import fr.depix.bulb_manager.framework.annotation.Event;
+import fr.depix.bulb_manager.framework.annotation.EventStore;
+import fr.depix.bulb_manager.framework.annotation.EventStore.Commit;
+import fr.depix.bulb_manager.framework.annotation.Identifier;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
+
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+/**
+ * Outbox between the event log and slow event listeners. The command path only appends to the {@link EventStore},
+ * before the repository save, so an acknowledged command always has its events in the outbox and the listeners
+ * never fail a command. A dispatcher thread reads the log in batches from a file-backed checkpoint: the commits of
+ * one batch are grouped by aggregate and the groups are delivered in parallel on virtual threads. A listener that
+ * throws is retried with a capped backoff from the event that failed.
+ * <p>
+ * A batch is fully delivered before the next one is read, and the log orders the commits of one aggregate by
+ * version, so every aggregate receives its events in version order, across batches as well.
+ * <p>
+ * Delivery is at least once: the log position of the last fully delivered batch is checkpointed after each batch,
+ * and the commits after it are delivered again when the outbox is reopened.
+ */
+public class FileOutbox<I extends Identifier, E extends Event<I>> implements AutoCloseable {
+
+    private static final int DEFAULT_BATCH_SIZE = 1024;
+    private static final Duration DEFAULT_DISPATCH_INTERVAL = Duration.ofMillis(5);
+    private static final long INITIAL_RETRY_NANOS = Duration.ofMillis(1).toNanos();
+    private static final long MAX_RETRY_NANOS = Duration.ofSeconds(1).toNanos();
+
+    private final EventStore<I, E> log;
+    private final Consumer<? super E> listener;
+    private final int batchSize;
+    private final long dispatchIntervalNanos;
+    private final FileChannel checkpoint;
+    private final ExecutorService deliveries = Executors.newVirtualThreadPerTaskExecutor();
+    private final Thread dispatcher;
+    private volatile boolean running = true;
+    private long delivered;
+
+    public FileOutbox(Path directory, EventStore<I, E> log, Consumer<? super E> listener) {
+        this(directory, log, listener, DEFAULT_BATCH_SIZE, DEFAULT_DISPATCH_INTERVAL);
+    }
+
+    public FileOutbox(Path directory, EventStore<I, E> log, Consumer<? super E> listener, int batchSize, Duration dispatchInterval) {
+        if (batchSize < 1)
+            throw new IllegalArgumentException("Batch size must be positive");
+        this.log = log;
+        this.listener = listener;
+        this.batchSize = batchSize;
+        this.dispatchIntervalNanos = dispatchInterval.toNanos();
+        try {
+            Files.createDirectories(directory);
+            this.checkpoint = FileChannel.open(directory.resolve("outbox.checkpoint"), CREATE, READ, WRITE);
+            this.delivered = recover();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        this.dispatcher = Thread.ofPlatform()
+                                .name("outbox-" + directory.getFileName())
+                                .daemon()
+                                .start(this::run);
+    }
+
+    /**
+     * Delivers the commits appended so far and stops the dispatcher. Commits that could not be delivered are
+     * delivered again when the outbox is reopened.
+     */
+    @Override
+    public void close() {
+        running = false;
+        LockSupport.unpark(dispatcher);
+        try {
+            dispatcher.join();
+            deliveries.close();
+            checkpoint.force(false);
+            checkpoint.close();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private void run() {
+        final List<Commit<I, E>> batch = new ArrayList<>(batchSize);
+        boolean backlog = false;
+        while (true) {
+            final boolean stopping = !running;
+            // commits appended during the interval are grouped in one batch, unless a backlog is waiting
+            if (!stopping && !backlog)
+                LockSupport.parkNanos(this, dispatchIntervalNanos);
+            final long next = log.forEachCommitSince(delivered, batchSize, batch::add);
+            backlog = batch.size() == batchSize;
+            if (!batch.isEmpty()) {
+                if (!dispatch(batch))
+                    return;
+                saveCheckpoint(next);
+            }
+            batch.clear();
+            if (stopping && !backlog)
+                return;
+        }
+    }
+
+    /**
+     * @return {@code false} when the outbox was closed before every commit of {@code batch} was delivered
+     */
+    private boolean dispatch(List<Commit<I, E>> batch) {
+        final Map<I, List<Commit<I, E>>> byAggregate = new LinkedHashMap<>();
+        for (Commit<I, E> commit : batch)
+            byAggregate.computeIfAbsent(commit.id(), ignored -> new ArrayList<>()).add(commit);
+        final List<CompletableFuture<Boolean>> groups = new ArrayList<>(byAggregate.size());
+        for (List<Commit<I, E>> commits : byAggregate.values())
+            groups.add(CompletableFuture.supplyAsync(() -> deliver(commits), deliveries));
+        boolean delivered = true;
+        for (CompletableFuture<Boolean> group : groups)
+            delivered &= group.join();
+        return delivered;
+    }
+
+    private boolean deliver(List<Commit<I, E>> commits) {
+        for (Commit<I, E> commit : commits)
+            for (E event : commit.events())
+                for (int attempt = 0; ; attempt++) {
+                    try {
+                        listener.accept(event);
+                        break;
+                    } catch (RuntimeException e) {
+                        if (!running)
+                            return false;
+                        LockSupport.parkNanos(Math.min(MAX_RETRY_NANOS, INITIAL_RETRY_NANOS << Math.min(attempt, 20)));
+                    }
+                }
+        return true;
+    }
+
+    private void saveCheckpoint(long position) {
+        delivered = position;
+        try {
+            checkpoint.write(ByteBuffer.allocate(Long.BYTES).putLong(0, position), 0L);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * @return the log position to deliver from
+     */
+    private long recover() throws IOException {
+        if (checkpoint.size() < Long.BYTES)
+            return 0L;
+        final ByteBuffer position = ByteBuffer.allocate(Long.BYTES);
+        while (position.hasRemaining())
+            if (checkpoint.read(position, position.position()) < 0)
+                throw new IOException("Unexpected end of outbox checkpoint");
+        // a checkpoint past the end of the log covers a tail the log lost, the appends replacing it are delivered
+        return Math.min(position.getLong(0), log.position());
+    }
+}
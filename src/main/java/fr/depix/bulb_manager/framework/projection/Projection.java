@@ -0,0 +1,426 @@
+package fr.depix.bulb_manager.framework.projection;
+
+import fr.depix.bulb_manager.framework.annotation.Aggregate;
+import fr.depix.bulb_manager.framework.annotation.Domain;
+import fr.depix.bulb_manager.framework.annotation.Event;
+import fr.depix.bulb_manager.framework.annotation.EventPublisher;
+import fr.depix.bulb_manager.framework.annotation.Identifier;
+import fr.depix.bulb_manager.framework.annotation.Repository;
+import fr.depix.bulb_manager.framework.codec.Codec;
+import org.jspecify.annotations.Nullable;
+
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.BiFunction;
+import java.util.function.ToLongFunction;
+
+/**
+ * Read model fed by the commits of a command handler. Publishing only enqueues the commit, a single virtual
+ * thread drains the queue in batches and folds each commit into the view of its aggregate.
+ * <p>
+ * Views are eventually consistent: {@link #find(Identifier)} returns whatever has been applied so far,
+ * {@link #find(Identifier, long, Duration)} waits for a given version to read its own writes, and
+ * {@link #latest(Duration)} waits for every commit published before the call to be processed.
+ * <p>
+ * Views are kept encoded with the snapshot codec of the domain in fixed slots of {@code viewBytes}, in tables
+ * holding at most {@code capacity} views: ids are mapped to a {@code long} key, each key is looked up in a window
+ * of {@value #PROBES} slots and a full window drops the view at its home slot. A view that was dropped, or never
+ * fitted in a slot, is read from the repository instead. The queue holds at most {@code queueCapacity} commits,
+ * publishers wait for room when the projection falls behind.
+ * <p>
+ * A commit is applied only on top of the version it was decided against, or on no view for a creation. Any other
+ * commit reveals a gap, a commit that arrived out of order or was lost, and the view is reloaded from the
+ * repository, which already holds the state of every published commit, before the commit is applied on top of it
+ * when it still fits.
+ */
+public class Projection<I extends Identifier, E extends Event<I>, V extends Aggregate<I>> implements EventPublisher<I, E>, AutoCloseable {
+
+    private static final int DEFAULT_CAPACITY = 1 << 16;
+    private static final int DEFAULT_VIEW_BYTES = 32;
+    private static final int DEFAULT_QUEUE_CAPACITY = 4096;
+    private static final int DEFAULT_BATCH_SIZE = 256;
+    private static final int SHARDS = 64;
+    private static final int PROBES = 8;
+    private static final long ABSENT = -1L;
+    private static final long OFFER_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+
+    private final BiFunction<Optional<V>, List<E>, V> fold;
+    private final Repository<V, I> repository;
+    private final Codec<V> codec;
+    private final ToLongFunction<? super I> key;
+    private final int viewBytes;
+    private final int batchSize;
+    private final Shard[] shards = new Shard[SHARDS];
+    private final BlockingQueue<Update<I, E, V>> queue;
+    private final LongAdder published = new LongAdder();
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition progressed = lock.newCondition();
+    private final Thread worker;
+    // commits processed, applied or answered by a reload
+    private volatile long processed;
+    @Nullable
+    private volatile V last;
+    @Nullable
+    private volatile RuntimeException failure;
+
+    public Projection(Domain<V, I, ?, ?, E, ?, ?, ?, ?> domain, ToLongFunction<? super I> key) {
+        this(domain, key, DEFAULT_CAPACITY, DEFAULT_VIEW_BYTES, DEFAULT_QUEUE_CAPACITY, DEFAULT_BATCH_SIZE);
+    }
+
+    public Projection(Domain<V, I, ?, ?, E, ?, ?, ?, ?> domain, ToLongFunction<? super I> key, int capacity, int viewBytes, int queueCapacity, int batchSize) {
+        if (capacity < 1 || viewBytes < 1 || queueCapacity < 1 || batchSize < 1)
+            throw new IllegalArgumentException("Capacity, view bytes, queue capacity and batch size must be positive");
+        this.fold = domain.evolve();
+        this.repository = domain.repository().get();
+        this.codec = domain.snapshotCodec()
+                           .orElseThrow(() -> new IllegalArgumentException("Domain has no codec for its aggregates"));
+        this.key = key;
+        this.viewBytes = viewBytes;
+        this.batchSize = batchSize;
+        final int shardCapacity = Math.max(PROBES, Integer.highestOneBit(Math.max(1, (capacity - 1) / SHARDS)) << 1);
+        for (int index = 0; index < SHARDS; index++)
+            shards[index] = new Shard(shardCapacity, viewBytes);
+        this.queue = new ArrayBlockingQueue<>(queueCapacity);
+        this.worker = Thread.ofVirtual()
+                            .name("projection")
+                            .start(this::drain);
+    }
+
+    /**
+     * Waits for room in the queue. A commit that can not be enqueued, because the projection stopped or the
+     * publisher was interrupted, is dropped: the next commit of its aggregate reloads the view.
+     */
+    @Override
+    public void publish(I id, Optional<Long> expectedVersion, Long newVersion, List<E> events) {
+        if (enqueue(new Commit<>(id, expectedVersion, newVersion, events)))
+            published.increment();
+    }
+
+    /**
+     * Sets the view of {@code id} to {@code state} at {@code version} unless a later version is already applied.
+     */
+    public void seed(I id, V state, long version) {
+        enqueue(new Seed<>(id, state, version));
+    }
+
+    public Optional<V> find(I id) {
+        final long key = this.key.applyAsLong(id);
+        final byte @Nullable [] view = shard(key).read(key);
+        return view == null ? repository.findAggregateById(id) : Optional.of(decode(view));
+    }
+
+    /**
+     * Waits until the view of {@code id} reaches {@code atLeastVersion}.
+     *
+     * @return empty when the view is still behind after {@code timeout}
+     */
+    public Optional<V> find(I id, long atLeastVersion, Duration timeout) {
+        Optional<V> state = find(id);
+        if (state.isPresent() && state.get().aggregateVersion() >= atLeastVersion)
+            return state;
+
+        long nanos = timeout.toNanos();
+        lock.lock();
+        try {
+            while ((state = find(id)).isEmpty() || state.get().aggregateVersion() < atLeastVersion) {
+                if (nanos <= 0L)
+                    return Optional.empty();
+                checkRunning();
+                nanos = progressed.awaitNanos(nanos);
+            }
+            return state;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return Optional.empty();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Waits until every commit published before this call is processed.
+     *
+     * @return the last view applied, empty when none was or when the commits are still not processed after
+     * {@code timeout}
+     */
+    public Optional<V> latest(Duration timeout) {
+        final long target = published.sum();
+        if (processed < target) {
+            long nanos = timeout.toNanos();
+            lock.lock();
+            try {
+                while (processed < target) {
+                    if (nanos <= 0L)
+                        return Optional.empty();
+                    checkRunning();
+                    nanos = progressed.awaitNanos(nanos);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return Optional.empty();
+            } finally {
+                lock.unlock();
+            }
+        }
+        return Optional.ofNullable(last);
+    }
+
+    @Override
+    public void close() {
+        worker.interrupt();
+        try {
+            worker.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private boolean enqueue(Update<I, E, V> update) {
+        try {
+            while (!queue.offer(update, OFFER_NANOS, TimeUnit.NANOSECONDS))
+                if (failure != null)
+                    return false;
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    private void drain() {
+        final List<Update<I, E, V>> batch = new ArrayList<>(batchSize);
+        try {
+            while (true) {
+                batch.add(queue.take());
+                queue.drainTo(batch, batchSize - 1);
+                long count = 0L;
+                for (Update<I, E, V> update : batch) {
+                    switch (update) {
+                        case Commit<I, E, V> commit -> {
+                            apply(commit);
+                            count++;
+                        }
+                        case Seed<I, E, V> seed -> apply(seed);
+                    }
+                }
+                batch.clear();
+                signal(count);
+            }
+        } catch (InterruptedException e) {
+            failure = new IllegalStateException("Projection closed");
+            signal(0L);
+        } catch (RuntimeException e) {
+            failure = e;
+            signal(0L);
+        }
+    }
+
+    private void apply(Commit<I, E, V> commit) {
+        final long key = this.key.applyAsLong(commit.id());
+        final Shard shard = shard(key);
+        long version = shard.version(key);
+        V state = null;
+        if (!fits(commit, version)) {
+            // out of order or lost commits: the repository holds the state of every published commit
+            state = repository.findAggregateById(commit.id()).orElse(null);
+            store(shard, key, state);
+            version = state == null ? ABSENT : state.aggregateVersion();
+            if (!fits(commit, version))
+                return;
+        }
+        if (state == null && version != ABSENT)
+            state = decode(shard.read(key));
+        store(shard, key, fold.apply(Optional.ofNullable(state), commit.events()));
+    }
+
+    private void apply(Seed<I, E, V> seed) {
+        final long key = this.key.applyAsLong(seed.id());
+        final Shard shard = shard(key);
+        if (shard.version(key) < seed.version())
+            store(shard, key, seed.state());
+    }
+
+    private static boolean fits(Commit<?, ?, ?> commit, long version) {
+        return commit.expectedVersion().map(expected -> expected == version).orElse(version == ABSENT);
+    }
+
+    private void store(Shard shard, long key, @Nullable V state) {
+        if (state == null) {
+            shard.remove(key);
+            return;
+        }
+        last = state;
+        final int size = codec.sizeOf(state);
+        if (size > viewBytes) {
+            // too large for a slot, read from the repository instead
+            shard.remove(key);
+            return;
+        }
+        final ByteBuffer buffer = ByteBuffer.allocate(size);
+        codec.encode(state, buffer);
+        shard.write(key, state.aggregateVersion(), buffer.array());
+    }
+
+    private V decode(byte @Nullable [] bytes) {
+        if (bytes == null)
+            throw new IllegalStateException("View vanished while being applied");
+        return codec.decode(ByteBuffer.wrap(bytes));
+    }
+
+    private Shard shard(long key) {
+        return shards[(int) (mix(key) >>> 58)];
+    }
+
+    private void signal(long count) {
+        lock.lock();
+        try {
+            processed += count;
+            progressed.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void checkRunning() {
+        final RuntimeException cause = failure;
+        if (cause != null)
+            throw new IllegalStateException("Projection stopped", cause);
+    }
+
+    private static long mix(long key) {
+        long hash = key * 0x9E3779B97F4A7C15L;
+        hash ^= hash >>> 32;
+        hash *= 0xC2B2AE3D27D4EB4FL;
+        return hash ^ hash >>> 29;
+    }
+
+    /**
+     * Slots of one shard: the key, version and encoded length of each view in primitive arrays, a zero length
+     * marking a free slot, and the encoded views back to back in a single byte array. Only the worker writes,
+     * readers use optimistic reads.
+     */
+    private static final class Shard {
+
+        private final StampedLock lock = new StampedLock();
+        private final long[] keys;
+        private final long[] versions;
+        private final int[] lengths;
+        private final byte[] views;
+        private final int viewBytes;
+        private final int mask;
+
+        private Shard(int capacity, int viewBytes) {
+            this.keys = new long[capacity];
+            this.versions = new long[capacity];
+            this.lengths = new int[capacity];
+            this.views = new byte[capacity * viewBytes];
+            this.viewBytes = viewBytes;
+            this.mask = capacity - 1;
+        }
+
+        /**
+         * @return the version of the view of {@code key}, {@value #ABSENT} when there is none. Worker only.
+         */
+        private long version(long key) {
+            final int slot = find(key);
+            return slot < 0 ? ABSENT : versions[slot];
+        }
+
+        private byte @Nullable [] read(long key) {
+            long stamp = lock.tryOptimisticRead();
+            byte[] bytes;
+            while (true) {
+                final int slot = find(key);
+                bytes = slot < 0 ? null : Arrays.copyOfRange(views, slot * viewBytes, slot * viewBytes + Math.clamp(lengths[slot], 0, viewBytes));
+                if (lock.validate(stamp))
+                    break;
+                // the worker wrote the shard during the lookup: read again under the read lock
+                stamp = lock.readLock();
+            }
+            if (StampedLock.isReadLockStamp(stamp))
+                lock.unlockRead(stamp);
+            return bytes;
+        }
+
+        private void write(long key, long version, byte[] bytes) {
+            final long stamp = lock.writeLock();
+            try {
+                int slot = find(key);
+                if (slot < 0)
+                    slot = claim(key);
+                keys[slot] = key;
+                versions[slot] = version;
+                lengths[slot] = bytes.length;
+                System.arraycopy(bytes, 0, views, slot * viewBytes, bytes.length);
+            } finally {
+                lock.unlockWrite(stamp);
+            }
+        }
+
+        private void remove(long key) {
+            final long stamp = lock.writeLock();
+            try {
+                final int slot = find(key);
+                if (slot >= 0)
+                    lengths[slot] = 0;
+            } finally {
+                lock.unlockWrite(stamp);
+            }
+        }
+
+        private int find(long key) {
+            final int home = (int) mix(key) & mask;
+            for (int probe = 0; probe < PROBES; probe++) {
+                final int slot = home + probe & mask;
+                if (lengths[slot] != 0 && keys[slot] == key)
+                    return slot;
+            }
+            return -1;
+        }
+
+        /**
+         * @return the first free slot of the window of {@code key}, its home slot when the window is full
+         */
+        private int claim(long key) {
+            final int home = (int) mix(key) & mask;
+            for (int probe = 0; probe < PROBES; probe++) {
+                final int slot = home + probe & mask;
+                if (lengths[slot] == 0)
+                    return slot;
+            }
+            return home;
+        }
+    }
+
+    private sealed interface Update<I, E, V> permits Commit, Seed {
+
+    }
+
+    private record Commit<I, E, V>(
+            I id,
+            Optional<Long> expectedVersion,
+            Long newVersion,
+            List<E> events
+    ) implements Update<I, E, V> {
+
+    }
+
+    private record Seed<I, E, V>(
+            I id,
+            V state,
+            long version
+    ) implements Update<I, E, V> {
+
+    }
+}
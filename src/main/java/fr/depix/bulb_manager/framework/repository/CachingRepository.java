@@ -0,0 +1,218 @@
+package fr.depix.bulb_manager.framework.repository;
+
+import fr.depix.bulb_manager.framework.annotation.Aggregate;
+import fr.depix.bulb_manager.framework.annotation.Identifier;
+import fr.depix.bulb_manager.framework.annotation.Repository;
+import fr.depix.bulb_manager.framework.metrics.CacheMetrics;
+import fr.depix.bulb_manager.framework.metrics.CacheMetrics.Cause;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+
+/**
+ * Read-through cache in front of a slower repository. Loads are served from memory once an aggregate was read
+ * or saved through the cache, the others go to the backing repository and are cached on the way back.
+ * <p>
+ * The cache keeps at most {@code maximumSize} aggregates, spread over independently locked shards, each one
+ * dropping its least recently used aggregate when full and the aggregates left unread for {@code idleTimeout}.
+ * A cached state is only replaced by a state of the same or a newer version, so a slow load can not overwrite
+ * the state a concurrent save just cached. A save lost to a writer that bypassed the cache drops the cached state.
+ * A load that raced with such an invalidation or with a removal is returned but not cached, so a removed aggregate
+ * is never cached again by a load that read it before its removal.
+ */
+public class CachingRepository<A extends Aggregate<I>, I extends Identifier> implements Repository<A, I> {
+
+    private static final long SAVED = -1L;
+
+    private final Repository<A, I> backing;
+    private final Shard[] shards;
+    private final int mask;
+    private final long idleMillis;
+    private final CacheMetrics metrics;
+    private final Clock clock;
+
+    public CachingRepository(Repository<A, I> backing, int maximumSize, Duration idleTimeout) {
+        this(backing, maximumSize, idleTimeout, CacheMetrics.NOOP);
+    }
+
+    public CachingRepository(Repository<A, I> backing, int maximumSize, Duration idleTimeout, CacheMetrics metrics) {
+        this(backing, maximumSize, idleTimeout, metrics, Clock.systemUTC());
+    }
+
+    @SuppressWarnings("unchecked")
+    public CachingRepository(Repository<A, I> backing, int maximumSize, Duration idleTimeout, CacheMetrics metrics, Clock clock) {
+        if (maximumSize < 1)
+            throw new IllegalArgumentException("Maximum size must be positive");
+        this.backing = backing;
+        // a shard per core keeps threads apart, but never shards holding a single aggregate
+        final int shardCount = Math.min(Integer.highestOneBit(Runtime.getRuntime().availableProcessors() * 4 - 1) << 1,
+                                        Integer.highestOneBit(maximumSize));
+        this.shards = new CachingRepository.Shard[shardCount];
+        for (int index = 0; index < shardCount; index++)
+            shards[index] = new Shard(maximumSize / shardCount);
+        this.mask = shardCount - 1;
+        this.idleMillis = idleTimeout.toMillis();
+        this.metrics = metrics;
+        this.clock = clock;
+    }
+
+    @Override
+    public Optional<A> findAggregateById(I id) {
+        final Shard shard = shardOf(id);
+        final long now = clock.millis();
+        final long invalidations;
+        shard.lock.lock();
+        try {
+            shard.expire(now);
+            final Entry<A> entry = shard.entries.get(id);
+            if (entry != null) {
+                entry.lastAccess = now;
+                metrics.hit();
+                return Optional.of(entry.state);
+            }
+            invalidations = shard.invalidations;
+        } finally {
+            shard.lock.unlock();
+        }
+        metrics.miss();
+        final Optional<A> loaded = backing.findAggregateById(id);
+        loaded.ifPresent(state -> cache(state, invalidations));
+        return loaded;
+    }
+
+    @Override
+    public void save(A newState) {
+        backing.save(newState);
+        cache(newState);
+    }
+
+    @Override
+    public void saveAll(List<A> newStates) {
+        backing.saveAll(newStates);
+        newStates.forEach(this::cache);
+    }
+
+    @Override
+    public boolean compareAndSave(Optional<A> expected, A newState) {
+        if (backing.compareAndSave(expected, newState)) {
+            cache(newState);
+            return true;
+        }
+        // the cached state, if any, is older than the stored one
+        invalidate(newState.id());
+        return false;
+    }
+
+    @Override
+    public boolean compareAndRemove(A expected) {
+        final boolean removed = backing.compareAndRemove(expected);
+        invalidate(expected.id());
+        return removed;
+    }
+
+    /**
+     * Lists the backing repository, which every save reaches before the cache.
+     */
+    @Override
+    public void forEachAggregate(Consumer<? super A> consumer) {
+        backing.forEachAggregate(consumer);
+    }
+
+    public int size() {
+        int size = 0;
+        for (Shard shard : shards) {
+            shard.lock.lock();
+            try {
+                size += shard.entries.size();
+            } finally {
+                shard.lock.unlock();
+            }
+        }
+        return size;
+    }
+
+    private void cache(A state) {
+        cache(state, SAVED);
+    }
+
+    /**
+     * @param invalidations the invalidations of the shard when {@code state} was loaded, or {@link #SAVED} for a
+     *                      state this cache saved
+     */
+    private void cache(A state, long invalidations) {
+        final Shard shard = shardOf(state.id());
+        final long now = clock.millis();
+        shard.lock.lock();
+        try {
+            shard.expire(now);
+            // the load may have read a state invalidated meanwhile
+            if (invalidations != SAVED && invalidations != shard.invalidations)
+                return;
+            final Entry<A> current = shard.entries.get(state.id());
+            if (current != null && current.state.aggregateVersion() > state.aggregateVersion())
+                return;
+            shard.entries.put(state.id(), new Entry<>(state, now));
+            if (shard.entries.size() > shard.capacity) {
+                shard.entries.pollFirstEntry();
+                metrics.eviction(Cause.SIZE);
+            }
+        } finally {
+            shard.lock.unlock();
+        }
+    }
+
+    private void invalidate(I id) {
+        final Shard shard = shardOf(id);
+        shard.lock.lock();
+        try {
+            shard.entries.remove(id);
+            shard.invalidations++;
+        } finally {
+            shard.lock.unlock();
+        }
+    }
+
+    private Shard shardOf(I id) {
+        final int hash = id.hashCode();
+        return shards[(hash ^ (hash >>> 16)) & mask];
+    }
+
+    private static final class Entry<A> {
+
+        private final A state;
+        private long lastAccess;
+
+        private Entry(A state, long lastAccess) {
+            this.state = state;
+            this.lastAccess = lastAccess;
+        }
+    }
+
+    private final class Shard {
+
+        private final ReentrantLock lock = new ReentrantLock();
+        // access order: the least recently used aggregate comes first
+        private final LinkedHashMap<I, Entry<A>> entries = new LinkedHashMap<>(16, 0.75f, true);
+        private final int capacity;
+        private long invalidations;
+
+        private Shard(int capacity) {
+            this.capacity = capacity;
+        }
+
+        private void expire(long now) {
+            final Iterator<Map.Entry<I, Entry<A>>> leastRecentlyUsed = entries.entrySet().iterator();
+            while (leastRecentlyUsed.hasNext() && now - leastRecentlyUsed.next().getValue().lastAccess >= idleMillis) {
+                leastRecentlyUsed.remove();
+                metrics.eviction(Cause.IDLE);
+            }
+        }
+    }
+}
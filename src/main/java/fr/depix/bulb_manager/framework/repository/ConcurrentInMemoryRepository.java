@@ -0,0 +1,71 @@
+package fr.depix.bulb_manager.framework.repository;
+
+import fr.depix.bulb_manager.framework.annotation.Aggregate;
+import fr.depix.bulb_manager.framework.annotation.Identifier;
+import fr.depix.bulb_manager.framework.annotation.Repository;
+
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Consumer;
+
+/**
+ * Keyed in-memory repository. Reads are lock-free and writes only contend on the hash bin of the
+ * aggregate id, so independent aggregates never block each other.
+ */
+public class ConcurrentInMemoryRepository<A extends Aggregate<I>, I extends Identifier> implements Repository<A, I> {
+
+    private static final int DEFAULT_INITIAL_CAPACITY = 1 << 10;
+
+    private final ConcurrentMap<I, A> aggregates;
+
+    public ConcurrentInMemoryRepository() {
+        this(DEFAULT_INITIAL_CAPACITY);
+    }
+
+    public ConcurrentInMemoryRepository(int initialCapacity) {
+        this.aggregates = new ConcurrentHashMap<>(initialCapacity);
+    }
+
+    @Override
+    public Optional<A> findAggregateById(I id) {
+        return Optional.ofNullable(aggregates.get(id));
+    }
+
+    @Override
+    public void save(A newState) {
+        aggregates.put(newState.id(), newState);
+    }
+
+    @Override
+    public boolean compareAndSave(Optional<A> expected, A newState) {
+        if (expected.isEmpty())
+            return aggregates.putIfAbsent(newState.id(), newState) == null;
+
+        final A current = aggregates.get(newState.id());
+        return current != null
+                && current.aggregateVersion().equals(expected.get().aggregateVersion())
+                && aggregates.replace(newState.id(), current, newState);
+    }
+
+    @Override
+    public boolean compareAndRemove(A expected) {
+        final A current = aggregates.get(expected.id());
+        return current != null
+                && current.aggregateVersion().equals(expected.aggregateVersion())
+                && aggregates.remove(expected.id(), current);
+    }
+
+    @Override
+    public void forEachAggregate(Consumer<? super A> consumer) {
+        aggregates.values().forEach(consumer);
+    }
+
+    public int size() {
+        return aggregates.size();
+    }
+
+    public void clear() {
+        aggregates.clear();
+    }
+}
@@ -0,0 +1,447 @@
+package fr.depix.bulb_manager.framework.repository;
+
+import fr.depix.bulb_manager.framework.annotation.Aggregate;
+import fr.depix.bulb_manager.framework.annotation.Identifier;
+import fr.depix.bulb_manager.framework.annotation.Repository;
+import fr.depix.bulb_manager.framework.codec.Codec;
+import org.jspecify.annotations.Nullable;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+import java.util.zip.CRC32C;
+
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.TRUNCATE_EXISTING;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+/**
+ * Write-behind decorator of a durable repository. Saves are checked and acknowledged against an in-memory
+ * buffer holding the latest unflushed state of each aggregate, so repeated saves of one aggregate coalesce
+ * into a single write. A flusher thread writes the buffer to the backing repository in batches, as soon as
+ * {@code batchSize} aggregates are dirty or every {@code flushInterval}.
+ * <p>
+ * Every acknowledged save is first appended to a checksummed journal, and the journal is compacted down to the
+ * states still buffered after each flush: the compacted journal is written and forced aside, then renamed over the
+ * old one, so that a crash leaves either of them whole. When the journal is reopened, the latest journaled state of each
+ * aggregate is replayed into the backing repository, so nothing acknowledged is lost by a crash. With
+ * {@link Durability#BUFFERED} a save returns once its journal record is forced, concurrent saves sharing one
+ * force (group commit). With {@link Durability#FLUSHED} it returns once its batch is saved.
+ * <p>
+ * Journal layout: {@code int payloadLength, int crc32c, long sequence, int count, (int length, byte[] state) * count},
+ * the sequence ordering the saves of one aggregate.
+ */
+public class WriteBehindRepository<A extends Aggregate<I>, I extends Identifier> implements Repository<A, I>, AutoCloseable {
+
+    private static final int DEFAULT_BATCH_SIZE = 1024;
+    private static final Duration DEFAULT_FLUSH_INTERVAL = Duration.ofMillis(10);
+    private static final int RECORD_HEADER_SIZE = Integer.BYTES + Integer.BYTES;
+    private static final int SEQUENCE = RECORD_HEADER_SIZE;
+
+    public enum Durability {
+        BUFFERED, FLUSHED
+    }
+
+    private final Repository<A, I> backing;
+    private final Codec<A> codec;
+    private final Path journalPath;
+    // replaced by compaction under both journalLock and forceLock
+    private FileChannel journal;
+    private final Durability durability;
+    private final int batchSize;
+    private final long flushIntervalNanos;
+    private final ConcurrentMap<I, A> dirty = new ConcurrentHashMap<>();
+    // appends share the read lock, compaction takes the write lock so that no save is between its buffering and its record
+    private final ReadWriteLock journalLock = new ReentrantReadWriteLock();
+    private final Lock forceLock = new ReentrantLock();
+    private final AtomicLong journalEnd = new AtomicLong();
+    private final AtomicLong sequence = new AtomicLong();
+    private final AtomicLong appended = new AtomicLong();
+    private final Thread flusher;
+    // guarded by forceLock, the number of appended records known to be forced
+    private volatile long forced;
+    // bumped by the flusher between saving a batch and removing it from the buffer
+    private volatile long flushes;
+    private volatile CompletableFuture<Void> nextFlush = new CompletableFuture<>();
+    private volatile boolean flushRequested;
+    private volatile boolean running = true;
+    @Nullable
+    private volatile RuntimeException failure;
+
+    public WriteBehindRepository(Repository<A, I> backing, Path journal, Codec<A> codec, Durability durability) {
+        this(backing, journal, codec, durability, DEFAULT_BATCH_SIZE, DEFAULT_FLUSH_INTERVAL);
+    }
+
+    public WriteBehindRepository(Repository<A, I> backing, Path journal, Codec<A> codec, Durability durability, int batchSize, Duration flushInterval) {
+        if (batchSize < 1)
+            throw new IllegalArgumentException("Batch size must be positive");
+        this.backing = backing;
+        this.codec = codec;
+        this.durability = durability;
+        this.batchSize = batchSize;
+        this.flushIntervalNanos = flushInterval.toNanos();
+        this.journalPath = journal;
+        try {
+            this.journal = FileChannel.open(journal, CREATE, READ, WRITE);
+            recover();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        this.flusher = Thread.ofPlatform()
+                             .name("write-behind-" + journal.getFileName())
+                             .daemon()
+                             .start(this::run);
+    }
+
+    @Override
+    public Optional<A> findAggregateById(I id) {
+        final A buffered = dirty.get(id);
+        return buffered != null ? Optional.of(buffered) : backing.findAggregateById(id);
+    }
+
+    @Override
+    public void save(A newState) {
+        checkWritable();
+        final ByteBuffer record = record(List.of(newState));
+        final long appendedRecords;
+        journalLock.readLock().lock();
+        try {
+            final long[] saved = {0L};
+            dirty.compute(newState.id(), (id, buffered) -> {
+                saved[0] = sequence.incrementAndGet();
+                return newState;
+            });
+            appendedRecords = append(record, saved[0]);
+        } finally {
+            journalLock.readLock().unlock();
+        }
+        acknowledge(appendedRecords);
+    }
+
+    @Override
+    public boolean compareAndSave(Optional<A> expected, A newState) {
+        checkWritable();
+        final Optional<Long> expectedVersion = expected.map(Aggregate::aggregateVersion);
+        final ByteBuffer record = record(List.of(newState));
+        while (true) {
+            final long flushed = flushes;
+            final A buffered = dirty.get(newState.id());
+            // read outside the lock of the map: the backing repository may be slow
+            final Optional<A> current = buffered != null ? Optional.of(buffered) : backing.findAggregateById(newState.id());
+            if (!current.map(Aggregate::aggregateVersion).equals(expectedVersion))
+                return false;
+            final long appendedRecords;
+            journalLock.readLock().lock();
+            try {
+                final long[] saved = {0L};
+                dirty.compute(newState.id(), (id, latest) -> {
+                    // the state read is still current: nothing was buffered since, nor flushed when it was not buffered
+                    if (latest != buffered || latest == null && flushes != flushed)
+                        return latest;
+                    saved[0] = sequence.incrementAndGet();
+                    return newState;
+                });
+                if (saved[0] == 0L)
+                    continue;
+                appendedRecords = append(record, saved[0]);
+            } finally {
+                journalLock.readLock().unlock();
+            }
+            acknowledge(appendedRecords);
+            return true;
+        }
+    }
+
+    /**
+     * Flushes a matching buffered state first, so that the backing repository removes the latest state. A state
+     * saved while the removal runs is kept and flushed afterwards.
+     */
+    @Override
+    public boolean compareAndRemove(A expected) {
+        checkWritable();
+        final A buffered = dirty.get(expected.id());
+        if (buffered != null) {
+            if (!buffered.aggregateVersion().equals(expected.aggregateVersion()))
+                return false;
+            awaitFlush();
+        }
+        return backing.compareAndRemove(expected);
+    }
+
+    /**
+     * Visits the buffered states, then the flushed states that are not buffered: a state flushed during the
+     * visit may be seen twice.
+     */
+    @Override
+    public void forEachAggregate(Consumer<? super A> consumer) {
+        dirty.values().forEach(consumer);
+        backing.forEachAggregate(state -> {
+            if (!dirty.containsKey(state.id()))
+                consumer.accept(state);
+        });
+    }
+
+    /**
+     * Flushes every state buffered so far and stops the flusher.
+     */
+    @Override
+    public void close() {
+        running = false;
+        LockSupport.unpark(flusher);
+        try {
+            flusher.join();
+            journal.close();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private void acknowledge(long appendedRecords) {
+        if (durability == Durability.BUFFERED) {
+            force(appendedRecords);
+            if (dirty.size() >= batchSize)
+                LockSupport.unpark(flusher);
+            return;
+        }
+        awaitFlush();
+    }
+
+    private void awaitFlush() {
+        // read after buffering: this flush, or a later one, drains the state just buffered
+        final CompletableFuture<Void> flushed = nextFlush;
+        flushRequested = true;
+        LockSupport.unpark(flusher);
+        try {
+            flushed.join();
+        } catch (CompletionException e) {
+            throw new IllegalStateException("Write-behind flush failed", e.getCause());
+        }
+    }
+
+    private void checkWritable() {
+        final RuntimeException cause = failure;
+        if (cause != null)
+            throw new IllegalStateException("Write-behind repository is no longer writable", cause);
+        if (!running)
+            throw new IllegalStateException("Write-behind repository is closed");
+    }
+
+    private void run() {
+        while (true) {
+            final boolean stopping = !running;
+            if (!stopping && !flushRequested && dirty.size() < batchSize)
+                LockSupport.parkNanos(this, flushIntervalNanos);
+            flushRequested = false;
+            final CompletableFuture<Void> flushed = nextFlush;
+            nextFlush = new CompletableFuture<>();
+            try {
+                flush();
+            } catch (RuntimeException e) {
+                failure = e;
+                flushed.completeExceptionally(e);
+                nextFlush.completeExceptionally(e);
+                return;
+            }
+            flushed.complete(null);
+            if (stopping)
+                return;
+        }
+    }
+
+    private void flush() {
+        final List<A> states = new ArrayList<>(dirty.values());
+        if (states.isEmpty() && journalEnd.get() == 0L)
+            return;
+        // an interrupted batch is replayed from the journal, which must hold it before the backing repository does
+        force(appended.get());
+        for (int from = 0; from < states.size(); from += batchSize) {
+            final List<A> batch = states.subList(from, Math.min(states.size(), from + batchSize));
+            backing.saveAll(batch);
+            flushes++;
+            // a newer state buffered meanwhile stays dirty for the next flush
+            for (A state : batch)
+                dirty.remove(state.id(), state);
+        }
+        compact();
+    }
+
+    /**
+     * Appends a record, its sequence set now that the save is ordered among the saves of its aggregate.
+     *
+     * @return the number of records appended so far, to wait for the force covering this one
+     */
+    private long append(ByteBuffer record, long recordSequence) {
+        record.putLong(SEQUENCE, recordSequence)
+              .putInt(Integer.BYTES, checksum(record, record.getInt(0)));
+        try {
+            write(journal, record, journalEnd.getAndAdd(record.remaining()));
+        } catch (IOException e) {
+            final UncheckedIOException cause = new UncheckedIOException(e);
+            failure = cause;
+            throw cause;
+        }
+        return appended.incrementAndGet();
+    }
+
+    /**
+     * Forces the journal unless a concurrent force already covered the first {@code appendedRecords} records.
+     */
+    private void force(long appendedRecords) {
+        if (forced >= appendedRecords)
+            return;
+        forceLock.lock();
+        try {
+            if (forced >= appendedRecords)
+                return;
+            // every record counted here is fully written, the force covers it
+            final long covered = appended.get();
+            journal.force(false);
+            forced = covered;
+        } catch (IOException e) {
+            final UncheckedIOException cause = new UncheckedIOException(e);
+            failure = cause;
+            throw cause;
+        } finally {
+            forceLock.unlock();
+        }
+    }
+
+    /**
+     * Rewrites the journal with the states still buffered, the others are saved by the backing repository. The old
+     * journal holds the buffered states until the new one, forced, replaces it.
+     */
+    private void compact() {
+        journalLock.writeLock().lock();
+        try {
+            final List<A> buffered = new ArrayList<>(dirty.values());
+            final Path temporary = journalPath.resolveSibling(journalPath.getFileName() + ".tmp");
+            long end = 0L;
+            try (FileChannel channel = FileChannel.open(temporary, CREATE, WRITE, TRUNCATE_EXISTING)) {
+                if (!buffered.isEmpty()) {
+                    final ByteBuffer record = record(buffered);
+                    record.putLong(SEQUENCE, sequence.get())
+                          .putInt(Integer.BYTES, checksum(record, record.getInt(0)));
+                    end = record.remaining();
+                    write(channel, record, 0L);
+                }
+                channel.force(false);
+            }
+            forceLock.lock();
+            try {
+                Files.move(temporary, journalPath, ATOMIC_MOVE, REPLACE_EXISTING);
+                forceDirectory();
+                journal.close();
+                journal = FileChannel.open(journalPath, READ, WRITE);
+                // every record appended so far is either flushed or in the compacted journal
+                forced = Math.max(forced, appended.get());
+            } finally {
+                forceLock.unlock();
+            }
+            journalEnd.set(end);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            journalLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Forces the rename of the journal, so that a crash cannot bring back the old journal once saves are appended
+     * to the new one.
+     */
+    private void forceDirectory() throws IOException {
+        final Path directory = journalPath.toAbsolutePath().getParent();
+        try (FileChannel channel = FileChannel.open(directory, READ)) {
+            channel.force(true);
+        }
+    }
+
+    private ByteBuffer record(List<A> states) {
+        int payloadLength = Long.BYTES + Integer.BYTES;
+        for (A state : states)
+            payloadLength += Integer.BYTES + codec.sizeOf(state);
+        final ByteBuffer record = ByteBuffer.allocate(RECORD_HEADER_SIZE + payloadLength);
+        record.putInt(payloadLength)
+              .putInt(0)
+              .putLong(0L)
+              .putInt(states.size());
+        for (A state : states) {
+            record.putInt(codec.sizeOf(state));
+            codec.encode(state, record);
+        }
+        return record.flip();
+    }
+
+    private static void write(FileChannel channel, ByteBuffer record, long position) throws IOException {
+        while (record.hasRemaining())
+            position += channel.write(record, position);
+    }
+
+    private void recover() throws IOException {
+        final ByteBuffer records = ByteBuffer.allocate(Math.toIntExact(journal.size()));
+        while (records.hasRemaining())
+            if (journal.read(records, records.position()) < 0)
+                break;
+        records.flip();
+        final Map<I, A> latest = new LinkedHashMap<>();
+        final Map<I, Long> sequences = new HashMap<>();
+        int offset = 0;
+        while (offset + RECORD_HEADER_SIZE <= records.limit()) {
+            final ByteBuffer record = records.slice(offset, records.limit() - offset);
+            final int payloadLength = record.getInt(0);
+            // a torn record was never acknowledged
+            if (payloadLength < Long.BYTES + Integer.BYTES || RECORD_HEADER_SIZE + payloadLength > record.limit()
+                    || record.getInt(Integer.BYTES) != checksum(record, payloadLength))
+                break;
+            final long recordSequence = record.getLong(SEQUENCE);
+            record.position(SEQUENCE + Long.BYTES);
+            final int count = record.getInt();
+            for (int i = 0; i < count; i++) {
+                final int length = record.getInt();
+                final A state = codec.decode(record.slice(record.position(), length));
+                record.position(record.position() + length);
+                if (sequences.getOrDefault(state.id(), Long.MIN_VALUE) <= recordSequence) {
+                    sequences.put(state.id(), recordSequence);
+                    latest.put(state.id(), state);
+                }
+            }
+            offset += RECORD_HEADER_SIZE + payloadLength;
+        }
+        if (!latest.isEmpty())
+            backing.saveAll(new ArrayList<>(latest.values()));
+        journal.truncate(0L);
+        journal.force(false);
+    }
+
+    private static int checksum(ByteBuffer record, int payloadLength) {
+        final CRC32C crc = new CRC32C();
+        crc.update(record.duplicate().limit(RECORD_HEADER_SIZE + payloadLength).position(RECORD_HEADER_SIZE));
+        return (int) crc.getValue();
+    }
+}
@@ -5,7 +5,7 @@ import java.util.List;
 public sealed interface Result<S, E> {
 
     static <S, E> Result<S, E> success(List<S> value) {
-        return new Success<>(value);
+        return value.isEmpty() ? Success.empty() : new Success<>(value);
     }
 
     static <S, E> Result<S, E> failure(List<E> errors) {
@@ -14,6 +14,12 @@ public sealed interface Result<S, E> {
 
     record Success<S, E>(List<S> value) implements Result<S, E> {
 
+        private static final Success<Object, Object> EMPTY = new Success<>(List.of());
+
+        @SuppressWarnings("unchecked")
+        private static <S, E> Success<S, E> empty() {
+            return (Success<S, E>) EMPTY;
+        }
     }
 
     record Failure<S, E>(List<E> errors) implements Result<S, E> {
@@ -5,17 +5,33 @@ import fr.depix.bulb_manager.framework.annotation.Command;
 import fr.depix.bulb_manager.framework.annotation.Decider;
 import fr.depix.bulb_manager.framework.annotation.Domain;
 import fr.depix.bulb_manager.framework.annotation.Event;
+import fr.depix.bulb_manager.framework.annotation.EventPublisher;
+import fr.depix.bulb_manager.framework.annotation.EventStore;
 import fr.depix.bulb_manager.framework.annotation.Evolve;
 import fr.depix.bulb_manager.framework.annotation.Identifier;
 import fr.depix.bulb_manager.framework.annotation.IsTerminal;
+import fr.depix.bulb_manager.framework.annotation.RebasableCommand;
 import fr.depix.bulb_manager.framework.annotation.Repository;
 import fr.depix.bulb_manager.framework.annotation.ValidationError;
+import fr.depix.bulb_manager.framework.archive.TerminalIds;
 import fr.depix.bulb_manager.framework.decision.Decision;
 import fr.depix.bulb_manager.framework.decision.ErrorList;
 import fr.depix.bulb_manager.framework.decision.EventList;
+import fr.depix.bulb_manager.framework.metrics.CommandMetrics;
+import fr.depix.bulb_manager.framework.metrics.CommandMetrics.Phase;
 import fr.depix.bulb_manager.framework.result.Result;
+import org.jspecify.annotations.Nullable;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
 import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Function;
 
 public class CommandHandler<
         A extends Aggregate<I>,
@@ -30,30 +46,304 @@ public class CommandHandler<
 
     private final D decider;
     private final V evolve;
+    private final T isTerminal;
+    @Nullable
+    private final TerminalIds<I> terminalIds;
+    private final Function<I, VE> terminalError;
     private final R repository;
+    @Nullable
+    private final EventStore<I, E> eventStore;
+    private final CommandMetrics metrics;
+    private final EventPublisher<I, E> publisher;
+    private final ConflictPolicy conflictPolicy;
+    @Nullable
+    private final IdempotencyCache<Result<E, VE>> idempotencyCache;
 
     public CommandHandler(Domain<A, I, C, R, E, T, D, V, VE> domain) {
+        this(domain, CommandMetrics.NOOP);
+    }
+
+    public CommandHandler(Domain<A, I, C, R, E, T, D, V, VE> domain, CommandMetrics metrics) {
+        this(domain, metrics, (id, expectedVersion, newVersion, events) -> {});
+    }
+
+    public CommandHandler(Domain<A, I, C, R, E, T, D, V, VE> domain, CommandMetrics metrics, EventPublisher<I, E> publisher) {
+        this(domain, metrics, publisher, ConflictPolicy.REJECT);
+    }
+
+    public CommandHandler(Domain<A, I, C, R, E, T, D, V, VE> domain, CommandMetrics metrics, EventPublisher<I, E> publisher, ConflictPolicy conflictPolicy) {
+        this(domain, metrics, publisher, conflictPolicy, null);
+    }
+
+    /**
+     * @param idempotencyCache remembers the result of the commands carrying a command id, so that their retries
+     *                         are answered without being handled again
+     */
+    public CommandHandler(Domain<A, I, C, R, E, T, D, V, VE> domain, CommandMetrics metrics, EventPublisher<I, E> publisher, ConflictPolicy conflictPolicy, @Nullable IdempotencyCache<Result<E, VE>> idempotencyCache) {
         this.repository = domain.repository().get();
+        this.eventStore = domain.eventStore().orElse(null);
         this.decider = domain.decider();
         this.evolve = domain.evolve();
+        this.isTerminal = domain.isTerminal();
+        this.terminalIds = domain.terminalIds().orElse(null);
+        this.terminalError = domain::terminalError;
+        this.metrics = metrics;
+        this.publisher = publisher;
+        this.conflictPolicy = conflictPolicy;
+        this.idempotencyCache = idempotencyCache;
     }
 
     @org.jmolecules.architecture.cqrs.CommandHandler
     public Result<E, VE> handle(C command) {
+        final Optional<UUID> commandId = command.commandId();
+        if (idempotencyCache == null || commandId.isEmpty())
+            return handleOnce(command);
+        return idempotencyCache.computeIfAbsent(commandId.get(), () -> handleOnce(command));
+    }
+
+    private Result<E, VE> handleOnce(C command) {
+        final CommandMetrics.Sample sample = metrics.start(command);
+        try {
+            return handleOnce(command, sample);
+        } catch (Throwable e) {
+            // every return path stopped the sample already
+            sample.stop(false);
+            throw e;
+        }
+    }
+
+    private Result<E, VE> handleOnce(C command, CommandMetrics.Sample sample) {
+        if (terminalIds != null && terminalIds.contains(command.aggregateId())) {
+            sample.stop(false);
+            return terminal(command.aggregateId());
+        }
+        int rebases = 0;
+        while (true) {
+            Optional<A> aggregate = repository.findAggregateById(command.aggregateId());
+            sample.mark(Phase.LOAD);
+            if (terminalIds != null && aggregate.filter(isTerminal).isPresent()) {
+                // terminal before the set knew it, e.g. saved by another handler
+                terminalIds.add(command.aggregateId());
+                sample.stop(false);
+                return terminal(command.aggregateId());
+            }
+
+            final C decided = rebases < conflictPolicy.maxRebases() ? rebase(command, aggregate) : command;
+            if (decided != command)
+                rebases++;
+            final Decision<E, VE, I> decision = decider.apply(decided, aggregate);
+            sample.mark(Phase.DECIDE);
+
+            switch (decision) {
+                case EventList<E, VE, I> events when events.isEmpty() -> {
+                    // nothing changed: no evolve, no write, and the shared empty result
+                    sample.stop(true);
+                    return Result.success(events.events());
+                }
+                case EventList<E, VE, I> events -> {
+                    A newState = evolve.apply(aggregate, events.events());
+                    sample.mark(Phase.EVOLVE);
+                    final boolean persisted = persist(aggregate, newState, events.events());
+                    sample.mark(Phase.SAVE);
+                    if (persisted) {
+                        sample.stop(true);
+                        return Result.success(events.events());
+                    }
+                    // a concurrent writer saved first: decide again against the state it saved
+                    sample.conflict();
+                    if (rebases > 0)
+                        LockSupport.parkNanos(conflictPolicy.backoffNanos(rebases));
+                }
+                case ErrorList<E, VE, I> errorList -> {
+                    sample.stop(false);
+                    return Result.failure(errorList.errors());
+                }
+            }
+        }
+
+    }
 
-        Optional<A> aggregate = repository.findAggregateById(command.aggregateId());
+    /**
+     * Handles a burst of commands, loading and saving each aggregate once: the commands of one aggregate are
+     * decided and evolved in memory one after the other, then all their events are written in a single save.
+     *
+     * Commands carrying a command id are answered from the idempotency cache when it remembers them, only the
+     * others are decided.
+     *
+     * @return one result per command, in the order of {@code commands}
+     */
+    public List<Result<E, VE>> handleAll(List<C> commands) {
+        if (idempotencyCache == null)
+            return handleAllOnce(commands);
 
-        final Decision<E, VE, I> decision = decider.apply(command, aggregate);
+        @SuppressWarnings("unchecked") final IdempotencyCache.Claim<Result<E, VE>>[] claims = new IdempotencyCache.Claim[commands.size()];
+        final List<C> decided = new ArrayList<>(commands.size());
+        final List<Integer> decidedIndexes = new ArrayList<>(commands.size());
+        for (int index = 0; index < commands.size(); index++) {
+            final Optional<UUID> commandId = commands.get(index).commandId();
+            if (commandId.isPresent())
+                claims[index] = idempotencyCache.claim(commandId.get());
+            if (claims[index] == null || claims[index].owned()) {
+                decided.add(commands.get(index));
+                decidedIndexes.add(index);
+            }
+        }
+
+        final List<Result<E, VE>> decidedResults;
+        try {
+            decidedResults = handleAllOnce(decided);
+        } catch (Throwable e) {
+            for (int index : decidedIndexes)
+                if (claims[index] != null)
+                    idempotencyCache.release(claims[index], e);
+            throw e;
+        }
+        @SuppressWarnings("unchecked") final Result<E, VE>[] results = new Result[commands.size()];
+        for (int i = 0; i < decidedIndexes.size(); i++) {
+            final int index = decidedIndexes.get(i);
+            results[index] = decidedResults.get(i);
+            if (claims[index] != null)
+                claims[index].outcome().complete(results[index]);
+        }
+        // awaited last: a retry repeated within the burst waits for the attempt completed just above
+        for (int index = 0; index < commands.size(); index++)
+            if (results[index] == null)
+                results[index] = IdempotencyCache.await(claims[index].outcome());
+        return Arrays.asList(results);
+    }
+
+    private List<Result<E, VE>> handleAllOnce(List<C> commands) {
+        final Map<I, List<Integer>> indexesByAggregate = new LinkedHashMap<>();
+        for (int index = 0; index < commands.size(); index++)
+            indexesByAggregate.computeIfAbsent(commands.get(index).aggregateId(), ignored -> new ArrayList<>()).add(index);
+
+        @SuppressWarnings("unchecked") final Result<E, VE>[] results = new Result[commands.size()];
+        indexesByAggregate.forEach((id, indexes) -> handleAll(id, commands, indexes, results));
+        return Arrays.asList(results);
+    }
+
+    /**
+     * Times each command of the group from the start of the group: a command waits for the load, the decisions
+     * before its own and the single save of the group.
+     */
+    private void handleAll(I id, List<C> commands, List<Integer> indexes, Result<E, VE>[] results) {
+        final CommandMetrics.Sample[] samples = new CommandMetrics.Sample[indexes.size()];
+        for (int i = 0; i < samples.length; i++)
+            samples[i] = metrics.start(commands.get(indexes.get(i)));
+        try {
+            handleAll(id, commands, indexes, results, samples);
+        } catch (Throwable e) {
+            for (CommandMetrics.Sample sample : samples)
+                sample.stop(false);
+            throw e;
+        }
+        for (int i = 0; i < samples.length; i++)
+            samples[i].stop(results[indexes.get(i)] instanceof Result.Success<E, VE>);
+    }
+
+    private void handleAll(I id, List<C> commands, List<Integer> indexes, Result<E, VE>[] results, CommandMetrics.Sample[] samples) {
+        if (terminalIds != null && terminalIds.contains(id)) {
+            indexes.forEach(index -> results[index] = terminal(id));
+            return;
+        }
+        while (true) {
+            final Optional<A> aggregate = repository.findAggregateById(id);
+            for (CommandMetrics.Sample sample : samples)
+                sample.mark(Phase.LOAD);
+            if (terminalIds != null && aggregate.filter(isTerminal).isPresent()) {
+                terminalIds.add(id);
+                indexes.forEach(index -> results[index] = terminal(id));
+                return;
+            }
 
-        return switch (decision) {
-            case EventList<E, VE, I> events -> {
-                A newState = evolve.apply(aggregate, events.events());
-                repository.save(newState);
-                yield Result.success(events.events());
+            Optional<A> state = aggregate;
+            final List<E> events = new ArrayList<>();
+            for (int i = 0; i < samples.length; i++) {
+                final int index = indexes.get(i);
+                final Decision<E, VE, I> decision = decider.apply(commands.get(index), state);
+                samples[i].mark(Phase.DECIDE);
+                switch (decision) {
+                    case EventList<E, VE, I> eventList -> {
+                        if (!eventList.isEmpty()) {
+                            state = Optional.of(evolve.apply(state, eventList.events()));
+                            events.addAll(eventList.events());
+                            samples[i].mark(Phase.EVOLVE);
+                        }
+                        results[index] = Result.success(eventList.events());
+                    }
+                    case ErrorList<E, VE, I> errorList -> results[index] = Result.failure(errorList.errors());
+                }
             }
-            case ErrorList<E, VE, I> errorList -> Result.failure(errorList.errors());
-        };
 
+            if (events.isEmpty())
+                return;
+            final boolean persisted = persist(aggregate, state.orElseThrow(), events);
+            for (CommandMetrics.Sample sample : samples)
+                sample.mark(Phase.SAVE);
+            if (persisted)
+                return;
+            // a concurrent writer saved first: decide the whole group again against the state it saved
+            for (CommandMetrics.Sample sample : samples)
+                sample.conflict();
+        }
+    }
+
+    /**
+     * @return {@code command} moved to the version of {@code aggregate} when it is rebasable and stale
+     */
+    @SuppressWarnings("unchecked")
+    private C rebase(C command, Optional<A> aggregate) {
+        if (command instanceof RebasableCommand<?, ?> rebasable
+                && aggregate.isPresent()
+                && !aggregate.get().aggregateVersion().equals(command.aggregateVersion()))
+            return (C) rebasable.rebase(aggregate.get().aggregateVersion());
+        return command;
+    }
+
+    private Result<E, VE> terminal(I id) {
+        return Result.failure(List.of(terminalError.apply(id)));
+    }
+
+    /**
+     * Appends the events then saves the new state. The event log is the source of truth: once the append
+     * succeeded the command is done, and a repository that lags behind the log is caught up with it rather than
+     * retried against, which would conflict forever.
+     */
+    private boolean persist(Optional<A> aggregate, A newState, List<E> events) {
+        final Optional<Long> expectedVersion = aggregate.map(Aggregate::aggregateVersion);
+        if (eventStore != null && !eventStore.append(newState.id(), expectedVersion, newState.aggregateVersion(), events)) {
+            final Optional<A> stored = repository.findAggregateById(newState.id());
+            // the repository did not move past the state the append conflicted with, e.g. after a crash between an append and its save
+            if (stored.map(Aggregate::aggregateVersion).equals(expectedVersion))
+                repair(newState.id(), stored);
+            return false;
+        }
+        if (!repository.compareAndSave(aggregate, newState)) {
+            if (eventStore == null)
+                return false;
+            repair(newState.id(), repository.findAggregateById(newState.id()));
+        }
+        publisher.publish(newState.id(), expectedVersion, newState.aggregateVersion(), events);
+        if (terminalIds != null && isTerminal.test(newState))
+            terminalIds.add(newState.id());
+        return true;
+    }
+
+    /**
+     * Saves the state folded from the whole stream of {@code id} when {@code stored} is older than it.
+     *
+     * @throws IllegalStateException when the repository is ahead of the log, which no retry can fix
+     */
+    private void repair(I id, Optional<A> stored) {
+        final List<E> history = new ArrayList<>();
+        Objects.requireNonNull(eventStore).replay(id, history::add);
+        final Optional<A> logged = history.isEmpty() ? Optional.empty() : Optional.of(evolve.apply(Optional.empty(), history));
+        final long storedVersion = stored.map(Aggregate::aggregateVersion).orElse(-1L);
+        final long loggedVersion = logged.map(Aggregate::aggregateVersion).orElse(-1L);
+        if (storedVersion > loggedVersion)
+            throw new IllegalStateException("Repository holds version " + storedVersion + " of " + id + " but its event log ends at version " + loggedVersion);
+        if (storedVersion < loggedVersion)
+            repository.compareAndSave(stored, logged.get());
     }
 
 }
@@ -0,0 +1,33 @@
+package fr.depix.bulb_manager.framework.service;
+
+import java.time.Duration;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * How a {@link CommandHandler} treats a {@link fr.depix.bulb_manager.framework.annotation.RebasableCommand}
+ * issued against an older version than the stored one: up to {@code maxRebases} times per command, it is
+ * decided again against the latest state. When a rebased command loses a concurrent save, the handler backs off
+ * for a random time up to {@code initialBackoff} doubled at each rebase and capped at {@code maxBackoff}.
+ */
+public record ConflictPolicy(
+        int maxRebases,
+        Duration initialBackoff,
+        Duration maxBackoff
+) {
+
+    public static final ConflictPolicy REJECT = new ConflictPolicy(0, Duration.ZERO, Duration.ZERO);
+
+    public ConflictPolicy {
+        if (maxRebases < 0)
+            throw new IllegalArgumentException("Rebase budget must not be negative");
+    }
+
+    public static ConflictPolicy rebase(int maxRebases, Duration initialBackoff, Duration maxBackoff) {
+        return new ConflictPolicy(maxRebases, initialBackoff, maxBackoff);
+    }
+
+    long backoffNanos(int rebases) {
+        final long ceiling = Math.min(maxBackoff.toNanos(), initialBackoff.toNanos() << Math.min(rebases - 1, 30));
+        return ceiling <= 0L ? 0L : ThreadLocalRandom.current().nextLong(ceiling + 1L);
+    }
+}
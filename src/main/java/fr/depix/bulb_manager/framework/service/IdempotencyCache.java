@@ -0,0 +1,187 @@
+package fr.depix.bulb_manager.framework.service;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
+
+/**
+ * Remembers the outcome of the commands carrying a {@link fr.depix.bulb_manager.framework.annotation.Command#commandId()}
+ * for {@code retention}, so that a retry gets the outcome of the first attempt instead of being handled again.
+ * A retry arriving while the first attempt is still running waits for it. An attempt that throws is forgotten
+ * and can be retried.
+ * <p>
+ * Entries are spread over independently locked shards, each one evicting its oldest entries first, either once
+ * they expire or once the shard is full. The number of entries is derived from {@code maxBytes} with a fixed
+ * per-entry estimate.
+ */
+public class IdempotencyCache<R> {
+
+    // estimate of the key, map node, entry, future and a single-event result with compressed oops
+    private static final long ENTRY_BYTES = 256L;
+
+    private final Shard[] shards;
+    private final int mask;
+    private final long retentionMillis;
+    private final Clock clock;
+
+    public IdempotencyCache(long maxBytes, Duration retention) {
+        this(maxBytes, retention, Clock.systemUTC());
+    }
+
+    @SuppressWarnings("unchecked")
+    public IdempotencyCache(long maxBytes, Duration retention, Clock clock) {
+        final long entries = maxBytes / ENTRY_BYTES;
+        if (entries < 1L)
+            throw new IllegalArgumentException("Memory budget must hold at least one entry");
+        // a shard per core keeps threads apart, but never shards holding a single entry
+        final int shardCount = (int) Math.min(Integer.highestOneBit(Runtime.getRuntime().availableProcessors() * 4 - 1) << 1,
+                                              Long.highestOneBit(entries));
+        this.shards = new IdempotencyCache.Shard[shardCount];
+        for (int index = 0; index < shardCount; index++)
+            shards[index] = new Shard((int) Math.min(Integer.MAX_VALUE, entries / shardCount));
+        this.mask = shardCount - 1;
+        this.retentionMillis = retention.toMillis();
+        this.clock = clock;
+    }
+
+    /**
+     * @return the outcome remembered for {@code commandId}, or the outcome of {@code handle} which is then remembered
+     */
+    public R computeIfAbsent(UUID commandId, Supplier<R> handle) {
+        final Claim<R> claim = claim(commandId);
+        if (!claim.owned())
+            return await(claim.outcome());
+        try {
+            final R outcome = handle.get();
+            claim.outcome().complete(outcome);
+            return outcome;
+        } catch (Throwable e) {
+            // an entry left incomplete would block every retry of this command
+            release(claim, e);
+            throw e;
+        }
+    }
+
+    /**
+     * Claims {@code commandId} for the caller when no attempt is remembered for it: the caller then handles the
+     * command and either completes the outcome of the claim or releases it.
+     */
+    Claim<R> claim(UUID commandId) {
+        final Shard shard = shard(commandId);
+        final long now = clock.millis();
+        shard.lock.lock();
+        try {
+            shard.expire(now);
+            final Entry<R> existing = shard.entries.get(commandId);
+            if (existing != null)
+                return new Claim<>(commandId, existing, false);
+            final Entry<R> entry = new Entry<>(new CompletableFuture<>(), now + retentionMillis);
+            shard.add(commandId, entry);
+            return new Claim<>(commandId, entry, true);
+        } finally {
+            shard.lock.unlock();
+        }
+    }
+
+    /**
+     * Forgets a claimed attempt that failed, so that it can be retried, and fails the retries waiting for it.
+     */
+    void release(Claim<R> claim, Throwable cause) {
+        final Shard shard = shard(claim.commandId());
+        shard.lock.lock();
+        try {
+            shard.entries.remove(claim.commandId(), claim.entry());
+        } finally {
+            shard.lock.unlock();
+        }
+        claim.outcome().completeExceptionally(cause);
+    }
+
+    /**
+     * @return the outcome of an attempt, rethrowing what it threw
+     */
+    static <R> R await(CompletableFuture<R> outcome) {
+        try {
+            return outcome.join();
+        } catch (CompletionException e) {
+            switch (e.getCause()) {
+                case RuntimeException cause -> throw cause;
+                case Error cause -> throw cause;
+                case null, default -> throw e;
+            }
+        }
+    }
+
+    public int size() {
+        int size = 0;
+        for (Shard shard : shards) {
+            shard.lock.lock();
+            try {
+                size += shard.entries.size();
+            } finally {
+                shard.lock.unlock();
+            }
+        }
+        return size;
+    }
+
+    private Shard shard(UUID commandId) {
+        return shards[spread(commandId.hashCode()) & mask];
+    }
+
+    private static int spread(int hash) {
+        return hash ^ (hash >>> 16);
+    }
+
+    record Entry<R>(
+            CompletableFuture<R> outcome,
+            long expiresAt
+    ) {
+
+    }
+
+    /**
+     * @param owned whether the caller claimed the command, otherwise {@code outcome} is the one of an earlier attempt
+     */
+    record Claim<R>(
+            UUID commandId,
+            Entry<R> entry,
+            boolean owned
+    ) {
+
+        CompletableFuture<R> outcome() {
+            return entry.outcome();
+        }
+    }
+
+    private final class Shard {
+
+        private final ReentrantLock lock = new ReentrantLock();
+        // insertion order is expiry order, since every entry is kept for the same retention
+        private final LinkedHashMap<UUID, Entry<R>> entries = new LinkedHashMap<>();
+        private final int capacity;
+
+        private Shard(int capacity) {
+            this.capacity = capacity;
+        }
+
+        private void add(UUID commandId, Entry<R> entry) {
+            entries.put(commandId, entry);
+            if (entries.size() > capacity)
+                entries.pollFirstEntry();
+        }
+
+        private void expire(long now) {
+            final Iterator<Map.Entry<UUID, Entry<R>>> oldest = entries.entrySet().iterator();
+            while (oldest.hasNext() && oldest.next().getValue().expiresAt() <= now)
+                oldest.remove();
+        }
+    }
+}
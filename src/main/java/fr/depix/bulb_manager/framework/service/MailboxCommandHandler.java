@@ -0,0 +1,107 @@
+package fr.depix.bulb_manager.framework.service;
+
+import fr.depix.bulb_manager.framework.annotation.Command;
+import fr.depix.bulb_manager.framework.annotation.Event;
+import fr.depix.bulb_manager.framework.annotation.Identifier;
+import fr.depix.bulb_manager.framework.annotation.ValidationError;
+import fr.depix.bulb_manager.framework.result.Result;
+
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.Function;
+
+/**
+ * Routes each command to a mailbox keyed by its aggregate id. A mailbox is drained by a single virtual
+ * thread, so commands of one aggregate apply strictly in submission order while different aggregates run
+ * in parallel. A mailbox is dropped as soon as it is empty, so idle aggregates cost nothing.
+ */
+public class MailboxCommandHandler<
+        I extends Identifier,
+        C extends Command<I>,
+        E extends Event<I>,
+        VE extends ValidationError> implements AutoCloseable {
+
+    private final Function<? super C, Result<E, VE>> handler;
+    private final ExecutorService executor;
+    private final ConcurrentMap<I, Mailbox> mailboxes = new ConcurrentHashMap<>();
+
+    public MailboxCommandHandler(Function<? super C, Result<E, VE>> handler) {
+        this(handler, Executors.newVirtualThreadPerTaskExecutor());
+    }
+
+    public MailboxCommandHandler(Function<? super C, Result<E, VE>> handler, ExecutorService executor) {
+        this.handler = handler;
+        this.executor = executor;
+    }
+
+    public CompletableFuture<Result<E, VE>> submit(C command) {
+        final Task<C, E, VE> task = new Task<>(command, new CompletableFuture<>());
+        final boolean[] created = {false};
+        final Mailbox mailbox = mailboxes.compute(command.aggregateId(), (id, current) -> {
+            final Mailbox target = current == null ? new Mailbox(id) : current;
+            created[0] = current == null;
+            target.tasks.add(task);
+            return target;
+        });
+        if (created[0]) {
+            try {
+                executor.execute(mailbox::drain);
+            } catch (RejectedExecutionException e) {
+                // nobody drains this mailbox: fail what it holds, including the commands queued meanwhile
+                mailboxes.remove(mailbox.id, mailbox);
+                for (Task<C, E, VE> queued; (queued = mailbox.tasks.poll()) != null; )
+                    queued.result().completeExceptionally(e);
+            }
+        }
+        return task.result();
+    }
+
+    /**
+     * Stops accepting commands and waits for the queued ones, the commands submitted afterwards fail.
+     */
+    @Override
+    public void close() {
+        executor.close();
+    }
+
+    private record Task<C, E, VE>(
+            C command,
+            CompletableFuture<Result<E, VE>> result
+    ) {
+
+    }
+
+    private final class Mailbox {
+
+        private final I id;
+        private final Queue<Task<C, E, VE>> tasks = new ConcurrentLinkedQueue<>();
+
+        private Mailbox(I id) {
+            this.id = id;
+        }
+
+        private void drain() {
+            while (true) {
+                final Task<C, E, VE> task = tasks.poll();
+                if (task == null) {
+                    // retire under the same bin lock as submit, so no command can slip into a dropped mailbox
+                    if (mailboxes.computeIfPresent(id, (ignored, mailbox) -> mailbox.tasks.isEmpty() ? null : mailbox) == null)
+                        return;
+                    continue;
+                }
+                try {
+                    task.result().complete(handler.apply(task.command()));
+                } catch (Throwable e) {
+                    // the drain must go on, or the commands queued behind this one would never complete
+                    task.result().completeExceptionally(e);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,660 @@
+package fr.depix.bulb_manager.framework.service;
+
+import fr.depix.bulb_manager.framework.annotation.Aggregate;
+import fr.depix.bulb_manager.framework.annotation.Command;
+import fr.depix.bulb_manager.framework.annotation.Decider;
+import fr.depix.bulb_manager.framework.annotation.Domain;
+import fr.depix.bulb_manager.framework.annotation.Event;
+import fr.depix.bulb_manager.framework.annotation.EventPublisher;
+import fr.depix.bulb_manager.framework.annotation.EventStore;
+import fr.depix.bulb_manager.framework.annotation.Evolve;
+import fr.depix.bulb_manager.framework.annotation.Identifier;
+import fr.depix.bulb_manager.framework.annotation.IsTerminal;
+import fr.depix.bulb_manager.framework.annotation.Repository;
+import fr.depix.bulb_manager.framework.annotation.ValidationError;
+import fr.depix.bulb_manager.framework.codec.Codec;
+import fr.depix.bulb_manager.framework.decision.ErrorList;
+import fr.depix.bulb_manager.framework.decision.EventList;
+import fr.depix.bulb_manager.framework.result.Result;
+import org.jspecify.annotations.Nullable;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.stream.Stream;
+import java.util.zip.CRC32C;
+
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+/**
+ * High-throughput command handler built as a staged pipeline over a pre-allocated ring buffer:
+ * <ol>
+ *     <li>a journal thread writes the submitted commands to a checksummed journal, one forced write per batch,</li>
+ *     <li>business threads decide and evolve the journaled commands, each one owning a hash partition of the
+ *     aggregates in a plain map, so no aggregate is ever shared between threads and nothing is locked,</li>
+ *     <li>a publish thread appends the events to the event store, saves the new states to the repository in a
+ *     single batch, publishes the events and completes the results.</li>
+ * </ol>
+ * Each stage only follows the cursor of the previous one, and a slot is reused once the publish stage released it.
+ * <p>
+ * A business thread keeps the state it decided until the publish stage confirms its write: the append to the event
+ * store when there is one, the save to the repository otherwise. A write that fails rolls the aggregate back to its
+ * last confirmed state, and the commands already decided on top of the failed state fail too.
+ * <p>
+ * The journal is a directory of segments, named after the offset they start at, and a checkpoint: the offset of
+ * the last batch whose every command went through the publish stage. Segments behind a durable checkpoint are
+ * deleted when a new one is started. When the pipeline is reopened, the aggregates start from the states of the
+ * repository and the commands after the checkpoint are decided again in journal order, their events appended and
+ * published again. A command already applied before a crash is then decided against a state that includes it, so
+ * a versioned command is rejected as stale rather than applied twice.
+ * <p>
+ * Journal record layout: {@code int payloadLength, int crc32c, int count, (int length, byte[] command) * count}.
+ */
+public class PipelineCommandHandler<
+        A extends Aggregate<I>,
+        I extends Identifier,
+        C extends Command<I>,
+        R extends Repository<A, I>,
+        E extends Event<I>,
+        T extends IsTerminal<A, I>,
+        D extends Decider<I, C, A, E, VE>,
+        V extends Evolve<I, A, E>,
+        VE extends ValidationError> implements AutoCloseable {
+
+    private static final int DEFAULT_RING_SIZE = 1 << 14;
+    private static final long DEFAULT_SEGMENT_SIZE = 64L * 1024 * 1024;
+    private static final String SEGMENT_SUFFIX = ".journal";
+    private static final int MAX_JOURNAL_BATCH = 1024;
+    private static final int RECORD_HEADER_SIZE = Integer.BYTES + Integer.BYTES;
+    private static final int SPINS_BEFORE_PARKING = 256;
+    private static final long IDLE_PARK_NANOS = 20_000L;
+
+    private final D decider;
+    private final V evolve;
+    private final R repository;
+    @Nullable
+    private final EventStore<I, E> eventStore;
+    private final EventPublisher<I, E> publisher;
+    private final Codec<C> codec;
+    private final Path directory;
+    private final long segmentSize;
+    private final FileChannel checkpoint;
+    private final Slot<A, C, E, VE>[] ring;
+    private final int mask;
+    private final Partition[] partitions;
+    private final List<Thread> stages = new ArrayList<>();
+    private final AtomicLong next = new AtomicLong();
+    // owned by the publish stage: states waiting for a save, last confirmed state of the aggregates rolled back
+    private final Map<I, A> unsaved = new LinkedHashMap<>();
+    private final Map<I, Optional<A>> rolledBack = new HashMap<>();
+    private volatile long journaled = -1L;
+    private volatile long released = -1L;
+    private volatile long checkpointed;
+    private volatile boolean running = true;
+    private volatile boolean journalFailed;
+    private ByteBuffer journalBuffer = ByteBuffer.allocate(1 << 16);
+    private FileChannel journal;
+    private long segmentStart;
+    private long journalEnd;
+
+    public PipelineCommandHandler(Domain<A, I, C, R, E, T, D, V, VE> domain, Codec<C> codec, Path journal) {
+        this(domain, codec, journal, (id, expectedVersion, newVersion, events) -> {}, Runtime.getRuntime().availableProcessors(), DEFAULT_RING_SIZE);
+    }
+
+    public PipelineCommandHandler(Domain<A, I, C, R, E, T, D, V, VE> domain, Codec<C> codec, Path journal, EventPublisher<I, E> publisher, int partitions, int ringSize) {
+        this(domain, codec, journal, publisher, partitions, ringSize, DEFAULT_SEGMENT_SIZE);
+    }
+
+    /**
+     * @param journal     directory of the journal segments and of their checkpoint
+     * @param segmentSize size past which the journal starts a new segment
+     */
+    @SuppressWarnings("unchecked")
+    public PipelineCommandHandler(Domain<A, I, C, R, E, T, D, V, VE> domain, Codec<C> codec, Path journal, EventPublisher<I, E> publisher, int partitions, int ringSize, long segmentSize) {
+        if (partitions < 1)
+            throw new IllegalArgumentException("Partition count must be positive");
+        if (ringSize < 2 || Integer.bitCount(ringSize) != 1)
+            throw new IllegalArgumentException("Ring size must be a power of two");
+        this.decider = domain.decider();
+        this.evolve = domain.evolve();
+        this.repository = domain.repository().get();
+        this.eventStore = domain.eventStore().orElse(null);
+        this.publisher = publisher;
+        this.codec = codec;
+        this.directory = journal;
+        this.segmentSize = segmentSize;
+        this.ring = new Slot[ringSize];
+        for (int index = 0; index < ringSize; index++)
+            ring[index] = new Slot<>();
+        this.mask = ringSize - 1;
+        this.partitions = new PipelineCommandHandler.Partition[partitions];
+        for (int index = 0; index < partitions; index++)
+            this.partitions[index] = new Partition(index);
+        try {
+            Files.createDirectories(journal);
+            this.checkpoint = FileChannel.open(journal.resolve("checkpoint"), CREATE, READ, WRITE);
+            this.journalEnd = recover();
+            this.segmentStart = journalEnd;
+            this.journal = FileChannel.open(segment(segmentStart), CREATE, READ, WRITE);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+
+        final String name = "pipeline-" + journal.getFileName();
+        stages.add(Thread.ofPlatform().name(name + "-journal").daemon().start(this::journal));
+        for (Partition partition : this.partitions)
+            stages.add(Thread.ofPlatform().name(name + "-decide-" + partition.index).daemon().start(partition::run));
+        stages.add(Thread.ofPlatform().name(name + "-publish").daemon().start(this::publish));
+    }
+
+    public CompletableFuture<Result<E, VE>> submit(C command) {
+        if (!running)
+            throw new IllegalStateException("Pipeline is closed");
+        final long sequence = next.getAndIncrement();
+        // wait for the publish stage to release the slot taken one lap earlier
+        for (int spins = 0; sequence - ring.length > released; spins++)
+            idle(spins);
+        final Slot<A, C, E, VE> slot = ring[(int) sequence & mask];
+        final CompletableFuture<Result<E, VE>> result = new CompletableFuture<>();
+        slot.command = command;
+        slot.result = result;
+        slot.sequence = sequence;
+        return result;
+    }
+
+    /**
+     * Stops accepting commands and returns once every submitted command went through the pipeline.
+     */
+    @Override
+    public void close() {
+        running = false;
+        try {
+            for (Thread stage : stages)
+                stage.join();
+            journal.close();
+            checkpoint.close();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private void journal() {
+        final List<C> batch = new ArrayList<>(MAX_JOURNAL_BATCH);
+        for (int spins = 0; ; ) {
+            long last = journaled;
+            while (batch.size() < MAX_JOURNAL_BATCH) {
+                final Slot<A, C, E, VE> slot = ring[(int) (last + 1) & mask];
+                if (slot.sequence != last + 1)
+                    break;
+                batch.add(slot.command);
+                last++;
+            }
+            if (batch.isEmpty()) {
+                if (drained(journaled))
+                    return;
+                idle(spins++);
+                continue;
+            }
+            spins = 0;
+            try {
+                writeJournal(batch);
+            } catch (RuntimeException e) {
+                // nothing past the last durable batch may be decided: fail the rest of the pipeline
+                journalFailed = true;
+                fail(journaled + 1, e);
+                return;
+            }
+            batch.clear();
+            // read by the publish stage to checkpoint the batch once its last command went through
+            ring[(int) last & mask].journalEnd = journalEnd;
+            journaled = last;
+        }
+    }
+
+    private void publish() {
+        for (int spins = 0; ; ) {
+            long decided = Long.MAX_VALUE;
+            for (Partition partition : partitions)
+                decided = Math.min(decided, partition.cursor);
+            if (decided == released) {
+                if (drained(released))
+                    return;
+                idle(spins++);
+                continue;
+            }
+            spins = 0;
+
+            long covered = -1L;
+            for (long sequence = released + 1; sequence <= decided; sequence++) {
+                final Slot<A, C, E, VE> slot = ring[(int) sequence & mask];
+                if (slot.journalEnd >= 0L)
+                    covered = slot.journalEnd;
+                if (!confirmable(slot) || slot.newState == null)
+                    continue;
+                try {
+                    if (append(slot))
+                        unsaved.put(slot.newState.id(), slot.newState);
+                    else
+                        rollBack(slot, new IllegalStateException("Stream " + slot.newState.id() + " was appended outside of the pipeline"));
+                } catch (RuntimeException e) {
+                    rollBack(slot, e);
+                }
+            }
+            final boolean saved = save(released + 1, decided);
+
+            for (long sequence = released + 1; sequence <= decided; sequence++) {
+                final Slot<A, C, E, VE> slot = ring[(int) sequence & mask];
+                complete(slot);
+                slot.clear();
+            }
+            released = decided;
+            if (saved && covered >= 0L)
+                saveCheckpoint(covered);
+        }
+    }
+
+    /**
+     * @return {@code false} when {@code slot} was decided on a state that failed to be written, it is then failed
+     */
+    private boolean confirmable(Slot<A, C, E, VE> slot) {
+        final I id = slot.command.aggregateId();
+        final Optional<A> confirmed = rolledBack.get(id);
+        if (confirmed == null)
+            return true;
+        // the business thread applied the rollback before deciding it
+        if (slot.previous.orElse(null) == confirmed.orElse(null)) {
+            rolledBack.remove(id);
+            return true;
+        }
+        if (slot.failure == null)
+            slot.failure = new IllegalStateException("Aggregate " + id + " was decided on a state that failed to be written");
+        return false;
+    }
+
+    private void rollBack(Slot<A, C, E, VE> slot, RuntimeException cause) {
+        slot.failure = cause;
+        final I id = slot.command.aggregateId();
+        if (!rolledBack.containsKey(id)) {
+            rolledBack.put(id, slot.previous);
+            partitionOf(id).rollbacks.add(new Rollback<>(id, slot.previous));
+        }
+    }
+
+    /**
+     * @return {@code false} when the states could not be saved and are kept for the next round
+     */
+    private boolean save(long from, long to) {
+        if (unsaved.isEmpty())
+            return true;
+        try {
+            repository.saveAll(new ArrayList<>(unsaved.values()));
+            unsaved.clear();
+            return true;
+        } catch (RuntimeException e) {
+            // the events are stored, the states are saved again with the next round
+            if (eventStore != null)
+                return false;
+            unsaved.clear();
+            for (long sequence = from; sequence <= to; sequence++) {
+                final Slot<A, C, E, VE> slot = ring[(int) sequence & mask];
+                if (slot.newState != null && slot.failure == null)
+                    rollBack(slot, e);
+            }
+            return true;
+        }
+    }
+
+    private boolean append(Slot<A, C, E, VE> slot) {
+        return eventStore == null
+                || eventStore.append(slot.newState.id(), slot.previous.map(Aggregate::aggregateVersion), slot.newState.aggregateVersion(), slot.events);
+    }
+
+    private void complete(Slot<A, C, E, VE> slot) {
+        if (slot.failure != null) {
+            slot.result.completeExceptionally(slot.failure);
+            return;
+        }
+        if (slot.newState != null) {
+            try {
+                publisher.publish(slot.newState.id(), slot.previous.map(Aggregate::aggregateVersion), slot.newState.aggregateVersion(), slot.events);
+            } catch (RuntimeException e) {
+                slot.result.completeExceptionally(e);
+                return;
+            }
+        }
+        slot.result.complete(slot.outcome);
+    }
+
+    private void saveCheckpoint(long offset) {
+        try {
+            checkpoint.write(ByteBuffer.allocate(Long.BYTES).putLong(0, offset), 0L);
+            checkpointed = offset;
+        } catch (IOException e) {
+            // an older checkpoint only makes the next recovery decide more commands again
+        }
+    }
+
+    private void fail(long from, RuntimeException cause) {
+        running = false;
+        for (long sequence = from; sequence < next.get(); sequence++) {
+            final Slot<A, C, E, VE> slot = ring[(int) sequence & mask];
+            for (int spins = 0; slot.sequence != sequence; spins++)
+                idle(spins);
+            slot.result.completeExceptionally(cause);
+        }
+    }
+
+    private boolean drained(long cursor) {
+        return !running && cursor == (journalFailed ? journaled : next.get() - 1);
+    }
+
+    private Partition partitionOf(I id) {
+        final int hash = id.hashCode() * 0x9E3779B9;
+        return partitions[Math.floorMod(hash ^ (hash >>> 16), partitions.length)];
+    }
+
+    private void writeJournal(List<C> batch) {
+        if (journalEnd - segmentStart >= segmentSize)
+            rotate();
+        int payloadLength = Integer.BYTES;
+        for (C command : batch)
+            payloadLength += Integer.BYTES + codec.sizeOf(command);
+        if (journalBuffer.capacity() < RECORD_HEADER_SIZE + payloadLength)
+            journalBuffer = ByteBuffer.allocate(Integer.highestOneBit(RECORD_HEADER_SIZE + payloadLength) << 1);
+        final ByteBuffer record = journalBuffer.clear();
+        record.putInt(payloadLength)
+              .putInt(0)
+              .putInt(batch.size());
+        for (C command : batch) {
+            record.putInt(codec.sizeOf(command));
+            codec.encode(command, record);
+        }
+        record.putInt(Integer.BYTES, checksum(record, RECORD_HEADER_SIZE, payloadLength)).flip();
+        try {
+            while (record.hasRemaining())
+                journal.write(record, journalEnd - segmentStart + record.position());
+            journal.force(false);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        journalEnd += record.limit();
+    }
+
+    private void rotate() {
+        try {
+            journal.close();
+            segmentStart = journalEnd;
+            journal = FileChannel.open(segment(segmentStart), CREATE, READ, WRITE);
+            // a segment is deleted only once a checkpoint past it is durable
+            final long covered = checkpointed;
+            checkpoint.force(false);
+            final List<Long> starts = segments();
+            for (int index = 0; index + 1 < starts.size() && starts.get(index + 1) <= covered; index++)
+                Files.delete(segment(starts.get(index)));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Decides again the commands journaled after the checkpoint, stores and publishes their events, then starts the
+     * journal afresh right after them.
+     *
+     * @return the offset the next segment starts at
+     */
+    private long recover() throws IOException {
+        final ByteBuffer offset = ByteBuffer.allocate(Long.BYTES);
+        long position = 0L;
+        if (checkpoint.size() >= Long.BYTES) {
+            readFully(checkpoint, offset, 0L);
+            position = offset.getLong(0);
+        }
+        final List<Long> starts = segments();
+        final Map<I, A> states = new LinkedHashMap<>();
+        final List<Recovered<A, E>> commits = new ArrayList<>();
+        final ByteBuffer header = ByteBuffer.allocate(RECORD_HEADER_SIZE);
+        for (long start : starts) {
+            try (FileChannel channel = FileChannel.open(segment(start), READ)) {
+                final long size = channel.size();
+                if (start + size <= position)
+                    continue;
+                long offsetInSegment = Math.max(0L, position - start);
+                while (offsetInSegment + RECORD_HEADER_SIZE <= size) {
+                    readFully(channel, header.clear(), offsetInSegment);
+                    final int payloadLength = header.getInt(0);
+                    if (payloadLength < Integer.BYTES || offsetInSegment + RECORD_HEADER_SIZE + payloadLength > size)
+                        break;
+                    final ByteBuffer payload = ByteBuffer.allocate(payloadLength);
+                    readFully(channel, payload, offsetInSegment + RECORD_HEADER_SIZE);
+                    if (header.getInt(Integer.BYTES) != checksum(payload, 0, payloadLength))
+                        break;
+                    final int count = payload.getInt();
+                    for (int i = 0; i < count; i++) {
+                        final int length = payload.getInt();
+                        final C command = codec.decode(payload.slice(payload.position(), length));
+                        payload.position(payload.position() + length);
+                        redecide(command, states, commits);
+                    }
+                    offsetInSegment += RECORD_HEADER_SIZE + payloadLength;
+                }
+                position = start + offsetInSegment;
+                // a torn tail ends the journal
+                if (offsetInSegment < size)
+                    break;
+            }
+        }
+        if (!states.isEmpty())
+            repository.saveAll(new ArrayList<>(states.values()));
+        for (Recovered<A, E> commit : commits)
+            publisher.publish(commit.newState().id(), commit.previous().map(Aggregate::aggregateVersion), commit.newState().aggregateVersion(), commit.events());
+        checkpoint.write(ByteBuffer.allocate(Long.BYTES).putLong(0, position), 0L);
+        checkpoint.force(false);
+        checkpointed = position;
+        for (long start : starts)
+            Files.delete(segment(start));
+        return position;
+    }
+
+    private void redecide(C command, Map<I, A> states, List<Recovered<A, E>> commits) {
+        final Partition partition = partitionOf(command.aggregateId());
+        final A previous = partition.state(command.aggregateId());
+        partition.decide(command, previous);
+        final A newState = partition.newState;
+        if (newState == null)
+            return;
+        final Optional<A> base = Optional.ofNullable(previous);
+        // refused when the events were stored before the crash
+        if (eventStore != null)
+            eventStore.append(newState.id(), base.map(Aggregate::aggregateVersion), newState.aggregateVersion(), partition.events);
+        states.put(newState.id(), newState);
+        commits.add(new Recovered<>(base, newState, partition.events));
+    }
+
+    private List<Long> segments() throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.map(file -> file.getFileName().toString())
+                        .filter(name -> name.endsWith(SEGMENT_SUFFIX))
+                        .map(name -> Long.parseLong(name.substring(0, name.length() - SEGMENT_SUFFIX.length())))
+                        .sorted()
+                        .toList();
+        }
+    }
+
+    private Path segment(long start) {
+        return directory.resolve(String.format("%020d", start) + SEGMENT_SUFFIX);
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining())
+            if (channel.read(buffer, position + buffer.position()) < 0)
+                throw new IOException("Unexpected end of pipeline journal");
+        buffer.flip();
+    }
+
+    private static int checksum(ByteBuffer buffer, int from, int length) {
+        final CRC32C crc = new CRC32C();
+        crc.update(buffer.duplicate().limit(from + length).position(from));
+        return (int) crc.getValue();
+    }
+
+    private static void idle(int spins) {
+        if (spins < SPINS_BEFORE_PARKING)
+            Thread.onSpinWait();
+        else
+            LockSupport.parkNanos(IDLE_PARK_NANOS);
+    }
+
+    private final class Partition {
+
+        private final int index;
+        private final Map<I, A> states = new HashMap<>();
+        private final Queue<Rollback<I, A>> rollbacks = new ConcurrentLinkedQueue<>();
+        private volatile long cursor = -1L;
+        // outcome of the last decision, read right after decide by the same thread
+        @Nullable
+        private A newState;
+        @Nullable
+        private Result<E, VE> outcome;
+        @Nullable
+        private List<E> events;
+
+        private Partition(int index) {
+            this.index = index;
+        }
+
+        private void run() {
+            for (int spins = 0; ; ) {
+                for (Rollback<I, A> rollback; (rollback = rollbacks.poll()) != null; ) {
+                    if (rollback.state().isPresent())
+                        states.put(rollback.id(), rollback.state().get());
+                    else
+                        states.remove(rollback.id());
+                }
+                final long upTo = journaled;
+                if (upTo == cursor) {
+                    if (drained(cursor))
+                        return;
+                    idle(spins++);
+                    continue;
+                }
+                spins = 0;
+                for (long sequence = cursor + 1; sequence <= upTo; sequence++) {
+                    final Slot<A, C, E, VE> slot = ring[(int) sequence & mask];
+                    final I id = slot.command.aggregateId();
+                    if (partitionOf(id) != this)
+                        continue;
+                    try {
+                        final A previous = state(id);
+                        slot.previous = Optional.ofNullable(previous);
+                        decide(slot.command, previous);
+                        slot.newState = newState;
+                        slot.events = events;
+                        slot.outcome = outcome;
+                    } catch (RuntimeException e) {
+                        slot.failure = e;
+                    }
+                }
+                cursor = upTo;
+            }
+        }
+
+        /**
+         * @return the state decided last for {@code id}, or the one saved to the repository before the journal was
+         * last checkpointed
+         */
+        @Nullable
+        private A state(I id) {
+            final A state = states.get(id);
+            if (state != null)
+                return state;
+            final A saved = repository.findAggregateById(id).orElse(null);
+            if (saved != null)
+                states.put(id, saved);
+            return saved;
+        }
+
+        private void decide(C command, @Nullable A previous) {
+            final Optional<A> aggregate = Optional.ofNullable(previous);
+            newState = null;
+            events = null;
+            switch (decider.apply(command, aggregate)) {
+                case EventList<E, VE, I> eventList when eventList.isEmpty() -> outcome = Result.success(eventList.events());
+                case EventList<E, VE, I> eventList -> {
+                    newState = evolve.apply(aggregate, eventList.events());
+                    events = eventList.events();
+                    states.put(newState.id(), newState);
+                    outcome = Result.success(eventList.events());
+                }
+                case ErrorList<E, VE, I> errorList -> outcome = Result.failure(errorList.errors());
+            }
+        }
+    }
+
+    /**
+     * Ring entry reused across laps: written by the submitter, then by the business thread owning its aggregate,
+     * read by the publish stage. Each stage publishes its writes through its volatile cursor.
+     */
+    private static final class Slot<A, C, E, VE> {
+
+        private volatile long sequence = -1L;
+        @Nullable
+        private C command;
+        @Nullable
+        private CompletableFuture<Result<E, VE>> result;
+        private Optional<A> previous = Optional.empty();
+        @Nullable
+        private A newState;
+        @Nullable
+        private List<E> events;
+        @Nullable
+        private Result<E, VE> outcome;
+        @Nullable
+        private RuntimeException failure;
+        // end of the journal batch, set on its last command only
+        private long journalEnd = -1L;
+
+        private void clear() {
+            journalEnd = -1L;
+            command = null;
+            result = null;
+            previous = Optional.empty();
+            newState = null;
+            events = null;
+            outcome = null;
+            failure = null;
+        }
+    }
+
+    private record Rollback<I, A>(
+            I id,
+            Optional<A> state
+    ) {
+
+    }
+
+    private record Recovered<A, E>(
+            Optional<A> previous,
+            A newState,
+            List<E> events
+    ) {
+
+    }
+}
@@ -0,0 +1,135 @@
+package fr.depix.bulb_manager.framework.store;
+
+import fr.depix.bulb_manager.framework.annotation.Aggregate;
+import fr.depix.bulb_manager.framework.annotation.Event;
+import fr.depix.bulb_manager.framework.annotation.EventStore;
+import fr.depix.bulb_manager.framework.annotation.Evolve;
+import fr.depix.bulb_manager.framework.annotation.Identifier;
+import fr.depix.bulb_manager.framework.annotation.Repository;
+import fr.depix.bulb_manager.framework.annotation.SnapshotStore;
+import fr.depix.bulb_manager.framework.annotation.SnapshotStore.Snapshot;
+import org.jspecify.annotations.Nullable;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.OptionalLong;
+import java.util.function.Consumer;
+
+/**
+ * Rebuilds aggregates by folding their events from an {@link EventStore}, one event at a time.
+ * <p>
+ * When a {@link SnapshotStore} is given, rehydration starts from the latest snapshot and only folds the
+ * events appended after it. A new snapshot is taken whenever that tail grows past the {@link SnapshotPolicy},
+ * which keeps load latency flat however long the aggregate has lived.
+ * <p>
+ * Past states are folded the same way, from the latest snapshot taken before the requested point up to the last
+ * append made at or before an instant, or to the last append that moved the aggregate to a version.
+ * <p>
+ * The event store is the source of truth: it already enforced the expected version when the
+ * {@code CommandHandler} appended the events, so saving the derived state is a no-op.
+ */
+public class EventSourcedRepository<A extends Aggregate<I>, I extends Identifier, E extends Event<I>> implements Repository<A, I> {
+
+    private final EventStore<I, E> eventStore;
+    private final Evolve<I, A, E> evolve;
+    @Nullable
+    private final SnapshotStore<A, I> snapshotStore;
+    private final SnapshotPolicy snapshotPolicy;
+
+    public EventSourcedRepository(EventStore<I, E> eventStore, Evolve<I, A, E> evolve) {
+        this.eventStore = eventStore;
+        this.evolve = evolve;
+        this.snapshotStore = null;
+        this.snapshotPolicy = SnapshotPolicy.never();
+    }
+
+    public EventSourcedRepository(EventStore<I, E> eventStore, Evolve<I, A, E> evolve, SnapshotStore<A, I> snapshotStore, SnapshotPolicy snapshotPolicy) {
+        this.eventStore = eventStore;
+        this.evolve = evolve;
+        this.snapshotStore = snapshotStore;
+        this.snapshotPolicy = snapshotPolicy;
+    }
+
+    @Override
+    public Optional<A> findAggregateById(I id) {
+        final Optional<Snapshot<A>> snapshot = snapshotStore == null ? Optional.empty() : snapshotStore.latest(id);
+        final long fromSequence = snapshot.map(Snapshot::sequence).orElse(0L);
+        final Fold fold = new Fold(snapshot.map(Snapshot::state).orElse(null));
+
+        final EventStore.Replayed replayed = eventStore.replay(id, fromSequence, fold);
+
+        if (snapshotStore != null && fold.state != null && snapshotPolicy.shouldSnapshot(replayed.events(), replayed.bytes()))
+            snapshotStore.save(new Snapshot<>(fold.state, fromSequence + replayed.events()));
+        return Optional.ofNullable(fold.state);
+    }
+
+    /**
+     * @return the state of {@code id} once every append made at or before {@code instant} is folded
+     */
+    public Optional<A> findAggregateAt(I id, Instant instant) {
+        return foldUpTo(id, eventStore.sequenceAt(id, instant));
+    }
+
+    /**
+     * @return the state of {@code id} when the last append that moved it to {@code version} was made
+     */
+    public Optional<A> findAggregateAtVersion(I id, long version) {
+        final OptionalLong sequence = eventStore.sequenceOfVersion(id, version);
+        return sequence.isPresent() ? foldUpTo(id, sequence.getAsLong()) : Optional.empty();
+    }
+
+    private Optional<A> foldUpTo(I id, long toSequence) {
+        final Optional<Snapshot<A>> snapshot = snapshotStore == null ? Optional.empty() : snapshotStore.latest(id, toSequence);
+        final Fold fold = new Fold(snapshot.map(Snapshot::state).orElse(null));
+        eventStore.replay(id, snapshot.map(Snapshot::sequence).orElse(0L), toSequence, fold);
+        return Optional.ofNullable(fold.state);
+    }
+
+    @Override
+    public void save(A newState) {
+    }
+
+    @Override
+    public boolean compareAndSave(Optional<A> expected, A newState) {
+        return true;
+    }
+
+    /**
+     * Nothing is held apart from the append-only event log, so the aggregate is only checked: it stays readable
+     * from its events.
+     */
+    @Override
+    public boolean compareAndRemove(A expected) {
+        return findAggregateById(expected.id()).map(Aggregate::aggregateVersion)
+                                               .filter(expected.aggregateVersion()::equals)
+                                               .isPresent();
+    }
+
+    /**
+     * Folds every stream of the event store, one after the other.
+     */
+    @Override
+    public void forEachAggregate(Consumer<? super A> consumer) {
+        final List<I> ids = new ArrayList<>();
+        eventStore.forEachStreamAppendedSince(0L, ids::add);
+        for (I id : ids)
+            findAggregateById(id).ifPresent(consumer);
+    }
+
+    private final class Fold implements Consumer<E> {
+
+        @Nullable
+        private A state;
+
+        private Fold(@Nullable A state) {
+            this.state = state;
+        }
+
+        @Override
+        public void accept(E event) {
+            state = evolve.apply(Optional.ofNullable(state), List.of(event));
+        }
+    }
+}
@@ -0,0 +1,172 @@
+package fr.depix.bulb_manager.framework.store;
+
+import fr.depix.bulb_manager.framework.annotation.Aggregate;
+import fr.depix.bulb_manager.framework.annotation.Identifier;
+import fr.depix.bulb_manager.framework.annotation.SnapshotStore;
+import fr.depix.bulb_manager.framework.codec.Codec;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.CRC32C;
+
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+/**
+ * Append-only snapshot log. Only the positions of the snapshots of each aggregate are kept in memory, sorted by
+ * sequence, states are decoded from the file with the domain snapshot codec when they are loaded.
+ * <p>
+ * Record layout: {@code int payloadLength, int crc32c, long sequence, byte[] state}.
+ */
+public class FileSnapshotStore<A extends Aggregate<I>, I extends Identifier> implements SnapshotStore<A, I>, AutoCloseable {
+
+    private static final int RECORD_HEADER_SIZE = Integer.BYTES + Integer.BYTES;
+
+    private final Codec<A> codec;
+    private final FileChannel channel;
+    private final ConcurrentMap<I, Entry[]> entries = new ConcurrentHashMap<>();
+    private final ReentrantLock appendLock = new ReentrantLock();
+    private long end;
+
+    public FileSnapshotStore(Path file, Codec<A> codec) {
+        this.codec = codec;
+        try {
+            this.channel = FileChannel.open(file, CREATE, READ, WRITE);
+            this.end = recover();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public Optional<Snapshot<A>> latest(I id) {
+        return latest(id, Long.MAX_VALUE);
+    }
+
+    @Override
+    public Optional<Snapshot<A>> latest(I id, long sequence) {
+        final Entry[] snapshots = entries.get(id);
+        if (snapshots == null)
+            return Optional.empty();
+        int index = snapshots.length - 1;
+        while (index >= 0 && snapshots[index].sequence() > sequence)
+            index--;
+        return index < 0 ? Optional.empty() : Optional.of(read(snapshots[index]));
+    }
+
+    @Override
+    public void save(Snapshot<A> snapshot) {
+        final int payloadLength = Long.BYTES + codec.sizeOf(snapshot.state());
+        final ByteBuffer record = ByteBuffer.allocate(RECORD_HEADER_SIZE + payloadLength);
+        record.putInt(payloadLength)
+              .putInt(0)
+              .putLong(snapshot.sequence());
+        codec.encode(snapshot.state(), record);
+        record.putInt(Integer.BYTES, checksum(record, RECORD_HEADER_SIZE, payloadLength)).flip();
+
+        final long position;
+        appendLock.lock();
+        try {
+            position = end;
+            while (record.hasRemaining())
+                channel.write(record, position + record.position());
+            end += record.limit();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            appendLock.unlock();
+        }
+
+        index(snapshot.state().id(), new Entry(position + RECORD_HEADER_SIZE, payloadLength, snapshot.sequence()));
+    }
+
+    @Override
+    public void close() {
+        try {
+            channel.close();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private long recover() throws IOException {
+        final long size = channel.size();
+        final ByteBuffer header = ByteBuffer.allocate(RECORD_HEADER_SIZE);
+        long position = 0L;
+        while (position + RECORD_HEADER_SIZE + Long.BYTES <= size) {
+            readFully(header.clear(), position);
+            final int payloadLength = header.getInt(0);
+            if (payloadLength < Long.BYTES || position + RECORD_HEADER_SIZE + payloadLength > size)
+                break;
+            final ByteBuffer payload = ByteBuffer.allocate(payloadLength);
+            readFully(payload, position + RECORD_HEADER_SIZE);
+            if (header.getInt(Integer.BYTES) != checksum(payload, 0, payloadLength))
+                break;
+            final long sequence = payload.getLong(0);
+            final A state = codec.decode(payload.position(Long.BYTES));
+            index(state.id(), new Entry(position + RECORD_HEADER_SIZE, payloadLength, sequence));
+            position += RECORD_HEADER_SIZE + payloadLength;
+        }
+        // drop a torn tail so that later records are appended right after the last valid one
+        channel.truncate(position);
+        return position;
+    }
+
+    private Snapshot<A> read(Entry entry) {
+        final ByteBuffer payload = ByteBuffer.allocate(entry.length());
+        try {
+            readFully(payload, entry.position());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return new Snapshot<>(codec.decode(payload.position(Long.BYTES)), entry.sequence());
+    }
+
+    private void index(I id, Entry entry) {
+        entries.merge(id, new Entry[]{entry}, (current, added) -> {
+            // snapshots are rarely taken, so a sorted copy per snapshot is cheaper than a concurrent structure
+            int index = current.length;
+            while (index > 0 && current[index - 1].sequence() > entry.sequence())
+                index--;
+            if (index > 0 && current[index - 1].sequence() == entry.sequence()) {
+                final Entry[] replaced = current.clone();
+                replaced[index - 1] = entry;
+                return replaced;
+            }
+            final Entry[] inserted = Arrays.copyOf(current, current.length + 1);
+            System.arraycopy(current, index, inserted, index + 1, current.length - index);
+            inserted[index] = entry;
+            return inserted;
+        });
+    }
+
+    private void readFully(ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining())
+            if (channel.read(buffer, position + buffer.position()) < 0)
+                throw new IOException("Unexpected end of snapshot file");
+        buffer.flip();
+    }
+
+    private static int checksum(ByteBuffer buffer, int from, int length) {
+        final CRC32C crc = new CRC32C();
+        crc.update(buffer.duplicate().limit(from + length).position(from));
+        return (int) crc.getValue();
+    }
+
+    private record Entry(
+            long position,
+            int length,
+            long sequence
+    ) {
+
+    }
+}
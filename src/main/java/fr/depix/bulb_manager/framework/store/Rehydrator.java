@@ -0,0 +1,207 @@
+package fr.depix.bulb_manager.framework.store;
+
+import fr.depix.bulb_manager.framework.annotation.Aggregate;
+import fr.depix.bulb_manager.framework.annotation.Domain;
+import fr.depix.bulb_manager.framework.annotation.Event;
+import fr.depix.bulb_manager.framework.annotation.EventStore;
+import fr.depix.bulb_manager.framework.annotation.Evolve;
+import fr.depix.bulb_manager.framework.annotation.Identifier;
+import fr.depix.bulb_manager.framework.annotation.Repository;
+import fr.depix.bulb_manager.framework.archive.ColdArchive;
+import fr.depix.bulb_manager.framework.archive.TerminalIds;
+import org.jspecify.annotations.Nullable;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+
+/**
+ * Rebuilds every aggregate of an {@link EventStore} into a target repository, to rebuild a projection or to recover
+ * from a lost or corrupted image.
+ * <p>
+ * The ids of the streams are split in halves on a {@link ForkJoinPool} until a range holds at most
+ * {@code partitionSize} aggregates. Each range is then folded by one worker without any coordination: the events of
+ * a stream are decoded into a buffer reused by the whole range and folded by a single call to {@link Evolve}, and
+ * the states of the range are written with one {@link Repository#saveAll}. Streams share nothing but the read-only
+ * segment mappings, so throughput grows with the parallelism of the pool until the disk or the repository saturates.
+ * <p>
+ * Rehydration reads the streams as they are when it reaches them, it is meant to run before commands are accepted.
+ * <p>
+ * Built from a {@link Domain} that tracks its {@link TerminalIds}, the streams of terminal aggregates are not
+ * rebuilt: the ids of the {@link ColdArchive} are added to the terminal ids first, as the {@code Archiver} does,
+ * then every terminal id is skipped. A stream that folds to a terminal state is still saved, and its id added to
+ * the terminal ids so that an archiver moves it out of the repository.
+ */
+public class Rehydrator<A extends Aggregate<I>, I extends Identifier, E extends Event<I>> {
+
+    public static final int DEFAULT_PARTITION_SIZE = 1024;
+
+    private final EventStore<I, E> eventStore;
+    private final Evolve<I, A, E> evolve;
+    private final Repository<A, I> repository;
+    private final int partitionSize;
+    @Nullable
+    private final TerminalIds<I> terminalIds;
+    @Nullable
+    private final Predicate<A> isTerminal;
+    @Nullable
+    private final ColdArchive<A, I, E> archive;
+
+    public Rehydrator(EventStore<I, E> eventStore, Evolve<I, A, E> evolve, Repository<A, I> repository) {
+        this(eventStore, evolve, repository, DEFAULT_PARTITION_SIZE);
+    }
+
+    public Rehydrator(EventStore<I, E> eventStore, Evolve<I, A, E> evolve, Repository<A, I> repository, int partitionSize) {
+        this(eventStore, evolve, repository, partitionSize, null, null, null);
+    }
+
+    public Rehydrator(Domain<A, I, ?, ?, E, ?, ?, ?, ?> domain, Repository<A, I> repository) {
+        this(domain, repository, null, DEFAULT_PARTITION_SIZE);
+    }
+
+    /**
+     * @param archive the archive whose aggregates are not rebuilt, requires a domain that tracks its terminal ids
+     */
+    public Rehydrator(Domain<A, I, ?, ?, E, ?, ?, ?, ?> domain, Repository<A, I> repository, @Nullable ColdArchive<A, I, E> archive, int partitionSize) {
+        this(domain.eventStore().orElseThrow(() -> new IllegalArgumentException("Domain has no event store")),
+             domain.evolve(), repository, partitionSize, domain.terminalIds().orElse(null), domain.isTerminal(), archive);
+        if (archive != null && terminalIds == null)
+            throw new IllegalArgumentException("Domain does not track its terminal ids");
+    }
+
+    private Rehydrator(EventStore<I, E> eventStore, Evolve<I, A, E> evolve, Repository<A, I> repository, int partitionSize,
+                       @Nullable TerminalIds<I> terminalIds, @Nullable Predicate<A> isTerminal, @Nullable ColdArchive<A, I, E> archive) {
+        if (partitionSize < 1)
+            throw new IllegalArgumentException("Partition size must be positive");
+        this.eventStore = eventStore;
+        this.evolve = evolve;
+        this.repository = repository;
+        this.partitionSize = partitionSize;
+        this.terminalIds = terminalIds;
+        this.isTerminal = terminalIds == null ? null : isTerminal;
+        this.archive = archive;
+    }
+
+    /**
+     * Rehydrates every aggregate on the common pool.
+     */
+    public Progress rehydrate() {
+        return rehydrate(ForkJoinPool.commonPool(), ignored -> {
+        });
+    }
+
+    /**
+     * Rehydrates every aggregate on {@code pool}, calling {@code listener} each time a partition is saved. The
+     * listener is called concurrently by the workers of the pool and must be cheap.
+     *
+     * @return the totals once every aggregate is saved
+     */
+    public Progress rehydrate(ForkJoinPool pool, Consumer<? super Progress> listener) {
+        final List<I> ids = new ArrayList<>();
+        if (terminalIds == null) {
+            eventStore.forEachStreamAppendedSince(0L, ids::add);
+        } else {
+            if (archive != null)
+                archive.forEachId(terminalIds::add);
+            eventStore.forEachStreamAppendedSince(0L, id -> {
+                if (!terminalIds.contains(id))
+                    ids.add(id);
+            });
+        }
+        final Counters counters = new Counters(ids.size(), listener);
+        pool.invoke(new Partition(ids, 0, ids.size(), counters));
+        return counters.progress();
+    }
+
+    /**
+     * @param aggregates the aggregates saved so far
+     * @param totalAggregates the aggregates to rehydrate
+     * @param events the events folded so far
+     * @param bytes the size of the events folded so far
+     */
+    public record Progress(
+            long aggregates,
+            long totalAggregates,
+            long events,
+            long bytes
+    ) {
+
+        public double ratio() {
+            return totalAggregates == 0L ? 1.0 : (double) aggregates / totalAggregates;
+        }
+    }
+
+    private static final class Counters {
+
+        private final long totalAggregates;
+        private final Consumer<? super Progress> listener;
+        private final LongAdder aggregates = new LongAdder();
+        private final LongAdder events = new LongAdder();
+        private final LongAdder bytes = new LongAdder();
+
+        private Counters(long totalAggregates, Consumer<? super Progress> listener) {
+            this.totalAggregates = totalAggregates;
+            this.listener = listener;
+        }
+
+        private void add(long aggregates, long events, long bytes) {
+            this.aggregates.add(aggregates);
+            this.events.add(events);
+            this.bytes.add(bytes);
+            listener.accept(progress());
+        }
+
+        private Progress progress() {
+            return new Progress(aggregates.sum(), totalAggregates, events.sum(), bytes.sum());
+        }
+    }
+
+    private final class Partition extends RecursiveAction {
+
+        private final List<I> ids;
+        private final int from;
+        private final int to;
+        private final Counters counters;
+
+        private Partition(List<I> ids, int from, int to, Counters counters) {
+            this.ids = ids;
+            this.from = from;
+            this.to = to;
+            this.counters = counters;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > partitionSize) {
+                final int middle = (from + to) >>> 1;
+                invokeAll(new Partition(ids, from, middle, counters), new Partition(ids, middle, to, counters));
+                return;
+            }
+            final List<E> buffer = new ArrayList<>();
+            final List<A> states = new ArrayList<>(to - from);
+            long events = 0L;
+            long bytes = 0L;
+            for (int index = from; index < to; index++) {
+                buffer.clear();
+                final EventStore.Replayed replayed = eventStore.replay(ids.get(index), buffer::add);
+                if (buffer.isEmpty())
+                    continue;
+                states.add(evolve.apply(Optional.empty(), buffer));
+                events += replayed.events();
+                bytes += replayed.bytes();
+            }
+            repository.saveAll(states);
+            // once saved, so that an archiver notified of the id finds the state
+            if (terminalIds != null && isTerminal != null)
+                for (A state : states)
+                    if (isTerminal.test(state))
+                        terminalIds.add(state.id());
+            counters.add(to - from, events, bytes);
+        }
+    }
+}
@@ -0,0 +1,633 @@
+package fr.depix.bulb_manager.framework.store;
+
+import fr.depix.bulb_manager.framework.annotation.Event;
+import fr.depix.bulb_manager.framework.annotation.EventStore;
+import fr.depix.bulb_manager.framework.annotation.Identifier;
+import fr.depix.bulb_manager.framework.codec.Codec;
+import org.jspecify.annotations.Nullable;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.OptionalLong;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.zip.CRC32C;
+
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+/**
+ * Append-only event store backed by fixed-size segment files.
+ * <p>
+ * Appends are queued to a single writer thread which checks the expected stream version, writes the
+ * whole batch and fsyncs it once before acknowledging every append of the batch (group commit).
+ * Reads go through read-only memory mappings of the segments and decode events one at a time.
+ * <p>
+ * Each record links to the previous record of its stream, and each stream keeps in memory a sparse index of one
+ * entry every {@value #INDEX_INTERVAL} records: its position, first sequence and the running maximum of the event
+ * dates. A lookup binary searches the index, then walks the links of one block of records in the mapped segments,
+ * so replays up to a point in time or a version do not decode the stream while the memory held per record stays
+ * a few bytes.
+ * <p>
+ * Record layout: {@code int payloadLength, int crc32c, long newVersion, long previousPosition, long latestEventDate,
+ * int eventCount} followed by {@code int eventLength, byte[] event} for each event. A zero length marks the end of
+ * a segment.
+ */
+public class SegmentedFileEventStore<I extends Identifier, E extends Event<I>> implements EventStore<I, E>, AutoCloseable {
+
+    public static final int DEFAULT_SEGMENT_SIZE = 64 * 1024 * 1024;
+    public static final int DEFAULT_MAX_BATCH_SIZE = 1024;
+
+    private static final int CHECKSUMMED_OFFSET = Integer.BYTES + Integer.BYTES;
+    private static final int VERSION_OFFSET = CHECKSUMMED_OFFSET;
+    private static final int PREVIOUS_OFFSET = VERSION_OFFSET + Long.BYTES;
+    private static final int TIMESTAMP_OFFSET = PREVIOUS_OFFSET + Long.BYTES;
+    private static final int COUNT_OFFSET = TIMESTAMP_OFFSET + Long.BYTES;
+    private static final int RECORD_HEADER_SIZE = COUNT_OFFSET + Integer.BYTES;
+    private static final long NO_RECORD = -1L;
+    private static final int INDEX_INTERVAL = 16;
+    private static final int WRITE_BUFFER_SIZE = 1024 * 1024;
+
+    private final Path directory;
+    private final Codec<E> codec;
+    private final int segmentSize;
+    private final int maxBatchSize;
+
+    private final ConcurrentMap<I, AggregateStream> streams = new ConcurrentHashMap<>();
+    private final ConcurrentMap<Integer, MappedByteBuffer> mappedSegments = new ConcurrentHashMap<>();
+    private final BlockingQueue<Append<I, E>> queue = new LinkedBlockingQueue<>();
+    private final ByteBuffer writeBuffer;
+    private final CRC32C crc = new CRC32C();
+    private final Thread writer;
+
+    private FileChannel channel;
+    private int segment;
+    private int writePosition;
+    private int bufferPosition;
+
+    // published after the records it covers are indexed
+    private volatile long committed;
+    private volatile boolean running = true;
+    @Nullable
+    private volatile RuntimeException failure;
+
+    public SegmentedFileEventStore(Path directory, Codec<E> codec) {
+        this(directory, codec, DEFAULT_SEGMENT_SIZE, DEFAULT_MAX_BATCH_SIZE);
+    }
+
+    public SegmentedFileEventStore(Path directory, Codec<E> codec, int segmentSize, int maxBatchSize) {
+        if (segmentSize <= RECORD_HEADER_SIZE)
+            throw new IllegalArgumentException("Segment size must be greater than " + RECORD_HEADER_SIZE + " bytes");
+        this.directory = directory;
+        this.codec = codec;
+        this.segmentSize = segmentSize;
+        this.maxBatchSize = maxBatchSize;
+        this.writeBuffer = ByteBuffer.allocateDirect(Math.min(segmentSize, WRITE_BUFFER_SIZE));
+        try {
+            Files.createDirectories(directory);
+            recover();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        this.writer = Thread.ofPlatform()
+                            .name("event-store-writer-" + directory.getFileName())
+                            .daemon()
+                            .start(this::drain);
+    }
+
+    @Override
+    public boolean append(I id, Optional<Long> expectedVersion, Long newVersion, List<E> events) {
+        if (events.isEmpty())
+            throw new IllegalArgumentException("Cannot append an empty list of events");
+        final int size = recordSize(events);
+        if (size > writeBuffer.capacity())
+            throw new IllegalArgumentException("Record of " + size + " bytes exceeds the maximum record size of " + writeBuffer.capacity() + " bytes");
+        checkWritable();
+
+        final Append<I, E> append = new Append<>(id, expectedVersion.orElse(null), newVersion, events, size, new CompletableFuture<>());
+        queue.add(append);
+        // the writer fails what is queued when it stops: an append queued after that is taken back here
+        if ((!running || failure != null) && queue.remove(append))
+            checkWritable();
+        return append.done().join();
+    }
+
+    @Override
+    public Replayed replay(I id, long fromSequence, long toSequence, Consumer<? super E> consumer) {
+        final AggregateStream stream = streams.get(id);
+        final Tail tail = stream == null ? null : stream.tail;
+        if (tail == null)
+            return new Replayed(0L, 0L);
+
+        final long[] positions = stream.positions;
+        final long[] sequences = stream.sequences;
+        final int entries = entries(tail);
+        long events = 0L;
+        long bytes = 0L;
+        int block = lastAtOrBefore(sequences, entries, fromSequence);
+        for (long sequence = sequences[block]; block < entries && sequence < toSequence; block++) {
+            for (long position : block(tail, positions, block)) {
+                final ByteBuffer record = mapped(segmentOf(position)).duplicate();
+                record.position(offsetOf(position) + COUNT_OFFSET);
+                final int eventCount = record.getInt();
+                if (sequence >= toSequence)
+                    break;
+                if (sequence + eventCount <= fromSequence) {
+                    sequence += eventCount;
+                    continue;
+                }
+                for (int i = 0; i < eventCount && sequence < toSequence; i++, sequence++) {
+                    final int length = record.getInt();
+                    final int next = record.position() + length;
+                    if (sequence >= fromSequence) {
+                        consumer.accept(codec.decode(record));
+                        events++;
+                        bytes += length;
+                    }
+                    record.position(next);
+                }
+            }
+        }
+        return new Replayed(events, bytes);
+    }
+
+    @Override
+    public long sequenceAt(I id, Instant instant) {
+        final AggregateStream stream = streams.get(id);
+        final Tail tail = stream == null ? null : stream.tail;
+        if (tail == null)
+            return 0L;
+
+        final long[] timestamps = stream.timestamps;
+        final long target = epochNanos(instant);
+        if (timestamps[0] > target)
+            return 0L;
+        // the index holds the running maximum of the event dates, so it never decreases
+        final int block = lastAtOrBefore(timestamps, entries(tail), target);
+        long sequence = stream.sequences[block];
+        long latest = timestamps[block];
+        for (long position : block(tail, stream.positions, block)) {
+            final ByteBuffer segmentBuffer = mapped(segmentOf(position));
+            latest = Math.max(latest, segmentBuffer.getLong(offsetOf(position) + TIMESTAMP_OFFSET));
+            if (latest > target)
+                break;
+            sequence += segmentBuffer.getInt(offsetOf(position) + COUNT_OFFSET);
+        }
+        return sequence;
+    }
+
+    @Override
+    public OptionalLong sequenceOfVersion(I id, long version) {
+        final AggregateStream stream = streams.get(id);
+        final Tail tail = stream == null ? null : stream.tail;
+        if (tail == null)
+            return OptionalLong.empty();
+
+        // versions restart when an aggregate is created again, so they are scanned from the end
+        for (int block = entries(tail) - 1; block >= 0; block--) {
+            final long[] positions = block(tail, stream.positions, block);
+            final long[] ends = new long[positions.length];
+            long sequence = stream.sequences[block];
+            for (int i = 0; i < positions.length; i++)
+                ends[i] = sequence += mapped(segmentOf(positions[i])).getInt(offsetOf(positions[i]) + COUNT_OFFSET);
+            for (int i = positions.length - 1; i >= 0; i--)
+                if (mapped(segmentOf(positions[i])).getLong(offsetOf(positions[i]) + VERSION_OFFSET) == version)
+                    return OptionalLong.of(ends[i]);
+        }
+        return OptionalLong.empty();
+    }
+
+    @Override
+    public long sequence(I id) {
+        final AggregateStream stream = streams.get(id);
+        final Tail tail = stream == null ? null : stream.tail;
+        return tail == null ? 0L : tail.end();
+    }
+
+    @Override
+    public long position() {
+        return committed;
+    }
+
+    @Override
+    public void forEachStreamAppendedSince(long position, Consumer<? super I> consumer) {
+        streams.forEach((id, stream) -> {
+            final Tail tail = stream.tail;
+            if (tail != null && tail.position() >= position)
+                consumer.accept(id);
+        });
+    }
+
+    @Override
+    public long forEachCommitSince(long position, int maxCommits, Consumer<? super Commit<I, E>> consumer) {
+        final long end = committed;
+        long next = position;
+        for (int count = 0; count < maxCommits && next < end; ) {
+            final int offset = offsetOf(next);
+            final ByteBuffer segmentBuffer = mapped(segmentOf(next));
+            // a zero length, or no room for a header, marks the end of a segment
+            if (offset + RECORD_HEADER_SIZE > segmentSize || segmentBuffer.getInt(offset) == 0) {
+                next = positionOf(segmentOf(next) + 1, 0);
+                continue;
+            }
+            final long newVersion = segmentBuffer.getLong(offset + VERSION_OFFSET);
+            final List<E> events = events(segmentBuffer.duplicate().position(offset + COUNT_OFFSET));
+            next = positionOf(segmentOf(next), offset + Integer.BYTES + segmentBuffer.getInt(offset));
+            consumer.accept(new Commit<>(events.getFirst().aggregateId(), newVersion, events, next));
+            count++;
+        }
+        return next;
+    }
+
+    @Override
+    public void close() {
+        running = false;
+        try {
+            writer.join();
+            channel.close();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        mappedSegments.clear();
+    }
+
+    private void checkWritable() {
+        final RuntimeException cause = failure;
+        if (cause != null)
+            throw new IllegalStateException("Event store is no longer writable", cause);
+        if (!running)
+            throw new IllegalStateException("Event store is closed");
+    }
+
+    private void drain() {
+        final List<Append<I, E>> batch = new ArrayList<>(maxBatchSize);
+        try {
+            while (running || !queue.isEmpty()) {
+                final Append<I, E> first = queue.poll(10, TimeUnit.MILLISECONDS);
+                if (first == null)
+                    continue;
+                batch.add(first);
+                queue.drainTo(batch, maxBatchSize - 1);
+                commit(batch);
+                batch.clear();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            fail(batch, new IllegalStateException("Event store writer was interrupted", e));
+        } catch (IOException e) {
+            fail(batch, new UncheckedIOException(e));
+        } catch (RuntimeException e) {
+            fail(batch, e);
+        }
+    }
+
+    /**
+     * Makes the store unwritable and fails the appends of the batch that were not acknowledged yet, then every
+     * queued one.
+     */
+    private void fail(List<Append<I, E>> batch, RuntimeException cause) {
+        failure = cause;
+        batch.forEach(append -> append.done().completeExceptionally(cause));
+        for (Append<I, E> append; (append = queue.poll()) != null; )
+            append.done().completeExceptionally(cause);
+    }
+
+    private void commit(List<Append<I, E>> batch) throws IOException {
+        final List<Written> written = new ArrayList<>(batch.size());
+        for (Append<I, E> append : batch) {
+            final AggregateStream stream = streams.computeIfAbsent(append.id(), ignored -> new AggregateStream());
+            if (!Objects.equals(stream.head, append.expectedVersion())) {
+                append.done().complete(false);
+                continue;
+            }
+            final long timestamp = latestDate(append.events());
+            final long position;
+            try {
+                position = write(append, stream.last, timestamp);
+            } catch (RuntimeException e) {
+                // an event the codec can not encode only fails its own append
+                append.done().completeExceptionally(e);
+                continue;
+            }
+            stream.head = append.newVersion();
+            stream.last = position;
+            written.add(new Written(stream, position, append.events().size(), timestamp, append.done()));
+        }
+        if (written.isEmpty())
+            return;
+
+        flush();
+        channel.force(false);
+        for (Written entry : written)
+            entry.stream().add(entry.position(), entry.eventCount(), entry.timestamp());
+        // before the acknowledgements, so that a reader of the log sees every acknowledged append
+        committed = positionOf(segment, writePosition);
+        for (Written entry : written)
+            entry.done().complete(true);
+    }
+
+    private long write(Append<I, E> append, long previous, long timestamp) throws IOException {
+        final int size = append.size();
+        if (writePosition + size + Integer.BYTES > segmentSize) {
+            flush();
+            channel.force(false);
+            channel.close();
+            openSegment(segment + 1);
+        }
+        if (writeBuffer.remaining() < size)
+            flush();
+
+        final long position = positionOf(segment, writePosition);
+        final int start = writeBuffer.position();
+        try {
+            writeBuffer.putInt(size - Integer.BYTES)
+                       .putInt(0)
+                       .putLong(append.newVersion())
+                       .putLong(previous)
+                       .putLong(timestamp)
+                       .putInt(append.events().size());
+            for (E event : append.events()) {
+                writeBuffer.putInt(codec.sizeOf(event));
+                codec.encode(event, writeBuffer);
+            }
+        } catch (RuntimeException e) {
+            writeBuffer.position(start);
+            throw e;
+        }
+        writeBuffer.putInt(start + Integer.BYTES, checksum(writeBuffer, start + CHECKSUMMED_OFFSET, size - CHECKSUMMED_OFFSET));
+        writePosition += size;
+        return position;
+    }
+
+    /**
+     * @return the index of the last of the {@code size} sorted {@code values} at or before {@code target}, or
+     * {@code 0} when they are all after it
+     */
+    private static int lastAtOrBefore(long[] values, int size, long target) {
+        int low = 0;
+        int high = size - 1;
+        while (low < high) {
+            final int middle = (low + high + 1) >>> 1;
+            if (values[middle] <= target)
+                low = middle;
+            else
+                high = middle - 1;
+        }
+        return low;
+    }
+
+    /**
+     * @return the number of index entries covering the records up to {@code tail}
+     */
+    private static int entries(Tail tail) {
+        return (tail.size() + INDEX_INTERVAL - 1) / INDEX_INTERVAL;
+    }
+
+    /**
+     * @return the positions of the records of index entry {@code block}, rebuilt by following the links back from
+     * the first record of the next entry, or from the tail
+     */
+    private long[] block(Tail tail, long[] positions, int block) {
+        final int first = block * INDEX_INTERVAL;
+        final long[] records = new long[Math.min(INDEX_INTERVAL, tail.size() - first)];
+        long position = first + records.length == tail.size() ? tail.position() : previousOf(positions[block + 1]);
+        for (int i = records.length - 1; i > 0; i--) {
+            records[i] = position;
+            position = previousOf(position);
+        }
+        records[0] = positions[block];
+        return records;
+    }
+
+    private long previousOf(long position) {
+        return mapped(segmentOf(position)).getLong(offsetOf(position) + PREVIOUS_OFFSET);
+    }
+
+    private long latestDate(List<E> events) {
+        long latest = Long.MIN_VALUE;
+        for (E event : events)
+            latest = Math.max(latest, epochNanos(event.eventDate()));
+        return latest;
+    }
+
+    private static long epochNanos(Instant instant) {
+        try {
+            return Math.addExact(Math.multiplyExact(instant.getEpochSecond(), 1_000_000_000L), instant.getNano());
+        } catch (ArithmeticException e) {
+            return instant.getEpochSecond() < 0L ? Long.MIN_VALUE : Long.MAX_VALUE;
+        }
+    }
+
+    private int recordSize(List<E> events) {
+        int size = RECORD_HEADER_SIZE;
+        for (E event : events)
+            size += Integer.BYTES + codec.sizeOf(event);
+        return size;
+    }
+
+    private void flush() throws IOException {
+        writeBuffer.flip();
+        while (writeBuffer.hasRemaining())
+            bufferPosition += channel.write(writeBuffer, bufferPosition);
+        writeBuffer.clear();
+    }
+
+    private int checksum(ByteBuffer buffer, int from, int length) {
+        crc.reset();
+        crc.update(buffer.duplicate().limit(from + length).position(from));
+        return (int) crc.getValue();
+    }
+
+    private void recover() throws IOException {
+        final int[] segments;
+        try (java.util.stream.Stream<Path> files = Files.list(directory)) {
+            segments = files.map(path -> path.getFileName().toString())
+                            .filter(name -> name.endsWith(".segment"))
+                            .mapToInt(name -> Integer.parseInt(name.substring(0, name.length() - ".segment".length())))
+                            .sorted()
+                            .toArray();
+        }
+        if (segments.length == 0) {
+            openSegment(0);
+            return;
+        }
+
+        int offset = 0;
+        for (int index : segments) {
+            final ByteBuffer buffer = mapped(index).duplicate();
+            offset = 0;
+            while (offset + RECORD_HEADER_SIZE <= segmentSize) {
+                final int payloadLength = buffer.getInt(offset);
+                if (payloadLength <= 0
+                        || offset + Integer.BYTES + payloadLength > segmentSize
+                        || buffer.getInt(offset + Integer.BYTES) != checksum(buffer, offset + CHECKSUMMED_OFFSET, payloadLength - Integer.BYTES))
+                    break;
+                index(buffer, index, offset);
+                offset += Integer.BYTES + payloadLength;
+            }
+        }
+
+        openSegment(segments[segments.length - 1]);
+        writePosition = truncateTornTail(offset);
+        bufferPosition = writePosition;
+        committed = positionOf(segment, writePosition);
+    }
+
+    private void index(ByteBuffer buffer, int index, int offset) {
+        // the first event tells the stream, the header holds the rest
+        final E first = codec.decode(buffer.duplicate().position(offset + RECORD_HEADER_SIZE + Integer.BYTES));
+        final AggregateStream stream = streams.computeIfAbsent(first.aggregateId(), ignored -> new AggregateStream());
+        stream.head = buffer.getLong(offset + VERSION_OFFSET);
+        stream.last = positionOf(index, offset);
+        stream.add(stream.last, buffer.getInt(offset + COUNT_OFFSET), buffer.getLong(offset + TIMESTAMP_OFFSET));
+    }
+
+    /**
+     * Decodes the events of the record whose event count is at the position of {@code record}.
+     */
+    private List<E> events(ByteBuffer record) {
+        final int eventCount = record.getInt();
+        final List<E> events = new ArrayList<>(eventCount);
+        for (int i = 0; i < eventCount; i++) {
+            final int next = record.getInt() + record.position();
+            events.add(codec.decode(record));
+            record.position(next);
+        }
+        return events;
+    }
+
+    private int truncateTornTail(int offset) throws IOException {
+        // bytes after the last valid record belong to a batch that was never acknowledged
+        if (offset + Integer.BYTES <= segmentSize && mapped(segment).getInt(offset) != 0) {
+            final ByteBuffer zeros = ByteBuffer.allocate(Math.min(WRITE_BUFFER_SIZE, segmentSize - offset));
+            for (int position = offset; position < segmentSize; position += zeros.capacity()) {
+                zeros.clear().limit(Math.min(zeros.capacity(), segmentSize - position));
+                channel.write(zeros, position);
+            }
+            channel.force(false);
+        }
+        return offset;
+    }
+
+    private void openSegment(int index) throws IOException {
+        final Path path = directory.resolve("%010d.segment".formatted(index));
+        final boolean created = Files.notExists(path);
+        channel = FileChannel.open(path, CREATE, READ, WRITE);
+        if (created)
+            channel.write(ByteBuffer.allocate(1), segmentSize - 1);
+        segment = index;
+        writePosition = 0;
+        bufferPosition = 0;
+    }
+
+    private MappedByteBuffer mapped(int index) {
+        return mappedSegments.computeIfAbsent(index, ignored -> {
+            try (FileChannel readChannel = FileChannel.open(directory.resolve("%010d.segment".formatted(index)), READ)) {
+                return readChannel.map(FileChannel.MapMode.READ_ONLY, 0, segmentSize);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+    }
+
+    private static long positionOf(int segment, int offset) {
+        return (long) segment << Integer.SIZE | offset;
+    }
+
+    private static int segmentOf(long position) {
+        return (int) (position >>> Integer.SIZE);
+    }
+
+    private static int offsetOf(long position) {
+        return (int) position;
+    }
+
+    private record Append<I extends Identifier, E extends Event<I>>(
+            I id,
+            @Nullable Long expectedVersion,
+            Long newVersion,
+            List<E> events,
+            int size,
+            CompletableFuture<Boolean> done
+    ) {
+
+    }
+
+    private record Written(
+            AggregateStream stream,
+            long position,
+            int eventCount,
+            long timestamp,
+            CompletableFuture<Boolean> done
+    ) {
+
+    }
+
+    /**
+     * Sparse index of one aggregate: for every {@value #INDEX_INTERVAL}th record, its position, the stream sequence
+     * of its first event and the running maximum of the event dates in epoch nanoseconds. Only the writer thread
+     * mutates it; readers see the records up to the published {@link Tail}, whose entries are written before it.
+     */
+    private static final class AggregateStream {
+
+        @Nullable
+        private Long head;
+        private long last = NO_RECORD;
+        private volatile long[] positions = new long[1];
+        private volatile long[] sequences = new long[1];
+        private volatile long[] timestamps = new long[1];
+        @Nullable
+        private volatile Tail tail;
+
+        private void add(long position, int eventCount, long timestamp) {
+            final Tail previous = tail;
+            final int size = previous == null ? 0 : previous.size();
+            final long sequence = previous == null ? 0L : previous.end();
+            final long latest = previous == null ? timestamp : Math.max(previous.timestamp(), timestamp);
+            if (size % INDEX_INTERVAL == 0) {
+                final int entry = size / INDEX_INTERVAL;
+                if (entry == positions.length) {
+                    positions = Arrays.copyOf(positions, entry * 2);
+                    sequences = Arrays.copyOf(sequences, entry * 2);
+                    timestamps = Arrays.copyOf(timestamps, entry * 2);
+                }
+                positions[entry] = position;
+                sequences[entry] = sequence;
+                timestamps[entry] = latest;
+            }
+            tail = new Tail(position, size + 1, sequence + eventCount, latest);
+        }
+    }
+
+    /**
+     * The last record of a stream: its position, the number of records, the sequence following its last event and
+     * the running maximum of the event dates.
+     */
+    private record Tail(
+            long position,
+            int size,
+            long end,
+            long timestamp
+    ) {
+
+    }
+}
@@ -0,0 +1,23 @@
+package fr.depix.bulb_manager.framework.store;
+
+@FunctionalInterface
+public interface SnapshotPolicy {
+
+    boolean shouldSnapshot(long eventsSinceSnapshot, long bytesSinceSnapshot);
+
+    static SnapshotPolicy never() {
+        return (events, bytes) -> false;
+    }
+
+    static SnapshotPolicy everyEvents(long events) {
+        return (eventsSinceSnapshot, bytesSinceSnapshot) -> eventsSinceSnapshot >= events;
+    }
+
+    static SnapshotPolicy everyBytes(long bytes) {
+        return (eventsSinceSnapshot, bytesSinceSnapshot) -> bytesSinceSnapshot >= bytes;
+    }
+
+    default SnapshotPolicy or(SnapshotPolicy other) {
+        return (events, bytes) -> shouldSnapshot(events, bytes) || other.shouldSnapshot(events, bytes);
+    }
+}
@@ -0,0 +1,129 @@
+package fr.depix.bulb_manager;
+
+import fr.depix.bulb_manager.bulb.domain.BulbDomain;
+import fr.depix.bulb_manager.bulb.domain.BulbValidationError;
+import fr.depix.bulb_manager.bulb.domain.aggregate.BulbAggregate;
+import fr.depix.bulb_manager.bulb.domain.aggregate.InitialBulb;
+import fr.depix.bulb_manager.bulb.domain.aggregate.WentOutBulb;
+import fr.depix.bulb_manager.bulb.domain.aggregate.id.BulbId;
+import fr.depix.bulb_manager.bulb.domain.codec.BulbAggregateCodec;
+import fr.depix.bulb_manager.bulb.domain.codec.BulbEventCodec;
+import fr.depix.bulb_manager.bulb.domain.command.BulbTurnOff;
+import fr.depix.bulb_manager.bulb.domain.command.BulbTurnOn;
+import fr.depix.bulb_manager.bulb.domain.command.CreateBulB;
+import fr.depix.bulb_manager.bulb.domain.event.BulbEvent;
+import fr.depix.bulb_manager.bulb.infra.InMemoryRepository;
+import fr.depix.bulb_manager.framework.archive.Archiver;
+import fr.depix.bulb_manager.framework.archive.ColdArchive;
+import fr.depix.bulb_manager.framework.archive.ColdArchive.Archived;
+import fr.depix.bulb_manager.framework.result.Result;
+import fr.depix.bulb_manager.framework.service.CommandHandler;
+import fr.depix.bulb_manager.framework.store.SegmentedFileEventStore;
+import org.assertj.core.api.Assertions;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.ZonedDateTime;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+class ArchiverTest {
+
+    @TempDir
+    Path directory;
+
+    @Test
+    @DisplayName("Given a bulb that went out, when it is archived, then it leaves the hot store and its commands are rejected without loading it")
+    void archiveTerminalBulb() {
+        final BulbId bulbId = new BulbId(1L);
+        final InMemoryRepository bulbRepository = new InMemoryRepository();
+        try (SegmentedFileEventStore<BulbId, BulbEvent> eventStore = new SegmentedFileEventStore<>(directory.resolve("events"), new BulbEventCodec());
+             ColdArchive<BulbAggregate, BulbId, BulbEvent> archive = new ColdArchive<>(directory.resolve("archive"), new BulbAggregateCodec(), new BulbEventCodec())) {
+            final BulbDomain domain = new BulbDomain(bulbRepository, eventStore);
+            final var commandHandler = new CommandHandler<>(domain);
+            try (Archiver<BulbAggregate, BulbId, BulbEvent> ignored = new Archiver<>(domain, archive, Duration.ofHours(1))) {
+                commandHandler.handle(new CreateBulB(bulbId, ZonedDateTime.now()));
+                for (long version = 0; version < 4; version += 2) {
+                    commandHandler.handle(new BulbTurnOn(bulbId, version, ZonedDateTime.now()));
+                    commandHandler.handle(new BulbTurnOff(bulbId, version + 1, ZonedDateTime.now()));
+                }
+                commandHandler.handle(new BulbTurnOn(bulbId, 4L, ZonedDateTime.now()));
+                Assertions.assertThat(domain.bulbTerminalIds().contains(bulbId)).isTrue();
+            }
+
+            Assertions.assertThat(bulbRepository.findAggregateById(bulbId)).isEmpty();
+            Assertions.assertThat(archive.find(bulbId)).get().extracting(Archived::state).isInstanceOf(WentOutBulb.class);
+            Assertions.assertThat(archive.find(bulbId)).get().extracting(archived -> archived.history().size()).isEqualTo(6);
+            Assertions.assertThat(commandHandler.handle(new BulbTurnOn(bulbId, 5L, ZonedDateTime.now())))
+                      .isEqualTo(Result.failure(List.of(new BulbValidationError("Bulb went out"))));
+        }
+
+        try (ColdArchive<BulbAggregate, BulbId, BulbEvent> archive = new ColdArchive<>(directory.resolve("archive"), new BulbAggregateCodec(), new BulbEventCodec())) {
+            final BulbDomain domain = new BulbDomain(bulbRepository);
+            new Archiver<>(domain, archive, Duration.ofHours(1)).close();
+
+            Assertions.assertThat(new CommandHandler<>(domain).handle(new CreateBulB(bulbId, ZonedDateTime.now()))).isInstanceOf(Result.Failure.class);
+        }
+    }
+
+    @Test
+    @DisplayName("Given a removal that fails once, when the bulb is archived, then the archiver keeps running and removes it on its next run")
+    void retryFailedRemoval() {
+        final BulbId bulbId = new BulbId(2L);
+        final FailingOnceRepository bulbRepository = new FailingOnceRepository();
+        try (ColdArchive<BulbAggregate, BulbId, BulbEvent> archive = new ColdArchive<>(directory.resolve("archive"), new BulbAggregateCodec(), new BulbEventCodec())) {
+            final BulbDomain domain = new BulbDomain(bulbRepository);
+            final var commandHandler = new CommandHandler<>(domain);
+            try (Archiver<BulbAggregate, BulbId, BulbEvent> ignored = new Archiver<>(domain, archive, Duration.ofMillis(10))) {
+                commandHandler.handle(new CreateBulB(bulbId, ZonedDateTime.now()));
+                for (long version = 0; version < 4; version += 2) {
+                    commandHandler.handle(new BulbTurnOn(bulbId, version, ZonedDateTime.now()));
+                    commandHandler.handle(new BulbTurnOff(bulbId, version + 1, ZonedDateTime.now()));
+                }
+                commandHandler.handle(new BulbTurnOn(bulbId, 4L, ZonedDateTime.now()));
+
+                final long deadline = System.nanoTime() + Duration.ofSeconds(5).toNanos();
+                while (bulbRepository.findAggregateById(bulbId).isPresent() && System.nanoTime() < deadline)
+                    Thread.onSpinWait();
+            }
+
+            Assertions.assertThat(bulbRepository.failed.get()).isTrue();
+            Assertions.assertThat(bulbRepository.findAggregateById(bulbId)).isEmpty();
+            Assertions.assertThat(archive.find(bulbId)).get().extracting(Archived::state).isInstanceOf(WentOutBulb.class);
+        }
+    }
+
+    @Test
+    @DisplayName("Given bulbs that went out while no archiver was running, when an archiver starts, then it archives them")
+    void archiveOnStart() {
+        final BulbId wentOutId = new BulbId(3L);
+        final BulbId liveId = new BulbId(4L);
+        final InMemoryRepository bulbRepository = new InMemoryRepository();
+        bulbRepository.save(new WentOutBulb(wentOutId, 5L));
+        bulbRepository.save(new InitialBulb(liveId));
+        try (ColdArchive<BulbAggregate, BulbId, BulbEvent> archive = new ColdArchive<>(directory.resolve("archive"), new BulbAggregateCodec(), new BulbEventCodec())) {
+            final BulbDomain domain = new BulbDomain(bulbRepository);
+            new Archiver<>(domain, archive, Duration.ofHours(1)).close();
+
+            Assertions.assertThat(bulbRepository.findAggregateById(wentOutId)).isEmpty();
+            Assertions.assertThat(bulbRepository.findAggregateById(liveId)).isPresent();
+            Assertions.assertThat(archive.find(wentOutId)).get().extracting(Archived::state).isInstanceOf(WentOutBulb.class);
+            Assertions.assertThat(domain.bulbTerminalIds().contains(wentOutId)).isTrue();
+        }
+    }
+
+    static class FailingOnceRepository extends InMemoryRepository {
+
+        final AtomicBoolean failed = new AtomicBoolean();
+
+        @Override
+        public boolean compareAndRemove(BulbAggregate expected) {
+            if (failed.compareAndSet(false, true))
+                throw new IllegalStateException("Removal failed");
+            return super.compareAndRemove(expected);
+        }
+    }
+}
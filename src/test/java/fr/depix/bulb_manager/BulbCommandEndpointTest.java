@@ -0,0 +1,74 @@
+package fr.depix.bulb_manager;
+
+import fr.depix.bulb_manager.bulb.domain.service.BulbService;
+import fr.depix.bulb_manager.bulb.infra.InMemoryRepository;
+import fr.depix.bulb_manager.bulb.infra.http.BulbCommandEndpoint;
+import org.assertj.core.api.Assertions;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Clock;
+import java.util.List;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+class BulbCommandEndpointTest {
+
+    @Test
+    @DisplayName("Given a stream of commands, when it is posted, then one result per command comes back in the order of the commands")
+    void streamCommands() throws Exception {
+        final Stream<String> bulbs = IntStream.range(10, 60)
+                                              .boxed()
+                                              .flatMap(id -> Stream.of("{\"type\":\"CreateBulB\",\"aggregateId\":%d}".formatted(id),
+                                                                       "{\"type\":\"BulbTurnOn\",\"aggregateId\":%d,\"aggregateVersion\":0}".formatted(id)));
+        final String body = Stream.concat(Stream.of("{\"type\":\"CreateBulB\",\"aggregateId\":1,\"commandDate\":\"2026-01-01T00:00:00Z\"}",
+                                                    "not a command",
+                                                    "{\"type\":\"BulbTurnOn\",\"aggregateId\":2,\"aggregateVersion\":0}"),
+                                          bulbs)
+                                  .reduce("", (lines, line) -> lines + line + "\n");
+
+        try (BulbCommandEndpoint endpoint = new BulbCommandEndpoint(new BulbService(new InMemoryRepository()),
+                                                                    new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 8, Clock.systemUTC());
+             HttpClient client = HttpClient.newHttpClient()) {
+            final HttpRequest request = HttpRequest.newBuilder(URI.create("http://localhost:%d%s".formatted(endpoint.address().getPort(), BulbCommandEndpoint.PATH)))
+                                                   .POST(HttpRequest.BodyPublishers.ofString(body))
+                                                   .build();
+            final List<String> results = client.send(request, HttpResponse.BodyHandlers.ofLines()).body().toList();
+
+            Assertions.assertThat(results).hasSize(103);
+            Assertions.assertThat(results.getFirst()).isEqualTo("{\"status\":\"success\",\"events\":[{\"type\":\"BulbCreated\",\"aggregateId\":1,\"aggregateVersion\":0}]}");
+            Assertions.assertThat(results.get(1)).startsWith("{\"status\":\"rejected\"");
+            Assertions.assertThat(results.get(2)).startsWith("{\"status\":\"failure\"");
+            for (int id = 10; id < 60; id++) {
+                Assertions.assertThat(results.get(2 * id - 17)).contains("\"type\":\"BulbCreated\",\"aggregateId\":" + id + ",");
+                Assertions.assertThat(results.get(2 * id - 16)).contains("\"type\":\"BulbSwitchedOn\",\"aggregateId\":" + id + ",");
+            }
+        }
+    }
+
+    @Test
+    @DisplayName("Given a command line longer than the limit, when it is posted, then it is rejected and the following commands are still handled")
+    void rejectOversizedLine() throws Exception {
+        final String body = "{\"type\":\"CreateBulB\",\"aggregateId\":1,\"padding\":\"" + "x".repeat(64 * 1024) + "\"}\n"
+                            + "{\"type\":\"CreateBulB\",\"aggregateId\":2}\r\n";
+
+        try (BulbCommandEndpoint endpoint = new BulbCommandEndpoint(new BulbService(new InMemoryRepository()),
+                                                                    new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 8, Clock.systemUTC());
+             HttpClient client = HttpClient.newHttpClient()) {
+            final HttpRequest request = HttpRequest.newBuilder(URI.create("http://localhost:%d%s".formatted(endpoint.address().getPort(), BulbCommandEndpoint.PATH)))
+                                                   .POST(HttpRequest.BodyPublishers.ofString(body))
+                                                   .build();
+            final List<String> results = client.send(request, HttpResponse.BodyHandlers.ofLines()).body().toList();
+
+            Assertions.assertThat(results).hasSize(2);
+            Assertions.assertThat(results.getFirst()).startsWith("{\"status\":\"rejected\"");
+            Assertions.assertThat(results.get(1)).contains("\"type\":\"BulbCreated\",\"aggregateId\":2,");
+        }
+    }
+}
@@ -1,18 +1,35 @@
 package fr.depix.bulb_manager;
 
+import fr.depix.bulb_manager.bulb.domain.BulbDomain;
+import fr.depix.bulb_manager.bulb.domain.BulbIsTerminal;
+import fr.depix.bulb_manager.bulb.domain.BulbValidationError;
+import fr.depix.bulb_manager.bulb.domain.aggregate.BulbAggregate;
 import fr.depix.bulb_manager.bulb.domain.aggregate.id.BulbId;
+import fr.depix.bulb_manager.bulb.domain.command.BulbCommand;
 import fr.depix.bulb_manager.bulb.domain.command.BulbTurnOff;
 import fr.depix.bulb_manager.bulb.domain.command.BulbTurnOn;
 import fr.depix.bulb_manager.bulb.domain.command.CreateBulB;
+import fr.depix.bulb_manager.bulb.domain.event.BulbEvent;
+import fr.depix.bulb_manager.bulb.domain.service.BulbDecider;
+import fr.depix.bulb_manager.bulb.domain.service.BulbEvolver;
 import fr.depix.bulb_manager.bulb.domain.service.BulbService;
+import fr.depix.bulb_manager.bulb.domain.spi.BulbRepository;
 import fr.depix.bulb_manager.bulb.infra.InMemoryRepository;
 import fr.depix.bulb_manager.framework.exception.AggregateNotFoundRuntimeException;
+import fr.depix.bulb_manager.framework.result.Result;
+import fr.depix.bulb_manager.framework.service.CommandHandler;
+import fr.depix.bulb_manager.framework.service.IdempotencyCache;
 import org.assertj.core.api.Assertions;
 import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.DisplayName;
 import org.junit.jupiter.api.Test;
 
+import java.time.Duration;
 import java.time.ZonedDateTime;
+import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicInteger;
 
 class BulbTest {
 
@@ -122,4 +139,135 @@ class BulbTest {
         }
 
     }
+
+    @Test
+    @DisplayName("Given a burst of commands on two bulbs, when I handle them at once, then each bulb is loaded and saved once")
+    void handleAll() {
+        final CountingRepository countingRepository = new CountingRepository();
+
+        final List<Result<BulbEvent, BulbValidationError>> results = new BulbService(countingRepository).handleCommands(List.of(
+                new CreateBulB(new BulbId(1L), ZonedDateTime.now()),
+                new CreateBulB(new BulbId(2L), ZonedDateTime.now()),
+                new BulbTurnOn(new BulbId(1L), 0L, ZonedDateTime.now()),
+                new BulbTurnOn(new BulbId(2L), 5L, ZonedDateTime.now()),
+                new BulbTurnOff(new BulbId(1L), 1L, ZonedDateTime.now())));
+
+        Assertions.assertThat(results).extracting(result -> result instanceof Result.Success).containsExactly(true, true, true, false, true);
+        Assertions.assertThat(countingRepository.loads).hasValue(2);
+        Assertions.assertThat(countingRepository.saves).hasValue(2);
+        Assertions.assertThat(countingRepository.findAggregateById(new BulbId(1L))).get().extracting(BulbAggregate::aggregateVersion).isEqualTo(2L);
+    }
+
+    @Test
+    @DisplayName("Given a turn on bulb, when I switch on again, then nothing is written and the shared empty result is returned")
+    void noOpSkipsPersistence() {
+        final CountingRepository countingRepository = new CountingRepository();
+        final BulbService countingService = new BulbService(countingRepository);
+        countingService.handleCommand(new CreateBulB(new BulbId(1L), ZonedDateTime.now()));
+        countingService.handleCommand(new BulbTurnOn(new BulbId(1L), 0L, ZonedDateTime.now()));
+        countingRepository.saves.set(0);
+
+        final Result<BulbEvent, BulbValidationError> first = countingService.handleCommand(new BulbTurnOn(new BulbId(1L), 1L, ZonedDateTime.now()));
+        final Result<BulbEvent, BulbValidationError> second = countingService.handleCommand(new BulbTurnOn(new BulbId(1L), 1L, ZonedDateTime.now()));
+
+        Assertions.assertThat(first).isSameAs(second);
+        Assertions.assertThat(countingRepository.saves).hasValue(0);
+    }
+
+    @Test
+    @DisplayName("Given a bulb switched on and off, when I switch it on with its first version, then the command is rebased on the latest one")
+    void rebaseStaleCommand() {
+        givenNewBulb();
+        whenSwitchOn();
+        whenSwitchOff();
+
+        final Result<BulbEvent, BulbValidationError> result = bulbService.handleCommand(new BulbTurnOn(new BulbId(1L), 0L, ZonedDateTime.now()));
+
+        Assertions.assertThat(result).isInstanceOf(Result.Success.class);
+        thenIHaveATurnOnBulb();
+        Assertions.assertThat(bulbService.getAggregateVersion()).isEqualTo(3L);
+    }
+
+    @Test
+    @DisplayName("Given the default conflict policy, when I switch a bulb on with a stale version, then the command is rejected")
+    void rejectStaleCommand() {
+        final CommandHandler<BulbAggregate, BulbId, BulbCommand, BulbRepository, BulbEvent, BulbIsTerminal, BulbDecider, BulbEvolver, BulbValidationError> commandHandler = new CommandHandler<>(new BulbDomain(bulbRepository));
+        commandHandler.handle(new CreateBulB(new BulbId(1L), ZonedDateTime.now()));
+        commandHandler.handle(new BulbTurnOn(new BulbId(1L), 0L, ZonedDateTime.now()));
+
+        Assertions.assertThat(commandHandler.handle(new BulbTurnOff(new BulbId(1L), 0L, ZonedDateTime.now()))).isInstanceOf(Result.Failure.class);
+    }
+
+    @Test
+    @DisplayName("Given a switch handled once, when the client retries it with the same command id, then the first result is returned without handling it again")
+    void retryIsAnsweredFromCache() {
+        final CountingRepository countingRepository = new CountingRepository();
+        final BulbService countingService = new BulbService(countingRepository);
+        final UUID commandId = UUID.randomUUID();
+        countingService.handleCommand(new CreateBulB(new BulbId(1L), ZonedDateTime.now()));
+        final Result<BulbEvent, BulbValidationError> first = countingService.handleCommand(new BulbTurnOn(new BulbId(1L), 0L, ZonedDateTime.now(), Optional.of(commandId)));
+        countingService.handleCommand(new BulbTurnOff(new BulbId(1L), 1L, ZonedDateTime.now()));
+        countingRepository.loads.set(0);
+
+        final Result<BulbEvent, BulbValidationError> retry = countingService.handleCommand(new BulbTurnOn(new BulbId(1L), 0L, ZonedDateTime.now(), Optional.of(commandId)));
+
+        Assertions.assertThat(retry).isSameAs(first);
+        Assertions.assertThat(countingRepository.loads).hasValue(0);
+        Assertions.assertThat(countingRepository.findAggregateById(new BulbId(1L))).get().extracting(BulbAggregate::isTurnOn).isEqualTo(false);
+    }
+
+    @Test
+    @DisplayName("Given a burst handled once, when the client retries it with the same command ids, then the first results are returned and only new commands are handled")
+    void retriedBurstIsAnsweredFromCache() {
+        final CountingRepository countingRepository = new CountingRepository();
+        final BulbService countingService = new BulbService(countingRepository);
+        final List<BulbCommand> burst = List.of(
+                new CreateBulB(new BulbId(1L), ZonedDateTime.now(), Optional.of(UUID.randomUUID())),
+                new BulbTurnOn(new BulbId(1L), 0L, ZonedDateTime.now(), Optional.of(UUID.randomUUID())));
+        final List<Result<BulbEvent, BulbValidationError>> first = countingService.handleCommands(burst);
+        countingRepository.saves.set(0);
+
+        final List<Result<BulbEvent, BulbValidationError>> retry = countingService.handleCommands(List.of(
+                burst.get(0),
+                burst.get(1),
+                new BulbTurnOff(new BulbId(1L), 1L, ZonedDateTime.now(), Optional.of(UUID.randomUUID())),
+                burst.get(1)));
+
+        Assertions.assertThat(retry.subList(0, 2)).containsExactlyElementsOf(first);
+        Assertions.assertThat(retry.get(2)).isInstanceOf(Result.Success.class);
+        Assertions.assertThat(retry.get(3)).isSameAs(first.get(1));
+        Assertions.assertThat(countingRepository.saves).hasValue(1);
+        Assertions.assertThat(countingRepository.findAggregateById(new BulbId(1L))).get().extracting(BulbAggregate::aggregateVersion).isEqualTo(2L);
+    }
+
+    @Test
+    @DisplayName("Given an attempt that threw an error, when the command is retried, then it is handled again instead of waiting forever")
+    void errorIsForgotten() {
+        final IdempotencyCache<String> cache = new IdempotencyCache<>(1L << 20, Duration.ofMinutes(1));
+        final UUID commandId = UUID.randomUUID();
+
+        Assertions.assertThatThrownBy(() -> cache.computeIfAbsent(commandId, () -> {
+            throw new AssertionError("Handler crashed");
+        })).isInstanceOf(AssertionError.class);
+
+        Assertions.assertThat(cache.computeIfAbsent(commandId, () -> "handled")).isEqualTo("handled");
+    }
+
+    static class CountingRepository extends InMemoryRepository {
+
+        final AtomicInteger loads = new AtomicInteger();
+        final AtomicInteger saves = new AtomicInteger();
+
+        @Override
+        public Optional<BulbAggregate> findAggregateById(BulbId id) {
+            loads.incrementAndGet();
+            return super.findAggregateById(id);
+        }
+
+        @Override
+        public boolean compareAndSave(Optional<BulbAggregate> expected, BulbAggregate newState) {
+            saves.incrementAndGet();
+            return super.compareAndSave(expected, newState);
+        }
+    }
 }
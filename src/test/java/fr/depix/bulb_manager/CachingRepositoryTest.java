@@ -0,0 +1,153 @@
+package fr.depix.bulb_manager;
+
+import fr.depix.bulb_manager.bulb.domain.aggregate.BulbAggregate;
+import fr.depix.bulb_manager.bulb.domain.aggregate.InitialBulb;
+import fr.depix.bulb_manager.bulb.domain.aggregate.OnBulb;
+import fr.depix.bulb_manager.bulb.domain.aggregate.id.BulbId;
+import fr.depix.bulb_manager.bulb.infra.InMemoryRepository;
+import fr.depix.bulb_manager.framework.metrics.CacheMetrics;
+import fr.depix.bulb_manager.framework.repository.CachingRepository;
+import org.assertj.core.api.Assertions;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+class CachingRepositoryTest {
+
+    final AtomicInteger loads = new AtomicInteger();
+    final InMemoryRepository backing = new InMemoryRepository() {
+        @Override
+        public Optional<BulbAggregate> findAggregateById(BulbId id) {
+            loads.incrementAndGet();
+            return super.findAggregateById(id);
+        }
+    };
+    final CountingMetrics metrics = new CountingMetrics();
+    final StepClock clock = new StepClock();
+
+    @Test
+    @DisplayName("Given a bulb read once, when I read it again, then it is served from memory until a save is lost to another writer")
+    void readThrough() {
+        final BulbId bulbId = new BulbId(1L);
+        final InitialBulb created = new InitialBulb(bulbId);
+        backing.save(created);
+        final CachingRepository<BulbAggregate, BulbId> repository = new CachingRepository<>(backing, 1_000, Duration.ofMinutes(1), metrics, clock);
+
+        Assertions.assertThat(repository.findAggregateById(bulbId)).contains(created);
+        Assertions.assertThat(repository.findAggregateById(bulbId)).contains(created);
+        Assertions.assertThat(loads).hasValue(1);
+
+        final OnBulb switchedOn = new OnBulb(created);
+        Assertions.assertThat(repository.compareAndSave(Optional.of(created), switchedOn)).isTrue();
+        Assertions.assertThat(repository.findAggregateById(bulbId)).contains(switchedOn);
+
+        // another writer moved the stored bulb on: the losing save drops the cached state
+        backing.save(new OnBulb(switchedOn));
+        Assertions.assertThat(repository.compareAndSave(Optional.of(switchedOn), new OnBulb(switchedOn))).isFalse();
+        Assertions.assertThat(repository.findAggregateById(bulbId)).map(BulbAggregate::aggregateVersion).contains(2L);
+        Assertions.assertThat(metrics.hits).hasValue(2);
+        Assertions.assertThat(metrics.misses).hasValue(2);
+    }
+
+    @Test
+    @DisplayName("Given a full cache, when bulbs are added or left unread, then the least recently used and the idle ones are evicted")
+    void evictions() {
+        final CachingRepository<BulbAggregate, BulbId> repository = new CachingRepository<>(backing, 1, Duration.ofMinutes(1), metrics, clock);
+        repository.save(new InitialBulb(new BulbId(1L)));
+        repository.save(new InitialBulb(new BulbId(2L)));
+        Assertions.assertThat(repository.size()).isEqualTo(1);
+        Assertions.assertThat(metrics.evictions.get(CacheMetrics.Cause.SIZE)).isEqualTo(1);
+
+        clock.advance(Duration.ofMinutes(2));
+        repository.findAggregateById(new BulbId(2L));
+        Assertions.assertThat(metrics.evictions.get(CacheMetrics.Cause.IDLE)).isEqualTo(1);
+        Assertions.assertThat(loads).hasValue(1);
+    }
+
+    @Test
+    @DisplayName("Given a load racing with a removal, when the load returns, then the removed bulb is not cached again")
+    void loadRacingRemoval() {
+        final BulbId bulbId = new BulbId(1L);
+        final InitialBulb created = new InitialBulb(bulbId);
+        final AtomicReference<Runnable> duringLoad = new AtomicReference<>(() -> {
+        });
+        final InMemoryRepository racing = new InMemoryRepository() {
+            @Override
+            public Optional<BulbAggregate> findAggregateById(BulbId id) {
+                final Optional<BulbAggregate> loaded = super.findAggregateById(id);
+                duringLoad.getAndSet(() -> {
+                }).run();
+                return loaded;
+            }
+        };
+        racing.save(created);
+        final CachingRepository<BulbAggregate, BulbId> repository = new CachingRepository<>(racing, 1_000, Duration.ofMinutes(1), metrics, clock);
+        duringLoad.set(() -> Assertions.assertThat(repository.compareAndRemove(created)).isTrue());
+
+        Assertions.assertThat(repository.findAggregateById(bulbId)).contains(created);
+        Assertions.assertThat(repository.findAggregateById(bulbId)).isEmpty();
+        Assertions.assertThat(repository.size()).isZero();
+    }
+
+    static class CountingMetrics implements CacheMetrics {
+
+        final AtomicInteger hits = new AtomicInteger();
+        final AtomicInteger misses = new AtomicInteger();
+        final Map<Cause, Integer> evictions = new EnumMap<>(Map.of(Cause.SIZE, 0, Cause.IDLE, 0));
+
+        @Override
+        public void hit() {
+            hits.incrementAndGet();
+        }
+
+        @Override
+        public void miss() {
+            misses.incrementAndGet();
+        }
+
+        @Override
+        public void eviction(Cause cause) {
+            evictions.merge(cause, 1, Integer::sum);
+        }
+    }
+
+    static class StepClock extends Clock {
+
+        final AtomicLong millis = new AtomicLong();
+
+        void advance(Duration duration) {
+            millis.addAndGet(duration.toMillis());
+        }
+
+        @Override
+        public ZoneId getZone() {
+            return ZoneOffset.UTC;
+        }
+
+        @Override
+        public Clock withZone(ZoneId zone) {
+            return this;
+        }
+
+        @Override
+        public long millis() {
+            return millis.get();
+        }
+
+        @Override
+        public Instant instant() {
+            return Instant.ofEpochMilli(millis());
+        }
+    }
+}
@@ -0,0 +1,93 @@
+package fr.depix.bulb_manager;
+
+import fr.depix.bulb_manager.bulb.domain.BulbDomain;
+import fr.depix.bulb_manager.bulb.domain.aggregate.BulbAggregate;
+import fr.depix.bulb_manager.bulb.domain.aggregate.id.BulbId;
+import fr.depix.bulb_manager.bulb.domain.codec.BulbEventCodec;
+import fr.depix.bulb_manager.bulb.domain.command.BulbTurnOff;
+import fr.depix.bulb_manager.bulb.domain.command.BulbTurnOn;
+import fr.depix.bulb_manager.bulb.domain.command.CreateBulB;
+import fr.depix.bulb_manager.bulb.domain.event.BulbEvent;
+import fr.depix.bulb_manager.bulb.domain.service.BulbService;
+import fr.depix.bulb_manager.bulb.infra.InMemoryRepository;
+import fr.depix.bulb_manager.framework.checkpoint.Checkpointer;
+import fr.depix.bulb_manager.framework.result.Result;
+import fr.depix.bulb_manager.framework.service.CommandHandler;
+import fr.depix.bulb_manager.framework.store.SegmentedFileEventStore;
+import org.assertj.core.api.Assertions;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.ZonedDateTime;
+
+class CheckpointTest {
+
+    @TempDir
+    Path directory;
+
+    @Test
+    @DisplayName("Given an image taken before the last commands, when the bulbs are restored, then the image is loaded and the tail of the event log is replayed")
+    void restoreImageAndTail() throws Exception {
+        final Path image = directory.resolve("bulbs.checkpoint");
+        final Path crashImage = directory.resolve("crash.checkpoint");
+        final InMemoryRepository bulbRepository = new InMemoryRepository();
+        try (SegmentedFileEventStore<BulbId, BulbEvent> eventStore = new SegmentedFileEventStore<>(directory.resolve("events"), new BulbEventCodec())) {
+            final BulbDomain domain = new BulbDomain(bulbRepository, eventStore);
+            final var commandHandler = new CommandHandler<>(domain);
+            try (Checkpointer<BulbAggregate, BulbId, BulbEvent> checkpointer = new Checkpointer<>(domain, image, Duration.ofHours(1))) {
+                checkpointer.restored().join();
+                for (long id = 1; id <= 3; id++)
+                    commandHandler.handle(new CreateBulB(new BulbId(id), ZonedDateTime.now()));
+                commandHandler.handle(new BulbTurnOn(new BulbId(1L), 0L, ZonedDateTime.now()));
+                checkpointer.checkpoint();
+                Files.copy(image, crashImage);
+
+                commandHandler.handle(new BulbTurnOff(new BulbId(1L), 1L, ZonedDateTime.now()));
+                commandHandler.handle(new CreateBulB(new BulbId(4L), ZonedDateTime.now()));
+            }
+        }
+
+        final InMemoryRepository restoredRepository = new InMemoryRepository();
+        try (SegmentedFileEventStore<BulbId, BulbEvent> eventStore = new SegmentedFileEventStore<>(directory.resolve("events"), new BulbEventCodec());
+             Checkpointer<BulbAggregate, BulbId, BulbEvent> checkpointer = new Checkpointer<>(new BulbDomain(restoredRepository, eventStore), crashImage, Duration.ofHours(1))) {
+            Assertions.assertThat(restoredRepository.findAggregateById(new BulbId(2L))).isEqualTo(bulbRepository.findAggregateById(new BulbId(2L)));
+
+            checkpointer.restored().join();
+
+            Assertions.assertThat(checkpointer.isRestored()).isTrue();
+            Assertions.assertThat(restoredRepository.size()).isEqualTo(4);
+            for (long id = 1; id <= 4; id++)
+                Assertions.assertThat(restoredRepository.findAggregateById(new BulbId(id))).isEqualTo(bulbRepository.findAggregateById(new BulbId(id)));
+        }
+    }
+
+    @Test
+    @DisplayName("Given a restored image, when I handle a command on a restored bulb, then its projection answers the queries")
+    void queryRestoredBulbs() {
+        final Path image = directory.resolve("bulbs.checkpoint");
+        final BulbId bulbId = new BulbId(1L);
+        final InMemoryRepository bulbRepository = new InMemoryRepository();
+        final BulbService bulbService = new BulbService(bulbRepository);
+        bulbService.handleCommand(new CreateBulB(bulbId, ZonedDateTime.now()));
+        bulbService.handleCommand(new BulbTurnOn(bulbId, 0L, ZonedDateTime.now()));
+        try (Checkpointer<BulbAggregate, BulbId, BulbEvent> checkpointer = new Checkpointer<>(new BulbDomain(bulbRepository), image, Duration.ofHours(1))) {
+            checkpointer.restored().join();
+            checkpointer.checkpoint();
+        }
+
+        final InMemoryRepository restoredRepository = new InMemoryRepository();
+        final BulbService restoredService = new BulbService(restoredRepository);
+        try (Checkpointer<BulbAggregate, BulbId, BulbEvent> checkpointer = new Checkpointer<>(new BulbDomain(restoredRepository), image, Duration.ofHours(1))) {
+            checkpointer.restored().join();
+
+            Assertions.assertThat(restoredService.handleCommand(new BulbTurnOff(bulbId, 1L, ZonedDateTime.now()))).isInstanceOf(Result.Success.class);
+            Assertions.assertThat(restoredService.findBulb(bulbId, 2L)).map(BulbAggregate::isTurnOn).contains(false);
+            Assertions.assertThat(restoredService.isTurnOn()).isFalse();
+            Assertions.assertThat(restoredService.getAggregateVersion()).isEqualTo(2L);
+        }
+    }
+}
@@ -0,0 +1,179 @@
+package fr.depix.bulb_manager;
+
+import fr.depix.bulb_manager.bulb.domain.aggregate.BulbAggregate;
+import fr.depix.bulb_manager.bulb.domain.aggregate.Count;
+import fr.depix.bulb_manager.bulb.domain.aggregate.InitialBulb;
+import fr.depix.bulb_manager.bulb.domain.aggregate.OffBulb;
+import fr.depix.bulb_manager.bulb.domain.aggregate.OnBulb;
+import fr.depix.bulb_manager.bulb.domain.aggregate.WentOutBulb;
+import fr.depix.bulb_manager.bulb.domain.aggregate.id.BulbId;
+import fr.depix.bulb_manager.bulb.domain.codec.BulbAggregateCodec;
+import fr.depix.bulb_manager.bulb.domain.codec.BulbCommandCodec;
+import fr.depix.bulb_manager.bulb.domain.codec.BulbEventCodec;
+import fr.depix.bulb_manager.bulb.domain.command.BulbCommand;
+import fr.depix.bulb_manager.bulb.domain.command.BulbTurnOff;
+import fr.depix.bulb_manager.bulb.domain.command.BulbTurnOn;
+import fr.depix.bulb_manager.bulb.domain.command.CreateBulB;
+import fr.depix.bulb_manager.bulb.domain.event.BulbCreated;
+import fr.depix.bulb_manager.bulb.domain.event.BulbEvent;
+import fr.depix.bulb_manager.bulb.domain.event.BulbSwitchedOff;
+import fr.depix.bulb_manager.bulb.domain.event.BulbSwitchedOn;
+import fr.depix.bulb_manager.bulb.domain.event.BulbWentOut;
+import fr.depix.bulb_manager.framework.annotation.Event;
+import fr.depix.bulb_manager.framework.codec.Codec;
+import fr.depix.bulb_manager.framework.codec.SealedCodec;
+import fr.depix.bulb_manager.framework.codec.Varints;
+import org.assertj.core.api.Assertions;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
+
+class CodecTest {
+
+    @Test
+    @DisplayName("Given every bulb event, when I encode and decode it, then I get it back in its announced size")
+    void eventRoundTrip() {
+        final BulbId id = new BulbId(42L);
+        final Instant date = Instant.parse("2026-01-01T10:15:30.123456789Z");
+        final List<BulbEvent> events = List.of(
+                new BulbCreated(id, UUID.randomUUID(), 0L, date),
+                new BulbSwitchedOn(id, UUID.randomUUID(), 1L, date),
+                new BulbSwitchedOff(id, UUID.randomUUID(), 2L, date),
+                new BulbWentOut(id, UUID.randomUUID(), 3L, date)
+        );
+
+        Assertions.assertThat(events).allSatisfy(event -> Assertions.assertThat(roundTrip(new BulbEventCodec(), event)).isEqualTo(event));
+        // 5 bytes of type and version header included
+        Assertions.assertThat(new BulbEventCodec().sizeOf(events.getFirst())).isLessThanOrEqualTo(32);
+    }
+
+    @Test
+    @DisplayName("Given every bulb state, when I encode and decode it, then I get it back")
+    void aggregateRoundTrip() {
+        final BulbId id = new BulbId(-7L);
+        final List<BulbAggregate> bulbs = List.of(
+                new InitialBulb(id),
+                new OnBulb(id, new Count(1), 1L),
+                new OffBulb(id, new Count(Integer.MAX_VALUE), Long.MAX_VALUE),
+                new WentOutBulb(id, Long.MIN_VALUE)
+        );
+
+        Assertions.assertThat(bulbs).allSatisfy(bulb -> Assertions.assertThat(roundTrip(new BulbAggregateCodec(), bulb)).isEqualTo(bulb));
+    }
+
+    @Test
+    @DisplayName("Given every bulb command, when I encode and decode it, then I get it back with its zone")
+    void commandRoundTrip() {
+        final BulbId id = new BulbId(3L);
+        final ZonedDateTime date = ZonedDateTime.of(2026, 3, 29, 2, 30, 0, 0, ZoneId.of("Europe/Paris"));
+        final List<BulbCommand> commands = List.of(
+                new CreateBulB(id, date),
+                new BulbTurnOn(id, 0L, date, Optional.of(UUID.randomUUID())),
+                new BulbTurnOff(id, 1L, date.withZoneSameInstant(ZoneOffset.ofHours(-3)))
+        );
+
+        Assertions.assertThat(commands).allSatisfy(command -> Assertions.assertThat(roundTrip(new BulbCommandCodec(), command)).isEqualTo(command));
+    }
+
+    @Test
+    @DisplayName("Given boundary values, when I write varints, then they use the announced number of bytes")
+    void varints() {
+        final ByteBuffer buffer = ByteBuffer.allocate(16);
+        for (long value : new long[]{0L, 127L, 128L, -1L, Long.MAX_VALUE, Long.MIN_VALUE}) {
+            Varints.putSigned(buffer.clear(), value);
+            Assertions.assertThat(buffer.position()).isEqualTo(Varints.sizeOfSigned(value));
+            Assertions.assertThat(Varints.getSigned(buffer.flip())).isEqualTo(value);
+        }
+    }
+
+    @Test
+    @DisplayName("Given a hierarchy with an unsupported component, when I build its codec, then it is refused")
+    void refuseUnsupportedComponent() {
+        Assertions.assertThatThrownBy(() -> new SealedCodec<>(Unsupported.class))
+                  .isInstanceOf(IllegalArgumentException.class)
+                  .hasMessageContaining(Thread.class.getName());
+    }
+
+    @Test
+    @DisplayName("Given events stored by type and version, when I read them with reordered or upgraded subtypes, then types match and unknown versions fail")
+    void eventHeader() {
+        final BulbId id = new BulbId(1L);
+        final Moved moved = new Moved(id, UUID.randomUUID(), 0L, Instant.EPOCH);
+        final ByteBuffer buffer = ByteBuffer.allocate(new SealedCodec<>(Forward.class).sizeOf(moved));
+        new SealedCodec<>(Forward.class).encode(moved, buffer);
+
+        Assertions.assertThat(new SealedCodec<>(Backward.class).decode(buffer.flip())).isEqualTo(moved);
+        Assertions.assertThatThrownBy(() -> new SealedCodec<>(Upgraded.class).decode(buffer.flip()))
+                  .isInstanceOf(IllegalArgumentException.class)
+                  .hasMessageContaining("Unknown version 1 of event Moved");
+    }
+
+    private static <T> T roundTrip(Codec<T> codec, T value) {
+        final ByteBuffer buffer = ByteBuffer.allocate(codec.sizeOf(value));
+        codec.encode(value, buffer);
+        Assertions.assertThat(buffer.hasRemaining()).isFalse();
+        return codec.decode(buffer.flip());
+    }
+
+    public sealed interface Unsupported permits WithThread {
+    }
+
+    public record WithThread(Thread thread) implements Unsupported {
+    }
+
+    public sealed interface Forward extends Event<BulbId> permits Renamed, Moved {
+    }
+
+    public sealed interface Backward extends Event<BulbId> permits Moved, Renamed {
+    }
+
+    public sealed interface Upgraded extends Event<BulbId> permits Renamed, MovedTwice {
+    }
+
+    public record Renamed(BulbId aggregateId, UUID eventId, Long aggregateVersion, Instant eventDate) implements Forward, Backward, Upgraded {
+
+        @Override
+        public String eventType() {
+            return "Renamed";
+        }
+
+        @Override
+        public Long eventVersion() {
+            return 1L;
+        }
+    }
+
+    public record Moved(BulbId aggregateId, UUID eventId, Long aggregateVersion, Instant eventDate) implements Forward, Backward {
+
+        @Override
+        public String eventType() {
+            return "Moved";
+        }
+
+        @Override
+        public Long eventVersion() {
+            return 1L;
+        }
+    }
+
+    public record MovedTwice(BulbId aggregateId, UUID eventId, Long aggregateVersion, Instant eventDate, int times) implements Upgraded {
+
+        @Override
+        public String eventType() {
+            return "Moved";
+        }
+
+        @Override
+        public Long eventVersion() {
+            return 2L;
+        }
+    }
+}
@@ -0,0 +1,91 @@
+package fr.depix.bulb_manager;
+
+import fr.depix.bulb_manager.bulb.domain.BulbDomain;
+import fr.depix.bulb_manager.bulb.domain.aggregate.BulbAggregate;
+import fr.depix.bulb_manager.bulb.domain.aggregate.id.BulbId;
+import fr.depix.bulb_manager.bulb.domain.command.BulbTurnOff;
+import fr.depix.bulb_manager.bulb.domain.command.BulbTurnOn;
+import fr.depix.bulb_manager.bulb.domain.command.CreateBulB;
+import fr.depix.bulb_manager.bulb.domain.service.BulbService;
+import fr.depix.bulb_manager.bulb.infra.InMemoryRepository;
+import fr.depix.bulb_manager.framework.metrics.MicrometerCommandMetrics;
+import fr.depix.bulb_manager.framework.service.CommandHandler;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.assertj.core.api.Assertions;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.time.ZonedDateTime;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+class CommandMetricsTest {
+
+    final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+    final BulbService bulbService = new BulbService(new InMemoryRepository(), new MicrometerCommandMetrics(registry, "bulb"));
+
+    @Test
+    @DisplayName("Given a registry, when I handle commands, then each phase is timed by command type and outcome")
+    void phasesAreTimed() {
+        bulbService.handleCommand(new CreateBulB(new BulbId(1L), ZonedDateTime.now()));
+        bulbService.handleCommand(new BulbTurnOn(new BulbId(1L), 0L, ZonedDateTime.now()));
+        bulbService.handleCommand(new BulbTurnOn(new BulbId(2L), 0L, ZonedDateTime.now()));
+
+        Assertions.assertThat(registry.get("decider.command.phase").tags("command", "BulbTurnOn", "phase", "save", "outcome", "success").timer().count()).isEqualTo(1L);
+        Assertions.assertThat(registry.get("decider.command.phase").tags("command", "BulbTurnOn", "phase", "decide", "outcome", "error").timer().count()).isEqualTo(1L);
+        Assertions.assertThat(registry.get("decider.command.phase").tags("command", "BulbTurnOn", "phase", "save", "outcome", "error").timer().count()).isZero();
+        Assertions.assertThat(registry.get("decider.command").tags("domain", "bulb", "command", "CreateBulB", "outcome", "success").timer().count()).isEqualTo(1L);
+    }
+
+    @Test
+    @DisplayName("Given a bulb that went out, when I send it a command, then its rejection is timed too")
+    void terminalRejectionIsTimed() {
+        final BulbId bulbId = new BulbId(3L);
+        final var commandHandler = new CommandHandler<>(new BulbDomain(new InMemoryRepository()), new MicrometerCommandMetrics(registry, "bulb"));
+        commandHandler.handle(new CreateBulB(bulbId, ZonedDateTime.now()));
+        for (long version = 0; version < 4; version += 2) {
+            commandHandler.handle(new BulbTurnOn(bulbId, version, ZonedDateTime.now()));
+            commandHandler.handle(new BulbTurnOff(bulbId, version + 1, ZonedDateTime.now()));
+        }
+        commandHandler.handle(new BulbTurnOn(bulbId, 4L, ZonedDateTime.now()));
+
+        commandHandler.handle(new BulbTurnOn(bulbId, 5L, ZonedDateTime.now()));
+
+        final Timer rejected = registry.get("decider.command").tags("domain", "bulb", "command", "BulbTurnOn", "outcome", "error").timer();
+        Assertions.assertThat(rejected.count()).isEqualTo(1L);
+        Assertions.assertThat(rejected.totalTime(TimeUnit.NANOSECONDS)).isPositive();
+    }
+
+    @Test
+    @DisplayName("Given a repository that fails, when a command throws, then it is timed as an error")
+    void failureIsTimed() {
+        final InMemoryRepository failing = new InMemoryRepository() {
+            @Override
+            public Optional<BulbAggregate> findAggregateById(BulbId id) {
+                throw new IllegalStateException("Repository unavailable");
+            }
+        };
+        final var commandHandler = new CommandHandler<>(new BulbDomain(failing), new MicrometerCommandMetrics(registry, "bulb"));
+
+        Assertions.assertThatThrownBy(() -> commandHandler.handle(new CreateBulB(new BulbId(4L), ZonedDateTime.now())))
+                  .isInstanceOf(IllegalStateException.class);
+
+        Assertions.assertThat(registry.get("decider.command").tags("command", "CreateBulB", "outcome", "error").timer().count()).isEqualTo(1L);
+    }
+
+    @Test
+    @DisplayName("Given a burst of commands, when I handle them together, then each command is timed")
+    void burstIsTimed() {
+        final BulbId bulbId = new BulbId(5L);
+        bulbService.handleCommands(List.of(
+                new CreateBulB(bulbId, ZonedDateTime.now()),
+                new BulbTurnOn(bulbId, 0L, ZonedDateTime.now()),
+                new BulbTurnOn(new BulbId(6L), 0L, ZonedDateTime.now())));
+
+        Assertions.assertThat(registry.get("decider.command").tags("command", "BulbTurnOn", "outcome", "success").timer().count()).isEqualTo(1L);
+        Assertions.assertThat(registry.get("decider.command").tags("command", "BulbTurnOn", "outcome", "error").timer().count()).isEqualTo(1L);
+        Assertions.assertThat(registry.get("decider.command.phase").tags("command", "CreateBulB", "phase", "save", "outcome", "success").timer().count()).isEqualTo(1L);
+    }
+}
@@ -0,0 +1,32 @@
+package fr.depix.bulb_manager;
+
+import fr.depix.bulb_manager.framework.annotation.EventIdGenerator;
+import org.assertj.core.api.Assertions;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.util.List;
+import java.util.UUID;
+import java.util.stream.Stream;
+
+class EventIdGeneratorTest {
+
+    @Test
+    @DisplayName("Given a frozen clock, when I generate many ids, then they are strictly increasing version 7 ids")
+    void timeOrdered() {
+        final Instant now = Instant.parse("2026-01-01T00:00:00Z");
+        final EventIdGenerator generator = EventIdGenerator.timeOrdered(Clock.fixed(now, ZoneOffset.UTC));
+
+        final List<UUID> ids = Stream.generate(generator::nextId).limit(20_000).toList();
+
+        Assertions.assertThat(ids).isSortedAccordingTo(UUID::compareTo).doesNotHaveDuplicates();
+        Assertions.assertThat(ids).allSatisfy(id -> {
+            Assertions.assertThat(id.version()).isEqualTo(7);
+            Assertions.assertThat(id.variant()).isEqualTo(2);
+        });
+        Assertions.assertThat(ids.getFirst().getMostSignificantBits() >>> 16).isEqualTo(now.toEpochMilli());
+    }
+}
@@ -0,0 +1,215 @@
+package fr.depix.bulb_manager;
+
+import fr.depix.bulb_manager.bulb.domain.BulbDomain;
+import fr.depix.bulb_manager.bulb.domain.aggregate.BulbAggregate;
+import fr.depix.bulb_manager.bulb.domain.aggregate.InitialBulb;
+import fr.depix.bulb_manager.bulb.domain.aggregate.id.BulbId;
+import fr.depix.bulb_manager.bulb.domain.codec.BulbAggregateCodec;
+import fr.depix.bulb_manager.bulb.domain.codec.BulbEventCodec;
+import fr.depix.bulb_manager.bulb.domain.command.BulbTurnOff;
+import fr.depix.bulb_manager.bulb.domain.command.BulbTurnOn;
+import fr.depix.bulb_manager.bulb.domain.command.CreateBulB;
+import fr.depix.bulb_manager.bulb.domain.event.BulbCreated;
+import fr.depix.bulb_manager.bulb.domain.event.BulbEvent;
+import fr.depix.bulb_manager.bulb.domain.event.BulbSwitchedOff;
+import fr.depix.bulb_manager.bulb.domain.event.BulbSwitchedOn;
+import fr.depix.bulb_manager.bulb.infra.InMemoryRepository;
+import fr.depix.bulb_manager.framework.annotation.SnapshotStore.Snapshot;
+import fr.depix.bulb_manager.framework.result.Result;
+import fr.depix.bulb_manager.framework.service.CommandHandler;
+import fr.depix.bulb_manager.framework.store.EventSourcedRepository;
+import fr.depix.bulb_manager.framework.store.FileSnapshotStore;
+import fr.depix.bulb_manager.framework.store.SegmentedFileEventStore;
+import fr.depix.bulb_manager.framework.store.SnapshotPolicy;
+import org.assertj.core.api.Assertions;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+class EventStoreTest {
+
+    @TempDir
+    Path directory;
+
+    @Test
+    @DisplayName("Given handled commands, when I reopen the store, then the aggregates are rebuilt from their events")
+    void rebuildFromEvents() {
+        final InMemoryRepository bulbRepository = new InMemoryRepository();
+        try (SegmentedFileEventStore<BulbId, BulbEvent> eventStore = new SegmentedFileEventStore<>(directory, new BulbEventCodec(), 512, 16)) {
+            final BulbDomain domain = new BulbDomain(bulbRepository, eventStore);
+            final var commandHandler = new CommandHandler<>(domain);
+            for (long id = 1; id <= 20; id++) {
+                final BulbId bulbId = new BulbId(id);
+                commandHandler.handle(new CreateBulB(bulbId, ZonedDateTime.now()));
+                commandHandler.handle(new BulbTurnOn(bulbId, 0L, ZonedDateTime.now()));
+                commandHandler.handle(new BulbTurnOff(bulbId, 1L, ZonedDateTime.now()));
+            }
+        }
+
+        try (SegmentedFileEventStore<BulbId, BulbEvent> eventStore = new SegmentedFileEventStore<>(directory, new BulbEventCodec(), 512, 16)) {
+            final EventSourcedRepository<BulbAggregate, BulbId, BulbEvent> eventSourced = new EventSourcedRepository<>(eventStore, new BulbDomain(bulbRepository).evolve());
+            for (long id = 1; id <= 20; id++)
+                Assertions.assertThat(eventSourced.findAggregateById(new BulbId(id))).isEqualTo(bulbRepository.findAggregateById(new BulbId(id)));
+
+            final List<BulbEvent> events = new ArrayList<>();
+            eventStore.replay(new BulbId(7L), events::add);
+            Assertions.assertThat(events).extracting(BulbEvent::eventType).containsExactly("BulbCreated", "BulbSwitchedOn", "BulbSwitchedOff");
+        }
+    }
+
+    @Test
+    @DisplayName("Given a stream, when I append with a stale expected version, then the append is refused")
+    void refuseStaleAppend() {
+        try (SegmentedFileEventStore<BulbId, BulbEvent> eventStore = new SegmentedFileEventStore<>(directory, new BulbEventCodec())) {
+            final BulbId bulbId = new BulbId(1L);
+            final List<BulbEvent> created = List.of(new BulbCreated(bulbId, UUID.randomUUID(), 0L, Instant.now()));
+
+            Assertions.assertThat(eventStore.append(bulbId, Optional.empty(), 0L, created)).isTrue();
+            Assertions.assertThat(eventStore.append(bulbId, Optional.empty(), 0L, created)).isFalse();
+            Assertions.assertThat(eventStore.append(bulbId, Optional.of(0L), 0L, created)).isTrue();
+        }
+    }
+
+    @Test
+    @DisplayName("Given a repository that lags behind the event log, when I handle commands, then it catches up with the log instead of conflicting forever")
+    void repairLaggingRepository() {
+        final BulbId bulbId = new BulbId(1L);
+        try (SegmentedFileEventStore<BulbId, BulbEvent> eventStore = new SegmentedFileEventStore<>(directory, new BulbEventCodec())) {
+            new CommandHandler<>(new BulbDomain(new InMemoryRepository(), eventStore)).handle(new CreateBulB(bulbId, ZonedDateTime.now()));
+
+            final InMemoryRepository lagging = new InMemoryRepository();
+            Assertions.assertThat(new CommandHandler<>(new BulbDomain(lagging, eventStore)).handle(new CreateBulB(bulbId, ZonedDateTime.now())))
+                      .isInstanceOf(Result.Success.class);
+            Assertions.assertThat(lagging.findAggregateById(bulbId)).contains(new InitialBulb(bulbId));
+            Assertions.assertThat(eventStore.sequence(bulbId)).isEqualTo(2L);
+
+            final AtomicBoolean failed = new AtomicBoolean();
+            final InMemoryRepository failingOnce = new InMemoryRepository() {
+                @Override
+                public boolean compareAndSave(Optional<BulbAggregate> expected, BulbAggregate newState) {
+                    return failed.compareAndSet(false, true) ? false : super.compareAndSave(expected, newState);
+                }
+            };
+            failingOnce.save(new InitialBulb(bulbId));
+            Assertions.assertThat(new CommandHandler<>(new BulbDomain(failingOnce, eventStore)).handle(new BulbTurnOn(bulbId, 0L, ZonedDateTime.now())))
+                      .isInstanceOf(Result.Success.class);
+            Assertions.assertThat(failingOnce.findAggregateById(bulbId)).map(BulbAggregate::isTurnOn).contains(true);
+        }
+    }
+
+    @Test
+    @DisplayName("Given an event the codec can not encode, when I append it, then only its append fails and the store is refused once closed")
+    void failedEncoding() {
+        final BulbId failing = new BulbId(2L);
+        final BulbEventCodec codec = new BulbEventCodec() {
+            @Override
+            public void encode(BulbEvent event, ByteBuffer buffer) {
+                if (event.aggregateId().equals(failing))
+                    throw new IllegalArgumentException("Unencodable event");
+                super.encode(event, buffer);
+            }
+        };
+        final BulbId bulbId = new BulbId(1L);
+        final SegmentedFileEventStore<BulbId, BulbEvent> eventStore = new SegmentedFileEventStore<>(directory, codec);
+        try (eventStore) {
+            Assertions.assertThatThrownBy(() -> eventStore.append(failing, Optional.empty(), 0L, List.of(new BulbCreated(failing, UUID.randomUUID(), 0L, Instant.now()))))
+                      .hasRootCauseMessage("Unencodable event");
+            Assertions.assertThat(eventStore.append(bulbId, Optional.empty(), 0L, List.of(new BulbCreated(bulbId, UUID.randomUUID(), 0L, Instant.now())))).isTrue();
+            Assertions.assertThat(eventStore.sequence(failing)).isZero();
+            Assertions.assertThat(eventStore.sequence(bulbId)).isEqualTo(1L);
+        }
+
+        Assertions.assertThatThrownBy(() -> eventStore.append(bulbId, Optional.of(0L), 1L, List.of(new BulbSwitchedOn(bulbId, UUID.randomUUID(), 1L, Instant.now()))))
+                  .isInstanceOf(IllegalStateException.class);
+    }
+
+    @Test
+    @DisplayName("Given a snapshot, when I load the bulb, then only the events after the snapshot are replayed")
+    void tailOnlyReplay() {
+        final InMemoryRepository bulbRepository = new InMemoryRepository();
+        final BulbId bulbId = new BulbId(1L);
+        try (SegmentedFileEventStore<BulbId, BulbEvent> eventStore = new SegmentedFileEventStore<>(directory.resolve("events"), new BulbEventCodec());
+             FileSnapshotStore<BulbAggregate, BulbId> snapshotStore = new FileSnapshotStore<>(directory.resolve("snapshots"), new BulbAggregateCodec())) {
+            final BulbDomain domain = new BulbDomain(bulbRepository, eventStore);
+            final EventSourcedRepository<BulbAggregate, BulbId, BulbEvent> eventSourced = new EventSourcedRepository<>(eventStore, domain.evolve(), snapshotStore, SnapshotPolicy.everyEvents(2));
+            final var commandHandler = new CommandHandler<>(domain);
+
+            commandHandler.handle(new CreateBulB(bulbId, ZonedDateTime.now()));
+            commandHandler.handle(new BulbTurnOn(bulbId, 0L, ZonedDateTime.now()));
+            Assertions.assertThat(eventSourced.findAggregateById(bulbId)).isEqualTo(bulbRepository.findAggregateById(bulbId));
+            commandHandler.handle(new BulbTurnOff(bulbId, 1L, ZonedDateTime.now()));
+
+            Assertions.assertThat(eventSourced.findAggregateById(bulbId)).isEqualTo(bulbRepository.findAggregateById(bulbId));
+            Assertions.assertThat(eventStore.replay(bulbId, 2L, ignored -> {}).events()).isEqualTo(1L);
+        }
+
+        try (FileSnapshotStore<BulbAggregate, BulbId> snapshotStore = new FileSnapshotStore<>(directory.resolve("snapshots"), new BulbAggregateCodec())) {
+            Assertions.assertThat(snapshotStore.latest(bulbId)).map(Snapshot::sequence).contains(2L);
+            Assertions.assertThat(snapshotStore.latest(bulbId)).map(Snapshot::state).map(BulbAggregate::isTurnOn).contains(true);
+        }
+    }
+
+    @Test
+    @DisplayName("Given a bulb history, when I look it up at a past instant or version, then I get the state it had then")
+    void pointInTime() {
+        final BulbId bulbId = new BulbId(1L);
+        final Instant created = Instant.parse("2026-01-01T14:00:00Z");
+        try (SegmentedFileEventStore<BulbId, BulbEvent> eventStore = new SegmentedFileEventStore<>(directory.resolve("events"), new BulbEventCodec());
+             FileSnapshotStore<BulbAggregate, BulbId> snapshotStore = new FileSnapshotStore<>(directory.resolve("snapshots"), new BulbAggregateCodec())) {
+            eventStore.append(bulbId, Optional.empty(), 0L, List.of(new BulbCreated(bulbId, UUID.randomUUID(), 0L, created)));
+            eventStore.append(bulbId, Optional.of(0L), 1L, List.of(new BulbSwitchedOn(bulbId, UUID.randomUUID(), 0L, created.plusSeconds(60))));
+            eventStore.append(bulbId, Optional.of(1L), 2L, List.of(new BulbSwitchedOff(bulbId, UUID.randomUUID(), 1L, created.plusSeconds(120))));
+            final EventSourcedRepository<BulbAggregate, BulbId, BulbEvent> eventSourced = new EventSourcedRepository<>(eventStore, new BulbDomain(new InMemoryRepository()).evolve(), snapshotStore, SnapshotPolicy.everyEvents(1));
+            Assertions.assertThat(eventSourced.findAggregateById(bulbId)).map(BulbAggregate::aggregateVersion).contains(2L);
+
+            Assertions.assertThat(eventSourced.findAggregateAt(bulbId, created.minusSeconds(1))).isEmpty();
+            Assertions.assertThat(eventSourced.findAggregateAt(bulbId, created)).contains(new InitialBulb(bulbId));
+            Assertions.assertThat(eventSourced.findAggregateAt(bulbId, created.plusSeconds(90))).map(BulbAggregate::isTurnOn).contains(true);
+            Assertions.assertThat(eventSourced.findAggregateAtVersion(bulbId, 1L)).map(BulbAggregate::aggregateVersion).contains(1L);
+            Assertions.assertThat(eventSourced.findAggregateAtVersion(bulbId, 5L)).isEmpty();
+        }
+    }
+
+    @Test
+    @DisplayName("Given long interleaved streams spread over segments, when I reopen the store and look them up, then every range, instant and version is found")
+    void longStreams() {
+        final BulbId bulbId = new BulbId(1L);
+        final BulbId otherId = new BulbId(2L);
+        final Instant created = Instant.parse("2026-01-01T14:00:00Z");
+        final List<BulbEvent> appended = new ArrayList<>();
+        try (SegmentedFileEventStore<BulbId, BulbEvent> eventStore = new SegmentedFileEventStore<>(directory, new BulbEventCodec(), 512, 16)) {
+            for (long version = 0; version < 50; version++)
+                for (BulbId id : List.of(bulbId, otherId)) {
+                    final Instant date = created.plusSeconds(version);
+                    final BulbEvent event = version == 0 ? new BulbCreated(id, UUID.randomUUID(), 0L, date)
+                            : version % 2 == 1 ? new BulbSwitchedOn(id, UUID.randomUUID(), version - 1, date)
+                            : new BulbSwitchedOff(id, UUID.randomUUID(), version - 1, date);
+                    eventStore.append(id, version == 0 ? Optional.empty() : Optional.of(version - 1), version, List.of(event));
+                    if (id.equals(bulbId))
+                        appended.add(event);
+                }
+        }
+
+        try (SegmentedFileEventStore<BulbId, BulbEvent> eventStore = new SegmentedFileEventStore<>(directory, new BulbEventCodec(), 512, 16)) {
+            final List<BulbEvent> replayed = new ArrayList<>();
+            Assertions.assertThat(eventStore.replay(bulbId, 15L, 35L, replayed::add).events()).isEqualTo(20L);
+            Assertions.assertThat(replayed).containsExactlyElementsOf(appended.subList(15, 35));
+            Assertions.assertThat(eventStore.sequence(bulbId)).isEqualTo(50L);
+            Assertions.assertThat(eventStore.sequenceAt(bulbId, created.minusSeconds(1))).isZero();
+            Assertions.assertThat(eventStore.sequenceAt(bulbId, created.plusSeconds(33))).isEqualTo(34L);
+            Assertions.assertThat(eventStore.sequenceAt(bulbId, created.plusSeconds(100))).isEqualTo(50L);
+            Assertions.assertThat(eventStore.sequenceOfVersion(bulbId, 17L)).hasValue(18L);
+            Assertions.assertThat(eventStore.sequenceOfVersion(bulbId, 60L)).isEmpty();
+        }
+    }
+}
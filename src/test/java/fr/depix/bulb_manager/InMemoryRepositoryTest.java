@@ -0,0 +1,83 @@
+package fr.depix.bulb_manager;
+
+import fr.depix.bulb_manager.bulb.domain.BulbValidationError;
+import fr.depix.bulb_manager.bulb.domain.aggregate.BulbAggregate;
+import fr.depix.bulb_manager.bulb.domain.aggregate.Count;
+import fr.depix.bulb_manager.bulb.domain.aggregate.InitialBulb;
+import fr.depix.bulb_manager.bulb.domain.aggregate.OnBulb;
+import fr.depix.bulb_manager.bulb.domain.aggregate.id.BulbId;
+import fr.depix.bulb_manager.bulb.domain.command.BulbTurnOn;
+import fr.depix.bulb_manager.bulb.domain.command.CreateBulB;
+import fr.depix.bulb_manager.bulb.domain.event.BulbEvent;
+import fr.depix.bulb_manager.bulb.domain.service.BulbService;
+import fr.depix.bulb_manager.bulb.infra.InMemoryRepository;
+import fr.depix.bulb_manager.framework.result.Result;
+import org.assertj.core.api.Assertions;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.time.ZonedDateTime;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.IntStream;
+
+class InMemoryRepositoryTest {
+
+    final InMemoryRepository bulbRepository = new InMemoryRepository();
+    final BulbService bulbService = new BulbService(bulbRepository);
+
+    @Test
+    @DisplayName("Given two bulbs, when I look one up by id, then I get that bulb")
+    void keyedById() {
+        bulbService.handleCommand(new CreateBulB(new BulbId(1L), ZonedDateTime.now()));
+        bulbService.handleCommand(new CreateBulB(new BulbId(2L), ZonedDateTime.now()));
+        bulbService.handleCommand(new BulbTurnOn(new BulbId(2L), 0L, ZonedDateTime.now()));
+
+        Assertions.assertThat(bulbRepository.findAggregateById(new BulbId(1L))).get().extracting(BulbAggregate::isTurnOn).isEqualTo(false);
+        Assertions.assertThat(bulbRepository.findAggregateById(new BulbId(2L))).get().extracting(BulbAggregate::isTurnOn).isEqualTo(true);
+        Assertions.assertThat(bulbRepository.findAggregateById(new BulbId(3L))).isEmpty();
+    }
+
+    @Test
+    @DisplayName("Given a saved bulb, when I save with a stale expected version, then the save is refused")
+    void compareAndSaveRefusesStaleVersion() {
+        final BulbAggregate initial = new InitialBulb(new BulbId(1L));
+        final BulbAggregate on = new OnBulb(initial);
+        bulbRepository.save(initial);
+
+        Assertions.assertThat(bulbRepository.compareAndSave(Optional.of(initial), on)).isTrue();
+        Assertions.assertThat(bulbRepository.compareAndSave(Optional.of(initial), new OnBulb(new BulbId(1L), new Count(5), 1L))).isFalse();
+        Assertions.assertThat(bulbRepository.compareAndSave(Optional.empty(), initial)).isFalse();
+        Assertions.assertThat(bulbRepository.findAggregateById(new BulbId(1L))).contains(on);
+    }
+
+    @Test
+    @DisplayName("Given a bulb, when many threads switch it on with the same version, then only one succeeds")
+    void concurrentCommandsOnSameBulb() throws Exception {
+        bulbService.handleCommand(new CreateBulB(new BulbId(1L), ZonedDateTime.now()));
+
+        final List<Callable<Result<BulbEvent, BulbValidationError>>> commands = IntStream.range(0, 64)
+                .<Callable<Result<BulbEvent, BulbValidationError>>>mapToObj(i -> () -> bulbService.handleCommand(new BulbTurnOn(new BulbId(1L), 0L, ZonedDateTime.now())))
+                .toList();
+
+        final List<Result<BulbEvent, BulbValidationError>> results;
+        try (ExecutorService executor = Executors.newFixedThreadPool(8)) {
+            results = executor.invokeAll(commands).stream().map(InMemoryRepositoryTest::join).toList();
+        }
+
+        Assertions.assertThat(results).filteredOn(result -> result instanceof Result.Success<BulbEvent, BulbValidationError> success && !success.value().isEmpty()).hasSize(1);
+        Assertions.assertThat(bulbRepository.findAggregateById(new BulbId(1L))).get().extracting(BulbAggregate::aggregateVersion).isEqualTo(1L);
+    }
+
+    private static <T> T join(Future<T> future) {
+        try {
+            return future.get();
+        } catch (Exception e) {
+            throw new AssertionError(e);
+        }
+    }
+}
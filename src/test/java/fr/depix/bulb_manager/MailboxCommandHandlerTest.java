@@ -0,0 +1,79 @@
+package fr.depix.bulb_manager;
+
+import fr.depix.bulb_manager.bulb.domain.BulbValidationError;
+import fr.depix.bulb_manager.bulb.domain.aggregate.BulbAggregate;
+import fr.depix.bulb_manager.bulb.domain.aggregate.id.BulbId;
+import fr.depix.bulb_manager.bulb.domain.command.BulbCommand;
+import fr.depix.bulb_manager.bulb.domain.command.BulbTurnOff;
+import fr.depix.bulb_manager.bulb.domain.command.BulbTurnOn;
+import fr.depix.bulb_manager.bulb.domain.command.CreateBulB;
+import fr.depix.bulb_manager.bulb.domain.event.BulbEvent;
+import fr.depix.bulb_manager.bulb.domain.service.BulbService;
+import fr.depix.bulb_manager.bulb.infra.InMemoryRepository;
+import fr.depix.bulb_manager.framework.result.Result;
+import fr.depix.bulb_manager.framework.service.MailboxCommandHandler;
+import org.assertj.core.api.Assertions;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+
+class MailboxCommandHandlerTest {
+
+    final InMemoryRepository bulbRepository = new InMemoryRepository();
+    final BulbService bulbService = new BulbService(bulbRepository);
+
+    @Test
+    @DisplayName("Given many bulbs, when I submit their commands without waiting, then each bulb applies them in order")
+    void commandsOfOneBulbApplyInOrder() {
+        final List<CompletableFuture<Result<BulbEvent, BulbValidationError>>> results = new ArrayList<>();
+        for (long id = 1; id <= 1_000; id++) {
+            final BulbId bulbId = new BulbId(id);
+            results.add(bulbService.handleCommandAsync(new CreateBulB(bulbId, ZonedDateTime.now())));
+            results.add(bulbService.handleCommandAsync(new BulbTurnOn(bulbId, 0L, ZonedDateTime.now())));
+            results.add(bulbService.handleCommandAsync(new BulbTurnOff(bulbId, 1L, ZonedDateTime.now())));
+            results.add(bulbService.handleCommandAsync(new BulbTurnOn(bulbId, 2L, ZonedDateTime.now())));
+        }
+
+        Assertions.assertThat(results).map(CompletableFuture::join)
+                  .allMatch(result -> result instanceof Result.Success<BulbEvent, BulbValidationError> success && success.value().size() == 1);
+        for (long id = 1; id <= 1_000; id++)
+            Assertions.assertThat(bulbRepository.findAggregateById(new BulbId(id))).get()
+                      .extracting(BulbAggregate::aggregateVersion, BulbAggregate::isTurnOn)
+                      .containsExactly(3L, true);
+    }
+
+    @Test
+    @DisplayName("Given a handler that throws an error, when I submit commands of one bulb, then the error fails its command and the next ones still complete")
+    void errorDoesNotOrphanTheMailbox() {
+        final BulbId bulbId = new BulbId(1L);
+        try (MailboxCommandHandler<BulbId, BulbCommand, BulbEvent, BulbValidationError> mailbox = new MailboxCommandHandler<>(command -> {
+            if (command instanceof CreateBulB)
+                throw new AssertionError("Handler crashed");
+            return Result.success(List.of());
+        })) {
+            final CompletableFuture<Result<BulbEvent, BulbValidationError>> crashed = mailbox.submit(new CreateBulB(bulbId, ZonedDateTime.now()));
+            final CompletableFuture<Result<BulbEvent, BulbValidationError>> next = mailbox.submit(new BulbTurnOn(bulbId, 0L, ZonedDateTime.now()));
+
+            Assertions.assertThat(crashed).failsWithin(Duration.ofSeconds(5)).withThrowableOfType(ExecutionException.class).withCauseInstanceOf(AssertionError.class);
+            Assertions.assertThat(next).succeedsWithin(Duration.ofSeconds(5));
+            Assertions.assertThat(mailbox.submit(new BulbTurnOff(bulbId, 1L, ZonedDateTime.now()))).succeedsWithin(Duration.ofSeconds(5));
+        }
+    }
+
+    @Test
+    @DisplayName("Given a closed mailbox handler, when I submit a command, then it fails instead of waiting forever")
+    void submitAfterClose() {
+        final MailboxCommandHandler<BulbId, BulbCommand, BulbEvent, BulbValidationError> mailbox = new MailboxCommandHandler<>(command -> Result.success(List.of()));
+        mailbox.close();
+
+        Assertions.assertThat(mailbox.submit(new CreateBulB(new BulbId(1L), ZonedDateTime.now())))
+                  .failsWithin(Duration.ofSeconds(5)).withThrowableOfType(ExecutionException.class).withCauseInstanceOf(RejectedExecutionException.class);
+    }
+}
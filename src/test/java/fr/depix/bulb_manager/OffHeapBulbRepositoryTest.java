@@ -0,0 +1,83 @@
+package fr.depix.bulb_manager;
+
+import fr.depix.bulb_manager.bulb.domain.aggregate.BulbAggregate;
+import fr.depix.bulb_manager.bulb.domain.aggregate.Count;
+import fr.depix.bulb_manager.bulb.domain.aggregate.InitialBulb;
+import fr.depix.bulb_manager.bulb.domain.aggregate.OffBulb;
+import fr.depix.bulb_manager.bulb.domain.aggregate.OnBulb;
+import fr.depix.bulb_manager.bulb.domain.aggregate.WentOutBulb;
+import fr.depix.bulb_manager.bulb.domain.aggregate.id.BulbId;
+import fr.depix.bulb_manager.bulb.domain.command.BulbTurnOn;
+import fr.depix.bulb_manager.bulb.domain.command.CreateBulB;
+import fr.depix.bulb_manager.bulb.domain.service.BulbService;
+import fr.depix.bulb_manager.bulb.infra.OffHeapBulbRepository;
+import org.assertj.core.api.Assertions;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.time.ZonedDateTime;
+import java.util.List;
+import java.util.Optional;
+
+class OffHeapBulbRepositoryTest {
+
+    @Test
+    @DisplayName("Given bulbs in every state, when I save and look them up, then I get the same bulbs back")
+    void roundTrip() {
+        final OffHeapBulbRepository repository = new OffHeapBulbRepository(16);
+        final List<BulbAggregate> bulbs = List.of(
+                new InitialBulb(new BulbId(1L)),
+                new OnBulb(new BulbId(2L), new Count(1), 1L),
+                new OffBulb(new BulbId(-3L), new Count(2), 2L),
+                new WentOutBulb(new BulbId(Long.MAX_VALUE), 5L)
+        );
+        bulbs.forEach(repository::save);
+
+        Assertions.assertThat(bulbs).allSatisfy(bulb -> Assertions.assertThat(repository.findAggregateById(bulb.id())).contains(bulb));
+        Assertions.assertThat(repository.findAggregateById(new BulbId(4L))).isEmpty();
+        Assertions.assertThat(repository.find()).contains(bulbs.getLast());
+    }
+
+    @Test
+    @DisplayName("Given more bulbs than expected, when I save them, then the tables grow and keep every bulb")
+    void growth() {
+        final OffHeapBulbRepository repository = new OffHeapBulbRepository(16);
+        for (long id = 0; id < 50_000; id++)
+            Assertions.assertThat(repository.compareAndSave(Optional.empty(), new InitialBulb(new BulbId(id)))).isTrue();
+
+        Assertions.assertThat(repository.size()).isEqualTo(50_000L);
+        Assertions.assertThat(repository.compareAndSave(Optional.empty(), new InitialBulb(new BulbId(42L)))).isFalse();
+        Assertions.assertThat(repository.findAggregateById(new BulbId(49_999L))).contains(new InitialBulb(new BulbId(49_999L)));
+    }
+
+    @Test
+    @DisplayName("Given colliding bulbs, when I remove half of them, then the others are still found and stale removals are refused")
+    void removal() {
+        final OffHeapBulbRepository repository = new OffHeapBulbRepository(16);
+        for (long id = 0; id < 20_000; id++)
+            repository.save(new WentOutBulb(new BulbId(id), 3L));
+
+        Assertions.assertThat(repository.compareAndRemove(new WentOutBulb(new BulbId(0L), 2L))).isFalse();
+        for (long id = 0; id < 20_000; id += 2)
+            Assertions.assertThat(repository.compareAndRemove(new WentOutBulb(new BulbId(id), 3L))).isTrue();
+
+        Assertions.assertThat(repository.size()).isEqualTo(10_000L);
+        for (long id = 0; id < 20_000; id++)
+            Assertions.assertThat(repository.findAggregateById(new BulbId(id)).isPresent()).isEqualTo(id % 2 == 1);
+        Assertions.assertThat(repository.compareAndRemove(new WentOutBulb(new BulbId(0L), 3L))).isFalse();
+    }
+
+    @Test
+    @DisplayName("Given the off-heap repository, when I handle commands, then the bulb evolves as with the heap one")
+    void commands() {
+        final OffHeapBulbRepository repository = new OffHeapBulbRepository();
+        final BulbService bulbService = new BulbService(repository);
+        final BulbId bulbId = new BulbId(7L);
+
+        bulbService.handleCommand(new CreateBulB(bulbId, ZonedDateTime.now()));
+        bulbService.handleCommand(new BulbTurnOn(bulbId, 0L, ZonedDateTime.now()));
+
+        Assertions.assertThat(repository.findAggregateById(bulbId)).contains(new OnBulb(bulbId, new Count(1), 1L));
+        Assertions.assertThat(repository.compareAndSave(Optional.of(new InitialBulb(bulbId)), new OffBulb(bulbId, new Count(1), 1L))).isFalse();
+    }
+}
@@ -0,0 +1,129 @@
+package fr.depix.bulb_manager;
+
+import fr.depix.bulb_manager.bulb.domain.BulbDomain;
+import fr.depix.bulb_manager.bulb.domain.aggregate.id.BulbId;
+import fr.depix.bulb_manager.bulb.domain.codec.BulbEventCodec;
+import fr.depix.bulb_manager.bulb.domain.command.BulbTurnOn;
+import fr.depix.bulb_manager.bulb.domain.command.CreateBulB;
+import fr.depix.bulb_manager.bulb.domain.event.BulbCreated;
+import fr.depix.bulb_manager.bulb.domain.event.BulbEvent;
+import fr.depix.bulb_manager.bulb.domain.event.BulbSwitchedOff;
+import fr.depix.bulb_manager.bulb.domain.event.BulbSwitchedOn;
+import fr.depix.bulb_manager.bulb.infra.InMemoryRepository;
+import fr.depix.bulb_manager.framework.outbox.FileOutbox;
+import fr.depix.bulb_manager.framework.service.CommandHandler;
+import fr.depix.bulb_manager.framework.store.SegmentedFileEventStore;
+import org.assertj.core.api.Assertions;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+class OutboxTest {
+
+    private static final Instant NOW = Instant.parse("2026-01-01T00:00:00Z");
+
+    @TempDir
+    Path directory;
+
+    @Test
+    @DisplayName("Given a slow listener, when commits are appended, then appending does not wait and each bulb receives its events in version order")
+    void deliverInOrder() {
+        final BulbId first = new BulbId(1L);
+        final BulbId second = new BulbId(2L);
+        final List<BulbEvent> received = new CopyOnWriteArrayList<>();
+        try (SegmentedFileEventStore<BulbId, BulbEvent> log = log();
+             FileOutbox<BulbId, BulbEvent> outbox = new FileOutbox<>(directory.resolve("outbox"), log, event -> {
+                 sleep(Duration.ofMillis(20));
+                 received.add(event);
+             }, 1024, Duration.ofMillis(200))) {
+            log.append(first, Optional.empty(), 0L, List.of(new BulbCreated(first, UUID.randomUUID(), 0L, NOW)));
+            log.append(second, Optional.empty(), 0L, List.of(new BulbCreated(second, UUID.randomUUID(), 0L, NOW)));
+            log.append(first, Optional.of(0L), 1L, List.of(new BulbSwitchedOn(first, UUID.randomUUID(), 0L, NOW)));
+            log.append(first, Optional.of(1L), 2L, List.of(new BulbSwitchedOff(first, UUID.randomUUID(), 1L, NOW)));
+            Assertions.assertThat(received).isEmpty();
+        }
+
+        Assertions.assertThat(received).filteredOn(event -> event.aggregateId().equals(first))
+                  .extracting(BulbEvent::aggregateVersion)
+                  .containsExactly(0L, 0L, 1L);
+        Assertions.assertThat(received).filteredOn(event -> event.aggregateId().equals(second)).hasSize(1);
+    }
+
+    @Test
+    @DisplayName("Given events that were not delivered, when the outbox is reopened, then they are delivered again")
+    void redeliverAfterRestart() {
+        final BulbId bulbId = new BulbId(1L);
+        final List<BulbEvent> received = new CopyOnWriteArrayList<>();
+        try (SegmentedFileEventStore<BulbId, BulbEvent> log = log()) {
+            try (FileOutbox<BulbId, BulbEvent> ignored = new FileOutbox<>(directory.resolve("outbox"), log, event -> {
+                throw new IllegalStateException("Listener is down");
+            })) {
+                log.append(bulbId, Optional.empty(), 0L, List.of(new BulbCreated(bulbId, UUID.randomUUID(), 0L, NOW)));
+                log.append(bulbId, Optional.of(0L), 1L, List.of(new BulbSwitchedOn(bulbId, UUID.randomUUID(), 0L, NOW)));
+            }
+
+            new FileOutbox<BulbId, BulbEvent>(directory.resolve("outbox"), log, received::add).close();
+            new FileOutbox<BulbId, BulbEvent>(directory.resolve("outbox"), log, received::add).close();
+        }
+
+        Assertions.assertThat(received).extracting(BulbEvent::aggregateVersion).containsExactly(0L, 0L);
+    }
+
+    @Test
+    @DisplayName("Given the commits of one bulb spread over segments and batches, when they are delivered, then they arrive once and in version order")
+    void deliverAcrossBatches() {
+        final BulbId bulbId = new BulbId(1L);
+        final List<BulbEvent> appended = new ArrayList<>();
+        final List<BulbEvent> received = new CopyOnWriteArrayList<>();
+        try (SegmentedFileEventStore<BulbId, BulbEvent> log = log()) {
+            try (FileOutbox<BulbId, BulbEvent> ignored = new FileOutbox<>(directory.resolve("outbox"), log, received::add, 3, Duration.ofMillis(1))) {
+                appended.add(new BulbCreated(bulbId, UUID.randomUUID(), 0L, NOW));
+                log.append(bulbId, Optional.empty(), 0L, List.of(appended.getLast()));
+                for (long version = 1; version < 100; version++) {
+                    appended.add(version % 2 == 1 ? new BulbSwitchedOn(bulbId, UUID.randomUUID(), version - 1, NOW) : new BulbSwitchedOff(bulbId, UUID.randomUUID(), version - 1, NOW));
+                    log.append(bulbId, Optional.of(version - 1), version, List.of(appended.getLast()));
+                }
+            }
+            new FileOutbox<BulbId, BulbEvent>(directory.resolve("outbox"), log, received::add).close();
+        }
+
+        Assertions.assertThat(received).containsExactlyElementsOf(appended);
+    }
+
+    @Test
+    @DisplayName("Given commands handled on top of the event log, when the outbox dispatches, then their events are delivered without being published")
+    void deliverHandledCommands() {
+        final BulbId bulbId = new BulbId(1L);
+        final List<BulbEvent> received = new CopyOnWriteArrayList<>();
+        try (SegmentedFileEventStore<BulbId, BulbEvent> log = log();
+             FileOutbox<BulbId, BulbEvent> ignored = new FileOutbox<>(directory.resolve("outbox"), log, received::add, 16, Duration.ofMillis(1))) {
+            final var commandHandler = new CommandHandler<>(new BulbDomain(new InMemoryRepository(), log));
+            commandHandler.handle(new CreateBulB(bulbId, ZonedDateTime.now()));
+            commandHandler.handle(new BulbTurnOn(bulbId, 0L, ZonedDateTime.now()));
+        }
+
+        Assertions.assertThat(received).extracting(BulbEvent::getClass).containsExactly(BulbCreated.class, BulbSwitchedOn.class);
+    }
+
+    private SegmentedFileEventStore<BulbId, BulbEvent> log() {
+        return new SegmentedFileEventStore<>(directory.resolve("log"), new BulbEventCodec(), 512, 16);
+    }
+
+    private static void sleep(Duration duration) {
+        try {
+            Thread.sleep(duration);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,141 @@
+package fr.depix.bulb_manager;
+
+import fr.depix.bulb_manager.bulb.domain.BulbDomain;
+import fr.depix.bulb_manager.bulb.domain.BulbValidationError;
+import fr.depix.bulb_manager.bulb.domain.aggregate.BulbAggregate;
+import fr.depix.bulb_manager.bulb.domain.aggregate.id.BulbId;
+import fr.depix.bulb_manager.bulb.domain.codec.BulbCommandCodec;
+import fr.depix.bulb_manager.bulb.domain.command.BulbCommand;
+import fr.depix.bulb_manager.bulb.domain.command.BulbTurnOff;
+import fr.depix.bulb_manager.bulb.domain.command.BulbTurnOn;
+import fr.depix.bulb_manager.bulb.domain.command.CreateBulB;
+import fr.depix.bulb_manager.bulb.domain.event.BulbEvent;
+import fr.depix.bulb_manager.bulb.infra.InMemoryRepository;
+import fr.depix.bulb_manager.framework.annotation.EventPublisher;
+import fr.depix.bulb_manager.framework.result.Result;
+import fr.depix.bulb_manager.framework.service.PipelineCommandHandler;
+import org.assertj.core.api.Assertions;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Stream;
+
+class PipelineCommandHandlerTest {
+
+    @TempDir
+    Path directory;
+
+    @Test
+    @DisplayName("Given commands submitted through the pipeline, when I reopen it, then its aggregates start from the repository and the published journal is deleted")
+    void reopenFromRepository() {
+        final Path journal = directory.resolve("commands");
+        final InMemoryRepository bulbRepository = new InMemoryRepository();
+        final List<CompletableFuture<Result<BulbEvent, BulbValidationError>>> results = new ArrayList<>();
+        try (var pipeline = pipeline(bulbRepository, journal, (id, expectedVersion, newVersion, events) -> {})) {
+            for (long id = 1; id <= 500; id++) {
+                final BulbId bulbId = new BulbId(id);
+                results.add(pipeline.submit(new CreateBulB(bulbId, ZonedDateTime.now())));
+                results.add(pipeline.submit(new BulbTurnOn(bulbId, 0L, ZonedDateTime.now())));
+                results.add(pipeline.submit(new BulbTurnOff(bulbId, 1L, ZonedDateTime.now())));
+                results.add(pipeline.submit(new BulbTurnOn(bulbId, id % 2 == 0 ? 2L : 0L, ZonedDateTime.now())));
+            }
+        }
+
+        Assertions.assertThat(results).map(CompletableFuture::join)
+                  .filteredOn(Result.Failure.class::isInstance)
+                  .hasSize(250);
+        Assertions.assertThat(journal.resolve("00000000000000000000.journal")).doesNotExist();
+        for (long id = 1; id <= 500; id++)
+            Assertions.assertThat(bulbRepository.findAggregateById(new BulbId(id))).get()
+                      .extracting(BulbAggregate::aggregateVersion, BulbAggregate::isTurnOn)
+                      .containsExactly(id % 2 == 0 ? 3L : 2L, id % 2 == 0);
+
+        try (var pipeline = pipeline(bulbRepository, journal, (id, expectedVersion, newVersion, events) -> {})) {
+            Assertions.assertThat(pipeline.submit(new BulbTurnOff(new BulbId(2L), 3L, ZonedDateTime.now())).join()).isInstanceOf(Result.Success.class);
+        }
+        Assertions.assertThat(bulbRepository.findAggregateById(new BulbId(2L))).map(BulbAggregate::isTurnOn).contains(false);
+    }
+
+    @Test
+    @DisplayName("Given a save that fails, when I submit the command again, then it is decided on the last saved state")
+    void rollBackFailedSave() {
+        final AtomicBoolean failing = new AtomicBoolean(true);
+        final InMemoryRepository bulbRepository = new InMemoryRepository() {
+            @Override
+            public void saveAll(List<BulbAggregate> newStates) {
+                if (failing.getAndSet(false))
+                    throw new IllegalStateException("Repository unavailable");
+                super.saveAll(newStates);
+            }
+        };
+        final BulbId bulbId = new BulbId(1L);
+        try (var pipeline = pipeline(bulbRepository, directory.resolve("commands"), (id, expectedVersion, newVersion, events) -> {})) {
+            Assertions.assertThat(pipeline.submit(new CreateBulB(bulbId, ZonedDateTime.now()))).failsWithin(Duration.ofSeconds(5));
+
+            Assertions.assertThat(pipeline.submit(new CreateBulB(bulbId, ZonedDateTime.now())).join()).isInstanceOf(Result.Success.class);
+            Assertions.assertThat(pipeline.submit(new BulbTurnOn(bulbId, 0L, ZonedDateTime.now())).join()).isInstanceOf(Result.Success.class);
+        }
+        Assertions.assertThat(bulbRepository.findAggregateById(bulbId)).map(BulbAggregate::aggregateVersion).contains(1L);
+    }
+
+    @Test
+    @DisplayName("Given a crash before commands went through the publish stage, when I reopen the journal, then they are saved and published again")
+    void recoverUnpublishedCommands() throws Exception {
+        final Path journal = directory.resolve("commands");
+        final Path crashed = directory.resolve("crashed");
+        final BulbId lastId = new BulbId(20L);
+        final CountDownLatch saving = new CountDownLatch(1);
+        final CountDownLatch crashTaken = new CountDownLatch(1);
+        final InMemoryRepository savedBeforeCrash = new InMemoryRepository();
+        final InMemoryRepository bulbRepository = new InMemoryRepository() {
+            @Override
+            public void saveAll(List<BulbAggregate> newStates) {
+                // hold the round of the last command until the crash image is taken
+                if (newStates.stream().anyMatch(state -> state.id().equals(lastId)) && saving.getCount() > 0) {
+                    forEachAggregate(savedBeforeCrash::save);
+                    saving.countDown();
+                    try {
+                        crashTaken.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+                super.saveAll(newStates);
+            }
+        };
+        try (var pipeline = pipeline(bulbRepository, journal, (id, expectedVersion, newVersion, events) -> {})) {
+            for (long id = 1; id <= 20; id++) {
+                pipeline.submit(new CreateBulB(new BulbId(id), ZonedDateTime.now()));
+                pipeline.submit(new BulbTurnOn(new BulbId(id), 0L, ZonedDateTime.now()));
+            }
+            saving.await();
+            Files.createDirectories(crashed);
+            try (Stream<Path> files = Files.list(journal)) {
+                for (Path file : files.toList())
+                    Files.copy(file, crashed.resolve(file.getFileName()));
+            }
+            crashTaken.countDown();
+        }
+
+        final List<BulbId> republished = new ArrayList<>();
+        pipeline(savedBeforeCrash, crashed, (id, expectedVersion, newVersion, events) -> republished.add(id)).close();
+
+        Assertions.assertThat(republished).contains(lastId);
+        for (long id = 1; id <= 20; id++)
+            Assertions.assertThat(savedBeforeCrash.findAggregateById(new BulbId(id))).isEqualTo(bulbRepository.findAggregateById(new BulbId(id)));
+    }
+
+    private static PipelineCommandHandler<BulbAggregate, BulbId, BulbCommand, ?, BulbEvent, ?, ?, ?, BulbValidationError> pipeline(InMemoryRepository bulbRepository, Path journal, EventPublisher<BulbId, BulbEvent> publisher) {
+        return new PipelineCommandHandler<>(new BulbDomain(bulbRepository), new BulbCommandCodec(), journal, publisher, 4, 256, 16 * 1024);
+    }
+}
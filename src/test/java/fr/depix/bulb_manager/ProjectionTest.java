@@ -0,0 +1,92 @@
+package fr.depix.bulb_manager;
+
+import fr.depix.bulb_manager.bulb.domain.BulbDomain;
+import fr.depix.bulb_manager.bulb.domain.aggregate.BulbAggregate;
+import fr.depix.bulb_manager.bulb.domain.aggregate.Count;
+import fr.depix.bulb_manager.bulb.domain.aggregate.InitialBulb;
+import fr.depix.bulb_manager.bulb.domain.aggregate.OffBulb;
+import fr.depix.bulb_manager.bulb.domain.aggregate.OnBulb;
+import fr.depix.bulb_manager.bulb.domain.aggregate.id.BulbId;
+import fr.depix.bulb_manager.bulb.domain.command.BulbTurnOn;
+import fr.depix.bulb_manager.bulb.domain.command.CreateBulB;
+import fr.depix.bulb_manager.bulb.domain.event.BulbCreated;
+import fr.depix.bulb_manager.bulb.domain.event.BulbEvent;
+import fr.depix.bulb_manager.bulb.domain.event.BulbSwitchedOn;
+import fr.depix.bulb_manager.bulb.domain.service.BulbService;
+import fr.depix.bulb_manager.bulb.infra.InMemoryRepository;
+import fr.depix.bulb_manager.framework.projection.Projection;
+import org.assertj.core.api.Assertions;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZonedDateTime;
+import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
+
+class ProjectionTest {
+
+    @Test
+    @DisplayName("Given commits published out of order, when I read at least the last version, then the view is reloaded from the repository")
+    void outOfOrderCommits() {
+        final BulbId bulbId = new BulbId(1L);
+        final InMemoryRepository repository = new InMemoryRepository();
+        try (Projection<BulbId, BulbEvent, BulbAggregate> projection = new Projection<>(new BulbDomain(repository), BulbId::id)) {
+            // the command path saves before it publishes
+            repository.save(new OnBulb(new InitialBulb(bulbId)));
+            projection.publish(bulbId, Optional.of(0L), 1L, List.of(new BulbSwitchedOn(bulbId, UUID.randomUUID(), 0L, Instant.now())));
+            projection.publish(bulbId, Optional.empty(), 0L, List.of(new BulbCreated(bulbId, UUID.randomUUID(), 0L, Instant.now())));
+
+            Assertions.assertThat(projection.latest(Duration.ofSeconds(5))).map(BulbAggregate::aggregateVersion).contains(1L);
+            Assertions.assertThat(projection.find(bulbId, 1L, Duration.ofSeconds(5))).map(BulbAggregate::isTurnOn).contains(true);
+        }
+    }
+
+    @Test
+    @DisplayName("Given a view missing the commits before a restore, when a commit arrives, then it is applied on top of the repository state")
+    void gapFilledFromRepository() {
+        final BulbId bulbId = new BulbId(2L);
+        final InMemoryRepository repository = new InMemoryRepository();
+        try (Projection<BulbId, BulbEvent, BulbAggregate> projection = new Projection<>(new BulbDomain(repository), BulbId::id)) {
+            repository.save(new OffBulb(bulbId, new Count(1), 3L));
+            projection.publish(bulbId, Optional.of(3L), 4L, List.of(new BulbSwitchedOn(bulbId, UUID.randomUUID(), 3L, Instant.now())));
+
+            Assertions.assertThat(projection.latest(Duration.ofSeconds(5))).map(BulbAggregate::aggregateVersion).contains(4L);
+            Assertions.assertThat(projection.find(bulbId)).map(BulbAggregate::isTurnOn).contains(true);
+        }
+    }
+
+    @Test
+    @DisplayName("Given more bulbs than views and queued commits, when I read them, then the dropped views are read from the repository")
+    void boundedViews() {
+        final InMemoryRepository repository = new InMemoryRepository();
+        try (Projection<BulbId, BulbEvent, BulbAggregate> projection = new Projection<>(new BulbDomain(repository), BulbId::id, 64, 32, 4, 2)) {
+            for (long id = 0; id < 10_000; id++) {
+                final BulbId bulbId = new BulbId(id);
+                repository.save(new InitialBulb(bulbId));
+                projection.publish(bulbId, Optional.empty(), 0L, List.of(new BulbCreated(bulbId, UUID.randomUUID(), 0L, Instant.now())));
+                repository.save(new OnBulb(new InitialBulb(bulbId)));
+                projection.publish(bulbId, Optional.of(0L), 1L, List.of(new BulbSwitchedOn(bulbId, UUID.randomUUID(), 0L, Instant.now())));
+            }
+
+            Assertions.assertThat(projection.latest(Duration.ofSeconds(5))).isPresent();
+            for (long id = 0; id < 10_000; id++)
+                Assertions.assertThat(projection.find(new BulbId(id))).map(BulbAggregate::isTurnOn).contains(true);
+        }
+    }
+
+    @Test
+    @DisplayName("Given handled commands, when I read a bulb at its new version, then I read my own writes")
+    void readYourWrites() {
+        final BulbService bulbService = new BulbService(new InMemoryRepository());
+        final BulbId bulbId = new BulbId(3L);
+
+        bulbService.handleCommand(new CreateBulB(bulbId, ZonedDateTime.now()));
+        bulbService.handleCommand(new BulbTurnOn(bulbId, 0L, ZonedDateTime.now()));
+
+        Assertions.assertThat(bulbService.findBulb(bulbId, 1L)).map(BulbAggregate::isTurnOn).contains(true);
+        Assertions.assertThat(bulbService.findBulb(new BulbId(4L))).isEmpty();
+    }
+}
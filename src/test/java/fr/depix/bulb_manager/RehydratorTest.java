@@ -0,0 +1,102 @@
+package fr.depix.bulb_manager;
+
+import fr.depix.bulb_manager.bulb.domain.BulbDomain;
+import fr.depix.bulb_manager.bulb.domain.aggregate.BulbAggregate;
+import fr.depix.bulb_manager.bulb.domain.aggregate.WentOutBulb;
+import fr.depix.bulb_manager.bulb.domain.aggregate.id.BulbId;
+import fr.depix.bulb_manager.bulb.domain.codec.BulbAggregateCodec;
+import fr.depix.bulb_manager.bulb.domain.codec.BulbEventCodec;
+import fr.depix.bulb_manager.bulb.domain.command.BulbTurnOff;
+import fr.depix.bulb_manager.bulb.domain.command.BulbTurnOn;
+import fr.depix.bulb_manager.bulb.domain.command.CreateBulB;
+import fr.depix.bulb_manager.bulb.domain.event.BulbEvent;
+import fr.depix.bulb_manager.bulb.infra.InMemoryRepository;
+import fr.depix.bulb_manager.framework.archive.ColdArchive;
+import fr.depix.bulb_manager.framework.archive.ColdArchive.Archived;
+import fr.depix.bulb_manager.framework.service.CommandHandler;
+import fr.depix.bulb_manager.framework.store.Rehydrator;
+import fr.depix.bulb_manager.framework.store.Rehydrator.Progress;
+import fr.depix.bulb_manager.framework.store.SegmentedFileEventStore;
+import org.assertj.core.api.Assertions;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+
+class RehydratorTest {
+
+    @TempDir
+    Path directory;
+
+    @Test
+    @DisplayName("Given an event log, when I rehydrate it in parallel, then every aggregate is rebuilt into the repository and the progress is reported")
+    void rehydrateInParallel() {
+        final InMemoryRepository bulbRepository = new InMemoryRepository();
+        try (SegmentedFileEventStore<BulbId, BulbEvent> eventStore = new SegmentedFileEventStore<>(directory, new BulbEventCodec());
+             ForkJoinPool pool = new ForkJoinPool(4)) {
+            final BulbDomain domain = new BulbDomain(bulbRepository, eventStore);
+            final var commandHandler = new CommandHandler<>(domain);
+            for (long id = 1; id <= 200; id++) {
+                final BulbId bulbId = new BulbId(id);
+                commandHandler.handle(new CreateBulB(bulbId, ZonedDateTime.now()));
+                commandHandler.handle(new BulbTurnOn(bulbId, 0L, ZonedDateTime.now()));
+                if (id % 2 == 0)
+                    commandHandler.handle(new BulbTurnOff(bulbId, 1L, ZonedDateTime.now()));
+            }
+
+            final InMemoryRepository rehydrated = new InMemoryRepository();
+            final Queue<Progress> reports = new ConcurrentLinkedQueue<>();
+            final Progress progress = new Rehydrator<BulbAggregate, BulbId, BulbEvent>(eventStore, domain.evolve(), rehydrated, 16)
+                    .rehydrate(pool, reports::add);
+
+            Assertions.assertThat(progress.aggregates()).isEqualTo(200L);
+            Assertions.assertThat(progress.events()).isEqualTo(500L);
+            Assertions.assertThat(progress.ratio()).isEqualTo(1.0);
+            Assertions.assertThat(reports).hasSizeGreaterThan(1)
+                      .allSatisfy(report -> Assertions.assertThat(report.totalAggregates()).isEqualTo(200L));
+            Assertions.assertThat(rehydrated.size()).isEqualTo(200);
+            for (long id = 1; id <= 200; id++)
+                Assertions.assertThat(rehydrated.findAggregateById(new BulbId(id))).isEqualTo(bulbRepository.findAggregateById(new BulbId(id)));
+        }
+    }
+
+    @Test
+    @DisplayName("Given archived and terminal bulbs, when I rehydrate the event log, then archived bulbs are skipped and terminal ones are tracked")
+    void skipArchivedBulbs() {
+        final BulbId liveId = new BulbId(1L);
+        final BulbId archivedId = new BulbId(2L);
+        final BulbId wentOutId = new BulbId(3L);
+        final InMemoryRepository bulbRepository = new InMemoryRepository();
+        try (SegmentedFileEventStore<BulbId, BulbEvent> eventStore = new SegmentedFileEventStore<>(directory.resolve("events"), new BulbEventCodec());
+             ColdArchive<BulbAggregate, BulbId, BulbEvent> archive = new ColdArchive<>(directory.resolve("archive"), new BulbAggregateCodec(), new BulbEventCodec())) {
+            final var commandHandler = new CommandHandler<>(new BulbDomain(bulbRepository, eventStore));
+            for (BulbId bulbId : List.of(liveId, archivedId, wentOutId))
+                commandHandler.handle(new CreateBulB(bulbId, ZonedDateTime.now()));
+            for (BulbId bulbId : List.of(archivedId, wentOutId))
+                for (long version = 0; version < 5; version++)
+                    commandHandler.handle(version % 2 == 0 ? new BulbTurnOn(bulbId, version, ZonedDateTime.now()) : new BulbTurnOff(bulbId, version, ZonedDateTime.now()));
+            final List<BulbEvent> history = new ArrayList<>();
+            eventStore.replay(archivedId, history::add);
+            archive.archive(List.of(new Archived<>(bulbRepository.findAggregateById(archivedId).orElseThrow(), history)));
+
+            final InMemoryRepository rehydrated = new InMemoryRepository();
+            final BulbDomain restarted = new BulbDomain(rehydrated, eventStore);
+            final Progress progress = new Rehydrator<>(restarted, rehydrated, archive, 16).rehydrate();
+
+            Assertions.assertThat(progress.totalAggregates()).isEqualTo(2L);
+            Assertions.assertThat(rehydrated.findAggregateById(archivedId)).isEmpty();
+            Assertions.assertThat(rehydrated.findAggregateById(liveId)).isEqualTo(bulbRepository.findAggregateById(liveId));
+            Assertions.assertThat(rehydrated.findAggregateById(wentOutId)).get().isInstanceOf(WentOutBulb.class);
+            Assertions.assertThat(restarted.bulbTerminalIds().contains(archivedId)).isTrue();
+            Assertions.assertThat(restarted.bulbTerminalIds().contains(wentOutId)).isTrue();
+            Assertions.assertThat(restarted.bulbTerminalIds().contains(liveId)).isFalse();
+        }
+    }
+}
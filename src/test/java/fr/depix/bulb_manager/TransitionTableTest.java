@@ -0,0 +1,48 @@
+package fr.depix.bulb_manager;
+
+import fr.depix.bulb_manager.bulb.domain.aggregate.BulbAggregate;
+import fr.depix.bulb_manager.bulb.domain.aggregate.InitialBulb;
+import fr.depix.bulb_manager.bulb.domain.aggregate.OnBulb;
+import fr.depix.bulb_manager.bulb.domain.aggregate.id.BulbId;
+import fr.depix.bulb_manager.bulb.domain.command.BulbCommand;
+import fr.depix.bulb_manager.bulb.domain.command.BulbTurnOff;
+import fr.depix.bulb_manager.bulb.domain.command.BulbTurnOn;
+import fr.depix.bulb_manager.bulb.domain.command.CreateBulB;
+import fr.depix.bulb_manager.framework.decision.TransitionTable;
+import org.assertj.core.api.Assertions;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.time.ZonedDateTime;
+import java.util.Optional;
+
+class TransitionTableTest {
+
+    @Test
+    @DisplayName("Given a table missing a combination, when I build it, then the missing transitions are reported")
+    void refuseUnhandledCombination() {
+        final TransitionTable.Builder<BulbAggregate, BulbCommand, String> builder = TransitionTable.<BulbAggregate, BulbCommand, String>builder(BulbAggregate.class, BulbCommand.class)
+                .on(BulbAggregate.class, CreateBulB.class, (bulb, command) -> "create")
+                .on(BulbAggregate.class, BulbTurnOn.class, (bulb, command) -> "on")
+                .on(OnBulb.class, BulbTurnOff.class, (bulb, command) -> "off");
+
+        Assertions.assertThatThrownBy(builder::build)
+                  .isInstanceOf(IllegalStateException.class)
+                  .hasMessageContaining("InitialBulb x BulbTurnOff")
+                  .hasMessageNotContaining("OnBulb x BulbTurnOff");
+        Assertions.assertThatThrownBy(() -> builder.on(OnBulb.class, BulbTurnOn.class, (bulb, command) -> "again"))
+                  .isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    @DisplayName("Given a complete table, when I dispatch, then the transition of the concrete state and command runs")
+    void dispatch() {
+        final TransitionTable<BulbAggregate, BulbCommand, String> table = TransitionTable.<BulbAggregate, BulbCommand, String>builder(BulbAggregate.class, BulbCommand.class)
+                .onAbsent(BulbCommand.class, command -> "absent")
+                .on(BulbAggregate.class, BulbCommand.class, (bulb, command) -> bulb.getClass().getSimpleName() + " " + command.getClass().getSimpleName())
+                .build();
+
+        Assertions.assertThat(table.apply(new InitialBulb(new BulbId(1L)), new BulbTurnOn(new BulbId(1L), 0L, ZonedDateTime.now()))).isEqualTo("InitialBulb BulbTurnOn");
+        Assertions.assertThat(table.apply(Optional.empty(), new CreateBulB(new BulbId(1L), ZonedDateTime.now()))).isEqualTo("absent");
+    }
+}
@@ -0,0 +1,146 @@
+package fr.depix.bulb_manager;
+
+import fr.depix.bulb_manager.bulb.domain.aggregate.BulbAggregate;
+import fr.depix.bulb_manager.bulb.domain.aggregate.InitialBulb;
+import fr.depix.bulb_manager.bulb.domain.aggregate.OffBulb;
+import fr.depix.bulb_manager.bulb.domain.aggregate.OnBulb;
+import fr.depix.bulb_manager.bulb.domain.aggregate.id.BulbId;
+import fr.depix.bulb_manager.bulb.domain.codec.BulbAggregateCodec;
+import fr.depix.bulb_manager.bulb.infra.InMemoryRepository;
+import fr.depix.bulb_manager.framework.repository.WriteBehindRepository;
+import fr.depix.bulb_manager.framework.repository.WriteBehindRepository.Durability;
+import org.assertj.core.api.Assertions;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicInteger;
+
+class WriteBehindRepositoryTest {
+
+    @TempDir
+    Path directory;
+
+    @Test
+    @DisplayName("Given buffered saves of one bulb, when the buffer is flushed, then the backing store writes only the latest")
+    void coalesce() {
+        final CountingRepository backing = new CountingRepository();
+        final BulbId bulbId = new BulbId(1L);
+        try (WriteBehindRepository<BulbAggregate, BulbId> repository = new WriteBehindRepository<>(backing, directory.resolve("journal"), new BulbAggregateCodec(), Durability.BUFFERED, 1024, Duration.ofHours(1))) {
+            BulbAggregate bulb = new InitialBulb(bulbId);
+            Assertions.assertThat(repository.compareAndSave(Optional.empty(), bulb)).isTrue();
+            for (int i = 0; i < 100; i++) {
+                final BulbAggregate next = i % 2 == 0 ? new OnBulb(bulb) : new OffBulb(bulb);
+                Assertions.assertThat(repository.compareAndSave(Optional.of(bulb), next)).isTrue();
+                bulb = next;
+            }
+            Assertions.assertThat(repository.compareAndSave(Optional.of(new InitialBulb(bulbId)), new OnBulb(new InitialBulb(bulbId)))).isFalse();
+            Assertions.assertThat(repository.findAggregateById(bulbId)).contains(bulb);
+            Assertions.assertThat(backing.findAggregateById(bulbId)).isEmpty();
+        }
+
+        Assertions.assertThat(backing.findAggregateById(bulbId)).map(BulbAggregate::aggregateVersion).contains(100L);
+        Assertions.assertThat(backing.saves.get()).isEqualTo(1);
+    }
+
+    @Test
+    @DisplayName("Given buffered saves that were never flushed, when I reopen a copy of the journal, then the latest acknowledged states are replayed")
+    void replayAcknowledgedSaves() throws IOException {
+        final BulbId bulbId = new BulbId(1L);
+        final BulbId otherId = new BulbId(2L);
+        try (WriteBehindRepository<BulbAggregate, BulbId> repository = new WriteBehindRepository<>(new CountingRepository(), directory.resolve("journal"), new BulbAggregateCodec(), Durability.BUFFERED, 1024, Duration.ofHours(1))) {
+            Assertions.assertThat(repository.compareAndSave(Optional.empty(), new InitialBulb(bulbId))).isTrue();
+            Assertions.assertThat(repository.compareAndSave(Optional.of(new InitialBulb(bulbId)), new OnBulb(new InitialBulb(bulbId)))).isTrue();
+            repository.save(new InitialBulb(otherId));
+            // the state of the journal if the process died now
+            Files.copy(directory.resolve("journal"), directory.resolve("crashed"));
+        }
+
+        final CountingRepository backing = new CountingRepository();
+        try (WriteBehindRepository<BulbAggregate, BulbId> ignored = new WriteBehindRepository<>(backing, directory.resolve("crashed"), new BulbAggregateCodec(), Durability.BUFFERED)) {
+            Assertions.assertThat(backing.findAggregateById(bulbId)).contains(new OnBulb(new InitialBulb(bulbId)));
+            Assertions.assertThat(backing.findAggregateById(otherId)).contains(new InitialBulb(otherId));
+        }
+        Assertions.assertThat(Files.size(directory.resolve("crashed"))).isZero();
+    }
+
+    @Test
+    @DisplayName("Given a compacted journal, when I reopen a copy of it, then the saves acknowledged after the compaction are replayed")
+    void replayAfterCompaction() throws IOException {
+        final CountingRepository backing = new CountingRepository();
+        final BulbId bulbId = new BulbId(1L);
+        final BulbId otherId = new BulbId(2L);
+        final BulbId lastId = new BulbId(3L);
+        try (WriteBehindRepository<BulbAggregate, BulbId> repository = new WriteBehindRepository<>(backing, directory.resolve("journal"), new BulbAggregateCodec(), Durability.BUFFERED, 2, Duration.ofHours(1))) {
+            // a full batch wakes the flusher, which compacts the journal down to nothing
+            repository.save(new InitialBulb(bulbId));
+            repository.save(new InitialBulb(otherId));
+            final long deadline = System.nanoTime() + Duration.ofSeconds(5).toNanos();
+            while ((backing.findAggregateById(otherId).isEmpty() || Files.size(directory.resolve("journal")) > 0L) && System.nanoTime() < deadline)
+                Thread.onSpinWait();
+
+            repository.save(new InitialBulb(lastId));
+            Files.copy(directory.resolve("journal"), directory.resolve("crashed"));
+        }
+
+        final CountingRepository replayed = new CountingRepository();
+        try (WriteBehindRepository<BulbAggregate, BulbId> ignored = new WriteBehindRepository<>(replayed, directory.resolve("crashed"), new BulbAggregateCodec(), Durability.BUFFERED)) {
+            Assertions.assertThat(replayed.findAggregateById(lastId)).contains(new InitialBulb(lastId));
+            Assertions.assertThat(replayed.findAggregateById(bulbId)).isEmpty();
+        }
+    }
+
+    @Test
+    @DisplayName("Given ack after flush,when a save returns, then the backing store already holds it")
+    void ackAfterFlush() {
+        final CountingRepository backing = new CountingRepository();
+        final BulbId bulbId = new BulbId(1L);
+        try (WriteBehindRepository<BulbAggregate, BulbId> repository = new WriteBehindRepository<>(backing, directory.resolve("journal"), new BulbAggregateCodec(), Durability.FLUSHED, 1024, Duration.ofHours(1))) {
+            repository.compareAndSave(Optional.empty(), new InitialBulb(bulbId));
+
+            Assertions.assertThat(backing.findAggregateById(bulbId)).contains(new InitialBulb(bulbId));
+        }
+    }
+
+    @Test
+    @DisplayName("Given a flush that failed, when I reopen the journal, then the interrupted batch is replayed")
+    void replayInterruptedBatch() {
+        final CountingRepository failing = new CountingRepository();
+        failing.failing = true;
+        final BulbId bulbId = new BulbId(1L);
+        try (WriteBehindRepository<BulbAggregate, BulbId> repository = new WriteBehindRepository<>(failing, directory.resolve("journal"), new BulbAggregateCodec(), Durability.FLUSHED)) {
+            Assertions.assertThatThrownBy(() -> repository.compareAndSave(Optional.empty(), new InitialBulb(bulbId)))
+                      .isInstanceOf(IllegalStateException.class);
+        }
+
+        final CountingRepository backing = new CountingRepository();
+        try (WriteBehindRepository<BulbAggregate, BulbId> ignored = new WriteBehindRepository<>(backing, directory.resolve("journal"), new BulbAggregateCodec(), Durability.FLUSHED)) {
+            Assertions.assertThat(backing.findAggregateById(bulbId)).contains(new InitialBulb(bulbId));
+        }
+    }
+
+    static class CountingRepository extends InMemoryRepository {
+
+        final AtomicInteger saves = new AtomicInteger();
+        volatile boolean failing;
+
+        @Override
+        public void saveAll(List<BulbAggregate> newStates) {
+            if (failing)
+                throw new IllegalStateException("Backing store unavailable");
+            super.saveAll(newStates);
+        }
+
+        @Override
+        public void save(BulbAggregate newState) {
+            saves.incrementAndGet();
+            super.save(newState);
+        }
+    }
+}